@@ -0,0 +1,153 @@
+package scheduler.bench;
+
+import scheduler.db.ConnectionManager;
+import scheduler.db.ConnectionPool;
+import scheduler.db.MigrationRunner;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.sql.Connection;
+import java.sql.Date;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.UUID;
+
+/**
+ * Points the application at a scratch SQL Server for benchmarking and fills it with generated data.
+ *
+ * The stand-in is a local SQL Server (for example the mcr.microsoft.com/mssql/server container),
+ * since the reserve path relies on T-SQL batches that in-process engines such as H2 do not run.
+ * It is configured through BenchJdbcUrl, BenchUser and BenchPassword. Every trial drops the
+ * tables and recreates them with the migrations, so never point it at a real database.
+ */
+final class DatabaseFixture {
+
+    static final String VACCINE = "bench_vaccine";
+
+    private static final String[] TABLES = {"Waitlist", "Reservations", "Availabilities", "Vaccines", "Patients",
+            "Caregivers", "SchemaHistory"};
+
+    private static PrintStream stdout = System.out;
+
+    private DatabaseFixture() {
+    }
+
+    static void connect(int poolSize) {
+        String url = env("BenchJdbcUrl", "jdbc:sqlserver://localhost:1433;databaseName=scheduler_bench;encrypt=false");
+        ConnectionManager.setPool(new ConnectionPool(url, env("BenchUser", "sa"), env("BenchPassword", ""),
+                poolSize, 30_000, 30_000, 30 * 60_000, 60_000));
+    }
+
+    static void recreateSchema() throws SQLException, IOException {
+        try (Connection con = ConnectionManager.getConnection(); Statement statement = con.createStatement()) {
+            for (String table : TABLES) {
+                statement.executeUpdate("DROP TABLE IF EXISTS " + table);
+            }
+        }
+        MigrationRunner.migrate();
+    }
+
+    static String caregiver(int i) {
+        return "bench_c" + i;
+    }
+
+    static String patient(int i) {
+        return "bench_p" + i;
+    }
+
+    static void seedUsers(int caregivers, int patients) throws SQLException {
+        byte[] blank = new byte[16];
+        try (Connection con = ConnectionManager.getConnection()) {
+            con.setAutoCommit(false);
+            insertUsers(con, "Caregivers", caregivers, blank, true);
+            insertUsers(con, "Patients", patients, blank, false);
+            con.commit();
+        }
+    }
+
+    static void seedVaccine(int doses) throws SQLException {
+        try (Connection con = ConnectionManager.getConnection();
+             PreparedStatement statement = con.prepareStatement("INSERT INTO Vaccines VALUES (?, ?)")) {
+            statement.setString(1, VACCINE);
+            statement.setInt(2, doses);
+            statement.executeUpdate();
+        }
+    }
+
+    // every caregiver is available on every given day
+    static void seedAvailability(int caregivers, Date... days) throws SQLException {
+        try (Connection con = ConnectionManager.getConnection();
+             PreparedStatement statement = con.prepareStatement(
+                     "INSERT INTO Availabilities (Time, Username) VALUES (?, ?)")) {
+            con.setAutoCommit(false);
+            for (Date day : days) {
+                for (int i = 0; i < caregivers; i++) {
+                    statement.setDate(1, day);
+                    statement.setString(2, caregiver(i));
+                    statement.addBatch();
+                }
+            }
+            statement.executeBatch();
+            con.commit();
+        }
+    }
+
+    // perUser appointments for every patient, spread round-robin over the caregivers
+    static void seedAppointments(int caregivers, int patients, int perUser, Date day) throws SQLException {
+        try (Connection con = ConnectionManager.getConnection();
+             PreparedStatement statement = con.prepareStatement(
+                     "INSERT INTO Reservations (AppointmentID, vname, pname, cname, rtime) VALUES (?, ?, ?, ?, ?)")) {
+            con.setAutoCommit(false);
+            int n = 0;
+            for (int p = 0; p < patients; p++) {
+                for (int k = 0; k < perUser; k++) {
+                    statement.setString(1, UUID.randomUUID().toString());
+                    statement.setString(2, VACCINE);
+                    statement.setString(3, patient(p));
+                    statement.setString(4, caregiver(n++ % caregivers));
+                    statement.setDate(5, day);
+                    statement.addBatch();
+                }
+            }
+            statement.executeBatch();
+            con.commit();
+        }
+    }
+
+    static void execute(String sql) throws SQLException {
+        try (Connection con = ConnectionManager.getConnection(); Statement statement = con.createStatement()) {
+            statement.executeUpdate(sql);
+        }
+    }
+
+    // the model classes print their results; keep that out of the benchmark output
+    static void silenceStdout() {
+        stdout = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+    }
+
+    static void restoreStdout() {
+        System.setOut(stdout);
+    }
+
+    private static void insertUsers(Connection con, String table, int count, byte[] blank, boolean caregivers)
+            throws SQLException {
+        try (PreparedStatement statement = con.prepareStatement(
+                "INSERT INTO " + table + " (Username, Salt, Hash) VALUES (?, ?, ?)")) {
+            for (int i = 0; i < count; i++) {
+                statement.setString(1, caregivers ? caregiver(i) : patient(i));
+                statement.setBytes(2, blank);
+                statement.setBytes(3, blank);
+                statement.addBatch();
+            }
+            statement.executeBatch();
+        }
+    }
+
+    private static String env(String name, String defaultValue) {
+        String value = System.getenv(name);
+        return value == null ? defaultValue : value;
+    }
+}
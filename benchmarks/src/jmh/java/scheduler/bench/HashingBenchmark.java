@@ -0,0 +1,62 @@
+package scheduler.bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import scheduler.util.PasswordHasher;
+import scheduler.util.Util;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * CPU cost of the account helpers in Util. Needs no database; run with -PjmhThreads=n to measure
+ * contention on the shared salt source.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class HashingBenchmark {
+
+    @Param({"8", "64"})
+    public int passwordLength;
+
+    private String password;
+    private byte[] salt;
+    private PasswordHasher.Params current;
+
+    @Setup
+    public void setup() {
+        StringBuilder sb = new StringBuilder("Aa1!");
+        while (sb.length() < passwordLength) {
+            sb.append((char) ('a' + sb.length() % 26));
+        }
+        password = sb.toString();
+        salt = Util.generateSalt();
+        current = PasswordHasher.current();
+    }
+
+    @Benchmark
+    public byte[] generateSalt() {
+        return Util.generateSalt();
+    }
+
+    @Benchmark
+    public byte[] generateHashLegacy() {
+        return Util.generateHash(password, salt);
+    }
+
+    @Benchmark
+    public byte[] generateHashCurrent() {
+        return Util.generateHash(password, salt, current);
+    }
+
+    @Benchmark
+    public boolean isStrongPassword() {
+        return Util.isStrongPassword(password);
+    }
+}
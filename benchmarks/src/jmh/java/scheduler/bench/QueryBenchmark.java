@@ -0,0 +1,74 @@
+package scheduler.bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import scheduler.model.Caregiver;
+import scheduler.model.Patient;
+
+import java.sql.Date;
+import java.time.LocalDate;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Read paths behind search_caregiver_schedule and show_appointments. Data size is the number of
+ * caregivers available on the searched day and the number of appointments per patient; run with
+ * -PjmhThreads=n for concurrent readers.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class QueryBenchmark {
+
+    private static final Date DAY = Date.valueOf(LocalDate.of(2099, 1, 1));
+
+    @Param({"100", "10000"})
+    public int caregivers;
+
+    @Param({"1", "100"})
+    public int appointmentsPerPatient;
+
+    private Patient patient;
+    private Caregiver caregiver;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        int patients = 100;
+        DatabaseFixture.connect(64);
+        DatabaseFixture.recreateSchema();
+        DatabaseFixture.seedUsers(caregivers, patients);
+        DatabaseFixture.seedVaccine(1000);
+        DatabaseFixture.seedAvailability(caregivers, DAY);
+        DatabaseFixture.seedAppointments(caregivers, patients, appointmentsPerPatient, DAY);
+        patient = new Patient.PatientBuilder(DatabaseFixture.patient(0), new byte[16], new byte[16]).build();
+        caregiver = new Caregiver.CaregiverBuilder(DatabaseFixture.caregiver(0), new byte[16], new byte[16]).build();
+        DatabaseFixture.silenceStdout();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        DatabaseFixture.restoreStdout();
+    }
+
+    @Benchmark
+    public void searchCaregiverSchedule() throws Exception {
+        Caregiver.searchCaregiverSchedule(DAY);
+    }
+
+    @Benchmark
+    public void showAppointmentsPatient() throws Exception {
+        patient.getAppointments();
+    }
+
+    @Benchmark
+    public void showAppointmentsCaregiver() throws Exception {
+        caregiver.getAppointments();
+    }
+}
@@ -0,0 +1,98 @@
+package scheduler.bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import scheduler.service.AvailabilityIndex;
+import scheduler.service.DoseLedger;
+import scheduler.service.ReservationEngine;
+
+import java.sql.Date;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Time to book a whole day: one reservation per available caregiver, issued by `concurrency`
+ * patients at once through the same path as Scheduler.reserve. Availability is reset before each
+ * iteration, so every iteration books exactly `caregivers` appointments.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+public class ReserveBenchmark {
+
+    private static final Date DAY = Date.valueOf(LocalDate.of(2099, 1, 1));
+
+    @Param({"1", "16", "64"})
+    public int concurrency;
+
+    @Param({"100", "1000"})
+    public int caregivers;
+
+    private ExecutorService executor;
+    private ReservationEngine engine;
+
+    @Setup(Level.Trial)
+    public void setupTrial() throws Exception {
+        DatabaseFixture.connect(Math.max(10, concurrency));
+        DatabaseFixture.recreateSchema();
+        DatabaseFixture.seedUsers(caregivers, caregivers);
+        DatabaseFixture.seedVaccine(Integer.MAX_VALUE / 2);
+        DoseLedger.getInstance().start(1000);
+        executor = Executors.newFixedThreadPool(concurrency);
+        engine = new ReservationEngine();
+    }
+
+    @Setup(Level.Iteration)
+    public void setupIteration() throws Exception {
+        DatabaseFixture.execute("DELETE FROM Reservations");
+        DatabaseFixture.execute("DELETE FROM Availabilities");
+        DatabaseFixture.seedAvailability(caregivers, DAY);
+        AvailabilityIndex.getInstance().load();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        executor.shutdown();
+        DoseLedger.getInstance().stop();
+    }
+
+    @Benchmark
+    public int reserveDay() throws Exception {
+        AtomicInteger next = new AtomicInteger();
+        AtomicInteger booked = new AtomicInteger();
+        List<Future<?>> futures = new ArrayList<>();
+        for (int t = 0; t < concurrency; t++) {
+            futures.add(executor.submit(() -> {
+                int i;
+                while ((i = next.getAndIncrement()) < caregivers) {
+                    if (engine.reserve(DatabaseFixture.patient(i), DAY, DatabaseFixture.VACCINE).isReserved()) {
+                        booked.incrementAndGet();
+                    }
+                }
+                return null;
+            }));
+        }
+        for (Future<?> future : futures) {
+            future.get();
+        }
+        return booked.get();
+    }
+}
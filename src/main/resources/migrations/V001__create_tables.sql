@@ -1,29 +1,41 @@
+-- The original schema. Every table is created only if it is missing, so
+-- databases set up before migrations existed are adopted as they are.
+
+IF OBJECT_ID(N'Caregivers', N'U') IS NULL
 CREATE TABLE Caregivers (
     Username varchar(255),
     Salt BINARY(16),
     Hash BINARY(16),
     PRIMARY KEY (Username)
 );
+GO
 
+IF OBJECT_ID(N'Availabilities', N'U') IS NULL
 CREATE TABLE Availabilities (
     Time date,
     Username varchar(255) REFERENCES Caregivers,
     PRIMARY KEY (Time, Username)
 );
+GO
 
+IF OBJECT_ID(N'Vaccines', N'U') IS NULL
 CREATE TABLE Vaccines (
     Name varchar(255),
     Doses int,
     PRIMARY KEY (Name)
 );
+GO
 
+IF OBJECT_ID(N'Patients', N'U') IS NULL
 CREATE TABLE Patients (
     Username varchar(255),
     Salt BINARY(16),
     Hash BINARY(16),
     PRIMARY KEY (Username)
 );
+GO
 
+IF OBJECT_ID(N'Reservations', N'U') IS NULL
 CREATE TABLE Reservations (
     AppointmentID varchar (255),
     vname varchar(255) REFERENCES Vaccines(name),
@@ -32,3 +44,4 @@ CREATE TABLE Reservations (
 	rtime date,
     PRIMARY KEY (AppointmentID)
 );
+GO
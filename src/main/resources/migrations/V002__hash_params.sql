@@ -0,0 +1,11 @@
+-- Adds the hash parameter columns. Rows left with NULL parameters are
+-- verified with the legacy parameters and re-hashed with the current ones on
+-- their next successful login.
+
+IF COL_LENGTH(N'Caregivers', N'HashAlgorithm') IS NULL
+ALTER TABLE Caregivers ADD HashAlgorithm varchar(32), HashIterations int;
+GO
+
+IF COL_LENGTH(N'Patients', N'HashAlgorithm') IS NULL
+ALTER TABLE Patients ADD HashAlgorithm varchar(32), HashIterations int;
+GO
@@ -0,0 +1,11 @@
+-- Covering indexes that show_appointments pages through. AppointmentID is the
+-- clustered key, so it is stored in every index row and the
+-- (rtime, AppointmentID) keyset needs no lookups into the table.
+
+IF INDEXPROPERTY(OBJECT_ID(N'Reservations'), N'IX_Reservations_pname_rtime', 'IndexID') IS NULL
+CREATE INDEX IX_Reservations_pname_rtime ON Reservations (pname, rtime) INCLUDE (vname, cname);
+GO
+
+IF INDEXPROPERTY(OBJECT_ID(N'Reservations'), N'IX_Reservations_cname_rtime', 'IndexID') IS NULL
+CREATE INDEX IX_Reservations_cname_rtime ON Reservations (cname, rtime) INCLUDE (vname, pname);
+GO
@@ -0,0 +1,6 @@
+-- Reservations by date, for work that covers a whole day rather than one
+-- user, such as moving the appointments of a caregiver who drops out.
+
+IF INDEXPROPERTY(OBJECT_ID(N'Reservations'), N'IX_Reservations_rtime', 'IndexID') IS NULL
+CREATE INDEX IX_Reservations_rtime ON Reservations (rtime) INCLUDE (cname, pname, vname);
+GO
@@ -0,0 +1,7 @@
+-- Availabilities by caregiver. The primary key leads with Time, so without
+-- this index every lookup of one caregiver's slots (and the foreign key check
+-- when a caregiver row is deleted) scans the whole table.
+
+IF INDEXPROPERTY(OBJECT_ID(N'Availabilities'), N'IX_Availabilities_Username', 'IndexID') IS NULL
+CREATE INDEX IX_Availabilities_Username ON Availabilities (Username);
+GO
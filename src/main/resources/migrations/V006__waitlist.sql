@@ -0,0 +1,26 @@
+-- Reservations that could not be booked when they were requested, waiting for
+-- doses or caregivers. Requests are served by Priority (highest first) and
+-- then in request order; a booked request keeps its appointment until the
+-- patient has been told about it at the next login.
+
+IF OBJECT_ID(N'Waitlist', N'U') IS NULL
+CREATE TABLE Waitlist (
+    RequestID bigint IDENTITY(1, 1) PRIMARY KEY,
+    pname varchar(255) NOT NULL REFERENCES Patients(Username),
+    vname varchar(255) NOT NULL,
+    rtime date NOT NULL,
+    Priority int NOT NULL DEFAULT 0,
+    AppointmentID varchar(255) NULL,
+    cname varchar(255) NULL
+);
+GO
+
+-- the matcher reads the pending requests in serving order
+IF INDEXPROPERTY(OBJECT_ID(N'Waitlist'), N'IX_Waitlist_pending', 'IndexID') IS NULL
+CREATE INDEX IX_Waitlist_pending ON Waitlist (Priority DESC, RequestID)
+    INCLUDE (pname, vname, rtime) WHERE AppointmentID IS NULL;
+GO
+
+IF INDEXPROPERTY(OBJECT_ID(N'Waitlist'), N'IX_Waitlist_pname', 'IndexID') IS NULL
+CREATE INDEX IX_Waitlist_pname ON Waitlist (pname);
+GO
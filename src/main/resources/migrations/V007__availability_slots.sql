@@ -0,0 +1,50 @@
+-- Availability in 15-minute slots. Each row holds the caregiver's free slots
+-- of the day as a 96-bit set: slot i starts i * 15 minutes after midnight and
+-- is bit i of SlotsLow (slots 0-63) or bit i - 64 of SlotsHigh (slots 64-95).
+-- Existing rows, and rows inserted without slots, offer 09:00 to 17:00
+-- (slots 36-67). A row is deleted once its last free slot is taken.
+
+IF COL_LENGTH(N'Availabilities', N'SlotsLow') IS NULL
+ALTER TABLE Availabilities ADD
+    SlotsLow bigint NOT NULL CONSTRAINT DF_Availabilities_SlotsLow DEFAULT -68719476736,
+    SlotsHigh int NOT NULL CONSTRAINT DF_Availabilities_SlotsHigh DEFAULT 15;
+GO
+
+-- the slot an appointment takes; NULL for appointments booked for a whole day
+-- before slots existed
+IF COL_LENGTH(N'Reservations', N'Slot') IS NULL
+ALTER TABLE Reservations ADD Slot smallint NULL;
+GO
+
+IF COL_LENGTH(N'Waitlist', N'Slot') IS NULL
+ALTER TABLE Waitlist ADD Slot smallint NULL;
+GO
+
+-- at most one appointment per caregiver slot, whatever the availability rows say
+IF INDEXPROPERTY(OBJECT_ID(N'Reservations'), N'UX_Reservations_cname_rtime_Slot', 'IndexID') IS NULL
+CREATE UNIQUE INDEX UX_Reservations_cname_rtime_Slot ON Reservations (cname, rtime, Slot)
+    WHERE Slot IS NOT NULL;
+GO
+
+-- the covering indexes of V003 and V004 carry the slot too
+
+IF NOT EXISTS (SELECT 1 FROM sys.index_columns ic
+               JOIN sys.indexes i ON i.object_id = ic.object_id AND i.index_id = ic.index_id
+               WHERE i.name = N'IX_Reservations_pname_rtime' AND COL_NAME(ic.object_id, ic.column_id) = N'Slot')
+CREATE INDEX IX_Reservations_pname_rtime ON Reservations (pname, rtime) INCLUDE (vname, cname, Slot)
+    WITH (DROP_EXISTING = ON);
+GO
+
+IF NOT EXISTS (SELECT 1 FROM sys.index_columns ic
+               JOIN sys.indexes i ON i.object_id = ic.object_id AND i.index_id = ic.index_id
+               WHERE i.name = N'IX_Reservations_cname_rtime' AND COL_NAME(ic.object_id, ic.column_id) = N'Slot')
+CREATE INDEX IX_Reservations_cname_rtime ON Reservations (cname, rtime) INCLUDE (vname, pname, Slot)
+    WITH (DROP_EXISTING = ON);
+GO
+
+IF NOT EXISTS (SELECT 1 FROM sys.index_columns ic
+               JOIN sys.indexes i ON i.object_id = ic.object_id AND i.index_id = ic.index_id
+               WHERE i.name = N'IX_Reservations_rtime' AND COL_NAME(ic.object_id, ic.column_id) = N'Slot')
+CREATE INDEX IX_Reservations_rtime ON Reservations (rtime) INCLUDE (cname, pname, vname, Slot)
+    WITH (DROP_EXISTING = ON);
+GO
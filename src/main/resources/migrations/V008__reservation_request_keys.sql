@@ -0,0 +1,12 @@
+-- The key a client may send with reserve so a retried request returns the
+-- original appointment instead of booking another one. Keys are chosen by the
+-- client and are unique per patient.
+
+IF COL_LENGTH(N'Reservations', N'RequestKey') IS NULL
+ALTER TABLE Reservations ADD RequestKey varchar(64) NULL;
+GO
+
+IF INDEXPROPERTY(OBJECT_ID(N'Reservations'), N'UX_Reservations_pname_RequestKey', 'IndexID') IS NULL
+CREATE UNIQUE INDEX UX_Reservations_pname_RequestKey ON Reservations (pname, RequestKey)
+    WHERE RequestKey IS NOT NULL;
+GO
@@ -1,56 +1,137 @@
 package scheduler;
-import java.util.UUID;
-import scheduler.db.ConnectionManager;
+import scheduler.db.MigrationRunner;
+import scheduler.metrics.CommandMetrics;
 import scheduler.model.Caregiver;
 import scheduler.model.Patient;
 import scheduler.model.Vaccine;
+import scheduler.repository.Appointment;
+import scheduler.repository.Repositories;
+import scheduler.repository.SchedulerRepository.Role;
+import scheduler.repository.WaitlistEntry;
+import scheduler.server.SchedulerServer;
+import scheduler.service.AppointmentCanceller;
+import scheduler.service.AppointmentListing;
+import scheduler.service.AvailabilityIndex;
+import scheduler.service.AvailabilityLoader;
+import scheduler.service.BulkAllocator;
+import scheduler.service.CaregiverAssigner;
+import scheduler.service.DoseLedger;
+import scheduler.service.ReservationEngine;
+import scheduler.service.ScheduleSearch;
+import scheduler.service.UserImporter;
+import scheduler.service.WaitlistMatcher;
+import scheduler.util.PasswordHasher;
+import scheduler.util.SlotBits;
 import scheduler.util.Util;
 
 import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStreamReader;
-import java.sql.Connection;
-import java.sql.PreparedStatement;
-import java.sql.ResultSet;
+import java.io.PrintStream;
 import java.sql.SQLException;
 import java.sql.Date;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.time.DayOfWeek;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumSet;
 import java.util.List;
+import java.util.Set;
 
 
 public class Scheduler {
 
-    // objects to keep track of the currently logged-in user
-    // Note: it is always true that at most one of currentCaregiver and currentPatient is not null
-    //       since only one user can be logged-in at a time
-    private static Caregiver currentCaregiver = null;
-    private static Patient currentPatient = null;
+    private static final ReservationEngine reservationEngine = new ReservationEngine();
+    private static final AvailabilityLoader availabilityLoader = new AvailabilityLoader();
+    private static final BulkAllocator bulkAllocator = new BulkAllocator();
+    private static final AppointmentCanceller appointmentCanceller = new AppointmentCanceller();
 
-    private static String lowCase = "abcdefghijklmnopqrstuvwxyz";
-    private static String upCase = "ABCDEFGHIJKLMNOPQRSTUVWXYZ";
+    // the commands dispatched by execute; anything else is counted as "invalid" in the metrics
+    private static final Set<String> commands = Set.of("create_patient", "create_caregiver", "import_users",
+            "login_patient", "login_caregiver", "search_caregiver_schedule", "reserve", "bulk_reserve", "upload_availability",
+            "upload_availability_range", "upload_roster", "cancel", "cancel_caregiver_day",
+            "cancel_vaccine_lot", "add_doses", "show_appointments", "prioritize",
+            "logout");
 
-    private static String digits = "12345678910";
+    // how often in-memory dose changes are written back to the Vaccines table
+    private static final long doseFlushIntervalMillis = 1000;
 
-    private static String specialChar = "!@#?";
+    // the width of Reservations.RequestKey
+    private static final int MAX_REQUEST_KEY_LENGTH = 64;
 
     public static void main(String[] args) throws SQLException {
+        // bring the SQL Server schema up to date; Migrate=off leaves it alone
+        if (!Repositories.isEmbedded() && !"off".equalsIgnoreCase(System.getenv("Migrate"))) {
+            try {
+                MigrationRunner.migrate();
+            } catch (SQLException | IOException e) {
+                System.out.println("Could not migrate the database schema");
+                e.printStackTrace();
+            }
+        }
+        // load availabilities into memory so reserve can check and pick caregivers without a query
+        try {
+            AvailabilityIndex.getInstance().load();
+        } catch (SQLException e) {
+            System.out.println("Could not load availabilities, falling back to database lookups");
+            e.printStackTrace();
+        }
+        try {
+            DoseLedger.getInstance().start(doseFlushIntervalMillis);
+        } catch (SQLException e) {
+            System.out.println("Could not load vaccine doses, falling back to database updates");
+            e.printStackTrace();
+        }
+        try {
+            CaregiverAssigner.getInstance().load();
+        } catch (SQLException e) {
+            System.out.println("Could not load appointments, assigning caregivers without booking history");
+            e.printStackTrace();
+        }
+
+        if (args.length == 2 && args[0].equals("--server")) {
+            SchedulerServer.run(Integer.parseInt(args[1]));
+            return;
+        }
+        if (args.length == 2 && args[0].equals("--script")) {
+            try {
+                ScriptRunner.run(args[1]);
+            } catch (IOException e) {
+                System.out.println("Could not read script " + args[1]);
+            }
+            return;
+        }
+
         // printing greetings text
         System.out.println("Welcome to the COVID-19 Vaccine Reservation Scheduling Application!");
         System.out.println("*** Please enter one of the following commands ***");
         System.out.println("> create_patient <username> <password>");  //TODO: implement create_patient (Part 1)
         System.out.println("> create_caregiver <username> <password>");
+        System.out.println("> import_users <file with patient|caregiver,username,password lines>");
         System.out.println("> login_patient <username> <password>");  // TODO: implement login_patient (Part 1)
         System.out.println("> login_caregiver <username> <password>");
-        System.out.println("> search_caregiver_schedule <date>");  // TODO: implement search_caregiver_schedule (Part 2)
-        System.out.println("> reserve <date> <vaccine>");  // TODO: implement reserve (Part 2)
-        System.out.println("> upload_availability <date>");
-        System.out.println("> cancel <appointment_id>");  // TODO: implement cancel (extra credit)
+        System.out.println("> search_caregiver_schedule <start_date> [end_date] [--after <cursor>] [--limit <n>]");
+        System.out.println("> reserve <date> <vaccine> [time, e.g. 09:15] [--key <request_key>]");  // TODO: implement reserve (Part 2)
+        System.out.println("> bulk_reserve <date> <file with patient,vaccine lines>");
+        System.out.println("> upload_availability <date> [hours, e.g. 09:00-12:00,13:00-17:00]");
+        System.out.println("> upload_availability_range <start_date> <end_date> [weekdays, e.g. MON,WED,FRI] [hours]");
+        System.out.println("> upload_roster <file with caregiver,date[,hours] lines>");
+        System.out.println("> cancel <appointment_id>");
+        System.out.println("> cancel_caregiver_day <caregiver> <date>");
+        System.out.println("> cancel_vaccine_lot <vaccine> <start_date> [end_date]");
         System.out.println("> add_doses <vaccine> <number>");
-        System.out.println("> show_appointments");  // TODO: implement show_appointments (Part 2)
+        System.out.println("> show_appointments [from_date] [to_date] [--after <cursor>] [--limit <n>]");
+        System.out.println("> prioritize <patient> <priority>");
         System.out.println("> logout");  // TODO: implement logout (Part 2)
         System.out.println("> quit");
+        System.out.println("(start with --server <port> to serve these commands over TCP,");
+        System.out.println(" or --script <file> to run a file of commands, - for stdin)");
         System.out.println();
 
         // read input from user
+        Session session = new Session();
         BufferedReader r = new BufferedReader(new InputStreamReader(System.in));
         while (true) {
             System.out.print("> ");
@@ -60,203 +141,249 @@ public class Scheduler {
             } catch (IOException e) {
                 System.out.println("Please try again!");
             }
-            // split the user input by spaces
-            String[] tokens = response.split(" ");
-            // check if input exists
-            if (tokens.length == 0) {
-                System.out.println("Please try again!");
-                continue;
+            if (response == null || !execute(session, response)) {
+                shutdown();
+                System.out.println("Bye!");
+                return;
             }
-            // determine which operation to perform
-            String operation = tokens[0];
+        }
+
+    }
+
+    /**
+     * Runs one command line for the given session, printing its output to the session's stream.
+     * Returns false if the command was quit.
+     */
+    public static boolean execute(Session session, String response) {
+        // split the user input by spaces
+        PrintStream out = session.getOut();
+        String[] tokens = response.split(" ");
+        // check if input exists
+        if (tokens.length == 0) {
+            out.println("Please try again!");
+            return true;
+        }
+        // determine which operation to perform
+        String operation = tokens[0];
+        if (operation.equals("quit")) {
+            return false;
+        }
+        long start = CommandMetrics.begin(commands.contains(operation) ? operation : "invalid");
+        boolean failed = false;
+        try {
             if (operation.equals("create_patient")) {
-                createPatient(tokens);
+                createPatient(out, tokens);
             } else if (operation.equals("create_caregiver")) {
-                createCaregiver(tokens);
+                createCaregiver(out, tokens);
+            } else if (operation.equals("import_users")) {
+                importUsers(out, tokens);
             } else if (operation.equals("login_patient")) {
-                loginPatient(tokens);
+                loginPatient(session, tokens);
             } else if (operation.equals("login_caregiver")) {
-                loginCaregiver(tokens);
+                loginCaregiver(session, tokens);
             } else if (operation.equals("search_caregiver_schedule")) {
-                searchCaregiverSchedule(tokens);
+                searchCaregiverSchedule(session, tokens);
             } else if (operation.equals("reserve")) {
-                reserve(tokens);
+                reserve(session, tokens);
+            } else if (operation.equals("bulk_reserve")) {
+                bulkReserve(session, tokens);
             } else if (operation.equals("upload_availability")) {
-                uploadAvailability(tokens);
+                uploadAvailability(session, tokens);
+            } else if (operation.equals("upload_availability_range")) {
+                uploadAvailabilityRange(session, tokens);
+            } else if (operation.equals("upload_roster")) {
+                uploadRoster(session, tokens);
             } else if (operation.equals("cancel")) {
-                cancel(tokens);
+                cancel(session, tokens);
+            } else if (operation.equals("cancel_caregiver_day")) {
+                cancelCaregiverDay(session, tokens);
+            } else if (operation.equals("cancel_vaccine_lot")) {
+                cancelVaccineLot(session, tokens);
             } else if (operation.equals("add_doses")) {
-                addDoses(tokens);
+                addDoses(session, tokens);
             } else if (operation.equals("show_appointments")) {
-                showAppointments(tokens);
+                showAppointments(session, tokens);
+            } else if (operation.equals("prioritize")) {
+                prioritize(session, tokens);
             } else if (operation.equals("logout")) {
-                logout(tokens);
-            } else if (operation.equals("quit")) {
-                System.out.println("Bye!");
-                return;
+                logout(session, tokens);
             } else {
-                System.out.println("Invalid operation name!");
+                failed = true;
+                out.println("Invalid operation name!");
+            }
+            // tell a logged-in patient about requests the waitlist booked for them in the meantime
+            if (session.getPatient() != null
+                    && WaitlistMatcher.getInstance().hasNotifications(session.getPatient().getUsername())) {
+                notifyPatient(session);
             }
+        } catch (SQLException e) {
+            failed = true;
+            out.println("Please try again!");
+            e.printStackTrace();
+        } catch (RuntimeException e) {
+            failed = true;
+            throw e;
+        } finally {
+            CommandMetrics.end(start, failed);
         }
-
+        return true;
     }
 
-    private static boolean isStrongPassword(String password) {
-        boolean hasUp = false;
-        boolean hasLow = false;
-        boolean hasSpec = false;
-        boolean hasDigit = false;
-
-        if (password.length() < 8) {
-            System.out.println("Password is too short!");
-            return false;
+    /**
+     * Writes back state that is held in memory; called once before the process exits.
+     */
+    public static void shutdown() {
+        try {
+            DoseLedger.getInstance().stop();
+        } catch (SQLException e) {
+            System.out.println("Error occurred when saving doses");
+            e.printStackTrace();
         }
-
-        for (int i = 0; i < password.length(); i++) {
-            String curr = String.valueOf(password.charAt(i));
-
-            if (lowCase.contains(curr)) {
-                hasLow = true;
-            }
-            if (upCase.contains(curr)) {
-                hasUp = true;
-            }
-            if (specialChar.contains(curr)) {
-                hasSpec = true;
-            }
-            if (digits.contains(curr)) {
-                hasDigit = true;
-            }
+        try {
+            Repositories.get().close();
+        } catch (SQLException e) {
+            System.out.println("Error occurred when closing storage");
+            e.printStackTrace();
         }
+    }
 
-        if (hasDigit && hasLow && hasSpec && hasUp) {
-            return true;
-        } else {
+    private static boolean isStrongPassword(PrintStream out, String password) {
+        if (password.length() < 8) {
+            out.println("Password is too short!");
             return false;
         }
+        return Util.isStrongPassword(password);
     }
-    private static void createPatient(String[] tokens) {
+    private static void createPatient(PrintStream out, String[] tokens) {
         if (tokens.length != 3){
-            System.out.println("Failed to create user.");
+            out.println("Failed to create user.");
             return;
         }
         String username = tokens[1];
         String password = tokens[2];
-        if (usernameExistsPatient(username)) {
-            System.out.println("Username taken, try again!");
+        if (usernameExistsPatient(out, username)) {
+            out.println("Username taken, try again!");
             return;
         }
-        if (!isStrongPassword(password)){
-            System.out.println("Password is weak, try again!");
-            System.out.println("Here is the criteria for a strong password:");
-            System.out.println("At least 8 characters long");
-            System.out.println("A mixture of both uppercase and lowercase letters.");
-            System.out.println("A mixture of letters and numbers.");
-            System.out.println("Inclusion of at least one special character, from !, @, #, ?");
+        if (!isStrongPassword(out, password)){
+            out.println("Password is weak, try again!");
+            out.println("Here is the criteria for a strong password:");
+            out.println("At least 8 characters long");
+            out.println("A mixture of both uppercase and lowercase letters.");
+            out.println("A mixture of letters and numbers.");
+            out.println("Inclusion of at least one special character, from !, @, #, ?");
             return;
 
         }
         byte[] salt = Util.generateSalt();
-        byte[] hash = Util.generateHash(password, salt);
+        PasswordHasher.Params hashParams = PasswordHasher.current();
+        byte[] hash = Util.generateHash(password, salt, hashParams);
         // create the patient
         try {
-            Patient patient = new Patient.PatientBuilder(username, salt, hash).build();
+            Patient patient = new Patient.PatientBuilder(username, salt, hash, hashParams).build();
             // save to caregiver information to our database
             patient.saveToDB();
-            System.out.println("Created user " + username);
+            out.println("Created user " + username);
         } catch (SQLException e) {
-            System.out.println("Failed to create user.");
+            CommandMetrics.commandFailed();
+            out.println("Failed to create user.");
             e.printStackTrace();
         }
     }
 
-    private static boolean usernameExistsPatient(String username) {
-        ConnectionManager cm = new ConnectionManager();
-        Connection con = cm.createConnection();
-
-        String selectUsername = "SELECT * FROM Patients WHERE Username = ?";
+    private static boolean usernameExistsPatient(PrintStream out, String username) {
         try {
-            PreparedStatement statement = con.prepareStatement(selectUsername);
-            statement.setString(1, username);
-            ResultSet resultSet = statement.executeQuery();
-            // returns false if the cursor is not before the first record or if there are no rows in the ResultSet.
-            return resultSet.isBeforeFirst();
+            return Repositories.get().userExists(Role.PATIENT, username);
         } catch (SQLException e) {
-            System.out.println("Error occurred when checking username");
+            CommandMetrics.commandFailed();
+            out.println("Error occurred when checking username");
             e.printStackTrace();
-        } finally {
-            cm.closeConnection();
         }
         return true;
     }
 
-    private static void createCaregiver(String[] tokens) {
+    private static void createCaregiver(PrintStream out, String[] tokens) {
         // create_caregiver <username> <password>
         // check 1: the length for tokens need to be exactly 3 to include all information (with the operation name)
         if (tokens.length != 3) {
-            System.out.println("Failed to create user.");
+            out.println("Failed to create user.");
             return;
         }
         String username = tokens[1];
         String password = tokens[2];
         // check 2: check if the username has been taken already
-        if (usernameExistsCaregiver(username)) {
-            System.out.println("Username taken, try again!");
+        if (usernameExistsCaregiver(out, username)) {
+            out.println("Username taken, try again!");
             return;
         }
 
-        if (!isStrongPassword(password)){
-            System.out.println("Password is weak, try again!");
-            System.out.println("Here is the criteria for a strong password:");
-            System.out.println("At least 8 characters long");
-            System.out.println("A mixture of both uppercase and lowercase letters.");
-            System.out.println("A mixture of letters and numbers.");
-            System.out.println("Inclusion of at least one special character, from !, @, #, ?");
+        if (!isStrongPassword(out, password)){
+            out.println("Password is weak, try again!");
+            out.println("Here is the criteria for a strong password:");
+            out.println("At least 8 characters long");
+            out.println("A mixture of both uppercase and lowercase letters.");
+            out.println("A mixture of letters and numbers.");
+            out.println("Inclusion of at least one special character, from !, @, #, ?");
             return;
 
         }
         byte[] salt = Util.generateSalt();
-        byte[] hash = Util.generateHash(password, salt);
+        PasswordHasher.Params hashParams = PasswordHasher.current();
+        byte[] hash = Util.generateHash(password, salt, hashParams);
         // create the caregiver
         try {
-            Caregiver caregiver = new Caregiver.CaregiverBuilder(username, salt, hash).build(); 
+            Caregiver caregiver = new Caregiver.CaregiverBuilder(username, salt, hash, hashParams).build();
             // save to caregiver information to our database
             caregiver.saveToDB();
-            System.out.println("Created user " + username);
+            out.println("Created user " + username);
         } catch (SQLException e) {
-            System.out.println("Failed to create user.");
+            CommandMetrics.commandFailed();
+            out.println("Failed to create user.");
             e.printStackTrace();
         }
     }
 
-    private static boolean usernameExistsCaregiver(String username) {
-        ConnectionManager cm = new ConnectionManager();
-        Connection con = cm.createConnection();
-
-        String selectUsername = "SELECT * FROM Caregivers WHERE Username = ?";
+    private static boolean usernameExistsCaregiver(PrintStream out, String username) {
         try {
-            PreparedStatement statement = con.prepareStatement(selectUsername);
-            statement.setString(1, username);
-            ResultSet resultSet = statement.executeQuery();
-            // returns false if the cursor is not before the first record or if there are no rows in the ResultSet.
-            return resultSet.isBeforeFirst();
+            return Repositories.get().userExists(Role.CAREGIVER, username);
         } catch (SQLException e) {
-            System.out.println("Error occurred when checking username");
+            CommandMetrics.commandFailed();
+            out.println("Error occurred when checking username");
             e.printStackTrace();
-        } finally {
-            cm.closeConnection();
         }
         return true;
     }
 
-    private static void loginPatient(String[] tokens) {
-        if (currentCaregiver != null || currentPatient != null) {
-            System.out.println("User already logged in.");
+    private static void importUsers(PrintStream out, String[] tokens) {
+        // import_users <file>
+        if (tokens.length != 2) {
+            out.println("Please try again!");
+            return;
+        }
+        try {
+            UserImporter.Result result = new UserImporter().importFile(tokens[1], out);
+            out.println("Import finished!");
+            out.printf("%d created, %d usernames taken, %d weak passwords, %d invalid lines, %.0f accounts/sec%n",
+                    result.getCreated(), result.getTaken(), result.getWeak(), result.getInvalid(),
+                    result.getAccountsPerSecond());
+        } catch (IOException e) {
+            out.println("Could not read user file!");
+        } catch (SQLException e) {
+            CommandMetrics.commandFailed();
+            out.println("Import failed, rerun the command to resume.");
+            e.printStackTrace();
+        }
+    }
+
+    private static void loginPatient(Session session, String[] tokens) {
+        PrintStream out = session.getOut();
+        if (session.getCaregiver() != null || session.getPatient() != null) {
+            out.println("User already logged in.");
             return;
         }
         // check 2: the length for tokens need to be exactly 3 to include all information (with the operation name)
         if (tokens.length != 3) {
-            System.out.println("Login failed.");
+            out.println("Login failed.");
             return;
         }
         String username = tokens[1];
@@ -266,28 +393,31 @@ public class Scheduler {
         try {
             patient = new Patient.PatientGetter(username, password).get();
         } catch (SQLException e) {
-            System.out.println("Login failed.");
+            CommandMetrics.commandFailed();
+            out.println("Login failed.");
             e.printStackTrace();
         }
         // check if the login was successful
         if (patient == null) {
-            System.out.println("Login failed.");
+            out.println("Login failed.");
         } else {
-            System.out.println("Logged in as: " + username);
-            currentPatient = patient;
+            out.println("Logged in as: " + username);
+            session.setPatient(patient);
+            notifyPatient(session);
         }
     }
 
-    private static void loginCaregiver(String[] tokens) {
+    private static void loginCaregiver(Session session, String[] tokens) {
+        PrintStream out = session.getOut();
         // login_caregiver <username> <password>
         // check 1: if someone's already logged-in, they need to log out first
-        if (currentCaregiver != null || currentPatient != null) {
-            System.out.println("User already logged in.");
+        if (session.getCaregiver() != null || session.getPatient() != null) {
+            out.println("User already logged in.");
             return;
         }
         // check 2: the length for tokens need to be exactly 3 to include all information (with the operation name)
         if (tokens.length != 3) {
-            System.out.println("Login failed.");
+            out.println("Login failed.");
             return;
         }
         String username = tokens[1];
@@ -296,165 +426,501 @@ public class Scheduler {
         try {
             caregiver = new Caregiver.CaregiverGetter(username, password).get();
         } catch (SQLException e) {
-            System.out.println("Login failed.");
+            CommandMetrics.commandFailed();
+            out.println("Login failed.");
             e.printStackTrace();
         }
         // check if the login was successful
         if (caregiver == null) {
-            System.out.println("Login failed.");
+            out.println("Login failed.");
         } else {
-            System.out.println("Logged in as: " + username);
-            currentCaregiver = caregiver;
+            out.println("Logged in as: " + username);
+            session.setCaregiver(caregiver);
         }
     }
 
-    private static void searchCaregiverSchedule(String[] tokens) throws SQLException {
-        //TODO: PART 2
-        if (currentCaregiver == null && currentPatient == null){
-            System.out.println("Please login first!");
+    private static void searchCaregiverSchedule(Session session, String[] tokens) throws SQLException {
+        PrintStream out = session.getOut();
+        // search_caregiver_schedule <start_date> [end_date] [--after <cursor>] [--limit <n>]
+        if (session.getCaregiver() == null && session.getPatient() == null){
+            out.println("Please login first!");
+            return;
+        }
+        List<String> dates = new ArrayList<>();
+        AvailabilityLoader.Slot after = null;
+        int limit = Integer.MAX_VALUE;
+        try {
+            for (int i = 1; i < tokens.length; i++) {
+                if (tokens[i].equals("--after") && i + 1 < tokens.length) {
+                    after = ScheduleSearch.parseCursor(tokens[++i]);
+                } else if (tokens[i].equals("--limit") && i + 1 < tokens.length) {
+                    limit = Integer.parseInt(tokens[++i]);
+                } else {
+                    dates.add(tokens[i]);
+                }
+            }
+        } catch (IllegalArgumentException e) {
+            out.println("Please try again!");
             return;
         }
-        if (tokens.length !=2 ){
-            System.out.println("Please try again!");
+        if (dates.isEmpty() || dates.size() > 2 || limit <= 0) {
+            out.println("Please try again!");
             return;
         }
-        String date = tokens[1];
+        Date start;
+        Date end;
         try {
-            Date d = Date.valueOf(date);
-            currentCaregiver.searchCaregiverSchedule(d);
+            start = Date.valueOf(dates.get(0));
+            end = Date.valueOf(dates.get(dates.size() - 1));
         } catch (IllegalArgumentException e) {
-            System.out.println("Please enter a valid date!");
+            out.println("Please enter a valid date!");
+            return;
+        }
+        if (end.before(start)) {
+            out.println("End date must not be before start date!");
+            return;
+        }
+        try {
+            AvailabilityLoader.Slot next = new ScheduleSearch().search(start, end, after, limit, out);
+            if (next != null) {
+                out.println("More caregivers: --after " + ScheduleSearch.formatCursor(next));
+            }
         } catch (SQLException e) {
-            System.out.println("Error occurred when searching for schedule");
+            CommandMetrics.commandFailed();
+            out.println("Error occurred when searching for schedule");
             e.printStackTrace();
         }
+    }
+
+    private static void reserve(Session session, String[] tokens) throws SQLException {
+        PrintStream out = session.getOut();
+        // TODO: Part 2
+        if (session.getPatient() == null && session.getCaregiver() == null){
+            out.println("Please login first!");
+            return;
+        }
 
+        if (session.getPatient() == null){
+            out.println("Please login as a patient!");
+            return;
+        }
 
+        // a retry with the same --key returns the appointment of the first attempt
+        String requestKey = null;
+        List<String> arguments = new ArrayList<>();
+        for (int i = 1; i < tokens.length; i++) {
+            if (tokens[i].equals("--key") && i + 1 < tokens.length) {
+                requestKey = tokens[++i];
+            } else {
+                arguments.add(tokens[i]);
+            }
+        }
+        if (arguments.size() != 2 && arguments.size() != 3){
+            out.println("Please try again!");
+            return;
+        }
+        if (requestKey != null && requestKey.length() > MAX_REQUEST_KEY_LENGTH) {
+            out.println("Please use a request key of at most " + MAX_REQUEST_KEY_LENGTH + " characters!");
+            return;
+        }
 
+        String date = arguments.get(0);
+        String vaccine = arguments.get(1);
+        int slot = -1;
+        if (arguments.size() == 3) {
+            try {
+                slot = SlotBits.parseTime(arguments.get(2));
+            } catch (IllegalArgumentException e) {
+                out.println("Please enter a time on the quarter hour, e.g. 09:15!");
+                return;
+            }
+        }
+
+        try {
+            Date d = Date.valueOf(date);
+            ReservationEngine.Reservation reservation =
+                    reservationEngine.reserve(session.getPatient().getUsername(), d, slot, vaccine, requestKey);
+            if (reservation.getOutcome() == ReservationEngine.Outcome.NO_DOSES) {
+                out.println("Not enough available doses!");
+                addToWaitlist(session, d, vaccine);
+            } else if (reservation.getOutcome() == ReservationEngine.Outcome.NO_CAREGIVER) {
+                out.println("No caregiver is available!");
+                addToWaitlist(session, d, vaccine);
+            } else {
+                out.println("Appointment created!");
+                out.println("Appointment ID: " + reservation.getAppointmentId() +
+                        ", Caregiver: " + reservation.getCaregiver() +
+                        ", Time: " + SlotBits.formatTime(reservation.getSlot()));
+            }
+        } catch (IllegalArgumentException e) {
+            out.println("Please enter a valid date!");
+        } catch (SQLException e) {
+            CommandMetrics.commandFailed();
+            out.println("Error occurred when adding reservation");
+            e.printStackTrace();
+        }
 
     }
 
-    private static void reserve(String[] tokens) throws SQLException {
-        // TODO: Part 2
-        if (currentPatient == null && currentCaregiver == null){
-            System.out.println("Please login first!");
+    private static void bulkReserve(Session session, String[] tokens) {
+        PrintStream out = session.getOut();
+        // bulk_reserve <date> <file>, one "patient,vaccine" pair per line
+        if (session.getCaregiver() == null) {
+            out.println("Please login as a caregiver first!");
             return;
         }
-
-        if (currentPatient == null){
-            System.out.println("Please login as a patient!");
+        if (tokens.length != 3) {
+            out.println("Please try again!");
             return;
         }
-
-        if (tokens.length !=3){
-            System.out.println("Please try again!");
+        Date d;
+        try {
+            d = Date.valueOf(tokens[1]);
+        } catch (IllegalArgumentException e) {
+            out.println("Please enter a valid date!");
             return;
         }
+        try {
+            BulkAllocator.Result result = bulkAllocator.allocate(d, tokens[2]);
+            out.println("Bulk reservation done!");
+            out.printf("%d reserved, %d without doses, %d without a caregiver, %d unknown patients, " +
+                            "%d duplicates, %d invalid, %.0f reservations/sec%n",
+                    result.getCount(BulkAllocator.Status.RESERVED), result.getCount(BulkAllocator.Status.NO_DOSES),
+                    result.getCount(BulkAllocator.Status.NO_CAREGIVER),
+                    result.getCount(BulkAllocator.Status.UNKNOWN_PATIENT),
+                    result.getCount(BulkAllocator.Status.DUPLICATE), result.getCount(BulkAllocator.Status.INVALID),
+                    result.getReservationsPerSecond());
+            out.println("Results written to " + result.getResultsFile());
+        } catch (IOException e) {
+            out.println("Could not read the request file or write the results!");
+        } catch (SQLException e) {
+            CommandMetrics.commandFailed();
+            out.println("Error occurred when adding reservations");
+            e.printStackTrace();
+        }
+    }
 
+    private static void addToWaitlist(Session session, Date d, String vaccine) throws SQLException {
+        PrintStream out = session.getOut();
+        WaitlistMatcher.Enqueued enqueued =
+                WaitlistMatcher.getInstance().enqueue(session.getPatient().getUsername(), vaccine, d);
+        if (enqueued == WaitlistMatcher.Enqueued.ADDED) {
+            out.println("Added to the waitlist.");
+        } else if (enqueued == WaitlistMatcher.Enqueued.ALREADY_WAITING) {
+            out.println("Already on the waitlist.");
+        } else if (enqueued == WaitlistMatcher.Enqueued.UNKNOWN_VACCINE) {
+            out.println("No such vaccine, not added to the waitlist.");
+        } else {
+            out.println("The date has passed, not added to the waitlist.");
+        }
+    }
+
+    /**
+     * Books waitlisted requests after capacity was added and prints how many were booked.
+     */
+    static void matchWaitlist(PrintStream out) {
+        try {
+            List<WaitlistEntry> booked = WaitlistMatcher.getInstance().match();
+            if (!booked.isEmpty()) {
+                out.println(booked.size() + " waitlisted requests booked");
+            }
+        } catch (SQLException e) {
+            CommandMetrics.commandFailed();
+            out.println("Error occurred when booking waitlisted requests");
+            e.printStackTrace();
+        }
+    }
+
+    private static void notifyPatient(Session session) {
+        PrintStream out = session.getOut();
+        try {
+            for (WaitlistEntry entry : WaitlistMatcher.getInstance().takeNotifications(session.getPatient().getUsername())) {
+                out.println("Waitlisted appointment booked! Appointment ID: " + entry.getAppointmentId() +
+                        ", Caregiver: " + entry.getCaregiver() + ", Vaccine: " + entry.getVaccine() +
+                        ", Date: " + entry.getDate() +
+                        (entry.getSlot() >= 0 ? ", Time: " + SlotBits.formatTime(entry.getSlot()) : ""));
+            }
+        } catch (SQLException e) {
+            CommandMetrics.commandFailed();
+            out.println("Error occurred when reading the waitlist");
+            e.printStackTrace();
+        }
+    }
+
+    private static void uploadAvailability(Session session, String[] tokens) {
+        PrintStream out = session.getOut();
+        // upload_availability <date> [hours]
+        // check 1: check if the current logged-in user is a caregiver
+        if (session.getCaregiver() == null) {
+            out.println("Please login as a caregiver first!");
+            return;
+        }
+        // check 2: the date, and optionally the hours, must follow the operation name
+        if (tokens.length != 2 && tokens.length != 3) {
+            out.println("Please try again!");
+            return;
+        }
+        SlotBits slots = SlotBits.WORKING_DAY;
+        if (tokens.length == 3) {
+            slots = parseHours(out, tokens[2]);
+            if (slots == null) {
+                return;
+            }
+        }
         String date = tokens[1];
-        String vaccine = tokens[2];
+        try {
+            Date d = Date.valueOf(date);
+            session.getCaregiver().uploadAvailability(d, slots);
+            out.println("Availability uploaded!");
+            matchWaitlist(out);
+        } catch (IllegalArgumentException e) {
+            out.println("Please enter a valid date!");
+        } catch (SQLException e) {
+            CommandMetrics.commandFailed();
+            out.println("Error occurred when uploading availability");
+            e.printStackTrace();
+        }
+    }
 
-        if (!areDosesAvailable(vaccine)){
-            System.out.println("Not enough available doses!");
-        } else if (!isCaregiverAvailable(date)){
-            System.out.println("No caregiver is available!");
-        } else {
-            ConnectionManager cm = new ConnectionManager();
-            Connection con = cm.createConnection();
-            String getCaregivers = "SELECT Availabilities.Username AS Caregiver " +
-                    "FROM Availabilities " +
-                    "WHERE Availabilities.Time = ? ";
-            try {
-                PreparedStatement statement = con.prepareStatement(getCaregivers);
-                statement.setString(1, date);
-                ResultSet resultSet = statement.executeQuery();
-                if (resultSet.next()) {
-                    String caregiverName = resultSet.getString("Caregiver");
-                    Vaccine reservedVaccine = null;
-                    try {
-                        reservedVaccine = new Vaccine.VaccineGetter(vaccine).get();
-                        reservedVaccine.decreaseAvailableDoses(1);
-                    } catch (SQLException e) {
-                        System.out.println("Error occurred when adding doses");
-                        e.printStackTrace();
-                    }
-                    String deleteAvailability = "DELETE FROM Availabilities WHERE Username = ?";
-
-                    try{
-                        PreparedStatement statement2 = con.prepareStatement(deleteAvailability);
-                        statement2.setString(1, caregiverName);
-                        statement2.executeUpdate();
-                    } catch (SQLException e){
-                        throw e;
-                    }
+    private static void uploadAvailabilityRange(Session session, String[] tokens) {
+        PrintStream out = session.getOut();
+        // upload_availability_range <start_date> <end_date> [weekdays] [hours]
+        if (session.getCaregiver() == null) {
+            out.println("Please login as a caregiver first!");
+            return;
+        }
+        if (tokens.length < 3 || tokens.length > 5) {
+            out.println("Please try again!");
+            return;
+        }
+        SlotBits hours = SlotBits.WORKING_DAY;
+        // hours are told apart from weekdays by their colons
+        if (tokens.length > 3 && tokens[tokens.length - 1].contains(":")) {
+            hours = parseHours(out, tokens[tokens.length - 1]);
+            if (hours == null) {
+                return;
+            }
+            tokens = Arrays.copyOf(tokens, tokens.length - 1);
+        }
+        if (tokens.length == 5) {
+            out.println("Please try again!");
+            return;
+        }
+        LocalDate start;
+        LocalDate end;
+        try {
+            start = Date.valueOf(tokens[1]).toLocalDate();
+            end = Date.valueOf(tokens[2]).toLocalDate();
+        } catch (IllegalArgumentException e) {
+            out.println("Please enter a valid date!");
+            return;
+        }
+        if (end.isBefore(start)) {
+            out.println("End date must not be before start date!");
+            return;
+        }
+        Set<DayOfWeek> weekdays = EnumSet.allOf(DayOfWeek.class);
+        if (tokens.length == 4) {
+            weekdays = parseWeekdays(tokens[3]);
+            if (weekdays == null) {
+                out.println("Please enter weekdays like MON,WED,FRI!");
+                return;
+            }
+        }
+        List<AvailabilityLoader.Slot> slots = new ArrayList<>();
+        for (LocalDate day = start; !day.isAfter(end); day = day.plusDays(1)) {
+            if (weekdays.contains(day.getDayOfWeek())) {
+                slots.add(new AvailabilityLoader.Slot(session.getCaregiver().getUsername(), Date.valueOf(day), hours));
+            }
+        }
+        loadAvailability(out, slots, 0);
+    }
 
-                    String addAppointment = "INSERT INTO Reservations (AppointmentID, vname, pname, cname, rtime) VALUES (?, ?, ?, ?, ?)";
-
-                    try {
-                        PreparedStatement reservationStatement = con.prepareStatement(addAppointment);
-                        String ID = UUID.randomUUID().toString();
-                        reservationStatement.setString(1, ID);
-                        reservationStatement.setString(2, vaccine);
-                        reservationStatement.setString(3, currentPatient.getUsername()); // Assuming currentPatient has a getUsername() method
-                        reservationStatement.setString(4, caregiverName);
-                        reservationStatement.setString(5, date);
-                        reservationStatement.executeUpdate();
-                        System.out.println("Appointment created!");
-                        System.out.println("Appointment ID: " + ID +  ", Caregiver: " + caregiverName);
-                    } catch (SQLException e) {
-                        System.out.println("Error occurred when adding reservation");
-                        e.printStackTrace();
+    private static void uploadRoster(Session session, String[] tokens) {
+        PrintStream out = session.getOut();
+        // upload_roster <file>, one "caregiver,date" pair per line, optionally followed by hours
+        if (session.getCaregiver() == null) {
+            out.println("Please login as a caregiver first!");
+            return;
+        }
+        if (tokens.length != 2) {
+            out.println("Please try again!");
+            return;
+        }
+        List<AvailabilityLoader.Slot> slots = new ArrayList<>();
+        int invalid = 0;
+        try (BufferedReader reader = Files.newBufferedReader(Paths.get(tokens[1]))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.isBlank()) {
+                    continue;
+                }
+                // the hours may hold commas of their own
+                String[] fields = line.split(",", 3);
+                try {
+                    if (fields.length < 2) {
+                        throw new IllegalArgumentException();
                     }
-
+                    SlotBits hours = fields.length == 3 ? SlotBits.parse(fields[2]) : SlotBits.WORKING_DAY;
+                    slots.add(new AvailabilityLoader.Slot(fields[0].trim(), Date.valueOf(fields[1].trim()), hours));
+                } catch (IllegalArgumentException e) {
+                    // header lines and malformed rows are counted, not fatal
+                    invalid++;
                 }
-            } catch (SQLException e) {
-                throw e;
-            } finally {
-                cm.closeConnection();
             }
+        } catch (IOException e) {
+            out.println("Could not read roster file!");
+            return;
         }
+        loadAvailability(out, slots, invalid);
+    }
 
+    private static void loadAvailability(PrintStream out, List<AvailabilityLoader.Slot> slots, int invalid) {
+        try {
+            AvailabilityLoader.Result result = availabilityLoader.load(slots);
+            out.println("Availability uploaded!");
+            out.printf("%d rows inserted, %d skipped (no new slots or unknown caregiver), %d invalid, %.0f rows/sec%n",
+                    result.getInserted(), result.getSkipped(), invalid, result.getRowsPerSecond());
+            matchWaitlist(out);
+        } catch (SQLException e) {
+            CommandMetrics.commandFailed();
+            out.println("Error occurred when uploading availability");
+            e.printStackTrace();
+        }
     }
 
-    private static void uploadAvailability(String[] tokens) {
-        // upload_availability <date>
-        // check 1: check if the current logged-in user is a caregiver
-        if (currentCaregiver == null) {
-            System.out.println("Please login as a caregiver first!");
+    // prints the error and returns null if the hours are not valid
+    private static SlotBits parseHours(PrintStream out, String hours) {
+        try {
+            return SlotBits.parse(hours);
+        } catch (IllegalArgumentException e) {
+            out.println("Please enter hours on the quarter hour, e.g. 09:00-12:00,13:00-17:00!");
+            return null;
+        }
+    }
+
+    private static Set<DayOfWeek> parseWeekdays(String list) {
+        Set<DayOfWeek> weekdays = EnumSet.noneOf(DayOfWeek.class);
+        for (String name : list.split(",")) {
+            DayOfWeek match = null;
+            for (DayOfWeek day : DayOfWeek.values()) {
+                if (!name.isEmpty() && day.name().startsWith(name.trim().toUpperCase())) {
+                    match = day;
+                }
+            }
+            if (match == null) {
+                return null;
+            }
+            weekdays.add(match);
+        }
+        return weekdays;
+    }
+
+    private static void cancel(Session session, String[] tokens) {
+        PrintStream out = session.getOut();
+        // cancel <appointment_id>, for the appointment's patient or caregiver
+        if (session.getPatient() == null && session.getCaregiver() == null) {
+            out.println("Please login first!");
             return;
         }
-        // check 2: the length for tokens need to be exactly 2 to include all information (with the operation name)
         if (tokens.length != 2) {
-            System.out.println("Please try again!");
+            out.println("Please try again!");
             return;
         }
-        String date = tokens[1];
+        Role role = session.getPatient() != null ? Role.PATIENT : Role.CAREGIVER;
+        String username = session.getPatient() != null
+                ? session.getPatient().getUsername() : session.getCaregiver().getUsername();
         try {
-            Date d = Date.valueOf(date);
-            currentCaregiver.uploadAvailability(d);
-            System.out.println("Availability uploaded!");
+            if (appointmentCanceller.cancel(tokens[1], role, username) == null) {
+                out.println("Could not find appointment " + tokens[1] + "!");
+                return;
+            }
+            out.println("Appointment cancelled!");
+            matchWaitlist(out);
+        } catch (SQLException e) {
+            CommandMetrics.commandFailed();
+            out.println("Error occurred when cancelling appointment");
+            e.printStackTrace();
+        }
+    }
+
+    private static void cancelCaregiverDay(Session session, String[] tokens) {
+        PrintStream out = session.getOut();
+        // cancel_caregiver_day <caregiver> <date>, e.g. when the caregiver is off sick
+        if (session.getCaregiver() == null) {
+            out.println("Please login as a caregiver first!");
+            return;
+        }
+        if (tokens.length != 3) {
+            out.println("Please try again!");
+            return;
+        }
+        Date d;
+        try {
+            d = Date.valueOf(tokens[2]);
         } catch (IllegalArgumentException e) {
-            System.out.println("Please enter a valid date!");
+            out.println("Please enter a valid date!");
+            return;
+        }
+        try {
+            List<Appointment> cancelled = appointmentCanceller.cancelCaregiverDay(tokens[1], d);
+            out.println("Caregiver day cancelled!");
+            out.println(cancelled.size() + " appointments cancelled, patients added to the waitlist");
+            matchWaitlist(out);
         } catch (SQLException e) {
-            System.out.println("Error occurred when uploading availability");
+            CommandMetrics.commandFailed();
+            out.println("Error occurred when cancelling appointments");
             e.printStackTrace();
         }
     }
 
-    private static void cancel(String[] tokens) {
-        // TODO: Extra credit
+    private static void cancelVaccineLot(Session session, String[] tokens) {
+        PrintStream out = session.getOut();
+        // cancel_vaccine_lot <vaccine> <start_date> [end_date], e.g. when a lot is recalled
+        if (session.getCaregiver() == null) {
+            out.println("Please login as a caregiver first!");
+            return;
+        }
+        if (tokens.length != 3 && tokens.length != 4) {
+            out.println("Please try again!");
+            return;
+        }
+        Date start;
+        Date end;
+        try {
+            start = Date.valueOf(tokens[2]);
+            end = tokens.length == 4 ? Date.valueOf(tokens[3]) : start;
+        } catch (IllegalArgumentException e) {
+            out.println("Please enter a valid date!");
+            return;
+        }
+        if (end.before(start)) {
+            out.println("End date must not be before start date!");
+            return;
+        }
+        try {
+            List<Appointment> cancelled = appointmentCanceller.cancelVaccineLot(tokens[1], start, end);
+            out.println("Vaccine lot cancelled!");
+            out.println(cancelled.size() + " appointments cancelled, patients added to the waitlist");
+            matchWaitlist(out);
+        } catch (SQLException e) {
+            CommandMetrics.commandFailed();
+            out.println("Error occurred when cancelling appointments");
+            e.printStackTrace();
+        }
     }
 
-    private static void addDoses(String[] tokens) {
+    private static void addDoses(Session session, String[] tokens) {
+        PrintStream out = session.getOut();
         // add_doses <vaccine> <number>
         // check 1: check if the current logged-in user is a caregiver
-        if (currentCaregiver == null) {
-            System.out.println("Please login as a caregiver first!");
+        if (session.getCaregiver() == null) {
+            out.println("Please login as a caregiver first!");
             return;
         }
         // check 2: the length for tokens need to be exactly 3 to include all information (with the operation name)
         if (tokens.length != 3) {
-            System.out.println("Please try again!");
+            out.println("Please try again!");
             return;
         }
         String vaccineName = tokens[1];
@@ -463,7 +929,8 @@ public class Scheduler {
         try {
             vaccine = new Vaccine.VaccineGetter(vaccineName).get();
         } catch (SQLException e) {
-            System.out.println("Error occurred when adding doses");
+            CommandMetrics.commandFailed();
+            out.println("Error occurred when adding doses");
             e.printStackTrace();
         }
         // check 3: if getter returns null, it means that we need to create the vaccine and insert it into the Vaccines
@@ -473,7 +940,8 @@ public class Scheduler {
                 vaccine = new Vaccine.VaccineBuilder(vaccineName, doses).build();
                 vaccine.saveToDB();
             } catch (SQLException e) {
-                System.out.println("Error occurred when adding doses");
+                CommandMetrics.commandFailed();
+                out.println("Error occurred when adding doses");
                 e.printStackTrace();
             }
         } else {
@@ -481,143 +949,105 @@ public class Scheduler {
             try {
                 vaccine.increaseAvailableDoses(doses);
             } catch (SQLException e) {
-                System.out.println("Error occurred when adding doses");
+                CommandMetrics.commandFailed();
+                out.println("Error occurred when adding doses");
                 e.printStackTrace();
             }
         }
-        System.out.println("Doses updated!");
+        out.println("Doses updated!");
+        matchWaitlist(out);
     }
 
-    private static void showAppointments(String[] tokens) throws SQLException {
-        if (currentCaregiver == null && currentPatient == null){
-            System.out.println("Please login first!");
+    private static void prioritize(Session session, String[] tokens) throws SQLException {
+        PrintStream out = session.getOut();
+        // prioritize <patient> <priority>, higher priorities are booked first from the waitlist
+        if (session.getCaregiver() == null) {
+            out.println("Please login as a caregiver first!");
+            return;
         }
-        if (currentPatient != null){
-            ConnectionManager cm = new ConnectionManager();
-            Connection con = cm.createConnection();
-            String showAppointments = "SELECT AppointmentID, vname AS Vaccine, rtime AS Date, cname AS Caregiver " +
-                                      "FROM Reservations " +
-                                      "WHERE pname= ?";
-
-            try {
-                PreparedStatement statement = con.prepareStatement(showAppointments);
-                statement.setString(1, currentPatient.getUsername());
-                ResultSet resultSet = statement.executeQuery();
-                if (!resultSet.next()){
-                    System.out.println("No appointments scheduled!");
-                } else {
-                    String ID = resultSet.getString("AppointmentID");
-                    String vaccine = resultSet.getString("Vaccine");
-                    String date = resultSet.getString("Date");
-                    String caregiver = resultSet.getString("Caregiver");
-                    System.out.println(ID + ", " + vaccine + ", " + date + ", " + caregiver);
-                    while (resultSet.next()) {
-                        ID = resultSet.getString("AppointmentID");
-                        vaccine = resultSet.getString("Vaccine");
-                        date = resultSet.getString("Date");
-                        caregiver = resultSet.getString("Caregiver");
-                        System.out.println(ID + ", " + vaccine + ", " + date + ", " + caregiver);
-                    }
-                }
-            } catch (SQLException e) {
-                throw e;
-            } finally {
-                cm.closeConnection();
-            }
+        if (tokens.length != 3) {
+            out.println("Please try again!");
+            return;
         }
-
-        if (currentCaregiver != null){
-            ConnectionManager cm = new ConnectionManager();
-            Connection con = cm.createConnection();
-            String showAppointments = "SELECT AppointmentID, vname AS Vaccine, rtime AS Date, pname AS Patient " +
-                                      "FROM Reservations " +
-                                       "WHERE cname= ?";
-
-            try {
-                PreparedStatement statement = con.prepareStatement(showAppointments);
-                statement.setString(1, currentCaregiver.getUsername());
-                ResultSet resultSet = statement.executeQuery();
-                if (!resultSet.next()){
-                    System.out.println("No appointments scheduled!");
-                } else {
-                    String ID = resultSet.getString("AppointmentID");
-                    String vaccine = resultSet.getString("Vaccine");
-                    String date = resultSet.getString("Date");
-                    String patient = resultSet.getString("Patient");
-                    System.out.println(ID + ", " + vaccine + ", " + date + ", " + patient);
-                    while (resultSet.next()) {
-                        ID = resultSet.getString("AppointmentID");
-                        vaccine = resultSet.getString("Vaccine");
-                        date = resultSet.getString("Date");
-                        patient = resultSet.getString("Patient");
-                        System.out.println(ID + ", " + vaccine + ", " + date + ", " + patient);
-                    }
-                }
-            } catch (SQLException e) {
-                throw e;
-            } finally {
-                cm.closeConnection();
-            }
+        int priority;
+        try {
+            priority = Integer.parseInt(tokens[2]);
+        } catch (NumberFormatException e) {
+            out.println("Please try again!");
+            return;
         }
-
-    }
-
-    private static void logout(String[] tokens) {
-        if (currentCaregiver==null && currentPatient ==null){
-            System.out.println("No user logged in!");
+        int updated = WaitlistMatcher.getInstance().prioritize(tokens[1], priority);
+        if (updated == 0) {
+            out.println("No waitlisted requests for " + tokens[1]);
         } else {
-            currentCaregiver = null;
-            currentPatient = null;
-            System.out.println("Logged out!");
+            out.println(updated + " waitlisted requests prioritized");
         }
     }
 
-    private static boolean areDosesAvailable(String vaccineName) throws SQLException {
-        ConnectionManager cm = new ConnectionManager();
-        Connection con = cm.createConnection();
-        String findDoses = "SELECT Doses FROM Vaccines WHERE Name = ?";
-
+    private static void showAppointments(Session session, String[] tokens) throws SQLException {
+        PrintStream out = session.getOut();
+        // show_appointments [from_date] [to_date] [--after <cursor>] [--limit <n>]
+        if (session.getCaregiver() == null && session.getPatient() == null){
+            out.println("Please login first!");
+            return;
+        }
+        List<String> dates = new ArrayList<>();
+        Appointment after = null;
+        int limit = AppointmentListing.DEFAULT_LIMIT;
         try {
-            PreparedStatement statement = con.prepareStatement(findDoses);
-            statement.setString(1, vaccineName);
-            ResultSet resultSet = statement.executeQuery();
-
-            if (resultSet.next()) {
-                int doses = resultSet.getInt("Doses");
-                if (doses != 0) {
-                    return true;
+            for (int i = 1; i < tokens.length; i++) {
+                if (tokens[i].equals("--after") && i + 1 < tokens.length) {
+                    after = AppointmentListing.parseCursor(tokens[++i]);
+                } else if (tokens[i].equals("--limit") && i + 1 < tokens.length) {
+                    limit = Integer.parseInt(tokens[++i]);
+                } else {
+                    dates.add(tokens[i]);
                 }
             }
-        } catch (SQLException e) {
-            throw e;
-        } finally {
-            cm.closeConnection();
+        } catch (IllegalArgumentException e) {
+            out.println("Please try again!");
+            return;
         }
-        return false;
-    }
-
-    private static boolean isCaregiverAvailable(String d) {
-        ConnectionManager cm = new ConnectionManager();
-        Connection con = cm.createConnection();
-        String findNumCaregiversAvailable = "SELECT COUNT(*) FROM Availabilities WHERE Time = ?";
-
+        if (dates.size() > 2 || limit <= 0) {
+            out.println("Please try again!");
+            return;
+        }
+        Date from = null;
+        Date to = null;
         try {
-            PreparedStatement statement = con.prepareStatement(findNumCaregiversAvailable);
-            statement.setString(1, d);
-
-            ResultSet resultSet = statement.executeQuery();
-
-            // Check if there is at least one caregiver available at the specified time
-            if (resultSet.next()) {
-                int numCaregivers = resultSet.getInt(1);
-                return numCaregivers > 0;
+            if (dates.size() > 0) {
+                from = Date.valueOf(dates.get(0));
             }
-        } catch (SQLException e) {
-            throw new RuntimeException("Error checking caregiver availability", e);
-        } finally {
-            cm.closeConnection();
+            if (dates.size() > 1) {
+                to = Date.valueOf(dates.get(1));
+            }
+        } catch (IllegalArgumentException e) {
+            out.println("Please enter a valid date!");
+            return;
+        }
+        if (from != null && to != null && to.before(from)) {
+            out.println("End date must not be before start date!");
+            return;
+        }
+        Appointment next;
+        if (session.getPatient() != null){
+            next = session.getPatient().getAppointments(from, to, after, limit, out);
+        } else {
+            next = session.getCaregiver().getAppointments(from, to, after, limit, out);
+        }
+        if (next != null) {
+            out.println("More appointments: --after " + AppointmentListing.formatCursor(next));
+        }
+    }
+
+    private static void logout(Session session, String[] tokens) {
+        PrintStream out = session.getOut();
+        if (session.getCaregiver()==null && session.getPatient() ==null){
+            out.println("No user logged in!");
+        } else {
+            session.logout();
+            out.println("Logged out!");
         }
-        return false;
     }
 
 
@@ -0,0 +1,180 @@
+package scheduler;
+
+import scheduler.metrics.CommandMetrics;
+import scheduler.model.Vaccine;
+import scheduler.service.AvailabilityLoader;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.sql.Date;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Replays a file (or stdin) of console commands without the interactive prompt.
+ *
+ * The whole script is parsed first. Consecutive add_doses commands and consecutive
+ * upload_availability commands from a logged-in caregiver are grouped and applied as one batch each,
+ * everything else runs through {@link Scheduler#execute} one command at a time. All output goes
+ * through one buffered stream, followed by a summary of commands per second and of the commands
+ * that {@link CommandMetrics} recorded as failed.
+ */
+public class ScriptRunner {
+
+    private final AvailabilityLoader availabilityLoader = new AvailabilityLoader();
+    private final Session session = new Session();
+    private PrintStream out;
+    private int executed = 0;
+    private int failed = 0;
+
+    /**
+     * Runs the script at path, or standard input if path is "-".
+     */
+    public static void run(String path) throws IOException {
+        List<String[]> commands = new ArrayList<>();
+        try (BufferedReader reader = path.equals("-")
+                ? new BufferedReader(new InputStreamReader(System.in, StandardCharsets.UTF_8))
+                : Files.newBufferedReader(Paths.get(path), StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (!line.isBlank()) {
+                    commands.add(line.trim().split(" "));
+                }
+            }
+        }
+        PrintStream out = new PrintStream(
+                new BufferedOutputStream(new FileOutputStream(FileDescriptor.out), 1 << 16), false);
+        try {
+            new ScriptRunner().execute(commands, out);
+        } finally {
+            out.flush();
+        }
+    }
+
+    private void execute(List<String[]> commands, PrintStream out) {
+        this.out = out;
+        session.setOut(out);
+        long start = System.nanoTime();
+        int i = 0;
+        while (i < commands.size()) {
+            String operation = commands.get(i)[0];
+            int end = i + 1;
+            if (session.getCaregiver() != null && isBatchable(commands.get(i))) {
+                while (end < commands.size() && commands.get(end)[0].equals(operation)
+                        && isBatchable(commands.get(end))) {
+                    end++;
+                }
+            }
+            if (end - i > 1 && operation.equals("add_doses")) {
+                addDoses(commands.subList(i, end));
+            } else if (end - i > 1 && operation.equals("upload_availability")) {
+                uploadAvailability(commands.subList(i, end));
+            } else if (!executeOne(commands.get(i))) {
+                break;
+            }
+            i = end;
+        }
+        Scheduler.shutdown();
+        double seconds = (System.nanoTime() - start) / 1e9;
+        out.printf("%d commands in %.2fs (%.0f commands/sec), %d failed%n",
+                executed, seconds, seconds == 0 ? 0 : executed / seconds, failed);
+    }
+
+    // Runs one command, counting it as failed if CommandMetrics recorded it so. Returns false on quit.
+    private boolean executeOne(String[] tokens) {
+        boolean more;
+        try {
+            more = Scheduler.execute(session, String.join(" ", tokens));
+        } catch (RuntimeException e) {
+            out.println("Error occurred: " + e);
+            more = true;
+        }
+        // quit is not a recorded command, so the flag still belongs to the one before it
+        count(1, more && CommandMetrics.lastFailed() ? 1 : 0);
+        return more;
+    }
+
+    private static boolean isBatchable(String[] tokens) {
+        if (tokens[0].equals("add_doses") && tokens.length == 3) {
+            try {
+                return Integer.parseInt(tokens[2]) > 0;
+            } catch (NumberFormatException e) {
+                return false;
+            }
+        }
+        if (tokens[0].equals("upload_availability") && tokens.length == 2) {
+            try {
+                Date.valueOf(tokens[1]);
+                return true;
+            } catch (IllegalArgumentException e) {
+                return false;
+            }
+        }
+        return false;
+    }
+
+    private void addDoses(List<String[]> run) {
+        Map<String, Integer> doses = new LinkedHashMap<>();
+        for (String[] tokens : run) {
+            doses.merge(tokens[1], Integer.parseInt(tokens[2]), Integer::sum);
+        }
+        // the whole run is recorded as one add_doses command
+        long start = CommandMetrics.begin("add_doses");
+        try {
+            Vaccine.addDoses(doses);
+            for (int k = 0; k < run.size(); k++) {
+                out.println("Doses updated!");
+            }
+            Scheduler.matchWaitlist(out);
+        } catch (SQLException e) {
+            CommandMetrics.commandFailed();
+            for (int k = 0; k < run.size(); k++) {
+                out.println("Error occurred when adding doses");
+            }
+            e.printStackTrace();
+        } finally {
+            CommandMetrics.end(start, false);
+        }
+        count(run.size(), CommandMetrics.lastFailed() ? run.size() : 0);
+    }
+
+    private void uploadAvailability(List<String[]> run) {
+        List<AvailabilityLoader.Slot> slots = new ArrayList<>();
+        for (String[] tokens : run) {
+            slots.add(new AvailabilityLoader.Slot(session.getCaregiver().getUsername(), Date.valueOf(tokens[1])));
+        }
+        long start = CommandMetrics.begin("upload_availability");
+        try {
+            availabilityLoader.load(slots);
+            for (int k = 0; k < run.size(); k++) {
+                out.println("Availability uploaded!");
+            }
+            Scheduler.matchWaitlist(out);
+        } catch (SQLException e) {
+            CommandMetrics.commandFailed();
+            for (int k = 0; k < run.size(); k++) {
+                out.println("Error occurred when uploading availability");
+            }
+            e.printStackTrace();
+        } finally {
+            CommandMetrics.end(start, false);
+        }
+        count(run.size(), CommandMetrics.lastFailed() ? run.size() : 0);
+    }
+
+    private void count(int commands, int failures) {
+        executed += commands;
+        failed += failures;
+    }
+}
@@ -0,0 +1,76 @@
+package scheduler;
+
+import scheduler.model.Caregiver;
+import scheduler.model.Patient;
+
+import java.io.PrintStream;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * The logged-in user of one client: the interactive console has exactly one, the server keeps one
+ * per connected client in its session registry. Commands print their output to the session's
+ * stream, which is System.out for the console and the client's socket for the server.
+ */
+public class Session {
+
+    // Note: it is always true that at most one of caregiver and patient is not null
+    //       since only one user can be logged-in at a time per session
+    private volatile Caregiver caregiver = null;
+    private volatile Patient patient = null;
+    private volatile long lastAccessMillis = System.currentTimeMillis();
+    private volatile PrintStream out = System.out;
+    // held while a command runs, so commands of one session never overlap
+    private final ReentrantLock lock = new ReentrantLock();
+
+    public Caregiver getCaregiver() {
+        return caregiver;
+    }
+
+    public Patient getPatient() {
+        return patient;
+    }
+
+    public void setCaregiver(Caregiver caregiver) {
+        this.caregiver = caregiver;
+        this.patient = null;
+    }
+
+    public void setPatient(Patient patient) {
+        this.patient = patient;
+        this.caregiver = null;
+    }
+
+    public PrintStream getOut() {
+        return out;
+    }
+
+    // set by the connection currently using the session; it changes when a client resumes
+    public void setOut(PrintStream out) {
+        this.out = out;
+    }
+
+    public void lock() {
+        lock.lock();
+    }
+
+    public void unlock() {
+        lock.unlock();
+    }
+
+    public boolean isLoggedIn() {
+        return caregiver != null || patient != null;
+    }
+
+    public void logout() {
+        this.caregiver = null;
+        this.patient = null;
+    }
+
+    public void touch() {
+        lastAccessMillis = System.currentTimeMillis();
+    }
+
+    public long getLastAccessMillis() {
+        return lastAccessMillis;
+    }
+}
@@ -0,0 +1,320 @@
+package scheduler.bench;
+
+import scheduler.Scheduler;
+import scheduler.Session;
+import scheduler.db.ConnectionManager;
+import scheduler.service.AvailabilityIndex;
+import scheduler.service.CaregiverAssigner;
+import scheduler.service.DoseLedger;
+import scheduler.util.LatencyHistogram;
+import scheduler.util.Util;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.sql.Connection;
+import java.sql.Date;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Simulates patients and caregivers using the scheduler at the same time and reports per-command
+ * throughput and latency percentiles.
+ *
+ * Every simulated user has its own {@link Session} and sends command lines through
+ * {@link Scheduler#execute}, exactly as the console and the server do. Patients log in, search
+ * schedules, reserve and look at their appointments; caregivers upload availability, add doses and
+ * look at their appointments. After the run the database is checked for overbooked caregivers,
+ * negative dose counts and reservations on slots that were never offered.
+ *
+ * Runs against the database configured through the usual environment variables, usually a local
+ * SQL Server container (set JdbcUrl). All rows it creates use the "load_" prefix and are removed
+ * before and after the run.
+ *
+ * Usage: LoadGenerator [patients] [caregivers] [seconds] [threads]
+ */
+public class LoadGenerator {
+
+    private static final String PASSWORD = "Load_pass1!";
+    private static final String[] VACCINES = {"load_v0", "load_v1", "load_v2"};
+    private static final LocalDate FIRST_DAY = LocalDate.of(2099, 1, 1);
+    private static final int DAYS = 30;
+    // chance that a seeded caregiver is available on a given day
+    private static final double SEED_AVAILABILITY = 0.3;
+
+    private static final String[] COMMANDS = {
+            "login_patient", "search_caregiver_schedule", "reserve", "show_appointments",
+            "login_caregiver", "upload_availability", "add_doses"
+    };
+
+    private final Map<String, LatencyHistogram> latencies = new LinkedHashMap<>();
+    private final Map<String, AtomicLong> errors = new LinkedHashMap<>();
+    // every (caregiver, date) slot that was seeded or uploaded during the run
+    private final Set<String> offered = ConcurrentHashMap.newKeySet();
+
+    private LoadGenerator() {
+        for (String command : COMMANDS) {
+            latencies.put(command, new LatencyHistogram());
+            errors.put(command, new AtomicLong());
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        int patients = args.length > 0 ? Integer.parseInt(args[0]) : 200;
+        int caregivers = args.length > 1 ? Integer.parseInt(args[1]) : 50;
+        int seconds = args.length > 2 ? Integer.parseInt(args[2]) : 30;
+        int threads = args.length > 3 ? Integer.parseInt(args[3]) : 32;
+        new LoadGenerator().run(patients, caregivers, seconds, threads);
+        ConnectionManager.getPool().close();
+    }
+
+    private void run(int patients, int caregivers, int seconds, int threads) throws Exception {
+        PrintStream console = System.out;
+        console.printf("Seeding %d patients and %d caregivers%n", patients, caregivers);
+        seed(patients, caregivers);
+        AvailabilityIndex.getInstance().load();
+        CaregiverAssigner.getInstance().load();
+        DoseLedger.getInstance().start(1000);
+
+        List<List<User>> perThread = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            perThread.add(new ArrayList<>());
+        }
+        for (int i = 0; i < patients + caregivers; i++) {
+            User user = i < patients ? new User("load_p" + i, true) : new User("load_c" + (i - patients), false);
+            perThread.get(i % threads).add(user);
+        }
+
+        console.printf("Running %d users on %d threads for %ds%n", patients + caregivers, threads, seconds);
+        long deadline = System.nanoTime() + seconds * 1_000_000_000L;
+        long start = System.nanoTime();
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int t = 0; t < threads; t++) {
+                List<User> users = perThread.get(t);
+                long seed = t;
+                futures.add(executor.submit(() -> drive(users, new Random(seed), deadline)));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } finally {
+            executor.shutdown();
+        }
+        double elapsed = (System.nanoTime() - start) / 1e9;
+        DoseLedger.getInstance().stop();
+
+        report(elapsed);
+        check();
+        cleanup();
+    }
+
+    private void drive(List<User> users, Random random, long deadline) {
+        if (users.isEmpty()) {
+            return;
+        }
+        for (User user : users) {
+            execute(user, user.patient ? "login_patient" : "login_caregiver",
+                    (user.patient ? "login_patient " : "login_caregiver ") + user.username + " " + PASSWORD);
+        }
+        while (System.nanoTime() < deadline) {
+            for (User user : users) {
+                if (user.patient) {
+                    patientStep(user, random);
+                } else {
+                    caregiverStep(user, random);
+                }
+            }
+        }
+    }
+
+    private void patientStep(User user, Random random) {
+        int roll = random.nextInt(100);
+        String date = randomDay(random).toString();
+        if (roll < 10) {
+            Scheduler.execute(user.session, "logout");
+            execute(user, "login_patient", "login_patient " + user.username + " " + PASSWORD);
+        } else if (roll < 45) {
+            execute(user, "search_caregiver_schedule", "search_caregiver_schedule " + date);
+        } else if (roll < 70) {
+            execute(user, "reserve", "reserve " + date + " " + VACCINES[random.nextInt(VACCINES.length)]);
+        } else {
+            execute(user, "show_appointments", "show_appointments");
+        }
+    }
+
+    private void caregiverStep(User user, Random random) {
+        int roll = random.nextInt(100);
+        if (roll < 60) {
+            Date date = Date.valueOf(randomDay(random));
+            offered.add(slot(user.username, date));
+            execute(user, "upload_availability", "upload_availability " + date);
+        } else if (roll < 80) {
+            execute(user, "add_doses", "add_doses " + VACCINES[random.nextInt(VACCINES.length)] + " 5");
+        } else {
+            execute(user, "show_appointments", "show_appointments");
+        }
+    }
+
+    private void execute(User user, String command, String line) {
+        long start = System.nanoTime();
+        try {
+            Scheduler.execute(user.session, line);
+        } catch (RuntimeException e) {
+            errors.get(command).incrementAndGet();
+        } finally {
+            latencies.get(command).record(System.nanoTime() - start);
+        }
+    }
+
+    private void report(double elapsed) {
+        long total = 0;
+        System.out.printf("%-28s%-10s%-8s%-10s%-10s%-10s%-10s%-10s%n",
+                "Command", "Count", "Errors", "Ops/sec", "p50 ms", "p99 ms", "p999 ms", "max ms");
+        for (String command : COMMANDS) {
+            LatencyHistogram histogram = latencies.get(command);
+            total += histogram.getCount();
+            System.out.printf("%-28s%-10d%-8d%-10.1f%-10.2f%-10.2f%-10.2f%-10.2f%n",
+                    command, histogram.getCount(), errors.get(command).get(), histogram.getCount() / elapsed,
+                    histogram.getPercentileNanos(0.50) / 1e6, histogram.getPercentileNanos(0.99) / 1e6,
+                    histogram.getPercentileNanos(0.999) / 1e6, histogram.getMaxNanos() / 1e6);
+        }
+        System.out.printf("%d commands in %.1fs, %.1f commands/sec%n", total, elapsed, total / elapsed);
+        System.out.printf("Statement cache: %d hits, %d misses%n",
+                ConnectionManager.getPool().getStatementCacheHits(), ConnectionManager.getPool().getStatementCacheMisses());
+    }
+
+    private void check() throws SQLException {
+        int overbooked;
+        int negative;
+        int unmatched = 0;
+        try (Connection con = ConnectionManager.getConnection()) {
+            PreparedStatement statement = con.prepareStatement(
+                    "SELECT COUNT(*) FROM (SELECT cname FROM Reservations WHERE cname LIKE 'load\\_c%' ESCAPE '\\' " +
+                    "GROUP BY cname, rtime, Slot HAVING COUNT(*) > 1) AS Overbooked");
+            ResultSet resultSet = statement.executeQuery();
+            resultSet.next();
+            overbooked = resultSet.getInt(1);
+
+            statement = con.prepareStatement(
+                    "SELECT COUNT(*) FROM Vaccines WHERE Name LIKE 'load\\_v%' ESCAPE '\\' AND Doses < 0");
+            resultSet = statement.executeQuery();
+            resultSet.next();
+            negative = resultSet.getInt(1);
+
+            statement = con.prepareStatement(
+                    "SELECT cname, rtime FROM Reservations WHERE pname LIKE 'load\\_p%' ESCAPE '\\'");
+            resultSet = statement.executeQuery();
+            while (resultSet.next()) {
+                if (!offered.contains(slot(resultSet.getString("cname"), resultSet.getDate("rtime")))) {
+                    unmatched++;
+                }
+            }
+        }
+        System.out.println("Overbooked caregiver slots: " + overbooked);
+        System.out.println("Vaccines with negative doses: " + negative);
+        System.out.println("Reservations without a matching availability: " + unmatched);
+        System.out.println(overbooked + negative + unmatched == 0 ? "All checks passed" : "CHECKS FAILED");
+    }
+
+    private void seed(int patients, int caregivers) throws SQLException {
+        cleanup();
+        Random random = new Random(42);
+        try (Connection con = ConnectionManager.getConnection()) {
+            con.setAutoCommit(false);
+            // legacy parameters keep seeding fast; the first login of each user upgrades the hash
+            byte[] salt = Util.generateSalt();
+            byte[] hash = Util.generateHash(PASSWORD, salt);
+            PreparedStatement caregiver = con.prepareStatement(
+                    "INSERT INTO Caregivers (Username, Salt, Hash) VALUES (?, ?, ?)");
+            PreparedStatement availability = con.prepareStatement(
+                    "INSERT INTO Availabilities (Time, Username) VALUES (?, ?)");
+            for (int i = 0; i < caregivers; i++) {
+                String username = "load_c" + i;
+                caregiver.setString(1, username);
+                caregiver.setBytes(2, salt);
+                caregiver.setBytes(3, hash);
+                caregiver.addBatch();
+                for (int day = 0; day < DAYS; day++) {
+                    if (random.nextDouble() < SEED_AVAILABILITY) {
+                        Date date = Date.valueOf(FIRST_DAY.plusDays(day));
+                        availability.setDate(1, date);
+                        availability.setString(2, username);
+                        availability.addBatch();
+                        offered.add(slot(username, date));
+                    }
+                }
+            }
+            caregiver.executeBatch();
+            availability.executeBatch();
+            PreparedStatement patient = con.prepareStatement(
+                    "INSERT INTO Patients (Username, Salt, Hash) VALUES (?, ?, ?)");
+            for (int i = 0; i < patients; i++) {
+                patient.setString(1, "load_p" + i);
+                patient.setBytes(2, salt);
+                patient.setBytes(3, hash);
+                patient.addBatch();
+            }
+            patient.executeBatch();
+            PreparedStatement vaccine = con.prepareStatement("INSERT INTO Vaccines (Name, Doses) VALUES (?, ?)");
+            for (String name : VACCINES) {
+                vaccine.setString(1, name);
+                vaccine.setInt(2, Math.max(1, patients / 2));
+                vaccine.addBatch();
+            }
+            vaccine.executeBatch();
+            con.commit();
+        }
+    }
+
+    private static void cleanup() throws SQLException {
+        try (Connection con = ConnectionManager.getConnection()) {
+            Statement statement = con.createStatement();
+            statement.executeUpdate("DELETE FROM Waitlist WHERE pname LIKE 'load\\_p%' ESCAPE '\\'");
+            statement.executeUpdate("DELETE FROM Reservations WHERE pname LIKE 'load\\_p%' ESCAPE '\\'");
+            statement.executeUpdate("DELETE FROM Reservations WHERE cname LIKE 'load\\_c%' ESCAPE '\\'");
+            statement.executeUpdate("DELETE FROM Reservations WHERE vname LIKE 'load\\_v%' ESCAPE '\\'");
+            statement.executeUpdate("DELETE FROM Availabilities WHERE Username LIKE 'load\\_c%' ESCAPE '\\'");
+            statement.executeUpdate("DELETE FROM Caregivers WHERE Username LIKE 'load\\_c%' ESCAPE '\\'");
+            statement.executeUpdate("DELETE FROM Patients WHERE Username LIKE 'load\\_p%' ESCAPE '\\'");
+            statement.executeUpdate("DELETE FROM Vaccines WHERE Name LIKE 'load\\_v%' ESCAPE '\\'");
+        }
+    }
+
+    private static LocalDate randomDay(Random random) {
+        return FIRST_DAY.plusDays(random.nextInt(DAYS));
+    }
+
+    private static String slot(String caregiver, Date date) {
+        return caregiver + "|" + date;
+    }
+
+    private static class User {
+        // the commands print their results; none of that is interesting here
+        private static final PrintStream DISCARD = new PrintStream(OutputStream.nullOutputStream());
+
+        private final String username;
+        private final boolean patient;
+        private final Session session = new Session();
+
+        private User(String username, boolean patient) {
+            this.username = username;
+            this.patient = patient;
+            session.setOut(DISCARD);
+        }
+    }
+}
@@ -0,0 +1,209 @@
+package scheduler.bench;
+
+import scheduler.db.ConnectionManager;
+import scheduler.service.ReservationEngine;
+import scheduler.util.SlotBits;
+
+import java.sql.Connection;
+import java.sql.Date;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Compares reserve throughput of the single-transaction {@link ReservationEngine} with the old
+ * multi-round-trip reserve sequence, at 1 to 64 concurrent patients.
+ *
+ * Runs against the database configured through the usual environment variables. All rows it
+ * creates use the "bench_" prefix and are removed after every run.
+ *
+ * Usage: ReserveThroughputBenchmark [reservations per run] [caregivers]
+ */
+public class ReserveThroughputBenchmark {
+
+    private static final int[] CONCURRENCY = {1, 2, 4, 8, 16, 32, 64};
+    private static final String VACCINE = "bench_vaccine";
+    private static final Date DATE = Date.valueOf(LocalDate.of(2099, 1, 1));
+
+    interface ReservePath {
+        boolean reserve(String patient) throws SQLException;
+    }
+
+    public static void main(String[] args) throws Exception {
+        int reservations = args.length > 0 ? Integer.parseInt(args[0]) : 2000;
+        int caregivers = args.length > 1 ? Integer.parseInt(args[1]) : reservations;
+        ReservationEngine engine = new ReservationEngine();
+
+        System.out.println("Connection pool size: " + ConnectionManager.getPool().getMaxSize());
+        System.out.printf("%-10s%-8s%-12s%-12s%-12s%n", "Path", "Threads", "Ops/sec", "Booked", "Overbooked");
+        for (int threads : CONCURRENCY) {
+            run("legacy", threads, reservations, caregivers, ReserveThroughputBenchmark::legacyReserve);
+            run("engine", threads, reservations, caregivers,
+                    patient -> engine.reserve(patient, DATE, VACCINE).isReserved());
+        }
+        ConnectionManager.getPool().close();
+    }
+
+    private static void run(String name, int threads, int reservations, int caregivers, ReservePath path)
+            throws Exception {
+        seed(reservations, caregivers);
+        AtomicInteger next = new AtomicInteger();
+        AtomicInteger booked = new AtomicInteger();
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        List<Future<?>> futures = new ArrayList<>();
+        long start = System.nanoTime();
+        for (int t = 0; t < threads; t++) {
+            futures.add(executor.submit(() -> {
+                int i;
+                while ((i = next.getAndIncrement()) < reservations) {
+                    try {
+                        if (path.reserve("bench_p" + i)) {
+                            booked.incrementAndGet();
+                        }
+                    } catch (SQLException | RuntimeException e) {
+                        // lost updates and failed inserts are part of what is being measured
+                    }
+                }
+            }));
+        }
+        for (Future<?> future : futures) {
+            future.get();
+        }
+        long elapsed = System.nanoTime() - start;
+        executor.shutdown();
+        double opsPerSec = reservations / (elapsed / 1e9);
+        System.out.printf("%-10s%-8d%-12.1f%-12d%-12d%n", name, threads, opsPerSec, booked.get(), overbooked());
+        cleanup();
+    }
+
+    // The reserve sequence as Scheduler ran it before ReservationEngine: every step is a separate
+    // round trip on its own connection, the dose count is written back from a stale read, and there
+    // is no transaction around any of it.
+    private static boolean legacyReserve(String patient) throws SQLException {
+        int doses;
+        try (Connection con = ConnectionManager.getConnection()) {
+            PreparedStatement statement = con.prepareStatement("SELECT Doses FROM Vaccines WHERE Name = ?");
+            statement.setString(1, VACCINE);
+            ResultSet resultSet = statement.executeQuery();
+            if (!resultSet.next() || resultSet.getInt("Doses") == 0) {
+                return false;
+            }
+        }
+        try (Connection con = ConnectionManager.getConnection()) {
+            PreparedStatement statement = con.prepareStatement("SELECT COUNT(*) FROM Availabilities WHERE Time = ?");
+            statement.setDate(1, DATE);
+            ResultSet resultSet = statement.executeQuery();
+            if (!resultSet.next() || resultSet.getInt(1) == 0) {
+                return false;
+            }
+        }
+        String caregiver;
+        try (Connection con = ConnectionManager.getConnection()) {
+            PreparedStatement statement = con.prepareStatement(
+                    "SELECT Availabilities.Username AS Caregiver FROM Availabilities WHERE Availabilities.Time = ?");
+            statement.setDate(1, DATE);
+            ResultSet resultSet = statement.executeQuery();
+            if (!resultSet.next()) {
+                return false;
+            }
+            caregiver = resultSet.getString("Caregiver");
+        }
+        try (Connection con = ConnectionManager.getConnection()) {
+            PreparedStatement statement = con.prepareStatement("SELECT Name, Doses FROM Vaccines WHERE Name = ?");
+            statement.setString(1, VACCINE);
+            ResultSet resultSet = statement.executeQuery();
+            resultSet.next();
+            doses = resultSet.getInt("Doses");
+        }
+        try (Connection con = ConnectionManager.getConnection()) {
+            PreparedStatement statement = con.prepareStatement("UPDATE vaccines SET Doses = ? WHERE name = ?;");
+            statement.setInt(1, doses - 1);
+            statement.setString(2, VACCINE);
+            statement.executeUpdate();
+        }
+        try (Connection con = ConnectionManager.getConnection()) {
+            PreparedStatement delete = con.prepareStatement("DELETE FROM Availabilities WHERE Username = ?");
+            delete.setString(1, caregiver);
+            delete.executeUpdate();
+            PreparedStatement insert = con.prepareStatement(
+                    "INSERT INTO Reservations (AppointmentID, vname, pname, cname, rtime) VALUES (?, ?, ?, ?, ?)");
+            insert.setString(1, UUID.randomUUID().toString());
+            insert.setString(2, VACCINE);
+            insert.setString(3, patient);
+            insert.setString(4, caregiver);
+            insert.setDate(5, DATE);
+            insert.executeUpdate();
+            return true;
+        }
+    }
+
+    private static void seed(int reservations, int caregivers) throws SQLException {
+        cleanup();
+        try (Connection con = ConnectionManager.getConnection()) {
+            con.setAutoCommit(false);
+            byte[] blank = new byte[16];
+            PreparedStatement caregiver = con.prepareStatement("INSERT INTO Caregivers (Username, Salt, Hash) VALUES (?, ?, ?)");
+            // a single 09:00 slot per caregiver, so both paths can book the same number of appointments
+            PreparedStatement availability = con.prepareStatement(
+                    "INSERT INTO Availabilities (Time, Username, SlotsLow, SlotsHigh) VALUES (?, ?, ?, 0)");
+            for (int i = 0; i < caregivers; i++) {
+                caregiver.setString(1, "bench_c" + i);
+                caregiver.setBytes(2, blank);
+                caregiver.setBytes(3, blank);
+                caregiver.addBatch();
+                availability.setDate(1, DATE);
+                availability.setString(2, "bench_c" + i);
+                availability.setLong(3, SlotBits.single(36).getLow());
+                availability.addBatch();
+            }
+            caregiver.executeBatch();
+            availability.executeBatch();
+            PreparedStatement patient = con.prepareStatement("INSERT INTO Patients (Username, Salt, Hash) VALUES (?, ?, ?)");
+            for (int i = 0; i < reservations; i++) {
+                patient.setString(1, "bench_p" + i);
+                patient.setBytes(2, blank);
+                patient.setBytes(3, blank);
+                patient.addBatch();
+            }
+            patient.executeBatch();
+            PreparedStatement vaccine = con.prepareStatement("INSERT INTO Vaccines VALUES (?, ?)");
+            vaccine.setString(1, VACCINE);
+            vaccine.setInt(2, reservations);
+            vaccine.executeUpdate();
+            con.commit();
+        }
+    }
+
+    // Number of caregiver slots (or whole days, for the legacy path) that ended up with more than one reservation.
+    private static int overbooked() throws SQLException {
+        try (Connection con = ConnectionManager.getConnection()) {
+            PreparedStatement statement = con.prepareStatement(
+                    "SELECT COUNT(*) FROM (SELECT cname FROM Reservations WHERE vname = ? " +
+                    "GROUP BY cname, rtime, Slot HAVING COUNT(*) > 1) AS Overbooked");
+            statement.setString(1, VACCINE);
+            ResultSet resultSet = statement.executeQuery();
+            resultSet.next();
+            return resultSet.getInt(1);
+        }
+    }
+
+    private static void cleanup() throws SQLException {
+        try (Connection con = ConnectionManager.getConnection()) {
+            Statement statement = con.createStatement();
+            statement.executeUpdate("DELETE FROM Reservations WHERE vname = '" + VACCINE + "'");
+            statement.executeUpdate("DELETE FROM Availabilities WHERE Username LIKE 'bench\\_c%' ESCAPE '\\'");
+            statement.executeUpdate("DELETE FROM Caregivers WHERE Username LIKE 'bench\\_c%' ESCAPE '\\'");
+            statement.executeUpdate("DELETE FROM Patients WHERE Username LIKE 'bench\\_p%' ESCAPE '\\'");
+            statement.executeUpdate("DELETE FROM Vaccines WHERE Name = '" + VACCINE + "'");
+        }
+    }
+}
@@ -1,30 +1,118 @@
 package scheduler.db;
 
+import scheduler.metrics.CommandMetrics;
+
 import java.sql.Connection;
-import java.sql.DriverManager;
 import java.sql.SQLException;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 
 public class ConnectionManager {
 
-    private final String driverName = "com.microsoft.sqlserver.jdbc.SQLServerDriver";
-    private final String connectionUrl = "jdbc:sqlserver://" + System.getenv("Server") +
+    private static final String driverName = "com.microsoft.sqlserver.jdbc.SQLServerDriver";
+    // JdbcUrl points the application at any other SQL Server, e.g. a local one for benchmarks
+    private static final String connectionUrl = System.getenv("JdbcUrl") != null ? System.getenv("JdbcUrl") :
+            "jdbc:sqlserver://" + System.getenv("Server") +
             ".database.windows.net:1433;database=" + System.getenv("DBName");
-    private final String userName = System.getenv("UserID");
-    private final String userPass = System.getenv("Password");
+    private static final String userName = System.getenv("UserID");
+    private static final String userPass = System.getenv("Password");
+    // shard i > 0 (see ShardRouter) is at Shard<i>Url, as Shard<i>UserID if set, or else as UserID
+
+    // pool settings, overridable through the environment like the connection settings above
+    private static final int poolSize = intEnv("PoolSize", 10);
+    private static final long borrowTimeoutMillis = intEnv("PoolBorrowTimeoutMs", 30_000);
+    private static final long validationIntervalMillis = intEnv("PoolValidationIntervalMs", 30_000);
+    private static final long maxLifetimeMillis = intEnv("PoolMaxLifetimeMs", 30 * 60_000);
+    private static final long leakThresholdMillis = intEnv("PoolLeakThresholdMs", 60_000);
+    private static final int statementCacheSize = intEnv("StatementCacheSize", 64);
+
+    // one pool per shard, created on first use
+    private static final AtomicReferenceArray<ConnectionPool> pools =
+            new AtomicReferenceArray<>(ShardRouter.getInstance().getShardCount());
 
     private Connection con = null;
 
     public ConnectionManager() {
-        try {
-            Class.forName(driverName);
-        } catch (ClassNotFoundException e) {
-            System.out.println(e.toString());
+    }
+
+    /**
+     * Returns the process-wide pool of the primary shard, creating it (and loading the driver) on
+     * first use.
+     */
+    public static ConnectionPool getPool() {
+        return getPool(0);
+    }
+
+    /**
+     * Returns the process-wide pool of the shard, creating it on first use.
+     */
+    public static ConnectionPool getPool(int shard) {
+        ConnectionPool p = pools.get(shard);
+        if (p == null) {
+            synchronized (ConnectionManager.class) {
+                p = pools.get(shard);
+                if (p == null) {
+                    try {
+                        Class.forName(driverName);
+                    } catch (ClassNotFoundException e) {
+                        System.out.println(e.toString());
+                    }
+                    String url = shard == 0 ? connectionUrl : System.getenv("Shard" + shard + "Url");
+                    if (url == null) {
+                        throw new IllegalStateException("Shard" + shard + "Url is not set");
+                    }
+                    String user = shard == 0 ? null : System.getenv("Shard" + shard + "UserID");
+                    String password = shard == 0 ? null : System.getenv("Shard" + shard + "Password");
+                    p = new ConnectionPool(url, user != null ? user : userName, password != null ? password : userPass,
+                            poolSize, borrowTimeoutMillis, validationIntervalMillis, maxLifetimeMillis,
+                            leakThresholdMillis, statementCacheSize);
+                    pools.set(shard, p);
+                }
+            }
+        }
+        return p;
+    }
+
+    /**
+     * Replaces the process-wide pool of the primary shard, closing the previous one. Used by tools
+     * that point the application at a database of their own.
+     */
+    public static void setPool(ConnectionPool newPool) {
+        ConnectionPool old;
+        synchronized (ConnectionManager.class) {
+            old = pools.getAndSet(0, newPool);
+        }
+        if (old != null) {
+            old.close();
         }
     }
 
+    /**
+     * Borrows a pooled connection to the primary shard for a try-with-resources block; closing it
+     * returns it to the pool. Its statements are traced by the {@link StatementTracer}, and while a
+     * command is running, the connection and its statements are counted in the command's metrics.
+     */
+    public static Connection getConnection() throws SQLException {
+        return getConnection(0);
+    }
+
+    /**
+     * Like {@link #getConnection()}, for the shard's database.
+     */
+    public static Connection getConnection(int shard) throws SQLException {
+        Connection connection = getPool(shard).borrow();
+        boolean recording = CommandMetrics.isRecording();
+        if (recording) {
+            CommandMetrics.connectionOpened();
+        }
+        if (!recording && !StatementTracer.getInstance().isEnabled()) {
+            return connection;
+        }
+        return MeteredConnection.wrap(connection);
+    }
+
     public Connection createConnection() {
         try {
-            con = DriverManager.getConnection(connectionUrl, userName, userPass);
+            con = getConnection();
         } catch (SQLException e) {
             e.printStackTrace();
         }
@@ -32,10 +120,25 @@ public class ConnectionManager {
     }
 
     public void closeConnection() {
+        if (this.con == null) {
+            return;
+        }
         try {
             this.con.close();
         } catch (SQLException e) {
             e.printStackTrace();
         }
     }
+
+    private static int intEnv(String name, int defaultValue) {
+        String value = System.getenv(name);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return Integer.parseInt(value.trim());
+        } catch (NumberFormatException e) {
+            return defaultValue;
+        }
+    }
 }
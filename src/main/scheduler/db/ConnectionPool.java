@@ -0,0 +1,382 @@
+package scheduler.db;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A small bounded pool of physical JDBC connections.
+ *
+ * Connections handed out by {@link #borrow()} are proxies: calling close() on them returns the
+ * physical connection to the pool instead of tearing down the TLS session. Idle connections are
+ * re-validated before reuse, connections older than the max lifetime are retired, and a connection
+ * held longer than the leak threshold is reported together with the stack of whoever borrowed it.
+ *
+ * Each physical connection keeps a {@link StatementCache}, so prepareStatement(sql) with SQL the
+ * connection has prepared before reuses that statement instead of preparing it again.
+ */
+public class ConnectionPool {
+
+    private final String url;
+    private final String user;
+    private final String password;
+
+    private final int maxSize;
+    private final long borrowTimeoutMillis;
+    private final long validationIntervalMillis;
+    private final long maxLifetimeMillis;
+    private final long leakThresholdMillis;
+    private final int statementCacheSize;
+
+    private final Semaphore permits;
+    private final ConcurrentLinkedDeque<PhysicalConnection> idle = new ConcurrentLinkedDeque<>();
+    private final Map<PhysicalConnection, Lease> leased = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService housekeeper;
+
+    private final AtomicLong statementCacheHits = new AtomicLong();
+    private final AtomicLong statementCacheMisses = new AtomicLong();
+
+    private volatile boolean closed = false;
+
+    public ConnectionPool(String url, String user, String password, int maxSize, long borrowTimeoutMillis,
+                          long validationIntervalMillis, long maxLifetimeMillis, long leakThresholdMillis) {
+        this(url, user, password, maxSize, borrowTimeoutMillis, validationIntervalMillis, maxLifetimeMillis,
+                leakThresholdMillis, 64);
+    }
+
+    /**
+     * @param statementCacheSize prepared statements cached per connection, 0 to disable the cache
+     */
+    public ConnectionPool(String url, String user, String password, int maxSize, long borrowTimeoutMillis,
+                          long validationIntervalMillis, long maxLifetimeMillis, long leakThresholdMillis,
+                          int statementCacheSize) {
+        if (maxSize <= 0) {
+            throw new IllegalArgumentException("Pool size must be positive!");
+        }
+        this.url = url;
+        this.user = user;
+        this.password = password;
+        this.maxSize = maxSize;
+        this.borrowTimeoutMillis = borrowTimeoutMillis;
+        this.validationIntervalMillis = validationIntervalMillis;
+        this.maxLifetimeMillis = maxLifetimeMillis;
+        this.leakThresholdMillis = leakThresholdMillis;
+        this.statementCacheSize = statementCacheSize;
+        this.permits = new Semaphore(maxSize, true);
+        this.housekeeper = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "connection-pool-housekeeper");
+            t.setDaemon(true);
+            return t;
+        });
+        long period = Math.max(1000, Math.min(leakThresholdMillis, validationIntervalMillis));
+        this.housekeeper.scheduleWithFixedDelay(this::housekeep, period, period, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Borrows a connection, waiting up to the borrow timeout for one to become free.
+     * The returned connection must be closed to give it back to the pool.
+     */
+    public Connection borrow() throws SQLException {
+        if (closed) {
+            throw new SQLException("Connection pool is closed");
+        }
+        try {
+            if (!permits.tryAcquire(borrowTimeoutMillis, TimeUnit.MILLISECONDS)) {
+                throw new SQLException("Timed out after " + borrowTimeoutMillis
+                        + "ms waiting for a connection (pool size " + maxSize + ")");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted while waiting for a connection", e);
+        }
+        try {
+            PhysicalConnection physical = takeIdle();
+            if (physical == null) {
+                physical = new PhysicalConnection(DriverManager.getConnection(url, user, password),
+                        statementCacheSize);
+            }
+            Lease lease = new Lease(physical);
+            leased.put(physical, lease);
+            return lease.proxy;
+        } catch (SQLException | RuntimeException e) {
+            permits.release();
+            throw e;
+        }
+    }
+
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    public int getIdleCount() {
+        return idle.size();
+    }
+
+    public int getActiveCount() {
+        return leased.size();
+    }
+
+    public long getStatementCacheHits() {
+        return statementCacheHits.get();
+    }
+
+    public long getStatementCacheMisses() {
+        return statementCacheMisses.get();
+    }
+
+    /**
+     * Closes all idle connections and refuses further borrows. Leased connections are closed as
+     * they are returned.
+     */
+    public void close() {
+        closed = true;
+        housekeeper.shutdownNow();
+        PhysicalConnection physical;
+        while ((physical = idle.pollFirst()) != null) {
+            physical.closeQuietly();
+        }
+    }
+
+    // Pops the most recently used idle connection that is still usable, discarding stale ones.
+    private PhysicalConnection takeIdle() {
+        PhysicalConnection physical;
+        while ((physical = idle.pollFirst()) != null) {
+            long now = System.currentTimeMillis();
+            if (now - physical.createdAt >= maxLifetimeMillis) {
+                physical.closeQuietly();
+                continue;
+            }
+            if (now - physical.lastUsedAt >= validationIntervalMillis && !physical.isValid()) {
+                physical.closeQuietly();
+                continue;
+            }
+            return physical;
+        }
+        return null;
+    }
+
+    private void giveBack(Lease lease) {
+        PhysicalConnection physical = lease.physical;
+        leased.remove(physical);
+        try {
+            boolean reusable = !closed && lease.reset()
+                    && System.currentTimeMillis() - physical.createdAt < maxLifetimeMillis;
+            if (reusable) {
+                physical.lastUsedAt = System.currentTimeMillis();
+                idle.offerFirst(physical);
+            } else {
+                physical.closeQuietly();
+            }
+        } finally {
+            permits.release();
+        }
+    }
+
+    private void housekeep() {
+        long now = System.currentTimeMillis();
+        for (Lease lease : leased.values()) {
+            if (!lease.reported && now - lease.borrowedAt > leakThresholdMillis) {
+                lease.reported = true;
+                // stderr, so the report never ends up in command output
+                System.err.println("Possible connection leak: connection held for "
+                        + (now - lease.borrowedAt) + "ms");
+                lease.borrowSite.printStackTrace(System.err);
+            }
+        }
+        // retire idle connections that have outlived their max lifetime
+        for (PhysicalConnection physical : idle) {
+            if (now - physical.createdAt >= maxLifetimeMillis && idle.remove(physical)) {
+                physical.closeQuietly();
+            }
+        }
+    }
+
+    private static class PhysicalConnection {
+        private final Connection connection;
+        private final StatementCache statementCache;
+        private final long createdAt = System.currentTimeMillis();
+        private volatile long lastUsedAt = createdAt;
+
+        private PhysicalConnection(Connection connection, int statementCacheSize) {
+            this.connection = connection;
+            this.statementCache = statementCacheSize > 0 ? new StatementCache(statementCacheSize) : null;
+        }
+
+        private boolean isValid() {
+            try {
+                return connection.isValid(5);
+            } catch (SQLException e) {
+                return false;
+            }
+        }
+
+        // the connection must not be leased any more, so no cached statement is in use
+        private void closeQuietly() {
+            if (statementCache != null) {
+                statementCache.clear();
+            }
+            try {
+                connection.close();
+            } catch (SQLException e) {
+                // the connection is being discarded anyway
+            }
+        }
+    }
+
+    /**
+     * One borrower's view of a physical connection. Statements opened through the lease are closed
+     * when it is returned, so call sites that never close their statements cannot exhaust server
+     * cursors on a long-lived connection. Statements taken from the statement cache are put back
+     * into it instead.
+     */
+    private class Lease implements InvocationHandler {
+        private final PhysicalConnection physical;
+        private final Connection proxy;
+        private final long borrowedAt = System.currentTimeMillis();
+        private final Throwable borrowSite = new Throwable("Connection borrowed here");
+        private final List<Statement> statements = new ArrayList<>();
+        private final List<CachedStatement> cached = new ArrayList<>();
+        private volatile boolean reported = false;
+        private boolean returned = false;
+
+        private Lease(PhysicalConnection physical) {
+            this.physical = physical;
+            this.proxy = (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(),
+                    new Class<?>[]{Connection.class}, this);
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            String name = method.getName();
+            if (name.equals("close")) {
+                if (!returned) {
+                    returned = true;
+                    giveBack(this);
+                }
+                return null;
+            }
+            if (name.equals("isClosed")) {
+                return returned || physical.connection.isClosed();
+            }
+            if (returned) {
+                throw new SQLException("Connection has already been returned to the pool");
+            }
+            if (name.equals("prepareStatement") && args.length == 1 && physical.statementCache != null) {
+                return prepareCached((String) args[0]);
+            }
+            try {
+                Object result = method.invoke(physical.connection, args);
+                if (result instanceof Statement) {
+                    statements.add((Statement) result);
+                }
+                return result;
+            } catch (InvocationTargetException e) {
+                throw e.getCause();
+            }
+        }
+
+        private PreparedStatement prepareCached(String sql) throws SQLException {
+            PreparedStatement statement = physical.statementCache.take(sql);
+            if (statement != null) {
+                statementCacheHits.incrementAndGet();
+            } else {
+                statementCacheMisses.incrementAndGet();
+                statement = physical.connection.prepareStatement(sql);
+            }
+            CachedStatement handle = new CachedStatement(physical.statementCache, sql, statement);
+            cached.add(handle);
+            return handle.proxy;
+        }
+
+        // Puts the physical connection back into a clean state; returns false if it cannot be reused.
+        private boolean reset() {
+            try {
+                for (CachedStatement handle : cached) {
+                    handle.release();
+                }
+                cached.clear();
+                for (Statement statement : statements) {
+                    statement.close();
+                }
+                statements.clear();
+                Connection connection = physical.connection;
+                if (connection.isClosed()) {
+                    return false;
+                }
+                if (!connection.getAutoCommit()) {
+                    connection.rollback();
+                    connection.setAutoCommit(true);
+                }
+                if (connection.getTransactionIsolation() != Connection.TRANSACTION_READ_COMMITTED) {
+                    connection.setTransactionIsolation(Connection.TRANSACTION_READ_COMMITTED);
+                }
+                return true;
+            } catch (SQLException e) {
+                return false;
+            }
+        }
+    }
+
+    /**
+     * A statement borrowed from a {@link StatementCache}: closing it puts it back into the cache
+     * instead of closing it on the server.
+     */
+    private static class CachedStatement implements InvocationHandler {
+        private final StatementCache cache;
+        private final String sql;
+        private final PreparedStatement statement;
+        private final PreparedStatement proxy;
+        private boolean released = false;
+
+        private CachedStatement(StatementCache cache, String sql, PreparedStatement statement) {
+            this.cache = cache;
+            this.sql = sql;
+            this.statement = statement;
+            this.proxy = (PreparedStatement) Proxy.newProxyInstance(PreparedStatement.class.getClassLoader(),
+                    new Class<?>[]{PreparedStatement.class}, this);
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            String name = method.getName();
+            if (name.equals("close")) {
+                release();
+                return null;
+            }
+            if (name.equals("isClosed")) {
+                return released || statement.isClosed();
+            }
+            if (released) {
+                throw new SQLException("Statement is closed");
+            }
+            try {
+                return method.invoke(statement, args);
+            } catch (InvocationTargetException e) {
+                throw e.getCause();
+            }
+        }
+
+        private void release() {
+            if (!released) {
+                released = true;
+                cache.release(sql, statement);
+            }
+        }
+    }
+}
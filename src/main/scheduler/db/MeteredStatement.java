@@ -0,0 +1,463 @@
+package scheduler.db;
+
+import scheduler.metrics.CommandMetrics;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.SQLWarning;
+import java.sql.Statement;
+
+/**
+ * A statement of a {@link MeteredConnection}. Every execution is counted for the running command
+ * and, while tracing is on, timed and recorded against its SQL text.
+ */
+class MeteredStatement implements Statement {
+
+    private final Statement statement;
+    final StatementTracer tracer;
+    // the stats of a prepared statement's SQL; null for plain statements and while tracing is off
+    private final StatementTracer.Stats prepared;
+    // parameters bound since the last execution, and those of the execution running now
+    int binds = 0;
+    private int bound = 0;
+
+    MeteredStatement(Statement statement, StatementTracer.Stats prepared, StatementTracer tracer) {
+        this.statement = statement;
+        this.prepared = prepared;
+        this.tracer = tracer;
+    }
+
+    // Starts an execution of sql, or of a batch if it is null; returns the stats to record it
+    // against, or null if tracing is off.
+    final StatementTracer.Stats begin(String sql) {
+        CommandMetrics.statementExecuted();
+        bound = binds;
+        binds = 0;
+        if (!tracer.isEnabled()) {
+            return null;
+        }
+        return prepared != null ? prepared : tracer.stats(sql != null ? sql : "(statement batch)");
+    }
+
+    final long executed(StatementTracer.Stats stats, long start, long rows) {
+        if (stats != null) {
+            tracer.executed(stats, System.nanoTime() - start, bound, rows);
+        }
+        return rows;
+    }
+
+    final int executed(StatementTracer.Stats stats, long start, int rows) {
+        executed(stats, start, (long) rows);
+        return rows;
+    }
+
+    final boolean executed(StatementTracer.Stats stats, long start, boolean hasResultSet) {
+        executed(stats, start, 0L);
+        return hasResultSet;
+    }
+
+    final int[] executed(StatementTracer.Stats stats, long start, int[] counts) {
+        long rows = 0;
+        for (int count : counts) {
+            rows += Math.max(0, count);
+        }
+        executed(stats, start, rows);
+        return counts;
+    }
+
+    final long[] executed(StatementTracer.Stats stats, long start, long[] counts) {
+        long rows = 0;
+        for (long count : counts) {
+            rows += Math.max(0, count);
+        }
+        executed(stats, start, rows);
+        return counts;
+    }
+
+    final ResultSet executed(StatementTracer.Stats stats, long start, ResultSet resultSet) {
+        executed(stats, start, 0L);
+        return stats == null ? resultSet : new MeteredResultSet(resultSet, stats, tracer);
+    }
+
+    final SQLException failed(StatementTracer.Stats stats, long start, SQLException e) {
+        CommandMetrics.statementFailed();
+        if (stats != null) {
+            tracer.failed(stats, System.nanoTime() - start, bound, e);
+        }
+        return e;
+    }
+
+    @Override
+    public ResultSet executeQuery(String sql) throws SQLException {
+        StatementTracer.Stats stats = begin(sql);
+        long start = System.nanoTime();
+        try {
+            return executed(stats, start, statement.executeQuery(sql));
+        } catch (SQLException e) {
+            throw failed(stats, start, e);
+        }
+    }
+
+    @Override
+    public int executeUpdate(String sql) throws SQLException {
+        StatementTracer.Stats stats = begin(sql);
+        long start = System.nanoTime();
+        try {
+            return executed(stats, start, statement.executeUpdate(sql));
+        } catch (SQLException e) {
+            throw failed(stats, start, e);
+        }
+    }
+
+    @Override
+    public boolean execute(String sql) throws SQLException {
+        StatementTracer.Stats stats = begin(sql);
+        long start = System.nanoTime();
+        try {
+            return executed(stats, start, statement.execute(sql));
+        } catch (SQLException e) {
+            throw failed(stats, start, e);
+        }
+    }
+
+    @Override
+    public int[] executeBatch() throws SQLException {
+        StatementTracer.Stats stats = begin(null);
+        long start = System.nanoTime();
+        try {
+            return executed(stats, start, statement.executeBatch());
+        } catch (SQLException e) {
+            throw failed(stats, start, e);
+        }
+    }
+
+    @Override
+    public int executeUpdate(String sql, int autoGeneratedKeys) throws SQLException {
+        StatementTracer.Stats stats = begin(sql);
+        long start = System.nanoTime();
+        try {
+            return executed(stats, start, statement.executeUpdate(sql, autoGeneratedKeys));
+        } catch (SQLException e) {
+            throw failed(stats, start, e);
+        }
+    }
+
+    @Override
+    public int executeUpdate(String sql, int[] columnIndexes) throws SQLException {
+        StatementTracer.Stats stats = begin(sql);
+        long start = System.nanoTime();
+        try {
+            return executed(stats, start, statement.executeUpdate(sql, columnIndexes));
+        } catch (SQLException e) {
+            throw failed(stats, start, e);
+        }
+    }
+
+    @Override
+    public int executeUpdate(String sql, String[] columnNames) throws SQLException {
+        StatementTracer.Stats stats = begin(sql);
+        long start = System.nanoTime();
+        try {
+            return executed(stats, start, statement.executeUpdate(sql, columnNames));
+        } catch (SQLException e) {
+            throw failed(stats, start, e);
+        }
+    }
+
+    @Override
+    public boolean execute(String sql, int autoGeneratedKeys) throws SQLException {
+        StatementTracer.Stats stats = begin(sql);
+        long start = System.nanoTime();
+        try {
+            return executed(stats, start, statement.execute(sql, autoGeneratedKeys));
+        } catch (SQLException e) {
+            throw failed(stats, start, e);
+        }
+    }
+
+    @Override
+    public boolean execute(String sql, int[] columnIndexes) throws SQLException {
+        StatementTracer.Stats stats = begin(sql);
+        long start = System.nanoTime();
+        try {
+            return executed(stats, start, statement.execute(sql, columnIndexes));
+        } catch (SQLException e) {
+            throw failed(stats, start, e);
+        }
+    }
+
+    @Override
+    public boolean execute(String sql, String[] columnNames) throws SQLException {
+        StatementTracer.Stats stats = begin(sql);
+        long start = System.nanoTime();
+        try {
+            return executed(stats, start, statement.execute(sql, columnNames));
+        } catch (SQLException e) {
+            throw failed(stats, start, e);
+        }
+    }
+
+    @Override
+    public long[] executeLargeBatch() throws SQLException {
+        StatementTracer.Stats stats = begin(null);
+        long start = System.nanoTime();
+        try {
+            return executed(stats, start, statement.executeLargeBatch());
+        } catch (SQLException e) {
+            throw failed(stats, start, e);
+        }
+    }
+
+    @Override
+    public long executeLargeUpdate(String sql) throws SQLException {
+        StatementTracer.Stats stats = begin(sql);
+        long start = System.nanoTime();
+        try {
+            return executed(stats, start, statement.executeLargeUpdate(sql));
+        } catch (SQLException e) {
+            throw failed(stats, start, e);
+        }
+    }
+
+    @Override
+    public long executeLargeUpdate(String sql, int autoGeneratedKeys) throws SQLException {
+        StatementTracer.Stats stats = begin(sql);
+        long start = System.nanoTime();
+        try {
+            return executed(stats, start, statement.executeLargeUpdate(sql, autoGeneratedKeys));
+        } catch (SQLException e) {
+            throw failed(stats, start, e);
+        }
+    }
+
+    @Override
+    public long executeLargeUpdate(String sql, int[] columnIndexes) throws SQLException {
+        StatementTracer.Stats stats = begin(sql);
+        long start = System.nanoTime();
+        try {
+            return executed(stats, start, statement.executeLargeUpdate(sql, columnIndexes));
+        } catch (SQLException e) {
+            throw failed(stats, start, e);
+        }
+    }
+
+    @Override
+    public long executeLargeUpdate(String sql, String[] columnNames) throws SQLException {
+        StatementTracer.Stats stats = begin(sql);
+        long start = System.nanoTime();
+        try {
+            return executed(stats, start, statement.executeLargeUpdate(sql, columnNames));
+        } catch (SQLException e) {
+            throw failed(stats, start, e);
+        }
+    }
+
+    // result sets fetched after the execution count towards a prepared statement's rows only
+    @Override
+    public ResultSet getResultSet() throws SQLException {
+        ResultSet resultSet = statement.getResultSet();
+        return prepared == null || resultSet == null ? resultSet : new MeteredResultSet(resultSet, prepared, tracer);
+    }
+
+    @Override
+    public ResultSet getGeneratedKeys() throws SQLException {
+        ResultSet resultSet = statement.getGeneratedKeys();
+        return prepared == null || resultSet == null ? resultSet : new MeteredResultSet(resultSet, prepared, tracer);
+    }
+
+    @Override
+    public <T> T unwrap(Class<T> iface) throws SQLException {
+        return iface.isInstance(this) ? iface.cast(this) : statement.unwrap(iface);
+    }
+
+    @Override
+    public boolean isWrapperFor(Class<?> iface) throws SQLException {
+        return iface.isInstance(this) || statement.isWrapperFor(iface);
+    }
+
+    @Override
+    public void close() throws SQLException {
+        statement.close();
+    }
+
+    @Override
+    public int getMaxFieldSize() throws SQLException {
+        return statement.getMaxFieldSize();
+    }
+
+    @Override
+    public void setMaxFieldSize(int max) throws SQLException {
+        statement.setMaxFieldSize(max);
+    }
+
+    @Override
+    public int getMaxRows() throws SQLException {
+        return statement.getMaxRows();
+    }
+
+    @Override
+    public void setMaxRows(int max) throws SQLException {
+        statement.setMaxRows(max);
+    }
+
+    @Override
+    public void setEscapeProcessing(boolean enable) throws SQLException {
+        statement.setEscapeProcessing(enable);
+    }
+
+    @Override
+    public int getQueryTimeout() throws SQLException {
+        return statement.getQueryTimeout();
+    }
+
+    @Override
+    public void setQueryTimeout(int seconds) throws SQLException {
+        statement.setQueryTimeout(seconds);
+    }
+
+    @Override
+    public void cancel() throws SQLException {
+        statement.cancel();
+    }
+
+    @Override
+    public SQLWarning getWarnings() throws SQLException {
+        return statement.getWarnings();
+    }
+
+    @Override
+    public void clearWarnings() throws SQLException {
+        statement.clearWarnings();
+    }
+
+    @Override
+    public void setCursorName(String name) throws SQLException {
+        statement.setCursorName(name);
+    }
+
+    @Override
+    public int getUpdateCount() throws SQLException {
+        return statement.getUpdateCount();
+    }
+
+    @Override
+    public boolean getMoreResults() throws SQLException {
+        return statement.getMoreResults();
+    }
+
+    @Override
+    public void setFetchDirection(int direction) throws SQLException {
+        statement.setFetchDirection(direction);
+    }
+
+    @Override
+    public int getFetchDirection() throws SQLException {
+        return statement.getFetchDirection();
+    }
+
+    @Override
+    public void setFetchSize(int rows) throws SQLException {
+        statement.setFetchSize(rows);
+    }
+
+    @Override
+    public int getFetchSize() throws SQLException {
+        return statement.getFetchSize();
+    }
+
+    @Override
+    public int getResultSetConcurrency() throws SQLException {
+        return statement.getResultSetConcurrency();
+    }
+
+    @Override
+    public int getResultSetType() throws SQLException {
+        return statement.getResultSetType();
+    }
+
+    @Override
+    public void addBatch(String sql) throws SQLException {
+        statement.addBatch(sql);
+    }
+
+    @Override
+    public void clearBatch() throws SQLException {
+        statement.clearBatch();
+    }
+
+    @Override
+    public Connection getConnection() throws SQLException {
+        return statement.getConnection();
+    }
+
+    @Override
+    public boolean getMoreResults(int current) throws SQLException {
+        return statement.getMoreResults(current);
+    }
+
+    @Override
+    public int getResultSetHoldability() throws SQLException {
+        return statement.getResultSetHoldability();
+    }
+
+    @Override
+    public boolean isClosed() throws SQLException {
+        return statement.isClosed();
+    }
+
+    @Override
+    public void setPoolable(boolean poolable) throws SQLException {
+        statement.setPoolable(poolable);
+    }
+
+    @Override
+    public boolean isPoolable() throws SQLException {
+        return statement.isPoolable();
+    }
+
+    @Override
+    public void closeOnCompletion() throws SQLException {
+        statement.closeOnCompletion();
+    }
+
+    @Override
+    public boolean isCloseOnCompletion() throws SQLException {
+        return statement.isCloseOnCompletion();
+    }
+
+    @Override
+    public long getLargeUpdateCount() throws SQLException {
+        return statement.getLargeUpdateCount();
+    }
+
+    @Override
+    public void setLargeMaxRows(long max) throws SQLException {
+        statement.setLargeMaxRows(max);
+    }
+
+    @Override
+    public long getLargeMaxRows() throws SQLException {
+        return statement.getLargeMaxRows();
+    }
+
+    @Override
+    public String enquoteLiteral(String val) throws SQLException {
+        return statement.enquoteLiteral(val);
+    }
+
+    @Override
+    public String enquoteIdentifier(String identifier, boolean alwaysQuote) throws SQLException {
+        return statement.enquoteIdentifier(identifier, alwaysQuote);
+    }
+
+    @Override
+    public boolean isSimpleIdentifier(String identifier) throws SQLException {
+        return statement.isSimpleIdentifier(identifier);
+    }
+
+    @Override
+    public String enquoteNCharLiteral(String val) throws SQLException {
+        return statement.enquoteNCharLiteral(val);
+    }
+}
@@ -0,0 +1,240 @@
+package scheduler.db;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Brings the database schema up to date from the numbered scripts in resources/migrations.
+ *
+ * Scripts are named V<version>__<name>.sql and listed in migrations/index.txt. Each one that is not
+ * yet recorded in the SchemaHistory table runs in its own transaction, split into batches at GO
+ * lines, and is recorded together with a checksum of its text in the same transaction. A script
+ * that was changed after it was applied stops the run. An application lock serializes runners that
+ * start at the same time, so several instances can migrate on startup.
+ *
+ * The scripts guard every change (IF OBJECT_ID ... IS NULL and the like), so they also adopt
+ * databases that were set up by hand before the history table existed. Every shard (see
+ * {@link ShardRouter}) has the whole schema and is migrated in turn.
+ */
+public class MigrationRunner {
+
+    private static final String INDEX = "/migrations/index.txt";
+    private static final Pattern FILE_NAME = Pattern.compile("V(\\d+)__(\\w+)\\.sql");
+    private static final Pattern BATCH_SEPARATOR = Pattern.compile("(?im)^\\s*GO\\s*$");
+    private static final String LOCK = "scheduler_migrations";
+
+    private static final String createHistory =
+            "IF OBJECT_ID(N'SchemaHistory', N'U') IS NULL " +
+            "CREATE TABLE SchemaHistory (" +
+            "Version int PRIMARY KEY, " +
+            "Name varchar(255) NOT NULL, " +
+            "Checksum char(64) NOT NULL, " +
+            "AppliedAt datetime2 NOT NULL DEFAULT SYSUTCDATETIME(), " +
+            "DurationMillis int NOT NULL)";
+
+    private MigrationRunner() {
+    }
+
+    public static void main(String[] args) throws SQLException, IOException {
+        List<Migration> applied = migrate();
+        System.out.println(applied.isEmpty() ? "Schema is up to date" : applied.size() + " migrations applied");
+    }
+
+    /**
+     * Applies every pending migration on every shard and returns the ones that were applied.
+     */
+    public static List<Migration> migrate() throws SQLException, IOException {
+        List<Migration> applied = new ArrayList<>();
+        for (int shard = 0; shard < ShardRouter.getInstance().getShardCount(); shard++) {
+            applied.addAll(migrate(shard));
+        }
+        return applied;
+    }
+
+    /**
+     * Applies every pending migration on the shard in version order and returns the ones that
+     * were applied.
+     */
+    public static List<Migration> migrate(int shard) throws SQLException, IOException {
+        List<Migration> available = available();
+        List<Migration> applied = new ArrayList<>();
+        try (Connection con = ConnectionManager.getConnection(shard)) {
+            lock(con);
+            try {
+                try (Statement statement = con.createStatement()) {
+                    statement.execute(createHistory);
+                }
+                Map<Integer, String> history = history(con);
+                for (Migration migration : available) {
+                    String checksum = history.get(migration.version);
+                    if (checksum == null) {
+                        apply(con, migration);
+                        applied.add(migration);
+                    } else if (!checksum.equals(migration.checksum)) {
+                        throw new SQLException("Migration " + migration + " was changed after it was applied");
+                    }
+                }
+            } finally {
+                unlock(con);
+            }
+        }
+        return applied;
+    }
+
+    /**
+     * Reads the migrations listed in the index, in version order.
+     */
+    public static List<Migration> available() throws IOException {
+        List<Migration> migrations = new ArrayList<>();
+        for (String file : readLines(INDEX)) {
+            file = file.trim();
+            if (file.isEmpty()) {
+                continue;
+            }
+            Matcher matcher = FILE_NAME.matcher(file);
+            if (!matcher.matches()) {
+                throw new IOException("Invalid migration name " + file);
+            }
+            int version = Integer.parseInt(matcher.group(1));
+            if (!migrations.isEmpty() && migrations.get(migrations.size() - 1).version >= version) {
+                throw new IOException("Migration " + file + " is out of order");
+            }
+            String script = String.join("\n", readLines("/migrations/" + file));
+            migrations.add(new Migration(version, matcher.group(2), script));
+        }
+        return migrations;
+    }
+
+    private static void apply(Connection con, Migration migration) throws SQLException {
+        long start = System.nanoTime();
+        con.setAutoCommit(false);
+        try (Statement statement = con.createStatement()) {
+            for (String batch : BATCH_SEPARATOR.split(migration.script)) {
+                if (!batch.isBlank()) {
+                    statement.execute(batch);
+                }
+            }
+            long millis = (System.nanoTime() - start) / 1_000_000;
+            try (PreparedStatement record = con.prepareStatement(
+                    "INSERT INTO SchemaHistory (Version, Name, Checksum, DurationMillis) VALUES (?, ?, ?, ?)")) {
+                record.setInt(1, migration.version);
+                record.setString(2, migration.name);
+                record.setString(3, migration.checksum);
+                record.setInt(4, (int) millis);
+                record.executeUpdate();
+            }
+            con.commit();
+            System.out.println("Applied migration " + migration + " in " + millis + " ms");
+        } catch (SQLException e) {
+            con.rollback();
+            throw new SQLException("Migration " + migration + " failed", e);
+        } finally {
+            con.setAutoCommit(true);
+        }
+    }
+
+    private static Map<Integer, String> history(Connection con) throws SQLException {
+        Map<Integer, String> history = new HashMap<>();
+        try (Statement statement = con.createStatement();
+             ResultSet resultSet = statement.executeQuery("SELECT Version, Checksum FROM SchemaHistory")) {
+            while (resultSet.next()) {
+                history.put(resultSet.getInt("Version"), resultSet.getString("Checksum"));
+            }
+        }
+        return history;
+    }
+
+    private static void lock(Connection con) throws SQLException {
+        try (PreparedStatement statement = con.prepareStatement(
+                "DECLARE @result int; " +
+                "EXEC @result = sp_getapplock @Resource = ?, @LockMode = 'Exclusive', " +
+                "@LockOwner = 'Session', @LockTimeout = 60000; " +
+                "SELECT @result AS Result")) {
+            statement.setString(1, LOCK);
+            try (ResultSet resultSet = statement.executeQuery()) {
+                if (!resultSet.next() || resultSet.getInt("Result") < 0) {
+                    throw new SQLException("Could not acquire the migration lock");
+                }
+            }
+        }
+    }
+
+    private static void unlock(Connection con) throws SQLException {
+        try (PreparedStatement statement = con.prepareStatement(
+                "EXEC sp_releaseapplock @Resource = ?, @LockOwner = 'Session'")) {
+            statement.setString(1, LOCK);
+            statement.execute();
+        }
+    }
+
+    private static List<String> readLines(String resource) throws IOException {
+        InputStream in = MigrationRunner.class.getResourceAsStream(resource);
+        if (in == null) {
+            throw new IOException("Missing resource " + resource);
+        }
+        List<String> lines = new ArrayList<>();
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                lines.add(line);
+            }
+        }
+        return lines;
+    }
+
+    public static class Migration {
+        private final int version;
+        private final String name;
+        private final String script;
+        private final String checksum;
+
+        private Migration(int version, String name, String script) {
+            this.version = version;
+            this.name = name;
+            this.script = script;
+            this.checksum = sha256(script);
+        }
+
+        public int getVersion() {
+            return version;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        @Override
+        public String toString() {
+            return version + " " + name;
+        }
+
+        private static String sha256(String text) {
+            try {
+                MessageDigest digest = MessageDigest.getInstance("SHA-256");
+                StringBuilder hex = new StringBuilder();
+                for (byte b : digest.digest(text.getBytes(StandardCharsets.UTF_8))) {
+                    hex.append(String.format("%02x", b));
+                }
+                return hex.toString();
+            } catch (NoSuchAlgorithmException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+    }
+}
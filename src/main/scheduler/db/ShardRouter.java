@@ -0,0 +1,120 @@
+package scheduler.db;
+
+import java.sql.Date;
+import java.time.LocalDate;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Maps dates to shards.
+ *
+ * Availabilities, Reservations and the Waitlist are partitioned by date into consecutive ranges,
+ * one per shard. Shards=<n> (default 1) sets the number of shards, and Shard<i>From=<yyyy-mm-dd>
+ * the first date of shard i for i = 1 to n - 1, in increasing order. Shard 0 owns every date
+ * before Shard1From and the last shard every date from its start on. Shard 0 is also the primary:
+ * it holds the authoritative copy of the reference data (users and vaccine doses).
+ */
+public final class ShardRouter {
+
+    private static final ShardRouter instance = fromEnvironment();
+
+    // starts[i] is the first date of shard i + 1
+    private final LocalDate[] starts;
+
+    public static ShardRouter getInstance() {
+        return instance;
+    }
+
+    /**
+     * A router for starts.size() + 1 shards, where starts.get(i) is the first date of shard i + 1.
+     */
+    public ShardRouter(List<LocalDate> starts) {
+        for (int i = 1; i < starts.size(); i++) {
+            if (!starts.get(i).isAfter(starts.get(i - 1))) {
+                throw new IllegalArgumentException("Shard start dates must increase");
+            }
+        }
+        this.starts = starts.toArray(new LocalDate[0]);
+    }
+
+    public int getShardCount() {
+        return starts.length + 1;
+    }
+
+    public int shardOf(Date date) {
+        LocalDate day = date.toLocalDate();
+        int low = 0;
+        int high = starts.length;
+        // the number of starts at or before the day
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (starts[mid].isAfter(day)) {
+                high = mid;
+            } else {
+                low = mid + 1;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * The first date of the shard, or null for shard 0.
+     */
+    public Date getStart(int shard) {
+        return shard == 0 ? null : Date.valueOf(starts[shard - 1]);
+    }
+
+    /**
+     * The last date of the shard, or null for the last shard.
+     */
+    public Date getEnd(int shard) {
+        return shard == starts.length ? null : Date.valueOf(starts[shard].minusDays(1));
+    }
+
+    /**
+     * Returns true if the shard owns a date from from to to (both inclusive, null for no bound).
+     */
+    public boolean overlaps(int shard, Date from, Date to) {
+        Date start = getStart(shard);
+        Date end = getEnd(shard);
+        return (from == null || end == null || !from.after(end)) && (to == null || start == null || !to.before(start));
+    }
+
+    /**
+     * The later of from and the shard's first date; null only if both are.
+     */
+    public Date clipStart(int shard, Date from) {
+        Date start = getStart(shard);
+        return from == null || (start != null && start.after(from)) ? start : from;
+    }
+
+    /**
+     * The earlier of to and the shard's last date; null only if both are.
+     */
+    public Date clipEnd(int shard, Date to) {
+        Date end = getEnd(shard);
+        return to == null || (end != null && end.before(to)) ? end : to;
+    }
+
+    private static ShardRouter fromEnvironment() {
+        int shards = 1;
+        String count = System.getenv("Shards");
+        List<LocalDate> starts = new ArrayList<>();
+        try {
+            if (count != null) {
+                shards = Integer.parseInt(count.trim());
+            }
+            for (int i = 1; i < shards; i++) {
+                String from = System.getenv("Shard" + i + "From");
+                if (from == null) {
+                    throw new IllegalStateException("Shard" + i + "From is not set");
+                }
+                starts.add(LocalDate.parse(from.trim()));
+            }
+            return new ShardRouter(starts);
+        } catch (IllegalArgumentException | DateTimeParseException e) {
+            throw new IllegalStateException("Invalid shard configuration", e);
+        }
+    }
+}
@@ -0,0 +1,79 @@
+package scheduler.db;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Least-recently-used cache of prepared statements for one physical connection, keyed by SQL text.
+ *
+ * A statement is taken out of the cache while a borrower uses it and put back when the borrower
+ * closes it or returns the connection, so two users of the same SQL never share a statement.
+ * Statements pushed out by the size bound are closed. Like the connection it belongs to, the cache
+ * is only used by one borrower at a time.
+ */
+final class StatementCache {
+
+    private final int maxSize;
+    private final LinkedHashMap<String, PreparedStatement> statements = new LinkedHashMap<>(16, 0.75f, true);
+
+    StatementCache(int maxSize) {
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * Removes and returns the cached statement for the SQL, or null if there is none.
+     */
+    PreparedStatement take(String sql) {
+        return statements.remove(sql);
+    }
+
+    /**
+     * Puts a statement back after clearing its parameters and open results. Statements that cannot
+     * be cleaned, or that are displaced or evicted, are closed.
+     */
+    void release(String sql, PreparedStatement statement) {
+        try {
+            ResultSet resultSet = statement.getResultSet();
+            if (resultSet != null) {
+                resultSet.close();
+            }
+            statement.clearParameters();
+            statement.clearBatch();
+        } catch (SQLException e) {
+            closeQuietly(statement);
+            return;
+        }
+        PreparedStatement displaced = statements.put(sql, statement);
+        if (displaced != null) {
+            closeQuietly(displaced);
+        }
+        Iterator<PreparedStatement> eldest = statements.values().iterator();
+        while (statements.size() > maxSize) {
+            closeQuietly(eldest.next());
+            eldest.remove();
+        }
+    }
+
+    int size() {
+        return statements.size();
+    }
+
+    void clear() {
+        for (PreparedStatement statement : statements.values()) {
+            closeQuietly(statement);
+        }
+        statements.clear();
+    }
+
+    private static void closeQuietly(PreparedStatement statement) {
+        try {
+            statement.close();
+        } catch (SQLException e) {
+            // the statement is being discarded anyway
+        }
+    }
+}
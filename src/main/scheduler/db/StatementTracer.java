@@ -0,0 +1,161 @@
+package scheduler.db;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Collects per-statement execution statistics for the connections {@link ConnectionManager} hands
+ * out, logs slow and failed statements, and can print a periodic report of the most expensive ones.
+ *
+ * Statistics are keyed by SQL text and resolved once when a statement is prepared, so an execution
+ * costs two clock reads and a few atomic adds. Logs and reports go to System.err, since System.out
+ * carries command output (and, in server mode, is routed to clients).
+ *
+ * Configured through the environment: SqlTrace=off disables tracing, SlowQueryMillis (default 500,
+ * 0 to disable) is the slow-query log threshold, and TraceReportSeconds (default 0, off) and
+ * TraceTopN (default 10) control the periodic report.
+ */
+public class StatementTracer {
+
+    // distinct SQL strings tracked; anything beyond is folded into one entry
+    private static final int MAX_STATEMENTS = 1000;
+    private static final int MAX_SQL_LENGTH = 120;
+
+    private static final StatementTracer instance = new StatementTracer(
+            !"off".equalsIgnoreCase(System.getenv("SqlTrace")),
+            intEnv("SlowQueryMillis", 500), intEnv("TraceReportSeconds", 0), intEnv("TraceTopN", 10));
+
+    private final boolean enabled;
+    private final long slowQueryNanos;
+    private final Map<String, Stats> stats = new ConcurrentHashMap<>();
+    private final Stats other = new Stats("(other statements)");
+
+    private StatementTracer(boolean enabled, long slowQueryMillis, long reportSeconds, int topN) {
+        this.enabled = enabled;
+        this.slowQueryNanos = slowQueryMillis > 0 ? TimeUnit.MILLISECONDS.toNanos(slowQueryMillis) : Long.MAX_VALUE;
+        if (enabled && reportSeconds > 0) {
+            ScheduledExecutorService reporter = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread t = new Thread(r, "statement-trace-report");
+                t.setDaemon(true);
+                return t;
+            });
+            reporter.scheduleWithFixedDelay(() -> System.err.print(report(topN)), reportSeconds, reportSeconds,
+                    TimeUnit.SECONDS);
+        }
+    }
+
+    public static StatementTracer getInstance() {
+        return instance;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    Stats stats(String sql) {
+        Stats s = stats.get(sql);
+        if (s == null) {
+            if (stats.size() >= MAX_STATEMENTS) {
+                return other;
+            }
+            s = stats.computeIfAbsent(sql, Stats::new);
+        }
+        return s;
+    }
+
+    void executed(Stats s, long nanos, int binds, long rows) {
+        s.executions.incrementAndGet();
+        s.totalNanos.addAndGet(nanos);
+        s.binds.addAndGet(binds);
+        if (rows > 0) {
+            s.rows.addAndGet(rows);
+        }
+        long max;
+        while (nanos > (max = s.maxNanos.get()) && !s.maxNanos.compareAndSet(max, nanos)) {
+            // retry until the maximum is at least nanos
+        }
+        if (nanos >= slowQueryNanos) {
+            System.err.printf("Slow SQL (%.1f ms, %d binds): %s%n", nanos / 1e6, binds, s.sql);
+        }
+    }
+
+    void failed(Stats s, long nanos, int binds, Throwable cause) {
+        s.failures.incrementAndGet();
+        s.totalNanos.addAndGet(nanos);
+        // callers often replace the exception with a bare SQLException, so keep the details here
+        System.err.printf("SQL failed (%.1f ms, %d binds): %s: %s%n", nanos / 1e6, binds, s.sql, cause);
+    }
+
+    void fetched(Stats s, long rows) {
+        s.rows.addAndGet(rows);
+    }
+
+    /**
+     * Returns a table of the topN statements by total execution time.
+     */
+    public String report(int topN) {
+        List<Stats> all = new ArrayList<>(stats.values());
+        if (other.executions.get() > 0) {
+            all.add(other);
+        }
+        all.sort(Comparator.comparingLong((Stats s) -> s.totalNanos.get()).reversed());
+        StringBuilder report = new StringBuilder();
+        report.append(String.format("%-10s%-10s%-12s%-12s%-10s%-10s%s%n",
+                "Execs", "Failed", "Total ms", "Max ms", "Rows", "Binds", "SQL"));
+        for (Stats s : all.subList(0, Math.min(topN, all.size()))) {
+            long executions = s.executions.get();
+            report.append(String.format("%-10d%-10d%-12.1f%-12.1f%-10d%-10.1f%s%n",
+                    executions, s.failures.get(), s.totalNanos.get() / 1e6, s.maxNanos.get() / 1e6,
+                    s.rows.get(), executions == 0 ? 0.0 : (double) s.binds.get() / executions,
+                    s.sql.length() > MAX_SQL_LENGTH ? s.sql.substring(0, MAX_SQL_LENGTH) + "..." : s.sql));
+        }
+        return report.toString();
+    }
+
+    public void reset() {
+        stats.clear();
+        other.reset();
+    }
+
+    static final class Stats {
+        private final String sql;
+        private final AtomicLong executions = new AtomicLong();
+        private final AtomicLong failures = new AtomicLong();
+        private final AtomicLong totalNanos = new AtomicLong();
+        private final AtomicLong maxNanos = new AtomicLong();
+        private final AtomicLong rows = new AtomicLong();
+        private final AtomicLong binds = new AtomicLong();
+
+        private Stats(String sql) {
+            this.sql = sql;
+        }
+
+        private void reset() {
+            executions.set(0);
+            failures.set(0);
+            totalNanos.set(0);
+            maxNanos.set(0);
+            rows.set(0);
+            binds.set(0);
+        }
+    }
+
+    private static int intEnv(String name, int defaultValue) {
+        String value = System.getenv(name);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return Integer.parseInt(value.trim());
+        } catch (NumberFormatException e) {
+            return defaultValue;
+        }
+    }
+}
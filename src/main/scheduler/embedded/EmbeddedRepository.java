@@ -0,0 +1,997 @@
+package scheduler.embedded;
+
+import scheduler.repository.Appointment;
+import scheduler.repository.SchedulerRepository;
+import scheduler.repository.UserRecord;
+import scheduler.repository.WaitlistEntry;
+import scheduler.service.AvailabilityLoader;
+import scheduler.util.SlotBits;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.sql.Date;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedSet;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+/**
+ * {@link SchedulerRepository} that keeps the tables in process, for running without SQL Server.
+ *
+ * Every change is applied to the in-memory {@link Tables} and appended to a memory-mapped
+ * {@link MappedLog}; with EmbeddedSync on (the default) the call returns once the log is on disk,
+ * and concurrent writers share one force (group commit). A snapshot of the whole state is taken
+ * every EmbeddedSnapshotMinutes (default 10), once the log grows past EmbeddedSnapshotMb (default
+ * 64), and on close, so startup only loads the newest snapshot and replays the log written after it.
+ *
+ * Files in the storage directory: snapshot-N.dat holds the state as of the start of wal-N.log.
+ * Taking a snapshot starts wal-(N+1).log, writes snapshot-(N+1).dat and then deletes the older files.
+ */
+public class EmbeddedRepository implements SchedulerRepository {
+
+    private static final Pattern FILE_NAME = Pattern.compile("(wal|snapshot)-(\\d+)\\.(log|dat)");
+
+    private final Path dir;
+    private final boolean sync;
+    private final long snapshotBytes;
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private final Tables tables = new Tables();
+    private final ScheduledExecutorService snapshotter;
+    private final AtomicBoolean snapshotScheduled = new AtomicBoolean();
+
+    private MappedLog log;
+    private long generation;
+    // set when recovery replayed more than one log, so the next snapshot is taken even if nothing changed
+    private boolean compact = false;
+
+    private EmbeddedRepository(Path dir, boolean sync, long snapshotBytes) {
+        this.dir = dir;
+        this.sync = sync;
+        this.snapshotBytes = snapshotBytes;
+        this.snapshotter = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "embedded-snapshot");
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    /**
+     * Opens the storage in dir, creating it if needed, and recovers the state saved there.
+     */
+    public static EmbeddedRepository open(Path dir) throws IOException {
+        EmbeddedRepository repository = new EmbeddedRepository(dir,
+                !"off".equalsIgnoreCase(System.getenv("EmbeddedSync")),
+                intEnv("EmbeddedSnapshotMb", 64) * (1L << 20));
+        repository.recover();
+        long minutes = intEnv("EmbeddedSnapshotMinutes", 10);
+        repository.snapshotter.scheduleWithFixedDelay(repository::snapshotQuietly, minutes, minutes, TimeUnit.MINUTES);
+        return repository;
+    }
+
+    private void recover() throws IOException {
+        Files.createDirectories(dir);
+        long snapshot = -1;
+        TreeSet<Long> logs = new TreeSet<>();
+        try (Stream<Path> files = Files.list(dir)) {
+            for (Path file : (Iterable<Path>) files::iterator) {
+                Matcher matcher = FILE_NAME.matcher(file.getFileName().toString());
+                if (matcher.matches()) {
+                    long n = Long.parseLong(matcher.group(2));
+                    if (matcher.group(1).equals("snapshot")) {
+                        snapshot = Math.max(snapshot, n);
+                    } else {
+                        logs.add(n);
+                    }
+                }
+            }
+        }
+        generation = Math.max(0, snapshot);
+        if (snapshot >= 0) {
+            boolean[] found = {false};
+            MappedLog.replay(snapshotPath(snapshot), payload -> {
+                apply(payload);
+                found[0] = true;
+            });
+            if (!found[0]) {
+                throw new IOException("Snapshot " + snapshotPath(snapshot) + " is damaged");
+            }
+        }
+        long end = 0;
+        compact = logs.tailSet(generation).size() > 1;
+        for (long n : logs.tailSet(generation)) {
+            end = MappedLog.replay(walPath(n), this::apply);
+            generation = n;
+        }
+        log = new MappedLog(walPath(generation), end);
+        deleteBefore(Math.max(0, snapshot));
+    }
+
+    private void apply(ByteBuffer payload) {
+        byte[] bytes = new byte[payload.remaining()];
+        payload.get(bytes);
+        try {
+            tables.apply(new DataInputStream(new ByteArrayInputStream(bytes)));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    // Logs and applies a batch; must hold the write lock. Returns what to pass to finish().
+    private Commit commit(Tables.Batch batch) throws SQLException {
+        if (batch.isEmpty()) {
+            return null;
+        }
+        byte[] payload = batch.toByteArray();
+        try {
+            long position = log.append(payload);
+            tables.apply(new DataInputStream(new ByteArrayInputStream(payload)));
+            return new Commit(log, position);
+        } catch (IOException e) {
+            throw new SQLException("Could not write to the embedded log", e);
+        }
+    }
+
+    // Waits for the commit to be durable; called after releasing the write lock.
+    private void finish(Commit commit) throws SQLException {
+        if (commit == null) {
+            return;
+        }
+        if (sync) {
+            try {
+                commit.log.awaitDurable(commit.position);
+            } catch (IOException e) {
+                throw new SQLException("Could not write to the embedded log", e);
+            }
+        }
+        if (commit.position >= snapshotBytes && snapshotScheduled.compareAndSet(false, true)) {
+            snapshotter.execute(this::snapshotQuietly);
+        }
+    }
+
+    private static final class Commit {
+        private final MappedLog log;
+        private final long position;
+
+        private Commit(MappedLog log, long position) {
+            this.log = log;
+            this.position = position;
+        }
+    }
+
+    /**
+     * Writes a snapshot of the current state and drops the log and snapshot files it replaces.
+     */
+    public synchronized void snapshot() throws IOException {
+        MappedLog previous;
+        long next;
+        byte[] state;
+        // the read lock keeps writers out, so the new log starts exactly at the snapshot
+        lock.readLock().lock();
+        try {
+            if (log.size() == 0 && !compact) {
+                return;
+            }
+            compact = false;
+            next = generation + 1;
+            previous = log;
+            log = new MappedLog(walPath(next), 0);
+            generation = next;
+            state = tables.snapshot();
+        } finally {
+            lock.readLock().unlock();
+        }
+        previous.close();
+        Path temp = dir.resolve("snapshot-" + next + ".tmp");
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            ByteBuffer framed = ByteBuffer.wrap(MappedLog.frame(state));
+            while (framed.hasRemaining()) {
+                channel.write(framed);
+            }
+            channel.force(true);
+        }
+        Files.move(temp, snapshotPath(next), StandardCopyOption.ATOMIC_MOVE);
+        deleteBefore(next);
+    }
+
+    private void snapshotQuietly() {
+        snapshotScheduled.set(false);
+        try {
+            snapshot();
+        } catch (IOException | RuntimeException e) {
+            System.err.println("Could not write embedded snapshot: " + e);
+        }
+    }
+
+    private void deleteBefore(long keep) throws IOException {
+        try (Stream<Path> files = Files.list(dir)) {
+            for (Path file : (Iterable<Path>) files::iterator) {
+                Matcher matcher = FILE_NAME.matcher(file.getFileName().toString());
+                if (matcher.matches() && Long.parseLong(matcher.group(2)) < keep) {
+                    Files.deleteIfExists(file);
+                }
+            }
+        }
+    }
+
+    private Path walPath(long n) {
+        return dir.resolve("wal-" + n + ".log");
+    }
+
+    private Path snapshotPath(long n) {
+        return dir.resolve("snapshot-" + n + ".dat");
+    }
+
+    // Users
+
+    @Override
+    public boolean userExists(Role role, String username) {
+        lock.readLock().lock();
+        try {
+            return tables.users(role).containsKey(username);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public Set<String> existingUsers(Role role, Collection<String> usernames) {
+        Set<String> existing = new HashSet<>();
+        lock.readLock().lock();
+        try {
+            for (String username : usernames) {
+                if (tables.users(role).containsKey(username)) {
+                    existing.add(username);
+                }
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        return existing;
+    }
+
+    @Override
+    public UserRecord getUser(Role role, String username) {
+        lock.readLock().lock();
+        try {
+            return tables.users(role).get(username);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public void createUser(Role role, UserRecord user) throws SQLException {
+        createUsers(role == Role.PATIENT ? List.of(user) : List.of(),
+                role == Role.CAREGIVER ? List.of(user) : List.of());
+    }
+
+    @Override
+    public void createUsers(List<UserRecord> patients, List<UserRecord> caregivers) throws SQLException {
+        Tables.Batch batch = new Tables.Batch();
+        Commit commit;
+        lock.writeLock().lock();
+        try {
+            addUsers(batch, Role.PATIENT, patients);
+            addUsers(batch, Role.CAREGIVER, caregivers);
+            commit = commit(batch);
+        } finally {
+            lock.writeLock().unlock();
+        }
+        finish(commit);
+    }
+
+    private void addUsers(Tables.Batch batch, Role role, List<UserRecord> users) throws SQLException {
+        Set<String> seen = new HashSet<>();
+        for (UserRecord user : users) {
+            if (tables.users(role).containsKey(user.getUsername()) || !seen.add(user.getUsername())) {
+                throw new SQLException("Duplicate key in " + role.getTable() + ": " + user.getUsername());
+            }
+            batch.putUser(role, user);
+        }
+    }
+
+    @Override
+    public void updateCredentials(Role role, UserRecord user) throws SQLException {
+        Commit commit;
+        lock.writeLock().lock();
+        try {
+            if (!tables.users(role).containsKey(user.getUsername())) {
+                return;
+            }
+            commit = commit(new Tables.Batch().putUser(role, user));
+        } finally {
+            lock.writeLock().unlock();
+        }
+        finish(commit);
+    }
+
+    // Vaccines
+
+    @Override
+    public int getDoses(String vaccine) {
+        lock.readLock().lock();
+        try {
+            return tables.vaccines.getOrDefault(vaccine, -1);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public Map<String, Integer> getAllDoses() {
+        lock.readLock().lock();
+        try {
+            return new LinkedHashMap<>(tables.vaccines);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public void createVaccine(String vaccine, int doses) throws SQLException {
+        Commit commit;
+        lock.writeLock().lock();
+        try {
+            if (tables.vaccines.containsKey(vaccine)) {
+                throw new SQLException("Duplicate key in Vaccines: " + vaccine);
+            }
+            commit = commit(new Tables.Batch().putVaccine(vaccine, doses));
+        } finally {
+            lock.writeLock().unlock();
+        }
+        finish(commit);
+    }
+
+    @Override
+    public boolean addDoses(String vaccine, int delta) throws SQLException {
+        Commit commit;
+        lock.writeLock().lock();
+        try {
+            Integer doses = tables.vaccines.get(vaccine);
+            if (doses == null || doses + delta < 0) {
+                return false;
+            }
+            commit = commit(new Tables.Batch().putVaccine(vaccine, doses + delta));
+        } finally {
+            lock.writeLock().unlock();
+        }
+        finish(commit);
+        return true;
+    }
+
+    @Override
+    public void addOrCreateDoses(Map<String, Integer> doses) throws SQLException {
+        applyDeltas(doses, true);
+    }
+
+    @Override
+    public void applyDoseDeltas(Map<String, Integer> deltas) throws SQLException {
+        applyDeltas(deltas, false);
+    }
+
+    private void applyDeltas(Map<String, Integer> deltas, boolean create) throws SQLException {
+        Tables.Batch batch = new Tables.Batch();
+        Commit commit;
+        lock.writeLock().lock();
+        try {
+            for (Map.Entry<String, Integer> entry : deltas.entrySet()) {
+                Integer doses = tables.vaccines.get(entry.getKey());
+                if (doses != null) {
+                    batch.putVaccine(entry.getKey(), doses + entry.getValue());
+                } else if (create) {
+                    batch.putVaccine(entry.getKey(), entry.getValue());
+                }
+            }
+            commit = commit(batch);
+        } finally {
+            lock.writeLock().unlock();
+        }
+        finish(commit);
+    }
+
+    // Availabilities
+
+    @Override
+    public SlotBits addAvailability(Date date, String caregiver, SlotBits slots) throws SQLException {
+        int day = Tables.epochDay(date);
+        Commit commit;
+        SlotBits free;
+        lock.writeLock().lock();
+        try {
+            if (!tables.caregivers.containsKey(caregiver)) {
+                throw new SQLException("No caregiver " + caregiver);
+            }
+            SlotBits current = tables.slots(day, caregiver);
+            free = current.or(slots.andNot(tables.booked(day, caregiver)));
+            if (free.equals(current)) {
+                return free;
+            }
+            commit = commit(new Tables.Batch().putSlots(day, caregiver, free));
+        } finally {
+            lock.writeLock().unlock();
+        }
+        finish(commit);
+        return free;
+    }
+
+    @Override
+    public List<AvailabilityLoader.Slot> addAvailabilities(List<AvailabilityLoader.Slot> slots) throws SQLException {
+        // rows for the same caregiver and date are merged first
+        Map<AvailabilityLoader.Slot, SlotBits> merged = new LinkedHashMap<>();
+        for (AvailabilityLoader.Slot slot : slots) {
+            merged.merge(slot, slot.getSlots(), SlotBits::or);
+        }
+        List<AvailabilityLoader.Slot> inserted = new ArrayList<>();
+        Tables.Batch batch = new Tables.Batch();
+        Commit commit;
+        lock.writeLock().lock();
+        try {
+            for (Map.Entry<AvailabilityLoader.Slot, SlotBits> entry : merged.entrySet()) {
+                String caregiver = entry.getKey().getCaregiver();
+                int day = Tables.epochDay(entry.getKey().getDate());
+                if (!tables.caregivers.containsKey(caregiver)) {
+                    continue;
+                }
+                SlotBits current = tables.slots(day, caregiver);
+                SlotBits free = current.or(entry.getValue().andNot(tables.booked(day, caregiver)));
+                if (!free.equals(current)) {
+                    batch.putSlots(day, caregiver, free);
+                    inserted.add(new AvailabilityLoader.Slot(caregiver, entry.getKey().getDate(), free));
+                }
+            }
+            commit = commit(batch);
+        } finally {
+            lock.writeLock().unlock();
+        }
+        finish(commit);
+        return inserted;
+    }
+
+    @Override
+    public void removeAvailabilities(Date date) throws SQLException {
+        int day = Tables.epochDay(date);
+        Commit commit;
+        lock.writeLock().lock();
+        try {
+            if (!tables.availabilities.containsKey(day)) {
+                return;
+            }
+            commit = commit(new Tables.Batch().removeDay(day));
+        } finally {
+            lock.writeLock().unlock();
+        }
+        finish(commit);
+    }
+
+    @Override
+    public Map<String, SlotBits> getAvailability(Date date) {
+        lock.readLock().lock();
+        try {
+            TreeMap<String, SlotBits> available = tables.availabilities.get(Tables.epochDay(date));
+            return available == null ? new LinkedHashMap<>() : new LinkedHashMap<>(available);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public List<AvailabilityLoader.Slot> getAllAvailabilities() {
+        List<AvailabilityLoader.Slot> slots = new ArrayList<>();
+        lock.readLock().lock();
+        try {
+            for (Map.Entry<Integer, TreeMap<String, SlotBits>> day : tables.availabilities.entrySet()) {
+                Date date = Tables.date(day.getKey());
+                for (Map.Entry<String, SlotBits> caregiver : day.getValue().entrySet()) {
+                    slots.add(new AvailabilityLoader.Slot(caregiver.getKey(), date, caregiver.getValue()));
+                }
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        return slots;
+    }
+
+    @Override
+    public int scanAvailabilities(Date start, Date end, AvailabilityLoader.Slot after, int limit,
+                                  Consumer<AvailabilityLoader.Slot> sink) {
+        int from = Tables.epochDay(start);
+        if (after != null) {
+            from = Math.max(from, Tables.epochDay(after.getDate()));
+        }
+        int count = 0;
+        lock.readLock().lock();
+        try {
+            for (Map.Entry<Integer, TreeMap<String, SlotBits>> day
+                    : tables.availabilities.subMap(from, true, Tables.epochDay(end), true).entrySet()) {
+                Date date = Tables.date(day.getKey());
+                Map<String, SlotBits> caregivers = day.getValue();
+                if (after != null && day.getKey() == Tables.epochDay(after.getDate())) {
+                    caregivers = day.getValue().tailMap(after.getCaregiver(), false);
+                }
+                for (Map.Entry<String, SlotBits> caregiver : caregivers.entrySet()) {
+                    if (count == limit) {
+                        return count;
+                    }
+                    sink.accept(new AvailabilityLoader.Slot(caregiver.getKey(), date, caregiver.getValue()));
+                    count++;
+                }
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        return count;
+    }
+
+    // Reservations
+
+    @Override
+    public Claim reserve(String appointmentId, String patient, Date date, int slot, String vaccine, String caregiver,
+                         boolean takeDose, String requestKey) throws SQLException {
+        int day = Tables.epochDay(date);
+        Commit commit;
+        lock.writeLock().lock();
+        try {
+            if (!tables.patients.containsKey(patient)) {
+                throw new SQLException("Reservation references an unknown patient");
+            }
+            if (requestKey != null && tables.requestKeys.containsKey(Tables.requestKey(patient, requestKey))) {
+                return new Claim(Claim.Status.DUPLICATE, null);
+            }
+            // like the SQL Server batch, an unknown vaccine has no doses
+            Integer doses = tables.vaccines.get(vaccine);
+            if (doses == null || (takeDose && doses <= 0)) {
+                return new Claim(Claim.Status.NO_DOSES, null);
+            }
+            SlotBits free = tables.slots(day, caregiver);
+            if (!free.contains(slot)) {
+                return new Claim(Claim.Status.NO_SLOT, null);
+            }
+            Tables.Batch batch = new Tables.Batch();
+            if (takeDose) {
+                batch.putVaccine(vaccine, doses - 1);
+            }
+            batch.putSlots(day, caregiver, free.without(slot));
+            batch.putReservation(new Appointment(appointmentId, vaccine, patient, caregiver, date, slot));
+            if (requestKey != null) {
+                batch.putRequestKey(appointmentId, patient, requestKey);
+            }
+            commit = commit(batch);
+        } finally {
+            lock.writeLock().unlock();
+        }
+        finish(commit);
+        return new Claim(Claim.Status.CLAIMED, caregiver);
+    }
+
+    @Override
+    public Appointment getReservationByKey(String patient, String requestKey) {
+        lock.readLock().lock();
+        try {
+            String appointmentId = tables.requestKeys.get(Tables.requestKey(patient, requestKey));
+            return appointmentId == null ? null : tables.reservations.get(appointmentId);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public boolean reserveAll(List<Appointment> appointments, boolean takeDoses) throws SQLException {
+        Commit commit;
+        lock.writeLock().lock();
+        try {
+            Map<String, Integer> doses = new HashMap<>();
+            // day:caregiver -> slots left after the earlier appointments
+            Map<String, SlotBits> free = new HashMap<>();
+            Tables.Batch batch = new Tables.Batch();
+            for (Appointment appointment : appointments) {
+                Integer left = doses.computeIfAbsent(appointment.getVaccine(), tables.vaccines::get);
+                if (left == null || !tables.patients.containsKey(appointment.getPatient())) {
+                    throw new SQLException("Reservation references an unknown vaccine or patient");
+                }
+                int day = Tables.epochDay(appointment.getDate());
+                String caregiver = appointment.getCaregiver();
+                SlotBits slots = free.computeIfAbsent(day + ":" + caregiver, k -> tables.slots(day, caregiver));
+                if ((takeDoses && left <= 0) || appointment.getSlot() < 0 || !slots.contains(appointment.getSlot())) {
+                    return false;
+                }
+                if (takeDoses) {
+                    doses.put(appointment.getVaccine(), left - 1);
+                }
+                slots = slots.without(appointment.getSlot());
+                free.put(day + ":" + caregiver, slots);
+                batch.putSlots(day, caregiver, slots);
+                batch.putReservation(appointment);
+            }
+            if (takeDoses) {
+                for (Map.Entry<String, Integer> entry : doses.entrySet()) {
+                    batch.putVaccine(entry.getKey(), entry.getValue());
+                }
+            }
+            commit = commit(batch);
+        } finally {
+            lock.writeLock().unlock();
+        }
+        finish(commit);
+        return true;
+    }
+
+    @Override
+    public Appointment cancel(String appointmentId, Role role, String username, boolean returnDose)
+            throws SQLException {
+        Commit commit;
+        Appointment appointment;
+        lock.writeLock().lock();
+        try {
+            appointment = tables.reservations.get(appointmentId);
+            String owner = appointment == null ? null
+                    : role == Role.PATIENT ? appointment.getPatient() : appointment.getCaregiver();
+            if (!username.equals(owner)) {
+                return null;
+            }
+            Tables.Batch batch = new Tables.Batch();
+            removeReservations(batch, List.of(appointment), returnDose, true);
+            commit = commit(batch);
+        } finally {
+            lock.writeLock().unlock();
+        }
+        finish(commit);
+        return appointment;
+    }
+
+    @Override
+    public List<Appointment> cancelCaregiverDay(String caregiver, Date date, boolean returnDoses, int rebookPriority)
+            throws SQLException {
+        int day = Tables.epochDay(date);
+        Commit commit;
+        List<Appointment> cancelled = new ArrayList<>();
+        lock.writeLock().lock();
+        try {
+            TreeSet<Appointment> appointments = tables.reservationsByCaregiver.get(caregiver);
+            if (appointments != null) {
+                for (Appointment appointment : appointments) {
+                    if (appointment.getDate().equals(date)) {
+                        cancelled.add(appointment);
+                    }
+                }
+            }
+            Tables.Batch batch = new Tables.Batch();
+            removeReservations(batch, cancelled, returnDoses, false);
+            if (!tables.slots(day, caregiver).isEmpty()) {
+                batch.putSlots(day, caregiver, SlotBits.NONE);
+            }
+            rebook(batch, cancelled, rebookPriority);
+            commit = commit(batch);
+        } finally {
+            lock.writeLock().unlock();
+        }
+        finish(commit);
+        return cancelled;
+    }
+
+    @Override
+    public List<Appointment> cancelVaccineLot(String vaccine, Date from, Date to, int rebookPriority)
+            throws SQLException {
+        Commit commit;
+        List<Appointment> cancelled = new ArrayList<>();
+        lock.writeLock().lock();
+        try {
+            for (Appointment appointment : tables.reservations.values()) {
+                if (appointment.getVaccine().equals(vaccine) && !appointment.getDate().before(from)
+                        && !appointment.getDate().after(to)) {
+                    cancelled.add(appointment);
+                }
+            }
+            Tables.Batch batch = new Tables.Batch();
+            removeReservations(batch, cancelled, false, true);
+            rebook(batch, cancelled, rebookPriority);
+            commit = commit(batch);
+        } finally {
+            lock.writeLock().unlock();
+        }
+        finish(commit);
+        return cancelled;
+    }
+
+    // Adds the removal of the appointments to the batch, with their doses and slots given back if asked.
+    private void removeReservations(Tables.Batch batch, List<Appointment> appointments, boolean returnDoses,
+                                    boolean restoreSlots) {
+        Map<String, Integer> doses = new HashMap<>();
+        Map<String, SlotBits> free = new HashMap<>();
+        Set<String> ids = new HashSet<>();
+        for (Appointment appointment : appointments) {
+            batch.removeReservation(appointment.getAppointmentId());
+            ids.add(appointment.getAppointmentId());
+            if (returnDoses) {
+                doses.merge(appointment.getVaccine(), 1, Integer::sum);
+            }
+            // appointments booked before slots have no slot to give back
+            if (restoreSlots && appointment.getSlot() >= 0) {
+                int day = Tables.epochDay(appointment.getDate());
+                String caregiver = appointment.getCaregiver();
+                SlotBits slots = free.computeIfAbsent(day + ":" + caregiver, k -> tables.slots(day, caregiver))
+                        .with(appointment.getSlot());
+                free.put(day + ":" + caregiver, slots);
+                batch.putSlots(day, caregiver, slots);
+            }
+        }
+        for (Map.Entry<String, Integer> entry : doses.entrySet()) {
+            Integer left = tables.vaccines.get(entry.getKey());
+            if (left != null) {
+                batch.putVaccine(entry.getKey(), left + entry.getValue());
+            }
+        }
+        // booked waitlist requests whose appointment is gone are not announced any more
+        for (WaitlistEntry entry : tables.waitlist.values()) {
+            if (entry.isBooked() && ids.contains(entry.getAppointmentId())) {
+                batch.removeWaitlist(entry.getRequestId());
+            }
+        }
+    }
+
+    // Adds a waiting request at the priority for each patient's cancelled appointment not already waiting.
+    private void rebook(Tables.Batch batch, List<Appointment> cancelled, int priority) {
+        Set<String> waiting = new HashSet<>();
+        for (WaitlistEntry entry : tables.waitlist.values()) {
+            if (!entry.isBooked()) {
+                waiting.add(entry.getPatient() + ":" + entry.getVaccine() + ":" + entry.getDate());
+            }
+        }
+        long requestId = tables.nextRequestId;
+        for (Appointment appointment : cancelled) {
+            if (waiting.add(appointment.getPatient() + ":" + appointment.getVaccine() + ":" + appointment.getDate())) {
+                batch.putWaitlist(new WaitlistEntry(requestId++, appointment.getPatient(), appointment.getVaccine(),
+                        appointment.getDate(), priority, null, null, -1));
+            }
+        }
+    }
+
+    @Override
+    public List<Appointment> getAllAppointments() {
+        lock.readLock().lock();
+        try {
+            return new ArrayList<>(tables.reservations.values());
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public int scanAppointments(Role role, String username, Date from, Date to, Appointment after, int limit,
+                                Consumer<Appointment> sink) {
+        int count = 0;
+        lock.readLock().lock();
+        try {
+            Map<String, TreeSet<Appointment>> index = role == Role.PATIENT
+                    ? tables.reservationsByPatient : tables.reservationsByCaregiver;
+            TreeSet<Appointment> appointments = index.get(username);
+            if (appointments == null) {
+                return 0;
+            }
+            SortedSet<Appointment> tail = appointments;
+            if (after != null) {
+                tail = appointments.tailSet(after, false);
+            }
+            if (from != null) {
+                // sorts before every appointment on the from date
+                Appointment first = new Appointment("", null, null, null, from);
+                if (after == null || Appointment.ORDER.compare(first, after) > 0) {
+                    tail = appointments.tailSet(first, true);
+                }
+            }
+            for (Appointment appointment : tail) {
+                if (count == limit || (to != null && appointment.getDate().after(to))) {
+                    break;
+                }
+                sink.accept(appointment);
+                count++;
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        return count;
+    }
+
+    // Waitlist
+
+    @Override
+    public long addToWaitlist(String patient, String vaccine, Date date) throws SQLException {
+        Commit commit;
+        long requestId;
+        lock.writeLock().lock();
+        try {
+            if (!tables.patients.containsKey(patient)) {
+                throw new SQLException("Waitlist request references an unknown patient");
+            }
+            for (WaitlistEntry entry : tables.waitlist.values()) {
+                if (!entry.isBooked() && entry.getPatient().equals(patient) && entry.getVaccine().equals(vaccine)
+                        && entry.getDate().equals(date)) {
+                    return -1;
+                }
+            }
+            requestId = tables.nextRequestId;
+            commit = commit(new Tables.Batch().putWaitlist(
+                    new WaitlistEntry(requestId, patient, vaccine, date, 0, null, null, -1)));
+        } finally {
+            lock.writeLock().unlock();
+        }
+        finish(commit);
+        return requestId;
+    }
+
+    @Override
+    public int expireWaitlist(Date before) throws SQLException {
+        Commit commit;
+        int count = 0;
+        lock.writeLock().lock();
+        try {
+            Tables.Batch batch = new Tables.Batch();
+            for (WaitlistEntry entry : tables.waitlist.values()) {
+                if (!entry.isBooked() && entry.getDate().before(before)) {
+                    batch.removeWaitlist(entry.getRequestId());
+                    count++;
+                }
+            }
+            commit = commit(batch);
+        } finally {
+            lock.writeLock().unlock();
+        }
+        finish(commit);
+        return count;
+    }
+
+    @Override
+    public int setWaitlistPriority(String patient, int priority) throws SQLException {
+        Commit commit;
+        int count = 0;
+        lock.writeLock().lock();
+        try {
+            Tables.Batch batch = new Tables.Batch();
+            for (WaitlistEntry entry : tables.waitlist.values()) {
+                if (!entry.isBooked() && entry.getPatient().equals(patient)) {
+                    batch.putWaitlist(new WaitlistEntry(entry.getRequestId(), patient, entry.getVaccine(),
+                            entry.getDate(), priority, null, null, -1));
+                    count++;
+                }
+            }
+            commit = commit(batch);
+        } finally {
+            lock.writeLock().unlock();
+        }
+        finish(commit);
+        return count;
+    }
+
+    @Override
+    public List<WaitlistEntry> getWaitlist() {
+        List<WaitlistEntry> waitlist = new ArrayList<>();
+        lock.readLock().lock();
+        try {
+            for (WaitlistEntry entry : tables.waitlist.values()) {
+                if (!entry.isBooked()) {
+                    waitlist.add(entry);
+                }
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        // the map is in request order and the sort is stable
+        waitlist.sort(Comparator.comparingInt(WaitlistEntry::getPriority).reversed());
+        return waitlist;
+    }
+
+    @Override
+    public List<WaitlistEntry> bookWaitlisted(List<WaitlistEntry> matches, boolean takeDoses) throws SQLException {
+        List<WaitlistEntry> booked = new ArrayList<>();
+        Commit commit;
+        lock.writeLock().lock();
+        try {
+            Tables.Batch batch = new Tables.Batch();
+            // doses and slots left after earlier matches in this batch
+            Map<String, Integer> doses = new HashMap<>();
+            Map<String, SlotBits> free = new HashMap<>();
+            for (WaitlistEntry match : matches) {
+                int day = Tables.epochDay(match.getDate());
+                String caregiver = match.getCaregiver();
+                WaitlistEntry waiting = tables.waitlist.get(match.getRequestId());
+                Integer left = doses.computeIfAbsent(match.getVaccine(), tables.vaccines::get);
+                SlotBits slots = free.computeIfAbsent(day + ":" + caregiver, k -> tables.slots(day, caregiver));
+                if (waiting == null || waiting.isBooked() || left == null || (takeDoses && left <= 0)
+                        || !slots.contains(match.getSlot())) {
+                    continue;
+                }
+                if (takeDoses) {
+                    doses.put(match.getVaccine(), left - 1);
+                    batch.putVaccine(match.getVaccine(), left - 1);
+                }
+                slots = slots.without(match.getSlot());
+                free.put(day + ":" + caregiver, slots);
+                batch.putSlots(day, caregiver, slots);
+                batch.putReservation(new Appointment(match.getAppointmentId(), waiting.getVaccine(),
+                        waiting.getPatient(), caregiver, waiting.getDate(), match.getSlot()));
+                WaitlistEntry entry = waiting.booked(match.getAppointmentId(), caregiver, match.getSlot());
+                batch.putWaitlist(entry);
+                booked.add(entry);
+            }
+            commit = commit(batch);
+        } finally {
+            lock.writeLock().unlock();
+        }
+        finish(commit);
+        return booked;
+    }
+
+    @Override
+    public List<WaitlistEntry> takeBookedWaitlist(String patient) throws SQLException {
+        List<WaitlistEntry> booked = new ArrayList<>();
+        Commit commit;
+        lock.writeLock().lock();
+        try {
+            Tables.Batch batch = new Tables.Batch();
+            for (WaitlistEntry entry : tables.waitlist.values()) {
+                if (entry.isBooked() && entry.getPatient().equals(patient)) {
+                    batch.removeWaitlist(entry.getRequestId());
+                    booked.add(entry);
+                }
+            }
+            commit = commit(batch);
+        } finally {
+            lock.writeLock().unlock();
+        }
+        finish(commit);
+        return booked;
+    }
+
+    /**
+     * Takes a final snapshot, so the next start has no log to replay, and closes the log.
+     */
+    @Override
+    public void close() throws SQLException {
+        snapshotter.shutdownNow();
+        try {
+            snapshot();
+            log.close();
+        } catch (IOException e) {
+            throw new SQLException("Could not close embedded storage", e);
+        }
+    }
+
+    private static int intEnv(String name, int defaultValue) {
+        String value = System.getenv(name);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return Integer.parseInt(value.trim());
+        } catch (NumberFormatException e) {
+            return defaultValue;
+        }
+    }
+}
@@ -0,0 +1,199 @@
+package scheduler.embedded;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.zip.CRC32;
+
+/**
+ * An append-only log file written through memory-mapped regions, with group commit.
+ *
+ * Each record is framed as [payload length][CRC32 of payload][payload]. Appending only copies the
+ * record into the mapped region and returns the log position after it. A committer thread forces
+ * the mapped pages to disk and advances the durable position, so every writer waiting in
+ * {@link #awaitDurable} while one force is running is covered by the next one.
+ *
+ * The file is extended one region at a time and the unused tail stays zero-filled, which is how
+ * {@link #replay} finds the end of the log. A torn or corrupt record at the end ends the replay.
+ */
+final class MappedLog implements Closeable {
+
+    private static final int REGION_SIZE = 16 << 20;
+    private static final int HEADER_SIZE = 8;
+
+    private final FileChannel channel;
+    private final Thread committer;
+
+    private MappedByteBuffer region;
+    private long regionStart;
+    // regions that were filled up and have not been forced yet
+    private final List<MappedByteBuffer> retired = new ArrayList<>();
+    private long appended;
+    private long durable;
+    private IOException failure = null;
+    private boolean closed = false;
+
+    /**
+     * Opens the log for appending after the given position, normally the end found by {@link #replay}.
+     */
+    MappedLog(Path file, long end) throws IOException {
+        this.channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+        this.appended = end;
+        this.durable = end;
+        map(end, REGION_SIZE);
+        this.committer = new Thread(this::commitLoop, "embedded-log-committer");
+        this.committer.setDaemon(true);
+        this.committer.start();
+    }
+
+    /**
+     * Feeds every intact record of the file to the consumer and returns the position after the last one.
+     */
+    static long replay(Path file, Consumer<ByteBuffer> consumer) throws IOException {
+        if (!Files.exists(file)) {
+            return 0;
+        }
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            CRC32 crc = new CRC32();
+            while (buffer.remaining() >= HEADER_SIZE) {
+                int start = buffer.position();
+                int length = buffer.getInt();
+                int checksum = buffer.getInt();
+                if (length <= 0 || length > buffer.remaining()) {
+                    buffer.position(start);
+                    break;
+                }
+                ByteBuffer payload = buffer.slice(buffer.position(), length);
+                crc.reset();
+                crc.update(payload.duplicate());
+                if ((int) crc.getValue() != checksum) {
+                    buffer.position(start);
+                    break;
+                }
+                consumer.accept(payload);
+                buffer.position(buffer.position() + length);
+            }
+            return buffer.position();
+        }
+    }
+
+    static byte[] frame(byte[] payload) {
+        CRC32 crc = new CRC32();
+        crc.update(payload);
+        ByteBuffer framed = ByteBuffer.allocate(HEADER_SIZE + payload.length);
+        framed.putInt(payload.length).putInt((int) crc.getValue()).put(payload);
+        return framed.array();
+    }
+
+    /**
+     * Appends one record and returns the log position after it, to pass to {@link #awaitDurable}.
+     */
+    synchronized long append(byte[] payload) throws IOException {
+        if (failure != null) {
+            throw failure;
+        }
+        if (closed) {
+            throw new IOException("Log is closed");
+        }
+        byte[] framed = frame(payload);
+        if (appended + framed.length > regionStart + region.capacity()) {
+            retired.add(region);
+            map(appended, Math.max(REGION_SIZE, framed.length));
+        }
+        region.put((int) (appended - regionStart), framed);
+        appended += framed.length;
+        notifyAll();
+        return appended;
+    }
+
+    /**
+     * Waits until everything up to the position has been forced to disk.
+     */
+    synchronized void awaitDurable(long position) throws IOException {
+        while (durable < position) {
+            if (failure != null) {
+                throw failure;
+            }
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting for the log to be written");
+            }
+        }
+    }
+
+    synchronized long size() {
+        return appended;
+    }
+
+    @Override
+    public void close() throws IOException {
+        synchronized (this) {
+            closed = true;
+            notifyAll();
+        }
+        try {
+            committer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        channel.close();
+    }
+
+    private void map(long start, int size) throws IOException {
+        region = channel.map(FileChannel.MapMode.READ_WRITE, start, size);
+        regionStart = start;
+    }
+
+    private void commitLoop() {
+        while (true) {
+            long target;
+            MappedByteBuffer current;
+            List<MappedByteBuffer> full;
+            synchronized (this) {
+                while (appended == durable && !closed) {
+                    try {
+                        wait();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+                if (appended == durable) {
+                    return;
+                }
+                target = appended;
+                current = region;
+                full = new ArrayList<>(retired);
+                retired.clear();
+            }
+            try {
+                for (MappedByteBuffer buffer : full) {
+                    buffer.force();
+                }
+                current.force();
+            } catch (RuntimeException e) {
+                synchronized (this) {
+                    failure = new IOException("Could not write the log", e);
+                    notifyAll();
+                }
+                return;
+            }
+            synchronized (this) {
+                durable = target;
+                notifyAll();
+            }
+        }
+    }
+}
@@ -0,0 +1,421 @@
+package scheduler.embedded;
+
+import scheduler.repository.Appointment;
+import scheduler.repository.SchedulerRepository.Role;
+import scheduler.repository.UserRecord;
+import scheduler.repository.WaitlistEntry;
+import scheduler.util.PasswordHasher;
+import scheduler.util.SlotBits;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.sql.Date;
+import java.time.LocalDate;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/**
+ * The in-memory contents of the six tables, and the encoding of changes to them.
+ *
+ * Changes are only made by {@link #apply}, which decodes a batch of operations as written by a
+ * {@link Batch}. The same decoder runs for live writes, for log replay and for loading snapshots,
+ * so a replayed log always ends in the state the live writes produced. Not thread-safe; the
+ * repository guards it with its lock.
+ */
+final class Tables {
+
+    private static final byte PUT_USER = 1;
+    private static final byte PUT_VACCINE = 2;
+    // before slots: a whole day of availability, offered as 09:00 to 17:00 when replayed
+    private static final byte ADD_SLOT = 3;
+    private static final byte REMOVE_SLOT = 4;
+    private static final byte REMOVE_DAY = 5;
+    // before slots: an appointment without a slot
+    private static final byte PUT_RESERVATION = 6;
+    private static final byte REMOVE_RESERVATION = 7;
+    private static final byte PUT_WAITLIST = 8;
+    private static final byte REMOVE_WAITLIST = 9;
+    private static final byte PUT_SLOTS = 10;
+    private static final byte PUT_BOOKING = 11;
+    private static final byte PUT_REQUEST_KEY = 12;
+    // in snapshots: the waitlist's request id counter, which may be past every remaining request
+    private static final byte NEXT_REQUEST_ID = 13;
+
+    final Map<String, UserRecord> patients = new HashMap<>();
+    final Map<String, UserRecord> caregivers = new HashMap<>();
+    final TreeMap<String, Integer> vaccines = new TreeMap<>();
+    // epoch day -> caregivers with free slots that day, in username order, and their free slots
+    final TreeMap<Integer, TreeMap<String, SlotBits>> availabilities = new TreeMap<>();
+    final Map<String, Appointment> reservations = new LinkedHashMap<>();
+    // username -> that user's reservations in Appointment.ORDER
+    final Map<String, TreeSet<Appointment>> reservationsByPatient = new HashMap<>();
+    final Map<String, TreeSet<Appointment>> reservationsByCaregiver = new HashMap<>();
+    // patient + "\n" + request key -> appointment id, and back; a key goes with its reservation
+    final Map<String, String> requestKeys = new HashMap<>();
+    final Map<String, String> requestKeysByAppointment = new HashMap<>();
+    // request id -> waitlisted request, waiting or booked
+    final TreeMap<Long, WaitlistEntry> waitlist = new TreeMap<>();
+    long nextRequestId = 1;
+
+    Map<String, UserRecord> users(Role role) {
+        return role == Role.PATIENT ? patients : caregivers;
+    }
+
+    static int epochDay(Date date) {
+        return (int) date.toLocalDate().toEpochDay();
+    }
+
+    static String requestKey(String patient, String key) {
+        return patient + "\n" + key;
+    }
+
+    static Date date(int epochDay) {
+        return Date.valueOf(LocalDate.ofEpochDay(epochDay));
+    }
+
+    SlotBits slots(int day, String caregiver) {
+        TreeMap<String, SlotBits> available = availabilities.get(day);
+        SlotBits slots = available == null ? null : available.get(caregiver);
+        return slots == null ? SlotBits.NONE : slots;
+    }
+
+    /**
+     * The slots the caregiver has appointments in on the day.
+     */
+    SlotBits booked(int day, String caregiver) {
+        TreeSet<Appointment> appointments = reservationsByCaregiver.get(caregiver);
+        SlotBits booked = SlotBits.NONE;
+        if (appointments == null) {
+            return booked;
+        }
+        // "" sorts before every appointment id, so these bound the appointments of the day
+        for (Appointment appointment : appointments.subSet(new Appointment("", null, null, null, date(day)), true,
+                new Appointment("", null, null, null, date(day + 1)), false)) {
+            if (appointment.getSlot() >= 0) {
+                booked = booked.with(appointment.getSlot());
+            }
+        }
+        return booked;
+    }
+
+    private void setSlots(int day, String caregiver, SlotBits slots) {
+        if (slots.isEmpty()) {
+            TreeMap<String, SlotBits> available = availabilities.get(day);
+            if (available != null && available.remove(caregiver) != null && available.isEmpty()) {
+                availabilities.remove(day);
+            }
+        } else {
+            availabilities.computeIfAbsent(day, d -> new TreeMap<>()).put(caregiver, slots);
+        }
+    }
+
+    /**
+     * Applies one batch of operations.
+     */
+    void apply(DataInput in) throws IOException {
+        int count = in.readInt();
+        for (int i = 0; i < count; i++) {
+            byte op = in.readByte();
+            switch (op) {
+                case PUT_USER: {
+                    Role role = Role.values()[in.readByte()];
+                    String username = in.readUTF();
+                    byte[] salt = readBytes(in);
+                    byte[] hash = readBytes(in);
+                    PasswordHasher.Params params = PasswordHasher.Params.fromColumns(in.readUTF(), in.readInt());
+                    users(role).put(username, new UserRecord(username, salt, hash, params));
+                    break;
+                }
+                case PUT_VACCINE:
+                    vaccines.put(in.readUTF(), in.readInt());
+                    break;
+                case ADD_SLOT: {
+                    int day = in.readInt();
+                    String caregiver = in.readUTF();
+                    setSlots(day, caregiver, slots(day, caregiver).or(SlotBits.WORKING_DAY));
+                    break;
+                }
+                case REMOVE_SLOT:
+                    setSlots(in.readInt(), in.readUTF(), SlotBits.NONE);
+                    break;
+                case PUT_SLOTS:
+                    setSlots(in.readInt(), in.readUTF(), SlotBits.of(in.readLong(), in.readInt()));
+                    break;
+                case REMOVE_DAY:
+                    availabilities.remove(in.readInt());
+                    break;
+                case PUT_RESERVATION:
+                case PUT_BOOKING: {
+                    Appointment appointment = new Appointment(in.readUTF(), in.readUTF(), in.readUTF(), in.readUTF(),
+                            date(in.readInt()), op == PUT_BOOKING ? in.readShort() : -1);
+                    Appointment replaced = reservations.put(appointment.getAppointmentId(), appointment);
+                    if (replaced != null) {
+                        unindex(replaced);
+                    }
+                    reservationsByPatient.computeIfAbsent(appointment.getPatient(),
+                            p -> new TreeSet<>(Appointment.ORDER)).add(appointment);
+                    reservationsByCaregiver.computeIfAbsent(appointment.getCaregiver(),
+                            c -> new TreeSet<>(Appointment.ORDER)).add(appointment);
+                    break;
+                }
+                case REMOVE_RESERVATION: {
+                    String appointmentId = in.readUTF();
+                    Appointment appointment = reservations.remove(appointmentId);
+                    if (appointment != null) {
+                        unindex(appointment);
+                    }
+                    String key = requestKeysByAppointment.remove(appointmentId);
+                    if (key != null) {
+                        requestKeys.remove(key);
+                    }
+                    break;
+                }
+                case PUT_REQUEST_KEY: {
+                    String appointmentId = in.readUTF();
+                    String key = requestKey(in.readUTF(), in.readUTF());
+                    requestKeys.put(key, appointmentId);
+                    requestKeysByAppointment.put(appointmentId, key);
+                    break;
+                }
+                case PUT_WAITLIST: {
+                    long requestId = in.readLong();
+                    String patient = in.readUTF();
+                    String vaccine = in.readUTF();
+                    Date date = date(in.readInt());
+                    int priority = in.readInt();
+                    // 0 while waiting, 1 if booked before slots, 2 if booked with a slot
+                    byte booked = in.readByte();
+                    String appointmentId = booked != 0 ? in.readUTF() : null;
+                    String caregiver = booked != 0 ? in.readUTF() : null;
+                    int slot = booked == 2 ? in.readShort() : -1;
+                    waitlist.put(requestId, new WaitlistEntry(requestId, patient, vaccine, date, priority,
+                            appointmentId, caregiver, slot));
+                    nextRequestId = Math.max(nextRequestId, requestId + 1);
+                    break;
+                }
+                case REMOVE_WAITLIST:
+                    waitlist.remove(in.readLong());
+                    break;
+                case NEXT_REQUEST_ID:
+                    nextRequestId = Math.max(nextRequestId, in.readLong());
+                    break;
+                default:
+                    throw new IOException("Unknown operation " + op);
+            }
+        }
+    }
+
+    private void unindex(Appointment appointment) {
+        reservationsByPatient.get(appointment.getPatient()).remove(appointment);
+        reservationsByCaregiver.get(appointment.getCaregiver()).remove(appointment);
+    }
+
+    /**
+     * Encodes the whole state as one batch that rebuilds it when applied to empty tables.
+     */
+    byte[] snapshot() {
+        Batch batch = new Batch();
+        for (Role role : Role.values()) {
+            for (UserRecord user : users(role).values()) {
+                batch.putUser(role, user);
+            }
+        }
+        for (Map.Entry<String, Integer> vaccine : vaccines.entrySet()) {
+            batch.putVaccine(vaccine.getKey(), vaccine.getValue());
+        }
+        for (Map.Entry<Integer, TreeMap<String, SlotBits>> day : availabilities.entrySet()) {
+            for (Map.Entry<String, SlotBits> caregiver : day.getValue().entrySet()) {
+                batch.putSlots(day.getKey(), caregiver.getKey(), caregiver.getValue());
+            }
+        }
+        for (Appointment appointment : reservations.values()) {
+            batch.putReservation(appointment);
+            String key = requestKeysByAppointment.get(appointment.getAppointmentId());
+            if (key != null) {
+                batch.putRequestKey(appointment.getAppointmentId(), appointment.getPatient(),
+                        key.substring(appointment.getPatient().length() + 1));
+            }
+        }
+        for (WaitlistEntry entry : waitlist.values()) {
+            batch.putWaitlist(entry);
+        }
+        batch.nextRequestId(nextRequestId);
+        return batch.toByteArray();
+    }
+
+    private static byte[] readBytes(DataInput in) throws IOException {
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        return bytes;
+    }
+
+    /**
+     * A batch of operations to log and apply together.
+     */
+    static final class Batch {
+        private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        private final DataOutputStream out = new DataOutputStream(bytes);
+        private int count = 0;
+
+        Batch putUser(Role role, UserRecord user) {
+            try {
+                op(PUT_USER);
+                out.writeByte(role.ordinal());
+                out.writeUTF(user.getUsername());
+                out.writeInt(user.getSalt().length);
+                out.write(user.getSalt());
+                out.writeInt(user.getHash().length);
+                out.write(user.getHash());
+                out.writeUTF(user.getHashParams().getAlgorithm());
+                out.writeInt(user.getHashParams().getIterations());
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            return this;
+        }
+
+        Batch putVaccine(String vaccine, int doses) {
+            try {
+                op(PUT_VACCINE);
+                out.writeUTF(vaccine);
+                out.writeInt(doses);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            return this;
+        }
+
+        /**
+         * Sets the caregiver's free slots on the day; no slots removes the caregiver from the day.
+         */
+        Batch putSlots(int day, String caregiver, SlotBits slots) {
+            try {
+                op(PUT_SLOTS);
+                out.writeInt(day);
+                out.writeUTF(caregiver);
+                out.writeLong(slots.getLow());
+                out.writeInt(slots.getHigh());
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            return this;
+        }
+
+        Batch removeDay(int day) {
+            try {
+                op(REMOVE_DAY);
+                out.writeInt(day);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            return this;
+        }
+
+        Batch putReservation(Appointment appointment) {
+            try {
+                op(PUT_BOOKING);
+                out.writeUTF(appointment.getAppointmentId());
+                out.writeUTF(appointment.getVaccine());
+                out.writeUTF(appointment.getPatient());
+                out.writeUTF(appointment.getCaregiver());
+                out.writeInt(epochDay(appointment.getDate()));
+                out.writeShort(appointment.getSlot());
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            return this;
+        }
+
+        /**
+         * Records the request key of a reservation put earlier in the batch or the log.
+         */
+        Batch putRequestKey(String appointmentId, String patient, String key) {
+            try {
+                op(PUT_REQUEST_KEY);
+                out.writeUTF(appointmentId);
+                out.writeUTF(patient);
+                out.writeUTF(key);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            return this;
+        }
+
+        Batch removeReservation(String appointmentId) {
+            try {
+                op(REMOVE_RESERVATION);
+                out.writeUTF(appointmentId);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            return this;
+        }
+
+        Batch putWaitlist(WaitlistEntry entry) {
+            try {
+                op(PUT_WAITLIST);
+                out.writeLong(entry.getRequestId());
+                out.writeUTF(entry.getPatient());
+                out.writeUTF(entry.getVaccine());
+                out.writeInt(epochDay(entry.getDate()));
+                out.writeInt(entry.getPriority());
+                out.writeByte(entry.isBooked() ? 2 : 0);
+                if (entry.isBooked()) {
+                    out.writeUTF(entry.getAppointmentId());
+                    out.writeUTF(entry.getCaregiver());
+                    out.writeShort(entry.getSlot());
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            return this;
+        }
+
+        Batch removeWaitlist(long requestId) {
+            try {
+                op(REMOVE_WAITLIST);
+                out.writeLong(requestId);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            return this;
+        }
+
+        Batch nextRequestId(long requestId) {
+            try {
+                op(NEXT_REQUEST_ID);
+                out.writeLong(requestId);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            return this;
+        }
+
+        boolean isEmpty() {
+            return count == 0;
+        }
+
+        // the operation count goes first, so it is patched in at the front
+        byte[] toByteArray() {
+            byte[] ops = bytes.toByteArray();
+            byte[] payload = new byte[4 + ops.length];
+            payload[0] = (byte) (count >>> 24);
+            payload[1] = (byte) (count >>> 16);
+            payload[2] = (byte) (count >>> 8);
+            payload[3] = (byte) count;
+            System.arraycopy(ops, 0, payload, 4, ops.length);
+            return payload;
+        }
+
+        private void op(byte op) throws IOException {
+            out.writeByte(op);
+            count++;
+        }
+    }
+}
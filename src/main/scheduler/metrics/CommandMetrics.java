@@ -0,0 +1,120 @@
+package scheduler.metrics;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Per-command metrics, published over JMX.
+ *
+ * The dispatcher calls {@link #begin} and {@link #end} around every command. In between, the
+ * command running on a thread is remembered in a thread-local context, so the database layer can
+ * attribute the connections it hands out and the statements it runs to that command without
+ * passing anything through the model classes. Recording only touches atomic counters and
+ * preallocated histograms; the context is allocated once per thread.
+ */
+public final class CommandMetrics {
+
+    private static final Map<String, CommandStats> stats = new ConcurrentHashMap<>();
+    private static final ThreadLocal<Context> context = ThreadLocal.withInitial(Context::new);
+
+    private CommandMetrics() {
+    }
+
+    private static final class Context {
+        private CommandStats current;
+        private boolean failed;
+        private boolean lastFailed;
+    }
+
+    /**
+     * Returns the stats for a command, creating and registering its MBean on first use.
+     */
+    public static CommandStats get(String command) {
+        CommandStats s = stats.get(command);
+        if (s == null) {
+            s = stats.computeIfAbsent(command, CommandMetrics::register);
+        }
+        return s;
+    }
+
+    public static Collection<CommandStats> getAll() {
+        return stats.values();
+    }
+
+    /**
+     * Starts attributing work on this thread to the command; returns the start time for {@link #end}.
+     */
+    public static long begin(String command) {
+        Context c = context.get();
+        c.current = get(command);
+        c.failed = false;
+        return System.nanoTime();
+    }
+
+    /**
+     * Records the command started by {@link #begin}. It counts as failed if failed is set or a
+     * statement failed while it ran.
+     */
+    public static void end(long start, boolean failed) {
+        Context c = context.get();
+        if (c.current == null) {
+            return;
+        }
+        c.lastFailed = failed || c.failed;
+        c.current.record(System.nanoTime() - start, c.lastFailed);
+        c.current = null;
+        c.failed = false;
+    }
+
+    // whether the last command ended on this thread was recorded as failed
+    public static boolean lastFailed() {
+        return context.get().lastFailed;
+    }
+
+    // true while a command is running on this thread
+    public static boolean isRecording() {
+        return context.get().current != null;
+    }
+
+    public static void connectionOpened() {
+        CommandStats current = context.get().current;
+        if (current != null) {
+            current.connectionOpened();
+        }
+    }
+
+    public static void statementExecuted() {
+        CommandStats current = context.get().current;
+        if (current != null) {
+            current.statementExecuted();
+        }
+    }
+
+    public static void statementFailed() {
+        context.get().failed = true;
+    }
+
+    // for commands that catch and report an error themselves instead of letting it reach the dispatcher
+    public static void commandFailed() {
+        context.get().failed = true;
+    }
+
+    private static CommandStats register(String command) {
+        CommandStats s = new CommandStats(command);
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName("scheduler:type=Command,name=" + command);
+            if (!server.isRegistered(name)) {
+                server.registerMBean(s, name);
+            }
+        } catch (JMException e) {
+            System.out.println("Could not register metrics for " + command);
+        }
+        return s;
+    }
+}
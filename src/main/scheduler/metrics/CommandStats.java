@@ -0,0 +1,110 @@
+package scheduler.metrics;
+
+import scheduler.util.LatencyHistogram;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Latency, outcome and database round-trip counters for one command.
+ */
+public class CommandStats implements CommandStatsMBean {
+
+    private final String command;
+    private final LatencyHistogram latency = new LatencyHistogram();
+    private final AtomicLong failures = new AtomicLong();
+    private final AtomicLong connections = new AtomicLong();
+    private final AtomicLong statements = new AtomicLong();
+
+    CommandStats(String command) {
+        this.command = command;
+    }
+
+    public String getCommand() {
+        return command;
+    }
+
+    void record(long nanos, boolean failed) {
+        latency.record(nanos);
+        if (failed) {
+            failures.incrementAndGet();
+        }
+    }
+
+    void connectionOpened() {
+        connections.incrementAndGet();
+    }
+
+    void statementExecuted() {
+        statements.incrementAndGet();
+    }
+
+    @Override
+    public long getCount() {
+        return latency.getCount();
+    }
+
+    @Override
+    public long getSuccesses() {
+        return latency.getCount() - failures.get();
+    }
+
+    @Override
+    public long getFailures() {
+        return failures.get();
+    }
+
+    @Override
+    public double getMeanMillis() {
+        return latency.getMeanNanos() / 1e6;
+    }
+
+    @Override
+    public double getP50Millis() {
+        return latency.getPercentileNanos(0.50) / 1e6;
+    }
+
+    @Override
+    public double getP99Millis() {
+        return latency.getPercentileNanos(0.99) / 1e6;
+    }
+
+    @Override
+    public double getP999Millis() {
+        return latency.getPercentileNanos(0.999) / 1e6;
+    }
+
+    @Override
+    public double getMaxMillis() {
+        return latency.getMaxNanos() / 1e6;
+    }
+
+    @Override
+    public long getConnectionsOpened() {
+        return connections.get();
+    }
+
+    @Override
+    public long getStatementsExecuted() {
+        return statements.get();
+    }
+
+    @Override
+    public double getConnectionsPerCommand() {
+        long count = latency.getCount();
+        return count == 0 ? 0 : (double) connections.get() / count;
+    }
+
+    @Override
+    public double getStatementsPerCommand() {
+        long count = latency.getCount();
+        return count == 0 ? 0 : (double) statements.get() / count;
+    }
+
+    @Override
+    public void reset() {
+        latency.reset();
+        failures.set(0);
+        connections.set(0);
+        statements.set(0);
+    }
+}
@@ -0,0 +1,33 @@
+package scheduler.metrics;
+
+/**
+ * JMX view of one command's {@link CommandStats}, registered as scheduler:type=Command,name=<command>.
+ */
+public interface CommandStatsMBean {
+
+    long getCount();
+
+    long getSuccesses();
+
+    long getFailures();
+
+    double getMeanMillis();
+
+    double getP50Millis();
+
+    double getP99Millis();
+
+    double getP999Millis();
+
+    double getMaxMillis();
+
+    long getConnectionsOpened();
+
+    long getStatementsExecuted();
+
+    double getConnectionsPerCommand();
+
+    double getStatementsPerCommand();
+
+    void reset();
+}
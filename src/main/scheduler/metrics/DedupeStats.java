@@ -0,0 +1,116 @@
+package scheduler.metrics;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.IntSupplier;
+
+/**
+ * Hit counters of a dedupe cache for retried requests.
+ *
+ * A lookup is a cache hit if the request was answered from the cache, and a store hit if the cache
+ * missed but the database already had the request; every other lookup was a new request.
+ */
+public class DedupeStats implements DedupeStatsMBean {
+
+    private final AtomicLong lookups = new AtomicLong();
+    private final AtomicLong cacheHits = new AtomicLong();
+    private final AtomicLong storeHits = new AtomicLong();
+    private final AtomicLong expired = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+    private final IntSupplier size;
+
+    private DedupeStats(IntSupplier size) {
+        this.size = size;
+    }
+
+    /**
+     * Creates the stats of a cache and registers their MBean.
+     */
+    public static DedupeStats register(String name, IntSupplier size) {
+        DedupeStats s = new DedupeStats(size);
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName objectName = new ObjectName("scheduler:type=Dedupe,name=" + name);
+            if (!server.isRegistered(objectName)) {
+                server.registerMBean(s, objectName);
+            }
+        } catch (JMException e) {
+            System.out.println("Could not register metrics for " + name);
+        }
+        return s;
+    }
+
+    public void lookup(boolean hit) {
+        lookups.incrementAndGet();
+        if (hit) {
+            cacheHits.incrementAndGet();
+        }
+    }
+
+    public void storeHit() {
+        storeHits.incrementAndGet();
+    }
+
+    public void expired() {
+        expired.incrementAndGet();
+    }
+
+    public void evicted() {
+        evictions.incrementAndGet();
+    }
+
+    @Override
+    public long getLookups() {
+        return lookups.get();
+    }
+
+    @Override
+    public long getCacheHits() {
+        return cacheHits.get();
+    }
+
+    @Override
+    public long getStoreHits() {
+        return storeHits.get();
+    }
+
+    @Override
+    public long getExpired() {
+        return expired.get();
+    }
+
+    @Override
+    public long getEvictions() {
+        return evictions.get();
+    }
+
+    @Override
+    public int getSize() {
+        return size.getAsInt();
+    }
+
+    @Override
+    public double getHitRate() {
+        long count = lookups.get();
+        return count == 0 ? 0 : (double) cacheHits.get() / count;
+    }
+
+    // retries answered with the original result, from the cache or the database
+    @Override
+    public double getDuplicateRate() {
+        long count = lookups.get();
+        return count == 0 ? 0 : (double) (cacheHits.get() + storeHits.get()) / count;
+    }
+
+    @Override
+    public void reset() {
+        lookups.set(0);
+        cacheHits.set(0);
+        storeHits.set(0);
+        expired.set(0);
+        evictions.set(0);
+    }
+}
@@ -0,0 +1,25 @@
+package scheduler.metrics;
+
+/**
+ * JMX view of {@link DedupeStats}, registered as scheduler:type=Dedupe,name=<name>.
+ */
+public interface DedupeStatsMBean {
+
+    long getLookups();
+
+    long getCacheHits();
+
+    long getStoreHits();
+
+    long getExpired();
+
+    long getEvictions();
+
+    int getSize();
+
+    double getHitRate();
+
+    double getDuplicateRate();
+
+    void reset();
+}
@@ -1,26 +1,39 @@
 package scheduler.model;
 
-import scheduler.db.ConnectionManager;
+import scheduler.repository.Appointment;
+import scheduler.repository.Repositories;
+import scheduler.repository.SchedulerRepository.Role;
+import scheduler.repository.UserRecord;
+import scheduler.service.AppointmentListing;
+import scheduler.service.AvailabilityIndex;
+import scheduler.service.ScheduleSearch;
+import scheduler.util.PasswordHasher;
+import scheduler.util.SlotBits;
 import scheduler.util.Util;
 
-import java.sql.*;
-import java.util.Arrays;
+import java.io.PrintStream;
+import java.sql.Date;
+import java.sql.SQLException;
+import java.util.concurrent.RejectedExecutionException;
 
 public class Caregiver {
     private final String username;
     private final byte[] salt;
     private final byte[] hash;
+    private final PasswordHasher.Params hashParams;
 
     private Caregiver(CaregiverBuilder builder) {
         this.username = builder.username;
         this.salt = builder.salt;
         this.hash = builder.hash;
+        this.hashParams = builder.hashParams;
     }
 
     private Caregiver(CaregiverGetter getter) {
         this.username = getter.username;
         this.salt = getter.salt;
         this.hash = getter.hash;
+        this.hashParams = getter.hashParams;
     }
 
     // Getters
@@ -36,103 +49,69 @@ public class Caregiver {
         return hash;
     }
 
-    public void saveToDB() throws SQLException {
-        ConnectionManager cm = new ConnectionManager();
-        Connection con = cm.createConnection();
+    public PasswordHasher.Params getHashParams() {
+        return hashParams;
+    }
+
+    public void getAppointments() throws SQLException {
+        getAppointments(null, null, null, Integer.MAX_VALUE, System.out);
+    }
 
-        String addCaregiver = "INSERT INTO Caregivers VALUES (? , ?, ?)";
+    // Prints up to limit appointments between the dates to out; returns the cursor of the next page or null
+    public Appointment getAppointments(Date from, Date to, Appointment after, int limit, PrintStream out)
+            throws SQLException {
+        return new AppointmentListing().list(Role.CAREGIVER, this.username, from, to, after, limit, out);
+    }
+
+    public void saveToDB() throws SQLException {
         try {
-            PreparedStatement statement = con.prepareStatement(addCaregiver);
-            statement.setString(1, this.username);
-            statement.setBytes(2, this.salt);
-            statement.setBytes(3, this.hash);
-            statement.executeUpdate();
+            Repositories.get().createUser(Role.CAREGIVER,
+                    new UserRecord(this.username, this.salt, this.hash, this.hashParams));
         } catch (SQLException e) {
             throw new SQLException();
-        } finally {
-            cm.closeConnection();
         }
     }
 
-    public void uploadAvailability(Date d) throws SQLException {
-        ConnectionManager cm = new ConnectionManager();
-        Connection con = cm.createConnection();
-
-        String addAvailability = "INSERT INTO Availabilities VALUES (? , ?)";
+    public void uploadAvailability(Date d, SlotBits slots) throws SQLException {
         try {
-            PreparedStatement statement = con.prepareStatement(addAvailability);
-            statement.setDate(1, d);
-            statement.setString(2, this.username);
-            statement.executeUpdate();
+            SlotBits free = Repositories.get().addAvailability(d, this.username, slots);
+            AvailabilityIndex.getInstance().add(d, this.username, free);
         } catch (SQLException e) {
             throw new SQLException();
-        } finally {
-            cm.closeConnection();
         }
     }
 
     public static void deleteAvailability (Date d) throws SQLException {
-        ConnectionManager cm = new ConnectionManager();
-        Connection con = cm.createConnection();
-
-        String deleteAvailability = "DELETE Username FROM Availabilities WHERE Time = ?";
-
-        try{
-            PreparedStatement statement = con.prepareStatement(deleteAvailability);
-            statement.setDate(1, d);
-            int rowsAffected = statement.executeUpdate();
+        try {
+            Repositories.get().removeAvailabilities(d);
+            AvailabilityIndex.getInstance().removeDay(AvailabilityIndex.epochDay(d));
         } catch (SQLException e) {
             // Handle the exception (e.g., log, print an error message)
             e.printStackTrace();
-        } finally {
-            cm.closeConnection();
         }
     }
 
+    // Prints the vaccine stock and the caregivers available on the date
     public static void searchCaregiverSchedule(Date d) throws SQLException {
-        ConnectionManager cm = new ConnectionManager();
-        Connection con = cm.createConnection();
-
-        String getCaregivers = "SELECT Availabilities.Username AS Caregiver, Vaccines.Name AS Vaccine, Vaccines.Doses AS Doses " +
-                "FROM Availabilities CROSS JOIN Vaccines " +
-                "WHERE Availabilities.Time = ? ORDER BY Caregiver;";
-
-        try {
-            PreparedStatement statement = con.prepareStatement(getCaregivers);
-            statement.setDate(1, d);
-            ResultSet resultSet = statement.executeQuery();
-
-            // Process the ResultSet
-            if (!resultSet.next()) {
-                System.out.println("No available caregivers for the given date.");
-            } else {
-                System.out.printf("%-20s%-20s%-10s%n", "Caregiver", "Vaccine", "Doses");
-                do {
-                    String username = resultSet.getString("Caregiver");
-                    String vaccineName = resultSet.getString("Vaccine");
-                    int doses = resultSet.getInt("Doses");
-                    System.out.printf("%-20s%-20s%-10d%n", username, vaccineName, doses);
-                } while (resultSet.next());
-            }
-        } catch (SQLException e) {
-            // Handle the exception (e.g., log, print an error message)
-            e.printStackTrace();
-        } finally {
-            cm.closeConnection();
-        }
+        new ScheduleSearch().search(d, d, null, Integer.MAX_VALUE, System.out);
     }
 
-
-
     public static class CaregiverBuilder {
         private final String username;
         private final byte[] salt;
         private final byte[] hash;
+        private final PasswordHasher.Params hashParams;
 
+        // for hashes made with Util.generateHash(password, salt), i.e. the legacy parameters
         public CaregiverBuilder(String username, byte[] salt, byte[] hash) {
+            this(username, salt, hash, PasswordHasher.Params.LEGACY);
+        }
+
+        public CaregiverBuilder(String username, byte[] salt, byte[] hash, PasswordHasher.Params hashParams) {
             this.username = username;
             this.salt = salt;
             this.hash = hash;
+            this.hashParams = hashParams;
         }
 
         public Caregiver build() {
@@ -145,6 +124,7 @@ public class Caregiver {
         private final String password;
         private byte[] salt;
         private byte[] hash;
+        private PasswordHasher.Params hashParams;
 
         public CaregiverGetter(String username, String password) {
             this.username = username;
@@ -152,34 +132,38 @@ public class Caregiver {
         }
 
         public Caregiver get() throws SQLException {
-            ConnectionManager cm = new ConnectionManager();
-            Connection con = cm.createConnection();
-
-            String getCaregiver = "SELECT Salt, Hash FROM Caregivers WHERE Username = ?";
             try {
-                PreparedStatement statement = con.prepareStatement(getCaregiver);
-                statement.setString(1, this.username);
-                ResultSet resultSet = statement.executeQuery();
-                while (resultSet.next()) {
-                    byte[] salt = resultSet.getBytes("Salt");
-                    // we need to call Util.trim() to get rid of the paddings,
-                    // try to remove the use of Util.trim() and you'll see :)
-                    byte[] hash = Util.trim(resultSet.getBytes("Hash"));
-                    // check if the password matches
-                    byte[] calculatedHash = Util.generateHash(password, salt);
-                    if (!Arrays.equals(hash, calculatedHash)) {
-                        return null;
-                    } else {
-                        this.salt = salt;
-                        this.hash = hash;
-                        return new Caregiver(this);
-                    }
+                UserRecord user = Repositories.get().getUser(Role.CAREGIVER, this.username);
+                if (user == null) {
+                    return null;
+                }
+                byte[] salt = user.getSalt();
+                byte[] hash = user.getHash();
+                PasswordHasher.Params params = user.getHashParams();
+                // check if the password matches, on the bounded hashing pool
+                if (!PasswordHasher.verifyBounded(password, salt, hash, params)) {
+                    return null;
+                }
+                if (PasswordHasher.needsUpgrade(params)) {
+                    // re-hash with the current parameters now that we know the password
+                    params = PasswordHasher.current();
+                    salt = Util.generateSalt();
+                    hash = Util.generateHash(password, salt, params);
+                    Repositories.get().updateCredentials(Role.CAREGIVER, new UserRecord(this.username, salt, hash, params));
                 }
-                return null;
+                this.salt = salt;
+                // we need to call Util.trim() to get rid of the paddings,
+                // try to remove the use of Util.trim() and you'll see :)
+                this.hash = Util.trim(hash);
+                this.hashParams = params;
+                return new Caregiver(this);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new SQLException("Interrupted while checking password", e);
+            } catch (RejectedExecutionException e) {
+                throw new SQLException("Too many logins in progress, try again later", e);
             } catch (SQLException e) {
                 throw new SQLException();
-            } finally {
-                cm.closeConnection();
             }
         }
     }
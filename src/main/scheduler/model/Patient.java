@@ -1,26 +1,36 @@
 package scheduler.model;
 
-import scheduler.db.ConnectionManager;
+import scheduler.repository.Appointment;
+import scheduler.repository.Repositories;
+import scheduler.repository.SchedulerRepository.Role;
+import scheduler.repository.UserRecord;
+import scheduler.service.AppointmentListing;
+import scheduler.util.PasswordHasher;
 import scheduler.util.Util;
 
-import java.sql.*;
-import java.util.Arrays;
+import java.io.PrintStream;
+import java.sql.Date;
+import java.sql.SQLException;
+import java.util.concurrent.RejectedExecutionException;
 
 public class Patient {
     private final String username;
     private final byte[] salt;
     private final byte[] hash;
+    private final PasswordHasher.Params hashParams;
 
     private Patient(Patient.PatientBuilder builder) {
         this.username = builder.username;
         this.salt = builder.salt;
         this.hash = builder.hash;
+        this.hashParams = builder.hashParams;
     }
 
     private Patient(Patient.PatientGetter getter) {
         this.username = getter.username;
         this.salt = getter.salt;
         this.hash = getter.hash;
+        this.hashParams = getter.hashParams;
     }
 
     // Getters
@@ -28,38 +38,14 @@ public class Patient {
         return username;
     }
 
-    public void getAppointments() throws SQLException{
-        ConnectionManager cm = new ConnectionManager();
-        Connection con = cm.createConnection();
-        String showAppointments = "SELECT AppointmentID, vname AS Vaccine, rtime AS Date, cname AS Caregiver" +
-                "FROM Reservations WHERE pname= ?";
-
-        try {
-            PreparedStatement statement = con.prepareStatement(showAppointments);
-            statement.setString(1, this.username);
-            ResultSet resultSet = statement.executeQuery();
-            if (!resultSet.next()){
-                System.out.println("No appointments scheduled!");
-            } else {
-                String ID = resultSet.getString("AppointmentID");
-                String vaccine = resultSet.getString("vname");
-                String date = resultSet.getString("rtime");
-                String caregiver = resultSet.getString("cname");
-                System.out.println(ID + ", " + vaccine + ", " + date + ", " + caregiver);
-                while (resultSet.next()) {
-                    ID = resultSet.getString("AppointmentID");
-                    vaccine = resultSet.getString("vname");
-                    date = resultSet.getString("rtime");
-                    caregiver = resultSet.getString("cname");
-                    System.out.println(ID + ", " + vaccine + ", " + date + ", " + caregiver);
-                }
-            }
-        } catch (SQLException e) {
-            throw e;
-        } finally {
-            cm.closeConnection();
-        }
+    public void getAppointments() throws SQLException {
+        getAppointments(null, null, null, Integer.MAX_VALUE, System.out);
+    }
 
+    // Prints up to limit appointments between the dates to out; returns the cursor of the next page or null
+    public Appointment getAppointments(Date from, Date to, Appointment after, int limit, PrintStream out)
+            throws SQLException {
+        return new AppointmentListing().list(Role.PATIENT, this.username, from, to, after, limit, out);
     }
 
 
@@ -71,33 +57,30 @@ public class Patient {
         return hash;
     }
 
+    public PasswordHasher.Params getHashParams() {
+        return hashParams;
+    }
+
     public void saveToDB() throws SQLException {
-        ConnectionManager cm = new ConnectionManager();
-        Connection con = cm.createConnection();
-
-        String addPatient = "INSERT INTO Patients VALUES (? , ?, ?)";
-        try {
-            PreparedStatement statement = con.prepareStatement(addPatient);
-            statement.setString(1, this.username);
-            statement.setBytes(2, this.salt);
-            statement.setBytes(3, this.hash);
-            statement.executeUpdate();
-        } catch (SQLException e) {
-            throw e;
-        } finally {
-            cm.closeConnection();
-        }
+        Repositories.get().createUser(Role.PATIENT, new UserRecord(this.username, this.salt, this.hash, this.hashParams));
     }
 
     public static class PatientBuilder {
         private final String username;
         private final byte[] salt;
         private final byte[] hash;
+        private final PasswordHasher.Params hashParams;
 
+        // for hashes made with Util.generateHash(password, salt), i.e. the legacy parameters
         public PatientBuilder (String username, byte[] salt, byte[] hash) {
+            this(username, salt, hash, PasswordHasher.Params.LEGACY);
+        }
+
+        public PatientBuilder(String username, byte[] salt, byte[] hash, PasswordHasher.Params hashParams) {
             this.username = username;
             this.salt = salt;
             this.hash = hash;
+            this.hashParams = hashParams;
         }
 
         public Patient build() {
@@ -110,6 +93,7 @@ public class Patient {
         private final String password;
         private byte[] salt;
         private byte[] hash;
+        private PasswordHasher.Params hashParams;
 
         public PatientGetter(String username, String password) {
             this.username = username;
@@ -117,34 +101,36 @@ public class Patient {
         }
 
         public Patient get() throws SQLException {
-            ConnectionManager cm = new ConnectionManager();
-            Connection con = cm.createConnection();
-
-            String getPatient = "SELECT Salt, Hash FROM Patients WHERE Username = ?";
             try {
-                PreparedStatement statement = con.prepareStatement(getPatient);
-                statement.setString(1, this.username);
-                ResultSet resultSet = statement.executeQuery();
-                while (resultSet.next()) {
-                    byte[] salt = resultSet.getBytes("Salt");
-                    // we need to call Util.trim() to get rid of the paddings,
-                    // try to remove the use of Util.trim() and you'll see :)
-                    byte[] hash = Util.trim(resultSet.getBytes("Hash"));
-                    // check if the password matches
-                    byte[] calculatedHash = Util.generateHash(password, salt);
-                    if (!Arrays.equals(hash, calculatedHash)) {
-                        return null;
-                    } else {
-                        this.salt = salt;
-                        this.hash = hash;
-                        return new Patient(this);
-                    }
+                UserRecord user = Repositories.get().getUser(Role.PATIENT, this.username);
+                if (user == null) {
+                    return null;
+                }
+                byte[] salt = user.getSalt();
+                byte[] hash = user.getHash();
+                PasswordHasher.Params params = user.getHashParams();
+                // check if the password matches, on the bounded hashing pool
+                if (!PasswordHasher.verifyBounded(password, salt, hash, params)) {
+                    return null;
+                }
+                if (PasswordHasher.needsUpgrade(params)) {
+                    // re-hash with the current parameters now that we know the password
+                    params = PasswordHasher.current();
+                    salt = Util.generateSalt();
+                    hash = Util.generateHash(password, salt, params);
+                    Repositories.get().updateCredentials(Role.PATIENT, new UserRecord(this.username, salt, hash, params));
                 }
-                return null;
-            } catch (SQLException e) {
-                throw e;
-            } finally {
-                cm.closeConnection();
+                this.salt = salt;
+                // we need to call Util.trim() to get rid of the paddings,
+                // try to remove the use of Util.trim() and you'll see :)
+                this.hash = Util.trim(hash);
+                this.hashParams = params;
+                return new Patient(this);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new SQLException("Interrupted while checking password", e);
+            } catch (RejectedExecutionException e) {
+                throw new SQLException("Too many logins in progress, try again later", e);
             }
         }
     }
@@ -1,11 +1,11 @@
 package scheduler.model;
 
-import scheduler.db.ConnectionManager;
+import scheduler.repository.Repositories;
+import scheduler.service.DoseLedger;
 
-import java.sql.Connection;
-import java.sql.PreparedStatement;
-import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.util.LinkedHashMap;
+import java.util.Map;
 
 public class Vaccine {
     private final String vaccineName;
@@ -31,19 +31,11 @@ public class Vaccine {
     }
 
     public void saveToDB() throws SQLException {
-        ConnectionManager cm = new ConnectionManager();
-        Connection con = cm.createConnection();
-
-        String addDoses = "INSERT INTO vaccines VALUES (?, ?)";
         try {
-            PreparedStatement statement = con.prepareStatement(addDoses);
-            statement.setString(1, this.vaccineName);
-            statement.setInt(2, this.availableDoses);
-            statement.executeUpdate();
+            Repositories.get().createVaccine(this.vaccineName, this.availableDoses);
+            DoseLedger.getInstance().register(this.vaccineName, this.availableDoses);
         } catch (SQLException e) {
             throw new SQLException();
-        } finally {
-            cm.closeConnection();
         }
     }
 
@@ -52,50 +44,69 @@ public class Vaccine {
         if (num <= 0) {
             throw new IllegalArgumentException("Argument cannot be negative!");
         }
-        this.availableDoses += num;
-
-        ConnectionManager cm = new ConnectionManager();
-        Connection con = cm.createConnection();
-
-        String removeAvailability  = "UPDATE vaccines SET Doses = ? WHERE name = ?;";
-        try {
-            PreparedStatement statement = con.prepareStatement(removeAvailability);
-            statement.setInt(1, this.availableDoses);
-            statement.setString(2, this.vaccineName);
-            statement.executeUpdate();
-        } catch (SQLException e) {
-            throw new SQLException();
-        } finally {
-            cm.closeConnection();
+        DoseLedger ledger = DoseLedger.getInstance();
+        if (ledger.contains(this.vaccineName)) {
+            // the ledger writes the change behind as a relative update
+            ledger.add(this.vaccineName, num);
+            this.availableDoses = ledger.getAvailable(this.vaccineName);
+            return;
         }
+        updateDoses(num);
+        this.availableDoses += num;
     }
 
     // Decrement the available doses
     public void decreaseAvailableDoses(int num) throws SQLException {
+        DoseLedger ledger = DoseLedger.getInstance();
+        if (ledger.contains(this.vaccineName)) {
+            if (!ledger.tryReserve(this.vaccineName, num)) {
+                throw new IllegalArgumentException("Not enough available doses!");
+            }
+            this.availableDoses = ledger.getAvailable(this.vaccineName);
+            return;
+        }
         if (this.availableDoses - num < 0) {
             throw new IllegalArgumentException("Not enough available doses!");
         }
+        if (!updateDoses(-num)) {
+            throw new IllegalArgumentException("Not enough available doses!");
+        }
         this.availableDoses -= num;
-        ConnectionManager cm = new ConnectionManager();
-        Connection con = cm.createConnection();
+    }
 
-        String removeAvailability  = "UPDATE vaccines SET Doses = ? WHERE name = ?;";
+    // Applies a relative change so concurrent updates do not overwrite each other; false if nothing changed
+    private boolean updateDoses(int delta) throws SQLException {
         try {
-            PreparedStatement statement = con.prepareStatement(removeAvailability);
-            statement.setInt(1, this.availableDoses);
-            statement.setString(2, this.vaccineName);
-            statement.executeUpdate();
+            return Repositories.get().addDoses(this.vaccineName, delta);
         } catch (SQLException e) {
             throw new SQLException();
-        } finally {
-            cm.closeConnection();
         }
     }
 
-
-
-
-
+    // Adds doses to several vaccines at once, creating the ones that do not exist yet
+    public static void addDoses(Map<String, Integer> doses) throws SQLException {
+        DoseLedger ledger = DoseLedger.getInstance();
+        Map<String, Integer> unknown = new LinkedHashMap<>();
+        for (Map.Entry<String, Integer> entry : doses.entrySet()) {
+            if (!ledger.contains(entry.getKey())) {
+                unknown.put(entry.getKey(), entry.getValue());
+            }
+        }
+        try {
+            Repositories.get().addOrCreateDoses(unknown);
+        } catch (SQLException e) {
+            throw new SQLException();
+        }
+        for (Map.Entry<String, Integer> entry : doses.entrySet()) {
+            if (ledger.contains(entry.getKey())) {
+                ledger.add(entry.getKey(), entry.getValue());
+            }
+        }
+        if (!unknown.isEmpty() && ledger.isLoaded()) {
+            // picks up the vaccines that were just created
+            ledger.reconcile();
+        }
+    }
 
     @Override
     public String toString() {
@@ -129,25 +140,21 @@ public class Vaccine {
         }
 
         public Vaccine get() throws SQLException {
-            ConnectionManager cm = new ConnectionManager();
-            Connection con = cm.createConnection();
-
-            String getVaccine = "SELECT Name, Doses FROM Vaccines WHERE Name = ?";
+            int ledgerDoses = DoseLedger.getInstance().getAvailable(this.vaccineName);
+            if (ledgerDoses >= 0) {
+                this.availableDoses = ledgerDoses;
+                return new Vaccine(this);
+            }
             try {
-                PreparedStatement statement = con.prepareStatement(getVaccine);
-                statement.setString(1, this.vaccineName);
-                ResultSet resultSet = statement.executeQuery();
-                while (resultSet.next()) {
-                    this.availableDoses = resultSet.getInt("Doses");
-                    return new Vaccine(this);
+                int doses = Repositories.get().getDoses(this.vaccineName);
+                if (doses < 0) {
+                    return null;
                 }
-                return null;
+                this.availableDoses = doses;
+                return new Vaccine(this);
             } catch (SQLException e) {
                 throw new SQLException();
-            } finally {
-                cm.closeConnection();
             }
         }
     }
 }
-
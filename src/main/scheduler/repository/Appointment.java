@@ -0,0 +1,58 @@
+package scheduler.repository;
+
+import java.sql.Date;
+import java.util.Comparator;
+
+/**
+ * A row of the Reservations table.
+ */
+public class Appointment {
+    // the keyset order appointments are listed in
+    public static final Comparator<Appointment> ORDER =
+            Comparator.comparing(Appointment::getDate).thenComparing(Appointment::getAppointmentId);
+
+    private final String appointmentId;
+    private final String vaccine;
+    private final String patient;
+    private final String caregiver;
+    private final Date date;
+    private final int slot;
+
+    public Appointment(String appointmentId, String vaccine, String patient, String caregiver, Date date) {
+        this(appointmentId, vaccine, patient, caregiver, date, -1);
+    }
+
+    public Appointment(String appointmentId, String vaccine, String patient, String caregiver, Date date, int slot) {
+        this.appointmentId = appointmentId;
+        this.vaccine = vaccine;
+        this.patient = patient;
+        this.caregiver = caregiver;
+        this.date = date;
+        this.slot = slot;
+    }
+
+    public String getAppointmentId() {
+        return appointmentId;
+    }
+
+    public String getVaccine() {
+        return vaccine;
+    }
+
+    public String getPatient() {
+        return patient;
+    }
+
+    public String getCaregiver() {
+        return caregiver;
+    }
+
+    public Date getDate() {
+        return date;
+    }
+
+    // the 15-minute slot of the day (see SlotBits), or -1 for a whole-day appointment booked before slots
+    public int getSlot() {
+        return slot;
+    }
+}
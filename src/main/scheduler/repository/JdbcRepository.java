@@ -0,0 +1,878 @@
+package scheduler.repository;
+
+import scheduler.db.ConnectionManager;
+import scheduler.service.AvailabilityLoader;
+import scheduler.util.PasswordHasher;
+import scheduler.util.SlotBits;
+
+import java.sql.Connection;
+import java.sql.Date;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Consumer;
+
+/**
+ * {@link SchedulerRepository} on SQL Server, through the pooled connections of {@link ConnectionManager}
+ * to the database of one shard. With more than one shard, {@link ShardedRepository} routes between
+ * one of these per shard.
+ */
+public class JdbcRepository implements SchedulerRepository {
+
+    // SQL Server accepts at most 2100 parameters per statement
+    private static final int MAX_PARAMETERS = 2000;
+    private static final int SLOTS_PER_STATEMENT = 500;
+    // rows buffered by the driver while a scan is streamed
+    private static final int FETCH_SIZE = 256;
+
+    // the ShardRouter shard whose database this repository works on
+    private final int shard;
+
+    public JdbcRepository() {
+        this(0);
+    }
+
+    public JdbcRepository(int shard) {
+        this.shard = shard;
+    }
+
+    // @low and @high hold the one bit of the slot; the row goes once its last free slot is taken.
+    // The key lookup locks the key's range, so concurrent retries of one request are serialized.
+    static final String reserveBatch =
+            "SET NOCOUNT ON; " +
+            "SET XACT_ABORT ON; " +
+            "DECLARE @take int = ?, @vaccine varchar(255) = ?, @time date = ?, @caregiver varchar(255) = ?, " +
+            "@low bigint = ?, @high int = ?, @id varchar(255) = ?, @patient varchar(255) = ?, @slot smallint = ?, " +
+            "@key varchar(64) = ?; " +
+            "BEGIN TRANSACTION; " +
+            "IF @key IS NOT NULL AND EXISTS (SELECT 1 FROM Reservations WITH (UPDLOCK, HOLDLOCK) " +
+            "WHERE pname = @patient AND RequestKey = @key) BEGIN ROLLBACK; SELECT 3 AS Outcome; RETURN; END; " +
+            "IF @take = 1 BEGIN " +
+            "UPDATE Vaccines SET Doses = Doses - 1 WHERE Name = @vaccine AND Doses > 0; " +
+            "IF @@ROWCOUNT = 0 BEGIN ROLLBACK; SELECT 1 AS Outcome; RETURN; END; " +
+            "END; " +
+            "UPDATE Availabilities SET SlotsLow = SlotsLow & ~@low, SlotsHigh = SlotsHigh & ~@high " +
+            "WHERE Time = @time AND Username = @caregiver AND ((SlotsLow & @low) <> 0 OR (SlotsHigh & @high) <> 0); " +
+            "IF @@ROWCOUNT = 0 BEGIN ROLLBACK; SELECT 2 AS Outcome; RETURN; END; " +
+            "DELETE FROM Availabilities WHERE Time = @time AND Username = @caregiver AND SlotsLow = 0 AND SlotsHigh = 0; " +
+            "INSERT INTO Reservations (AppointmentID, vname, pname, cname, rtime, Slot, RequestKey) " +
+            "VALUES (@id, @vaccine, @patient, @caregiver, @time, @slot, @key); " +
+            "COMMIT; " +
+            "SELECT 0 AS Outcome;";
+
+    // one waitlisted request inside the caller's transaction; a savepoint undoes it alone
+    static final String bookWaitlistedBatch =
+            "SET NOCOUNT ON; " +
+            "DECLARE @take int = ?, @vaccine varchar(255) = ?, @time date = ?, @caregiver varchar(255) = ?, " +
+            "@low bigint = ?, @high int = ?, @id varchar(255) = ?, @request bigint = ?, @slot smallint = ?; " +
+            "SAVE TRANSACTION waitlist_match; " +
+            "IF @take = 1 BEGIN " +
+            "UPDATE Vaccines SET Doses = Doses - 1 WHERE Name = @vaccine AND Doses > 0; " +
+            "IF @@ROWCOUNT = 0 BEGIN ROLLBACK TRANSACTION waitlist_match; SELECT 0 AS Booked; RETURN; END; " +
+            "END; " +
+            "UPDATE Availabilities SET SlotsLow = SlotsLow & ~@low, SlotsHigh = SlotsHigh & ~@high " +
+            "WHERE Time = @time AND Username = @caregiver AND ((SlotsLow & @low) <> 0 OR (SlotsHigh & @high) <> 0); " +
+            "IF @@ROWCOUNT = 0 BEGIN ROLLBACK TRANSACTION waitlist_match; SELECT 0 AS Booked; RETURN; END; " +
+            "DELETE FROM Availabilities WHERE Time = @time AND Username = @caregiver AND SlotsLow = 0 AND SlotsHigh = 0; " +
+            "UPDATE Waitlist SET AppointmentID = @id, cname = @caregiver, Slot = @slot " +
+            "WHERE RequestID = @request AND AppointmentID IS NULL; " +
+            "IF @@ROWCOUNT = 0 BEGIN ROLLBACK TRANSACTION waitlist_match; SELECT 0 AS Booked; RETURN; END; " +
+            "INSERT INTO Reservations (AppointmentID, vname, pname, cname, rtime, Slot) " +
+            "SELECT @id, vname, pname, @caregiver, @time, @slot FROM Waitlist WHERE RequestID = @request; " +
+            "SELECT 1 AS Booked;";
+
+    // the bits of Reservations.Slot as SlotsLow and SlotsHigh words; bits 63 and 95 are the sign bits
+    private static final String bookedLow =
+            "CASE WHEN r.Slot = 63 THEN CAST(-9223372036854775807 - 1 AS bigint) " +
+            "WHEN r.Slot < 63 THEN POWER(CAST(2 AS bigint), r.Slot) ELSE CAST(0 AS bigint) END";
+    private static final String bookedHigh =
+            "CASE WHEN r.Slot = 95 THEN CAST(-2147483648 AS int) " +
+            "WHEN r.Slot >= 64 THEN POWER(2, r.Slot - 64) ELSE 0 END";
+
+    // The cancel batches delete into @cancelled and then work set-based from it: doses are added
+    // back per vaccine, slots are merged back per caregiver-day, patients are queued for rebooking.
+    private static final String cancelledTable =
+            "DECLARE @cancelled TABLE (AppointmentID varchar(255) PRIMARY KEY, vname varchar(255), " +
+            "pname varchar(255), cname varchar(255), rtime date, Slot smallint); ";
+    private static final String deleteCancelled =
+            "DELETE FROM Reservations OUTPUT deleted.AppointmentID, deleted.vname, deleted.pname, " +
+            "deleted.cname, deleted.rtime, deleted.Slot INTO @cancelled ";
+    // booked waitlist requests whose appointment is gone are not announced any more
+    private static final String forgetCancelled =
+            "DELETE w FROM Waitlist w JOIN @cancelled c ON w.AppointmentID = c.AppointmentID; ";
+    private static final String returnCancelledDoses =
+            "IF @returnDoses = 1 " +
+            "UPDATE v SET Doses = v.Doses + c.Doses FROM Vaccines v " +
+            "JOIN (SELECT vname, COUNT(*) AS Doses FROM @cancelled GROUP BY vname) c ON c.vname = v.Name; ";
+    // appointments booked before slots have no slot to give back
+    private static final String restoreCancelledSlots =
+            "MERGE Availabilities WITH (HOLDLOCK) AS a USING (" +
+            "SELECT r.rtime AS Time, r.cname AS Username, SUM(" + bookedLow + ") AS SlotsLow, " +
+            "SUM(" + bookedHigh + ") AS SlotsHigh FROM @cancelled r WHERE r.Slot IS NOT NULL " +
+            "GROUP BY r.rtime, r.cname) AS s ON a.Time = s.Time AND a.Username = s.Username " +
+            "WHEN MATCHED THEN UPDATE SET SlotsLow = a.SlotsLow | s.SlotsLow, SlotsHigh = a.SlotsHigh | s.SlotsHigh " +
+            "WHEN NOT MATCHED THEN " +
+            "INSERT (Time, Username, SlotsLow, SlotsHigh) VALUES (s.Time, s.Username, s.SlotsLow, s.SlotsHigh); ";
+    private static final String rebookCancelled =
+            "INSERT INTO Waitlist (pname, vname, rtime, Priority) " +
+            "SELECT DISTINCT c.pname, c.vname, c.rtime, @priority FROM @cancelled c " +
+            "WHERE NOT EXISTS (SELECT 1 FROM Waitlist w WITH (UPDLOCK, HOLDLOCK) WHERE w.pname = c.pname " +
+            "AND w.vname = c.vname AND w.rtime = c.rtime AND w.AppointmentID IS NULL); ";
+    private static final String selectCancelled =
+            "COMMIT; " +
+            "SELECT AppointmentID, vname, pname, cname, rtime, Slot FROM @cancelled;";
+
+    static final String cancelCaregiverDayBatch =
+            "SET NOCOUNT ON; " +
+            "SET XACT_ABORT ON; " +
+            "DECLARE @caregiver varchar(255) = ?, @time date = ?, @returnDoses int = ?, @priority int = ?; " +
+            cancelledTable +
+            "BEGIN TRANSACTION; " +
+            deleteCancelled + "WHERE cname = @caregiver AND rtime = @time; " +
+            forgetCancelled +
+            returnCancelledDoses +
+            "DELETE FROM Availabilities WHERE Time = @time AND Username = @caregiver; " +
+            rebookCancelled +
+            selectCancelled;
+
+    static final String cancelVaccineLotBatch =
+            "SET NOCOUNT ON; " +
+            "SET XACT_ABORT ON; " +
+            "DECLARE @vaccine varchar(255) = ?, @from date = ?, @to date = ?, @priority int = ?; " +
+            cancelledTable +
+            "BEGIN TRANSACTION; " +
+            deleteCancelled + "WHERE vname = @vaccine AND rtime BETWEEN @from AND @to; " +
+            forgetCancelled +
+            restoreCancelledSlots +
+            rebookCancelled +
+            selectCancelled;
+
+    @Override
+    public boolean userExists(Role role, String username) throws SQLException {
+        try (Connection con = ConnectionManager.getConnection(shard);
+             PreparedStatement statement = con.prepareStatement(
+                     "SELECT 1 FROM " + role.getTable() + " WHERE Username = ?")) {
+            statement.setString(1, username);
+            try (ResultSet resultSet = statement.executeQuery()) {
+                return resultSet.next();
+            }
+        }
+    }
+
+    @Override
+    public Set<String> existingUsers(Role role, Collection<String> usernames) throws SQLException {
+        Set<String> existing = new HashSet<>();
+        List<String> all = new ArrayList<>(usernames);
+        try (Connection con = ConnectionManager.getConnection(shard)) {
+            for (int from = 0; from < all.size(); from += MAX_PARAMETERS) {
+                List<String> chunk = all.subList(from, Math.min(all.size(), from + MAX_PARAMETERS));
+                StringBuilder sql = new StringBuilder(
+                        "SELECT Username FROM " + role.getTable() + " WHERE Username IN (");
+                for (int i = 0; i < chunk.size(); i++) {
+                    sql.append(i == 0 ? "?" : ", ?");
+                }
+                sql.append(")");
+                try (PreparedStatement statement = con.prepareStatement(sql.toString())) {
+                    for (int i = 0; i < chunk.size(); i++) {
+                        statement.setString(i + 1, chunk.get(i));
+                    }
+                    try (ResultSet resultSet = statement.executeQuery()) {
+                        while (resultSet.next()) {
+                            existing.add(resultSet.getString("Username"));
+                        }
+                    }
+                }
+            }
+        }
+        return existing;
+    }
+
+    @Override
+    public UserRecord getUser(Role role, String username) throws SQLException {
+        try (Connection con = ConnectionManager.getConnection(shard);
+             PreparedStatement statement = con.prepareStatement(
+                     "SELECT Salt, Hash, HashAlgorithm, HashIterations FROM " + role.getTable() + " WHERE Username = ?")) {
+            statement.setString(1, username);
+            try (ResultSet resultSet = statement.executeQuery()) {
+                if (!resultSet.next()) {
+                    return null;
+                }
+                return new UserRecord(username, resultSet.getBytes("Salt"), resultSet.getBytes("Hash"),
+                        PasswordHasher.Params.fromColumns(resultSet.getString("HashAlgorithm"),
+                                resultSet.getInt("HashIterations")));
+            }
+        }
+    }
+
+    @Override
+    public void createUser(Role role, UserRecord user) throws SQLException {
+        try (Connection con = ConnectionManager.getConnection(shard)) {
+            insertUsers(con, role, List.of(user));
+        }
+    }
+
+    @Override
+    public void createUsers(List<UserRecord> patients, List<UserRecord> caregivers) throws SQLException {
+        try (Connection con = ConnectionManager.getConnection(shard)) {
+            con.setAutoCommit(false);
+            insertUsers(con, Role.PATIENT, patients);
+            insertUsers(con, Role.CAREGIVER, caregivers);
+            con.commit();
+        }
+    }
+
+    private static void insertUsers(Connection con, Role role, List<UserRecord> users) throws SQLException {
+        if (users.isEmpty()) {
+            return;
+        }
+        String sql = "INSERT INTO " + role.getTable() + " (Username, Salt, Hash, HashAlgorithm, HashIterations) " +
+                "VALUES (?, ?, ?, ?, ?)";
+        try (PreparedStatement statement = con.prepareStatement(sql)) {
+            for (UserRecord user : users) {
+                statement.setString(1, user.getUsername());
+                statement.setBytes(2, user.getSalt());
+                statement.setBytes(3, user.getHash());
+                statement.setString(4, user.getHashParams().getAlgorithm());
+                statement.setInt(5, user.getHashParams().getIterations());
+                statement.addBatch();
+            }
+            statement.executeBatch();
+        }
+    }
+
+    @Override
+    public void updateCredentials(Role role, UserRecord user) throws SQLException {
+        String sql = "UPDATE " + role.getTable() + " SET Salt = ?, Hash = ?, HashAlgorithm = ?, HashIterations = ? " +
+                "WHERE Username = ?";
+        try (Connection con = ConnectionManager.getConnection(shard);
+             PreparedStatement statement = con.prepareStatement(sql)) {
+            statement.setBytes(1, user.getSalt());
+            statement.setBytes(2, user.getHash());
+            statement.setString(3, user.getHashParams().getAlgorithm());
+            statement.setInt(4, user.getHashParams().getIterations());
+            statement.setString(5, user.getUsername());
+            statement.executeUpdate();
+        }
+    }
+
+    @Override
+    public int getDoses(String vaccine) throws SQLException {
+        try (Connection con = ConnectionManager.getConnection(shard);
+             PreparedStatement statement = con.prepareStatement("SELECT Name, Doses FROM Vaccines WHERE Name = ?")) {
+            statement.setString(1, vaccine);
+            try (ResultSet resultSet = statement.executeQuery()) {
+                return resultSet.next() ? resultSet.getInt("Doses") : -1;
+            }
+        }
+    }
+
+    @Override
+    public Map<String, Integer> getAllDoses() throws SQLException {
+        Map<String, Integer> doses = new LinkedHashMap<>();
+        try (Connection con = ConnectionManager.getConnection(shard);
+             PreparedStatement statement = con.prepareStatement("SELECT Name, Doses FROM Vaccines ORDER BY Name");
+             ResultSet resultSet = statement.executeQuery()) {
+            while (resultSet.next()) {
+                doses.put(resultSet.getString("Name"), resultSet.getInt("Doses"));
+            }
+        }
+        return doses;
+    }
+
+    @Override
+    public void createVaccine(String vaccine, int doses) throws SQLException {
+        try (Connection con = ConnectionManager.getConnection(shard);
+             PreparedStatement statement = con.prepareStatement("INSERT INTO Vaccines (Name, Doses) VALUES (?, ?)")) {
+            statement.setString(1, vaccine);
+            statement.setInt(2, doses);
+            statement.executeUpdate();
+        }
+    }
+
+    @Override
+    public boolean addDoses(String vaccine, int delta) throws SQLException {
+        // a relative change, so concurrent updates do not overwrite each other
+        try (Connection con = ConnectionManager.getConnection(shard);
+             PreparedStatement statement = con.prepareStatement(
+                     "UPDATE Vaccines SET Doses = Doses + ? WHERE Name = ? AND Doses + ? >= 0")) {
+            statement.setInt(1, delta);
+            statement.setString(2, vaccine);
+            statement.setInt(3, delta);
+            return statement.executeUpdate() > 0;
+        }
+    }
+
+    @Override
+    public void addOrCreateDoses(Map<String, Integer> doses) throws SQLException {
+        if (doses.isEmpty()) {
+            return;
+        }
+        String sql = "UPDATE Vaccines WITH (UPDLOCK, HOLDLOCK) SET Doses = Doses + ? WHERE Name = ?; " +
+                "IF @@ROWCOUNT = 0 INSERT INTO Vaccines (Name, Doses) VALUES (?, ?);";
+        try (Connection con = ConnectionManager.getConnection(shard);
+             PreparedStatement statement = con.prepareStatement(sql)) {
+            con.setAutoCommit(false);
+            for (Map.Entry<String, Integer> entry : doses.entrySet()) {
+                statement.setInt(1, entry.getValue());
+                statement.setString(2, entry.getKey());
+                statement.setString(3, entry.getKey());
+                statement.setInt(4, entry.getValue());
+                statement.addBatch();
+            }
+            statement.executeBatch();
+            con.commit();
+        }
+    }
+
+    @Override
+    public void applyDoseDeltas(Map<String, Integer> deltas) throws SQLException {
+        if (deltas.isEmpty()) {
+            return;
+        }
+        try (Connection con = ConnectionManager.getConnection(shard);
+             PreparedStatement statement = con.prepareStatement("UPDATE Vaccines SET Doses = Doses + ? WHERE Name = ?")) {
+            con.setAutoCommit(false);
+            for (Map.Entry<String, Integer> entry : deltas.entrySet()) {
+                statement.setInt(1, entry.getValue());
+                statement.setString(2, entry.getKey());
+                statement.addBatch();
+            }
+            statement.executeBatch();
+            con.commit();
+        }
+    }
+
+    @Override
+    public SlotBits addAvailability(Date date, String caregiver, SlotBits slots) throws SQLException {
+        AvailabilityLoader.Slot slot = new AvailabilityLoader.Slot(caregiver, date, slots);
+        List<AvailabilityLoader.Slot> changed = addAvailabilities(List.of(slot));
+        if (!changed.isEmpty()) {
+            return changed.get(0).getSlots();
+        }
+        if (!userExists(Role.CAREGIVER, caregiver)) {
+            throw new SQLException("No caregiver " + caregiver);
+        }
+        return getAvailability(date).getOrDefault(caregiver, SlotBits.NONE);
+    }
+
+    @Override
+    public List<AvailabilityLoader.Slot> addAvailabilities(List<AvailabilityLoader.Slot> slots) throws SQLException {
+        // MERGE may touch each target row only once, so rows for the same caregiver and date are merged first
+        Map<AvailabilityLoader.Slot, SlotBits> merged = new LinkedHashMap<>();
+        for (AvailabilityLoader.Slot slot : slots) {
+            merged.merge(slot, slot.getSlots(), SlotBits::or);
+        }
+        List<Map.Entry<AvailabilityLoader.Slot, SlotBits>> unique = new ArrayList<>(merged.entrySet());
+        List<AvailabilityLoader.Slot> changed = new ArrayList<>();
+        try (Connection con = ConnectionManager.getConnection(shard)) {
+            con.setAutoCommit(false);
+            for (int from = 0; from < unique.size(); from += SLOTS_PER_STATEMENT) {
+                List<Map.Entry<AvailabilityLoader.Slot, SlotBits>> chunk =
+                        unique.subList(from, Math.min(unique.size(), from + SLOTS_PER_STATEMENT));
+                try (PreparedStatement statement = con.prepareStatement(mergeSlots(chunk.size()))) {
+                    int index = 1;
+                    for (Map.Entry<AvailabilityLoader.Slot, SlotBits> entry : chunk) {
+                        statement.setDate(index++, entry.getKey().getDate());
+                        statement.setString(index++, entry.getKey().getCaregiver());
+                        statement.setLong(index++, entry.getValue().getLow());
+                        statement.setInt(index++, entry.getValue().getHigh());
+                    }
+                    try (ResultSet resultSet = statement.executeQuery()) {
+                        while (resultSet.next()) {
+                            changed.add(new AvailabilityLoader.Slot(resultSet.getString("Username"),
+                                    resultSet.getDate("Time"), slots(resultSet)));
+                        }
+                    }
+                }
+            }
+            con.commit();
+        }
+        return changed;
+    }
+
+    // Slots already booked are masked out of the offered ones; a row is only touched if a slot is
+    // left that it does not have yet. UX_Reservations_cname_rtime_Slot still rejects a double
+    // booking if a reservation commits while the statement runs.
+    private static String mergeSlots(int rows) {
+        StringBuilder sql = new StringBuilder(
+                "MERGE Availabilities WITH (HOLDLOCK) AS a USING (" +
+                "SELECT v.Time, v.Username, v.SlotsLow & ~ISNULL(b.Low, 0) AS SlotsLow, " +
+                "v.SlotsHigh & ~ISNULL(b.High, 0) AS SlotsHigh FROM (VALUES ");
+        for (int i = 0; i < rows; i++) {
+            sql.append(i == 0 ? "(?, ?, ?, ?)" : ", (?, ?, ?, ?)");
+        }
+        sql.append(") AS v(Time, Username, SlotsLow, SlotsHigh) " +
+                "JOIN Caregivers c ON c.Username = v.Username " +
+                "CROSS APPLY (SELECT SUM(" + bookedLow + ") AS Low, SUM(" + bookedHigh + ") AS High " +
+                "FROM Reservations r WHERE r.cname = v.Username AND r.rtime = v.Time AND r.Slot IS NOT NULL) b" +
+                ") AS s ON a.Time = s.Time AND a.Username = s.Username " +
+                "WHEN MATCHED AND ((s.SlotsLow & ~a.SlotsLow) <> 0 OR (s.SlotsHigh & ~a.SlotsHigh) <> 0) THEN " +
+                "UPDATE SET SlotsLow = a.SlotsLow | s.SlotsLow, SlotsHigh = a.SlotsHigh | s.SlotsHigh " +
+                "WHEN NOT MATCHED AND (s.SlotsLow <> 0 OR s.SlotsHigh <> 0) THEN " +
+                "INSERT (Time, Username, SlotsLow, SlotsHigh) VALUES (s.Time, s.Username, s.SlotsLow, s.SlotsHigh) " +
+                "OUTPUT inserted.Time, inserted.Username, inserted.SlotsLow, inserted.SlotsHigh;");
+        return sql.toString();
+    }
+
+    private static SlotBits slots(ResultSet resultSet) throws SQLException {
+        return SlotBits.of(resultSet.getLong("SlotsLow"), resultSet.getInt("SlotsHigh"));
+    }
+
+    @Override
+    public void removeAvailabilities(Date date) throws SQLException {
+        try (Connection con = ConnectionManager.getConnection(shard);
+             PreparedStatement statement = con.prepareStatement("DELETE FROM Availabilities WHERE Time = ?")) {
+            statement.setDate(1, date);
+            statement.executeUpdate();
+        }
+    }
+
+    @Override
+    public Map<String, SlotBits> getAvailability(Date date) throws SQLException {
+        Map<String, SlotBits> caregivers = new LinkedHashMap<>();
+        try (Connection con = ConnectionManager.getConnection(shard);
+             PreparedStatement statement = con.prepareStatement(
+                     "SELECT Username, SlotsLow, SlotsHigh FROM Availabilities WHERE Time = ? ORDER BY Username")) {
+            statement.setDate(1, date);
+            try (ResultSet resultSet = statement.executeQuery()) {
+                while (resultSet.next()) {
+                    caregivers.put(resultSet.getString("Username"), slots(resultSet));
+                }
+            }
+        }
+        return caregivers;
+    }
+
+    @Override
+    public List<AvailabilityLoader.Slot> getAllAvailabilities() throws SQLException {
+        List<AvailabilityLoader.Slot> slots = new ArrayList<>();
+        try (Connection con = ConnectionManager.getConnection(shard);
+             PreparedStatement statement = con.prepareStatement(
+                     "SELECT Time, Username, SlotsLow, SlotsHigh FROM Availabilities");
+             ResultSet resultSet = statement.executeQuery()) {
+            while (resultSet.next()) {
+                slots.add(new AvailabilityLoader.Slot(resultSet.getString("Username"), resultSet.getDate("Time"),
+                        slots(resultSet)));
+            }
+        }
+        return slots;
+    }
+
+    @Override
+    public int scanAvailabilities(Date start, Date end, AvailabilityLoader.Slot after, int limit,
+                                  Consumer<AvailabilityLoader.Slot> sink) throws SQLException {
+        int count = 0;
+        try (Connection con = ConnectionManager.getConnection(shard);
+             PreparedStatement statement = con.prepareStatement(scanAvailabilitiesSql(after != null))) {
+            statement.setFetchSize(Math.min(limit, FETCH_SIZE));
+            statement.setInt(1, limit);
+            statement.setDate(2, start);
+            statement.setDate(3, end);
+            if (after != null) {
+                statement.setDate(4, after.getDate());
+                statement.setDate(5, after.getDate());
+                statement.setString(6, after.getCaregiver());
+            }
+            try (ResultSet resultSet = statement.executeQuery()) {
+                while (resultSet.next()) {
+                    sink.accept(new AvailabilityLoader.Slot(resultSet.getString("Username"), resultSet.getDate("Time"),
+                            slots(resultSet)));
+                    count++;
+                }
+            }
+        }
+        return count;
+    }
+
+    @Override
+    public Claim reserve(String appointmentId, String patient, Date date, int slot, String vaccine, String caregiver,
+                         boolean takeDose, String requestKey) throws SQLException {
+        SlotBits bit = SlotBits.single(slot);
+        try (Connection con = ConnectionManager.getConnection(shard);
+             PreparedStatement statement = con.prepareStatement(reserveBatch)) {
+            statement.setInt(1, takeDose ? 1 : 0);
+            statement.setString(2, vaccine);
+            statement.setDate(3, date);
+            statement.setString(4, caregiver);
+            statement.setLong(5, bit.getLow());
+            statement.setInt(6, bit.getHigh());
+            statement.setString(7, appointmentId);
+            statement.setString(8, patient);
+            statement.setShort(9, (short) slot);
+            statement.setString(10, requestKey);
+            try (ResultSet resultSet = statement.executeQuery()) {
+                if (!resultSet.next()) {
+                    throw new SQLException("Reservation batch returned no outcome");
+                }
+                switch (resultSet.getInt("Outcome")) {
+                    case 0:
+                        return new Claim(Claim.Status.CLAIMED, caregiver);
+                    case 1:
+                        return new Claim(Claim.Status.NO_DOSES, null);
+                    case 3:
+                        return new Claim(Claim.Status.DUPLICATE, null);
+                    default:
+                        return new Claim(Claim.Status.NO_SLOT, null);
+                }
+            }
+        }
+    }
+
+    @Override
+    public Appointment getReservationByKey(String patient, String requestKey) throws SQLException {
+        try (Connection con = ConnectionManager.getConnection(shard);
+             PreparedStatement statement = con.prepareStatement(
+                     "SELECT AppointmentID, vname, pname, cname, rtime, Slot FROM Reservations " +
+                     "WHERE pname = ? AND RequestKey = ?")) {
+            statement.setString(1, patient);
+            statement.setString(2, requestKey);
+            try (ResultSet resultSet = statement.executeQuery()) {
+                return resultSet.next() ? appointment(resultSet) : null;
+            }
+        }
+    }
+
+    @Override
+    public boolean reserveAll(List<Appointment> appointments, boolean takeDoses) throws SQLException {
+        if (appointments.isEmpty()) {
+            return true;
+        }
+        try (Connection con = ConnectionManager.getConnection(shard)) {
+            con.setAutoCommit(false);
+            if (takeDoses) {
+                Map<String, Integer> doses = new LinkedHashMap<>();
+                for (Appointment appointment : appointments) {
+                    doses.merge(appointment.getVaccine(), 1, Integer::sum);
+                }
+                try (PreparedStatement statement = con.prepareStatement(
+                        "UPDATE Vaccines SET Doses = Doses - ? WHERE Name = ? AND Doses >= ?")) {
+                    for (Map.Entry<String, Integer> entry : doses.entrySet()) {
+                        statement.setInt(1, entry.getValue());
+                        statement.setString(2, entry.getKey());
+                        statement.setInt(3, entry.getValue());
+                        statement.addBatch();
+                    }
+                    if (!allAffected(statement.executeBatch())) {
+                        con.rollback();
+                        return false;
+                    }
+                }
+            }
+            try (PreparedStatement statement = con.prepareStatement(
+                    "UPDATE Availabilities SET SlotsLow = SlotsLow & ~?, SlotsHigh = SlotsHigh & ~? " +
+                    "WHERE Time = ? AND Username = ? AND ((SlotsLow & ?) <> 0 OR (SlotsHigh & ?) <> 0)")) {
+                for (Appointment appointment : appointments) {
+                    SlotBits bit = SlotBits.single(appointment.getSlot());
+                    statement.setLong(1, bit.getLow());
+                    statement.setInt(2, bit.getHigh());
+                    statement.setDate(3, appointment.getDate());
+                    statement.setString(4, appointment.getCaregiver());
+                    statement.setLong(5, bit.getLow());
+                    statement.setInt(6, bit.getHigh());
+                    statement.addBatch();
+                }
+                if (!allAffected(statement.executeBatch())) {
+                    con.rollback();
+                    return false;
+                }
+            }
+            try (PreparedStatement statement = con.prepareStatement(
+                    "DELETE FROM Availabilities WHERE Time = ? AND Username = ? AND SlotsLow = 0 AND SlotsHigh = 0")) {
+                for (Appointment appointment : appointments) {
+                    statement.setDate(1, appointment.getDate());
+                    statement.setString(2, appointment.getCaregiver());
+                    statement.addBatch();
+                }
+                statement.executeBatch();
+            }
+            try (PreparedStatement statement = con.prepareStatement(
+                    "INSERT INTO Reservations (AppointmentID, vname, pname, cname, rtime, Slot) VALUES (?, ?, ?, ?, ?, ?)")) {
+                for (Appointment appointment : appointments) {
+                    statement.setString(1, appointment.getAppointmentId());
+                    statement.setString(2, appointment.getVaccine());
+                    statement.setString(3, appointment.getPatient());
+                    statement.setString(4, appointment.getCaregiver());
+                    statement.setDate(5, appointment.getDate());
+                    statement.setShort(6, (short) appointment.getSlot());
+                    statement.addBatch();
+                }
+                statement.executeBatch();
+            }
+            con.commit();
+            return true;
+        }
+    }
+
+    private static boolean allAffected(int[] counts) {
+        for (int count : counts) {
+            if (count == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public Appointment cancel(String appointmentId, Role role, String username, boolean returnDose)
+            throws SQLException {
+        try (Connection con = ConnectionManager.getConnection(shard);
+             PreparedStatement statement = con.prepareStatement(cancelSql(role))) {
+            statement.setString(1, appointmentId);
+            statement.setString(2, username);
+            statement.setInt(3, returnDose ? 1 : 0);
+            List<Appointment> cancelled = cancelled(statement);
+            return cancelled.isEmpty() ? null : cancelled.get(0);
+        }
+    }
+
+    @Override
+    public List<Appointment> cancelCaregiverDay(String caregiver, Date date, boolean returnDoses, int rebookPriority)
+            throws SQLException {
+        try (Connection con = ConnectionManager.getConnection(shard);
+             PreparedStatement statement = con.prepareStatement(cancelCaregiverDayBatch)) {
+            statement.setString(1, caregiver);
+            statement.setDate(2, date);
+            statement.setInt(3, returnDoses ? 1 : 0);
+            statement.setInt(4, rebookPriority);
+            return cancelled(statement);
+        }
+    }
+
+    @Override
+    public List<Appointment> cancelVaccineLot(String vaccine, Date from, Date to, int rebookPriority)
+            throws SQLException {
+        try (Connection con = ConnectionManager.getConnection(shard);
+             PreparedStatement statement = con.prepareStatement(cancelVaccineLotBatch)) {
+            statement.setString(1, vaccine);
+            statement.setDate(2, from);
+            statement.setDate(3, to);
+            statement.setInt(4, rebookPriority);
+            return cancelled(statement);
+        }
+    }
+
+    private static List<Appointment> cancelled(PreparedStatement statement) throws SQLException {
+        List<Appointment> cancelled = new ArrayList<>();
+        try (ResultSet resultSet = statement.executeQuery()) {
+            while (resultSet.next()) {
+                cancelled.add(appointment(resultSet));
+            }
+        }
+        return cancelled;
+    }
+
+    @Override
+    public List<Appointment> getAllAppointments() throws SQLException {
+        List<Appointment> appointments = new ArrayList<>();
+        try (Connection con = ConnectionManager.getConnection(shard);
+             PreparedStatement statement = con.prepareStatement(
+                     "SELECT AppointmentID, vname, pname, cname, rtime, Slot FROM Reservations");
+             ResultSet resultSet = statement.executeQuery()) {
+            while (resultSet.next()) {
+                appointments.add(appointment(resultSet));
+            }
+        }
+        return appointments;
+    }
+
+    @Override
+    public int scanAppointments(Role role, String username, Date from, Date to, Appointment after, int limit,
+                                Consumer<Appointment> sink) throws SQLException {
+        int count = 0;
+        try (Connection con = ConnectionManager.getConnection(shard);
+             PreparedStatement statement = con.prepareStatement(
+                     scanAppointmentsSql(role, from != null, to != null, after != null))) {
+            statement.setFetchSize(Math.min(limit, FETCH_SIZE));
+            int index = 1;
+            statement.setInt(index++, limit);
+            statement.setString(index++, username);
+            if (from != null) {
+                statement.setDate(index++, from);
+            }
+            if (to != null) {
+                statement.setDate(index++, to);
+            }
+            if (after != null) {
+                statement.setDate(index++, after.getDate());
+                statement.setDate(index++, after.getDate());
+                statement.setString(index, after.getAppointmentId());
+            }
+            try (ResultSet resultSet = statement.executeQuery()) {
+                while (resultSet.next()) {
+                    sink.accept(appointment(resultSet));
+                    count++;
+                }
+            }
+        }
+        return count;
+    }
+
+    private static Appointment appointment(ResultSet resultSet) throws SQLException {
+        int slot = slot(resultSet);
+        return new Appointment(resultSet.getString("AppointmentID"), resultSet.getString("vname"),
+                resultSet.getString("pname"), resultSet.getString("cname"), resultSet.getDate("rtime"), slot);
+    }
+
+    // the Slot column, or -1 if it is NULL; wasNull must be checked before any other column is read
+    private static int slot(ResultSet resultSet) throws SQLException {
+        short slot = resultSet.getShort("Slot");
+        return resultSet.wasNull() ? -1 : slot;
+    }
+
+    @Override
+    public long addToWaitlist(String patient, String vaccine, Date date) throws SQLException {
+        try (Connection con = ConnectionManager.getConnection(shard);
+             PreparedStatement statement = con.prepareStatement(
+                     "INSERT INTO Waitlist (pname, vname, rtime) OUTPUT inserted.RequestID " +
+                     "SELECT ?, ?, ? WHERE NOT EXISTS (SELECT 1 FROM Waitlist WITH (UPDLOCK, HOLDLOCK) " +
+                     "WHERE pname = ? AND vname = ? AND rtime = ? AND AppointmentID IS NULL)")) {
+            statement.setString(1, patient);
+            statement.setString(2, vaccine);
+            statement.setDate(3, date);
+            statement.setString(4, patient);
+            statement.setString(5, vaccine);
+            statement.setDate(6, date);
+            try (ResultSet resultSet = statement.executeQuery()) {
+                return resultSet.next() ? resultSet.getLong("RequestID") : -1;
+            }
+        }
+    }
+
+    @Override
+    public int expireWaitlist(Date before) throws SQLException {
+        try (Connection con = ConnectionManager.getConnection(shard);
+             PreparedStatement statement = con.prepareStatement(
+                     "DELETE FROM Waitlist WHERE rtime < ? AND AppointmentID IS NULL")) {
+            statement.setDate(1, before);
+            return statement.executeUpdate();
+        }
+    }
+
+    @Override
+    public int setWaitlistPriority(String patient, int priority) throws SQLException {
+        try (Connection con = ConnectionManager.getConnection(shard);
+             PreparedStatement statement = con.prepareStatement(
+                     "UPDATE Waitlist SET Priority = ? WHERE pname = ? AND AppointmentID IS NULL")) {
+            statement.setInt(1, priority);
+            statement.setString(2, patient);
+            return statement.executeUpdate();
+        }
+    }
+
+    @Override
+    public List<WaitlistEntry> getWaitlist() throws SQLException {
+        List<WaitlistEntry> waitlist = new ArrayList<>();
+        try (Connection con = ConnectionManager.getConnection(shard);
+             PreparedStatement statement = con.prepareStatement(
+                     "SELECT RequestID, pname, vname, rtime, Priority FROM Waitlist " +
+                     "WHERE AppointmentID IS NULL ORDER BY Priority DESC, RequestID");
+             ResultSet resultSet = statement.executeQuery()) {
+            while (resultSet.next()) {
+                waitlist.add(new WaitlistEntry(resultSet.getLong("RequestID"), resultSet.getString("pname"),
+                        resultSet.getString("vname"), resultSet.getDate("rtime"), resultSet.getInt("Priority"),
+                        null, null, -1));
+            }
+        }
+        return waitlist;
+    }
+
+    @Override
+    public List<WaitlistEntry> bookWaitlisted(List<WaitlistEntry> matches, boolean takeDoses) throws SQLException {
+        List<WaitlistEntry> booked = new ArrayList<>();
+        if (matches.isEmpty()) {
+            return booked;
+        }
+        try (Connection con = ConnectionManager.getConnection(shard);
+             PreparedStatement statement = con.prepareStatement(bookWaitlistedBatch)) {
+            con.setAutoCommit(false);
+            for (WaitlistEntry match : matches) {
+                SlotBits bit = SlotBits.single(match.getSlot());
+                statement.setInt(1, takeDoses ? 1 : 0);
+                statement.setString(2, match.getVaccine());
+                statement.setDate(3, match.getDate());
+                statement.setString(4, match.getCaregiver());
+                statement.setLong(5, bit.getLow());
+                statement.setInt(6, bit.getHigh());
+                statement.setString(7, match.getAppointmentId());
+                statement.setLong(8, match.getRequestId());
+                statement.setShort(9, (short) match.getSlot());
+                try (ResultSet resultSet = statement.executeQuery()) {
+                    if (resultSet.next() && resultSet.getInt("Booked") == 1) {
+                        booked.add(match);
+                    }
+                }
+            }
+            con.commit();
+        }
+        return booked;
+    }
+
+    @Override
+    public List<WaitlistEntry> takeBookedWaitlist(String patient) throws SQLException {
+        List<WaitlistEntry> booked = new ArrayList<>();
+        try (Connection con = ConnectionManager.getConnection(shard);
+             PreparedStatement statement = con.prepareStatement(
+                     "DELETE FROM Waitlist OUTPUT deleted.RequestID, deleted.pname, deleted.vname, " +
+                     "deleted.rtime, deleted.Priority, deleted.AppointmentID, deleted.cname, deleted.Slot " +
+                     "WHERE pname = ? AND AppointmentID IS NOT NULL")) {
+            statement.setString(1, patient);
+            try (ResultSet resultSet = statement.executeQuery()) {
+                while (resultSet.next()) {
+                    int slot = slot(resultSet);
+                    booked.add(new WaitlistEntry(resultSet.getLong("RequestID"), resultSet.getString("pname"),
+                            resultSet.getString("vname"), resultSet.getDate("rtime"), resultSet.getInt("Priority"),
+                            resultSet.getString("AppointmentID"), resultSet.getString("cname"), slot));
+                }
+            }
+        }
+        booked.sort(Comparator.comparingLong(WaitlistEntry::getRequestId));
+        return booked;
+    }
+
+    // only the appointment's own patient or caregiver may cancel it
+    static String cancelSql(Role role) {
+        return "SET NOCOUNT ON; " +
+                "SET XACT_ABORT ON; " +
+                "DECLARE @id varchar(255) = ?, @user varchar(255) = ?, @returnDoses int = ?; " +
+                cancelledTable +
+                "BEGIN TRANSACTION; " +
+                deleteCancelled + "WHERE AppointmentID = @id AND " +
+                (role == Role.PATIENT ? "pname" : "cname") + " = @user; " +
+                forgetCancelled +
+                returnCancelledDoses +
+                restoreCancelledSlots +
+                selectCancelled;
+    }
+
+    // seeks on the (Time, Username) primary key, so every page costs the same however deep it is
+    static String scanAvailabilitiesSql(boolean after) {
+        return "SELECT TOP (?) Time, Username, SlotsLow, SlotsHigh FROM Availabilities WHERE Time BETWEEN ? AND ? " +
+                (after ? "AND (Time > ? OR (Time = ? AND Username > ?)) " : "") +
+                "ORDER BY Time, Username";
+    }
+
+    // served by the (pname, rtime) and (cname, rtime) covering indexes; AppointmentID is the
+    // clustered key, so it is part of every index row and the keyset needs no lookups
+    static String scanAppointmentsSql(Role role, boolean from, boolean to, boolean after) {
+        String column = role == Role.PATIENT ? "pname" : "cname";
+        return "SELECT TOP (?) AppointmentID, vname, pname, cname, rtime, Slot FROM Reservations " +
+                "WHERE " + column + " = ?" +
+                (from ? " AND rtime >= ?" : "") +
+                (to ? " AND rtime <= ?" : "") +
+                (after ? " AND (rtime > ? OR (rtime = ? AND AppointmentID > ?))" : "") +
+                " ORDER BY rtime, AppointmentID";
+    }
+
+    @Override
+    public void close() {
+        ConnectionManager.getPool(shard).close();
+    }
+}
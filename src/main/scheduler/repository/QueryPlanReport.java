@@ -0,0 +1,155 @@
+package scheduler.repository;
+
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+import scheduler.db.ConnectionManager;
+import scheduler.repository.SchedulerRepository.Role;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+import java.io.IOException;
+import java.io.StringReader;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Prints the estimated SQL Server plan of every hot statement and flags the ones that scan.
+ *
+ * The statements are the ones {@link JdbcRepository} runs, with each parameter turned into a
+ * declared variable, compiled under SET SHOWPLAN_XML so nothing is executed. For every statement the
+ * report lists the operators that read a table or index. Scans of the real tables are flagged, and
+ * the process exits with status 1 if any statement has one, so a CI job against a local database
+ * (see {@code JdbcUrl}) can check that the migrations give every hot statement an index seek.
+ */
+public class QueryPlanReport {
+
+    private static final Set<String> SCANS = Set.of("Table Scan", "Index Scan", "Clustered Index Scan");
+
+    public static void main(String[] args) throws SQLException {
+        boolean scans = false;
+        try (Connection con = ConnectionManager.getConnection(); Statement statement = con.createStatement()) {
+            statement.execute("SET SHOWPLAN_XML ON");
+            try {
+                for (Map.Entry<String, String> hot : hotStatements().entrySet()) {
+                    List<String> operators = new ArrayList<>();
+                    try (ResultSet resultSet = statement.executeQuery(hot.getValue())) {
+                        while (resultSet.next()) {
+                            operators.addAll(operators(resultSet.getString(1)));
+                        }
+                    }
+                    System.out.println(hot.getKey());
+                    for (String operator : operators) {
+                        boolean scan = SCANS.stream().anyMatch(operator::startsWith);
+                        scans |= scan;
+                        System.out.println((scan ? "  SCAN  " : "        ") + operator);
+                    }
+                }
+            } finally {
+                statement.execute("SET SHOWPLAN_XML OFF");
+            }
+        }
+        if (scans) {
+            System.out.println("Some hot statements scan a table or index");
+            System.exit(1);
+        }
+    }
+
+    private static Map<String, String> hotStatements() {
+        String user = "varchar(255) = 'user'";
+        String day = "date = '2030-01-01'";
+        String limit = "int = 100";
+        Map<String, String> statements = new LinkedHashMap<>();
+        statements.put("reserve", inline(JdbcRepository.reserveBatch,
+                "int = 1", "varchar(255) = 'vaccine'", day, user, "bigint = 1", "int = 0",
+                "varchar(255) = 'id'", user, "smallint = 36", "varchar(64) = 'key'"));
+        statements.put("search_caregiver_schedule", inline(JdbcRepository.scanAvailabilitiesSql(false),
+                limit, day, day));
+        statements.put("search_caregiver_schedule --after", inline(JdbcRepository.scanAvailabilitiesSql(true),
+                limit, day, day, day, day, user));
+        for (Role role : Role.values()) {
+            String name = "show_appointments (" + role.name().toLowerCase() + ")";
+            statements.put(name, inline(JdbcRepository.scanAppointmentsSql(role, false, false, false),
+                    limit, user));
+            statements.put(name + " <from> <to> --after", inline(JdbcRepository.scanAppointmentsSql(role, true, true, true),
+                    limit, user, day, day, day, day, "varchar(255) = 'id'"));
+        }
+        return statements;
+    }
+
+    // Replaces the i-th ? with a variable @pi declared from declarations[i - 1], e.g. "int = 1".
+    private static String inline(String sql, String... declarations) {
+        StringBuilder declare = new StringBuilder("DECLARE ");
+        for (int i = 0; i < declarations.length; i++) {
+            declare.append(i == 0 ? "" : ", ").append("@p").append(i + 1).append(' ').append(declarations[i]);
+        }
+        StringBuilder body = new StringBuilder();
+        int parameter = 0;
+        for (char c : sql.toCharArray()) {
+            if (c == '?') {
+                body.append("@p").append(++parameter);
+            } else {
+                body.append(c);
+            }
+        }
+        if (parameter != declarations.length) {
+            throw new IllegalArgumentException(parameter + " parameters but " + declarations.length + " values");
+        }
+        return declare.append("; ").append(body).toString();
+    }
+
+    // "<PhysicalOp> <table>.<index>" for every operator that reads a table or index
+    private static List<String> operators(String planXml) {
+        List<String> operators = new ArrayList<>();
+        Document plan;
+        try {
+            DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+            factory.setNamespaceAware(true);
+            plan = factory.newDocumentBuilder().parse(new InputSource(new StringReader(planXml)));
+        } catch (ParserConfigurationException | SAXException | IOException e) {
+            throw new IllegalStateException("Unreadable plan", e);
+        }
+        NodeList relOps = plan.getElementsByTagNameNS("*", "RelOp");
+        for (int i = 0; i < relOps.getLength(); i++) {
+            Element relOp = (Element) relOps.item(i);
+            Element object = accessedObject(relOp);
+            if (object == null || object.getAttribute("Table").startsWith("[@")) {
+                // constant scans, joins and the like; and table variables
+                continue;
+            }
+            String index = object.getAttribute("Index");
+            operators.add(relOp.getAttribute("PhysicalOp") + " " + strip(object.getAttribute("Table"))
+                    + (index.isEmpty() ? "" : "." + strip(index)));
+        }
+        return operators;
+    }
+
+    // the Object element of the operator's own details, e.g. RelOp/IndexScan/Object
+    private static Element accessedObject(Element relOp) {
+        for (Node details = relOp.getFirstChild(); details != null; details = details.getNextSibling()) {
+            if (details.getNodeType() != Node.ELEMENT_NODE) {
+                continue;
+            }
+            for (Node child = details.getFirstChild(); child != null; child = child.getNextSibling()) {
+                if (child.getNodeType() == Node.ELEMENT_NODE && "Object".equals(child.getLocalName())) {
+                    return (Element) child;
+                }
+            }
+        }
+        return null;
+    }
+
+    private static String strip(String quoted) {
+        return quoted.replace("[", "").replace("]", "");
+    }
+}
@@ -0,0 +1,79 @@
+package scheduler.repository;
+
+import scheduler.db.ShardRouter;
+import scheduler.embedded.EmbeddedRepository;
+
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Holds the process-wide {@link SchedulerRepository}.
+ *
+ * The backend is chosen from the environment on first use: Storage=embedded keeps the data in
+ * process, persisted under StorageDir (default "scheduler-data"); anything else uses SQL Server
+ * through {@link JdbcRepository}. With more than one shard (see {@link ShardRouter}) there is one
+ * such backend per shard behind a {@link ShardedRepository}; embedded shard i > 0 is kept under
+ * StorageDir-shard<i>, so several local stores can stand in for the shard databases.
+ */
+public final class Repositories {
+
+    private static volatile SchedulerRepository repository = null;
+
+    private Repositories() {
+    }
+
+    public static SchedulerRepository get() {
+        SchedulerRepository r = repository;
+        if (r == null) {
+            synchronized (Repositories.class) {
+                r = repository;
+                if (r == null) {
+                    r = open();
+                    repository = r;
+                }
+            }
+        }
+        return r;
+    }
+
+    /**
+     * Replaces the process-wide repository, e.g. for tools that bring their own backend.
+     */
+    public static synchronized void set(SchedulerRepository newRepository) {
+        repository = newRepository;
+    }
+
+    public static boolean isEmbedded() {
+        SchedulerRepository r = get();
+        if (r instanceof ShardedRepository) {
+            r = ((ShardedRepository) r).getShard(0);
+        }
+        return r instanceof EmbeddedRepository;
+    }
+
+    private static SchedulerRepository open() {
+        ShardRouter router = ShardRouter.getInstance();
+        List<SchedulerRepository> shards = new ArrayList<>();
+        for (int shard = 0; shard < router.getShardCount(); shard++) {
+            shards.add(open(shard));
+        }
+        return shards.size() == 1 ? shards.get(0) : new ShardedRepository(shards, router);
+    }
+
+    private static SchedulerRepository open(int shard) {
+        if (!"embedded".equalsIgnoreCase(System.getenv("Storage"))) {
+            return new JdbcRepository(shard);
+        }
+        String dir = System.getenv("StorageDir") != null ? System.getenv("StorageDir") : "scheduler-data";
+        if (shard > 0) {
+            dir = dir + "-shard" + shard;
+        }
+        try {
+            return EmbeddedRepository.open(Paths.get(dir));
+        } catch (IOException e) {
+            throw new IllegalStateException("Could not open embedded storage in " + dir, e);
+        }
+    }
+}
@@ -0,0 +1,246 @@
+package scheduler.repository;
+
+import scheduler.service.AvailabilityLoader;
+import scheduler.util.SlotBits;
+
+import java.sql.Date;
+import java.sql.SQLException;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Consumer;
+
+/**
+ * Every read and write the application does against the Caregivers, Patients, Vaccines,
+ * Availabilities, Reservations and Waitlist tables created by the scripts in resources/migrations.
+ *
+ * {@link JdbcRepository} runs them against SQL Server; {@link scheduler.embedded.EmbeddedRepository}
+ * keeps the tables in process. {@link Repositories} picks one at startup. Each method is atomic on
+ * its own. Failures, including constraint violations such as a duplicate key, are reported as
+ * SQLException by both backends.
+ */
+public interface SchedulerRepository extends AutoCloseable {
+
+    enum Role {
+        PATIENT("Patients"),
+        CAREGIVER("Caregivers");
+
+        private final String table;
+
+        Role(String table) {
+            this.table = table;
+        }
+
+        public String getTable() {
+            return table;
+        }
+    }
+
+    // Users
+
+    boolean userExists(Role role, String username) throws SQLException;
+
+    /**
+     * Returns the usernames from the collection that already exist.
+     */
+    Set<String> existingUsers(Role role, Collection<String> usernames) throws SQLException;
+
+    /**
+     * Returns the stored credentials, or null if there is no such user.
+     */
+    UserRecord getUser(Role role, String username) throws SQLException;
+
+    void createUser(Role role, UserRecord user) throws SQLException;
+
+    /**
+     * Creates all patients and caregivers together, or none of them.
+     */
+    void createUsers(List<UserRecord> patients, List<UserRecord> caregivers) throws SQLException;
+
+    void updateCredentials(Role role, UserRecord user) throws SQLException;
+
+    // Vaccines
+
+    /**
+     * Returns the doses of the vaccine, or -1 if there is no such vaccine.
+     */
+    int getDoses(String vaccine) throws SQLException;
+
+    Map<String, Integer> getAllDoses() throws SQLException;
+
+    void createVaccine(String vaccine, int doses) throws SQLException;
+
+    /**
+     * Adds delta (which may be negative) to the vaccine's doses unless that would make them negative.
+     * Returns false if the vaccine does not exist or has too few doses.
+     */
+    boolean addDoses(String vaccine, int delta) throws SQLException;
+
+    /**
+     * Adds the doses to each vaccine, creating the vaccines that do not exist, in one transaction.
+     */
+    void addOrCreateDoses(Map<String, Integer> doses) throws SQLException;
+
+    /**
+     * Applies the deltas without any check, in one transaction. Used to write back the dose ledger.
+     */
+    void applyDoseDeltas(Map<String, Integer> deltas) throws SQLException;
+
+    // Availabilities
+
+    /**
+     * Adds the slots to the caregiver's availability on the date, leaving out slots the caregiver
+     * already has an appointment in. Returns the caregiver's free slots that day afterwards.
+     */
+    SlotBits addAvailability(Date date, String caregiver, SlotBits slots) throws SQLException;
+
+    /**
+     * Adds the slots of each row that names an existing caregiver and offers a slot the caregiver
+     * has neither free nor booked yet, in one transaction. Returns those rows, each with the
+     * caregiver's free slots that day afterwards.
+     */
+    List<AvailabilityLoader.Slot> addAvailabilities(List<AvailabilityLoader.Slot> slots) throws SQLException;
+
+    void removeAvailabilities(Date date) throws SQLException;
+
+    /**
+     * Returns the free slots of each caregiver available on the date, ordered by username.
+     */
+    Map<String, SlotBits> getAvailability(Date date) throws SQLException;
+
+    List<AvailabilityLoader.Slot> getAllAvailabilities() throws SQLException;
+
+    /**
+     * Passes the availabilities from start to end (both inclusive) to the sink, ordered by date and
+     * then caregiver, beginning after the given slot (or at start if it is null). Stops after limit
+     * slots and returns how many were passed. Rows are streamed, not collected.
+     */
+    int scanAvailabilities(Date start, Date end, AvailabilityLoader.Slot after, int limit,
+                           Consumer<AvailabilityLoader.Slot> sink) throws SQLException;
+
+    // Reservations
+
+    /**
+     * Atomically claims the caregiver's slot on the date and records the reservation. If takeDose is
+     * set, one dose of the vaccine is taken in the same transaction. Nothing is changed unless every
+     * step succeeds. If requestKey is not null it is stored with the reservation, and the claim is
+     * {@link Claim.Status#DUPLICATE} without changing anything if the patient already has a
+     * reservation with that key.
+     */
+    Claim reserve(String appointmentId, String patient, Date date, int slot, String vaccine, String caregiver,
+                  boolean takeDose, String requestKey) throws SQLException;
+
+    /**
+     * Returns the patient's reservation made with the request key, or null if there is none.
+     */
+    Appointment getReservationByKey(String patient, String requestKey) throws SQLException;
+
+    /**
+     * Books all the appointments in one transaction, each claiming its caregiver's slot on its date,
+     * with the doses taken from Vaccines if takeDoses is set. Returns false and changes nothing if
+     * any slot is gone or any vaccine has too few doses.
+     */
+    boolean reserveAll(List<Appointment> appointments, boolean takeDoses) throws SQLException;
+
+    /**
+     * Deletes the appointment if the user (its patient or caregiver) has it, gives its slot back to
+     * the caregiver and, if returnDose is set, its dose back to Vaccines, in one transaction.
+     * Returns the deleted appointment, or null if the user has no such appointment. Like the bulk
+     * cancels below, it also drops booked waitlist requests for the deleted appointments.
+     */
+    Appointment cancel(String appointmentId, Role role, String username, boolean returnDose) throws SQLException;
+
+    /**
+     * Deletes all of the caregiver's appointments on the date together with the caregiver's
+     * availability that day, returns their doses to Vaccines if returnDoses is set, and queues each
+     * patient on the waitlist at the given priority to be booked again, in one transaction. Returns
+     * the deleted appointments.
+     */
+    List<Appointment> cancelCaregiverDay(String caregiver, Date date, boolean returnDoses, int rebookPriority)
+            throws SQLException;
+
+    /**
+     * Deletes all appointments for the vaccine from from to to (both inclusive), gives their slots
+     * back to the caregivers and queues each patient on the waitlist at the given priority to be
+     * booked again, in one transaction. The doses are not returned. Returns the deleted appointments.
+     */
+    List<Appointment> cancelVaccineLot(String vaccine, Date from, Date to, int rebookPriority) throws SQLException;
+
+    List<Appointment> getAllAppointments() throws SQLException;
+
+    /**
+     * Passes the user's appointments from from to to (both inclusive, null for no bound) to the sink
+     * in {@link Appointment#ORDER}, beginning after the given appointment (or at the first one if it
+     * is null). Stops after limit appointments and returns how many were passed.
+     */
+    int scanAppointments(Role role, String username, Date from, Date to, Appointment after, int limit,
+                         Consumer<Appointment> sink) throws SQLException;
+
+    // Waitlist
+
+    /**
+     * Queues a reservation request with priority 0. Returns its request id, or -1 if the patient
+     * already has the same request waiting.
+     */
+    long addToWaitlist(String patient, String vaccine, Date date) throws SQLException;
+
+    /**
+     * Deletes the waiting requests for dates before the given date and returns how many there were.
+     * Booked requests stay until their patient is told.
+     */
+    int expireWaitlist(Date before) throws SQLException;
+
+    /**
+     * Sets the priority of the patient's waiting requests and returns how many there are.
+     */
+    int setWaitlistPriority(String patient, int priority) throws SQLException;
+
+    /**
+     * Returns the waiting requests, highest priority first and then in request order.
+     */
+    List<WaitlistEntry> getWaitlist() throws SQLException;
+
+    /**
+     * Books the given waiting requests, each carrying the appointment id, caregiver and slot chosen
+     * for it, in one transaction. For each request the caregiver's slot on the date is claimed, one dose
+     * is taken if takeDoses is set, the reservation is inserted and the request is marked booked. A
+     * request whose slot, dose or waiting row is gone is skipped without affecting the others.
+     * Returns the requests that were booked.
+     */
+    List<WaitlistEntry> bookWaitlisted(List<WaitlistEntry> matches, boolean takeDoses) throws SQLException;
+
+    /**
+     * Removes the patient's booked requests from the waitlist and returns them in request order.
+     */
+    List<WaitlistEntry> takeBookedWaitlist(String patient) throws SQLException;
+
+    @Override
+    void close() throws SQLException;
+
+    class Claim {
+        public enum Status {
+            CLAIMED,
+            NO_DOSES,
+            NO_SLOT,
+            // the patient already has a reservation with the request key
+            DUPLICATE
+        }
+
+        private final Status status;
+        private final String caregiver;
+
+        public Claim(Status status, String caregiver) {
+            this.status = status;
+            this.caregiver = caregiver;
+        }
+
+        public Status getStatus() {
+            return status;
+        }
+
+        public String getCaregiver() {
+            return caregiver;
+        }
+    }
+}
@@ -0,0 +1,585 @@
+package scheduler.repository;
+
+import scheduler.db.ShardRouter;
+import scheduler.service.AvailabilityLoader;
+import scheduler.util.SlotBits;
+
+import java.sql.Date;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+/**
+ * {@link SchedulerRepository} over several shards, each a repository of its own.
+ *
+ * Availabilities, Reservations and the Waitlist are partitioned by date as the {@link ShardRouter}
+ * says, so reserve, search and the cancels of one day go to the one shard that owns the date, and
+ * a day's reservation is still one transaction. Queries that span dates or look up an appointment
+ * by id (show_appointments, cancel) run on the shards concerned in parallel and merge the results.
+ *
+ * Users and vaccines are reference data, replicated to every shard because the partitioned tables
+ * reference them; reads go to the primary (shard 0). Writes go to the other shards first, as
+ * upserts that can be repeated, and to the primary last. If a shard fails, the primary has not
+ * changed, so the write is reported as failed and a retry completes the replicas it missed.
+ * Replicas may keep users a failed write left behind; nothing reads them from a replica. Dose counts are only kept on the primary. A reservation on the primary takes its
+ * dose in the same transaction as before; when a reservation on another shard takes a dose without
+ * the dose ledger, the dose is taken on the primary first and handed back if the reservation
+ * fails, so that pair is not one transaction.
+ *
+ * Waitlist request ids are made unique across shards as local id * shards + shard, so requests
+ * with the same priority are served in request order within a shard and interleaved across shards.
+ */
+public class ShardedRepository implements SchedulerRepository {
+
+    private static final int PRIMARY = 0;
+
+    private final List<SchedulerRepository> shards;
+    private final ShardRouter router;
+    private final ExecutorService executor;
+
+    public ShardedRepository(List<SchedulerRepository> shards, ShardRouter router) {
+        if (shards.size() != router.getShardCount()) {
+            throw new IllegalArgumentException("Expected " + router.getShardCount() + " shards");
+        }
+        this.shards = new ArrayList<>(shards);
+        this.router = router;
+        AtomicInteger count = new AtomicInteger();
+        this.executor = Executors.newCachedThreadPool(r -> {
+            Thread t = new Thread(r, "shard-query-" + count.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    public SchedulerRepository getShard(int shard) {
+        return shards.get(shard);
+    }
+
+    private SchedulerRepository primary() {
+        return shards.get(PRIMARY);
+    }
+
+    private SchedulerRepository owner(Date date) {
+        return shards.get(router.shardOf(date));
+    }
+
+    // Users
+
+    @Override
+    public boolean userExists(Role role, String username) throws SQLException {
+        return primary().userExists(role, username);
+    }
+
+    @Override
+    public Set<String> existingUsers(Role role, Collection<String> usernames) throws SQLException {
+        return primary().existingUsers(role, usernames);
+    }
+
+    @Override
+    public UserRecord getUser(Role role, String username) throws SQLException {
+        return primary().getUser(role, username);
+    }
+
+    @Override
+    public void createUser(Role role, UserRecord user) throws SQLException {
+        for (int i = 1; i < shards.size(); i++) {
+            replicateUsers(shards.get(i), role, List.of(user));
+        }
+        primary().createUser(role, user);
+    }
+
+    @Override
+    public void createUsers(List<UserRecord> patients, List<UserRecord> caregivers) throws SQLException {
+        for (int i = 1; i < shards.size(); i++) {
+            replicateUsers(shards.get(i), Role.PATIENT, patients);
+            replicateUsers(shards.get(i), Role.CAREGIVER, caregivers);
+        }
+        primary().createUsers(patients, caregivers);
+    }
+
+    @Override
+    public void updateCredentials(Role role, UserRecord user) throws SQLException {
+        for (int i = 1; i < shards.size(); i++) {
+            shards.get(i).updateCredentials(role, user);
+        }
+        primary().updateCredentials(role, user);
+    }
+
+    // Creates the users the replica is missing and overwrites the credentials of the others, so a
+    // replication that failed halfway can simply be run again.
+    private static void replicateUsers(SchedulerRepository replica, Role role, List<UserRecord> users)
+            throws SQLException {
+        if (users.isEmpty()) {
+            return;
+        }
+        List<String> usernames = new ArrayList<>(users.size());
+        for (UserRecord user : users) {
+            usernames.add(user.getUsername());
+        }
+        Set<String> existing = replica.existingUsers(role, usernames);
+        List<UserRecord> missing = new ArrayList<>();
+        for (UserRecord user : users) {
+            if (existing.contains(user.getUsername())) {
+                replica.updateCredentials(role, user);
+            } else {
+                missing.add(user);
+            }
+        }
+        if (missing.isEmpty()) {
+            return;
+        }
+        if (role == Role.PATIENT) {
+            replica.createUsers(missing, List.of());
+        } else {
+            replica.createUsers(List.of(), missing);
+        }
+    }
+
+    // Vaccines
+
+    @Override
+    public int getDoses(String vaccine) throws SQLException {
+        return primary().getDoses(vaccine);
+    }
+
+    @Override
+    public Map<String, Integer> getAllDoses() throws SQLException {
+        return primary().getAllDoses();
+    }
+
+    @Override
+    public void createVaccine(String vaccine, int doses) throws SQLException {
+        replicateVaccines(List.of(vaccine));
+        primary().createVaccine(vaccine, doses);
+    }
+
+    @Override
+    public boolean addDoses(String vaccine, int delta) throws SQLException {
+        return primary().addDoses(vaccine, delta);
+    }
+
+    @Override
+    public void addOrCreateDoses(Map<String, Integer> doses) throws SQLException {
+        replicateVaccines(doses.keySet());
+        primary().addOrCreateDoses(doses);
+    }
+
+    // The other shards only need the vaccines to exist; adding no doses is safe to repeat.
+    private void replicateVaccines(Collection<String> vaccines) throws SQLException {
+        Map<String, Integer> none = new LinkedHashMap<>();
+        for (String vaccine : vaccines) {
+            none.put(vaccine, 0);
+        }
+        for (int i = 1; i < shards.size(); i++) {
+            shards.get(i).addOrCreateDoses(none);
+        }
+    }
+
+    @Override
+    public void applyDoseDeltas(Map<String, Integer> deltas) throws SQLException {
+        primary().applyDoseDeltas(deltas);
+    }
+
+    // Availabilities
+
+    @Override
+    public SlotBits addAvailability(Date date, String caregiver, SlotBits slots) throws SQLException {
+        return owner(date).addAvailability(date, caregiver, slots);
+    }
+
+    /**
+     * Adds the rows in one transaction per shard.
+     */
+    @Override
+    public List<AvailabilityLoader.Slot> addAvailabilities(List<AvailabilityLoader.Slot> slots) throws SQLException {
+        Map<Integer, List<AvailabilityLoader.Slot>> byShard = new LinkedHashMap<>();
+        for (AvailabilityLoader.Slot slot : slots) {
+            byShard.computeIfAbsent(router.shardOf(slot.getDate()), s -> new ArrayList<>()).add(slot);
+        }
+        List<AvailabilityLoader.Slot> added = new ArrayList<>();
+        for (List<AvailabilityLoader.Slot> rows : onShards(new ArrayList<>(byShard.keySet()),
+                shard -> shards.get(shard).addAvailabilities(byShard.get(shard)))) {
+            added.addAll(rows);
+        }
+        return added;
+    }
+
+    @Override
+    public void removeAvailabilities(Date date) throws SQLException {
+        owner(date).removeAvailabilities(date);
+    }
+
+    @Override
+    public Map<String, SlotBits> getAvailability(Date date) throws SQLException {
+        return owner(date).getAvailability(date);
+    }
+
+    @Override
+    public List<AvailabilityLoader.Slot> getAllAvailabilities() throws SQLException {
+        List<AvailabilityLoader.Slot> all = new ArrayList<>();
+        for (List<AvailabilityLoader.Slot> slots : onShards(all(), shard -> shards.get(shard).getAllAvailabilities())) {
+            all.addAll(slots);
+        }
+        return all;
+    }
+
+    // The shards own consecutive date ranges, so scanning them in order keeps the rows in order.
+    @Override
+    public int scanAvailabilities(Date start, Date end, AvailabilityLoader.Slot after, int limit,
+                                  Consumer<AvailabilityLoader.Slot> sink) throws SQLException {
+        Date from = after != null && after.getDate().after(start) ? after.getDate() : start;
+        int count = 0;
+        for (int shard = 0; shard < shards.size() && count < limit; shard++) {
+            if (router.overlaps(shard, from, end)) {
+                count += shards.get(shard).scanAvailabilities(router.clipStart(shard, start),
+                        router.clipEnd(shard, end), after, limit - count, sink);
+            }
+        }
+        return count;
+    }
+
+    // Reservations
+
+    @Override
+    public Claim reserve(String appointmentId, String patient, Date date, int slot, String vaccine, String caregiver,
+                         boolean takeDose, String requestKey) throws SQLException {
+        int shard = router.shardOf(date);
+        if (shard == PRIMARY) {
+            // the doses are on the same database, so the dose and the slot stay one transaction
+            return primary().reserve(appointmentId, patient, date, slot, vaccine, caregiver, takeDose, requestKey);
+        }
+        if (takeDose && !primary().addDoses(vaccine, -1)) {
+            return new Claim(Claim.Status.NO_DOSES, null);
+        }
+        Claim claim = null;
+        try {
+            claim = shards.get(shard).reserve(appointmentId, patient, date, slot, vaccine, caregiver, false,
+                    requestKey);
+            return claim;
+        } finally {
+            if (takeDose && (claim == null || claim.getStatus() != Claim.Status.CLAIMED)) {
+                primary().addDoses(vaccine, 1);
+            }
+        }
+    }
+
+    @Override
+    public Appointment getReservationByKey(String patient, String requestKey) throws SQLException {
+        for (Appointment appointment : onShards(all(),
+                shard -> shards.get(shard).getReservationByKey(patient, requestKey))) {
+            if (appointment != null) {
+                return appointment;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Books appointments of one shard in one transaction; appointments on dates of several shards
+     * are rejected.
+     */
+    @Override
+    public boolean reserveAll(List<Appointment> appointments, boolean takeDoses) throws SQLException {
+        if (appointments.isEmpty()) {
+            return true;
+        }
+        int shard = router.shardOf(appointments.get(0).getDate());
+        Map<String, Integer> doses = new LinkedHashMap<>();
+        for (Appointment appointment : appointments) {
+            if (router.shardOf(appointment.getDate()) != shard) {
+                throw new SQLException("Appointments on dates of several shards cannot be reserved together");
+            }
+            doses.merge(appointment.getVaccine(), 1, Integer::sum);
+        }
+        if (shard == PRIMARY) {
+            return primary().reserveAll(appointments, takeDoses);
+        }
+        Map<String, Integer> taken = new HashMap<>();
+        boolean reserved = false;
+        try {
+            if (takeDoses) {
+                for (Map.Entry<String, Integer> entry : doses.entrySet()) {
+                    if (!primary().addDoses(entry.getKey(), -entry.getValue())) {
+                        return false;
+                    }
+                    taken.put(entry.getKey(), entry.getValue());
+                }
+            }
+            reserved = shards.get(shard).reserveAll(appointments, false);
+            return reserved;
+        } finally {
+            if (!reserved) {
+                for (Map.Entry<String, Integer> entry : taken.entrySet()) {
+                    primary().addDoses(entry.getKey(), entry.getValue());
+                }
+            }
+        }
+    }
+
+    @Override
+    public Appointment cancel(String appointmentId, Role role, String username, boolean returnDose)
+            throws SQLException {
+        // the primary returns its own dose in the cancel's transaction
+        List<Appointment> results = onShards(all(),
+                shard -> shards.get(shard).cancel(appointmentId, role, username, returnDose && shard == PRIMARY));
+        for (int shard = 0; shard < results.size(); shard++) {
+            Appointment cancelled = results.get(shard);
+            if (cancelled != null) {
+                if (returnDose && shard != PRIMARY) {
+                    primary().addDoses(cancelled.getVaccine(), 1);
+                }
+                return cancelled;
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public List<Appointment> cancelCaregiverDay(String caregiver, Date date, boolean returnDoses, int rebookPriority)
+            throws SQLException {
+        int shard = router.shardOf(date);
+        if (shard == PRIMARY) {
+            return primary().cancelCaregiverDay(caregiver, date, returnDoses, rebookPriority);
+        }
+        List<Appointment> cancelled = shards.get(shard).cancelCaregiverDay(caregiver, date, false, rebookPriority);
+        if (returnDoses) {
+            Map<String, Integer> doses = new LinkedHashMap<>();
+            for (Appointment appointment : cancelled) {
+                doses.merge(appointment.getVaccine(), 1, Integer::sum);
+            }
+            for (Map.Entry<String, Integer> entry : doses.entrySet()) {
+                primary().addDoses(entry.getKey(), entry.getValue());
+            }
+        }
+        return cancelled;
+    }
+
+    @Override
+    public List<Appointment> cancelVaccineLot(String vaccine, Date from, Date to, int rebookPriority)
+            throws SQLException {
+        List<Appointment> cancelled = new ArrayList<>();
+        for (List<Appointment> appointments : onShards(overlapping(from, to),
+                shard -> shards.get(shard).cancelVaccineLot(vaccine, router.clipStart(shard, from),
+                        router.clipEnd(shard, to), rebookPriority))) {
+            cancelled.addAll(appointments);
+        }
+        return cancelled;
+    }
+
+    @Override
+    public List<Appointment> getAllAppointments() throws SQLException {
+        List<Appointment> all = new ArrayList<>();
+        for (List<Appointment> appointments : onShards(all(), shard -> shards.get(shard).getAllAppointments())) {
+            all.addAll(appointments);
+        }
+        return all;
+    }
+
+    /**
+     * Reads up to limit appointments from each shard concerned in parallel, then passes the first
+     * limit of them in {@link Appointment#ORDER}.
+     */
+    @Override
+    public int scanAppointments(Role role, String username, Date from, Date to, Appointment after, int limit,
+                                Consumer<Appointment> sink) throws SQLException {
+        Date start = after != null && (from == null || after.getDate().after(from)) ? after.getDate() : from;
+        List<Appointment> merged = new ArrayList<>();
+        for (List<Appointment> appointments : onShards(overlapping(start, to), shard -> {
+            List<Appointment> page = new ArrayList<>();
+            shards.get(shard).scanAppointments(role, username, from, to, after, limit, page::add);
+            return page;
+        })) {
+            merged.addAll(appointments);
+        }
+        merged.sort(Appointment.ORDER);
+        int count = Math.min(limit, merged.size());
+        for (int i = 0; i < count; i++) {
+            sink.accept(merged.get(i));
+        }
+        return count;
+    }
+
+    // Waitlist
+
+    @Override
+    public long addToWaitlist(String patient, String vaccine, Date date) throws SQLException {
+        int shard = router.shardOf(date);
+        long requestId = shards.get(shard).addToWaitlist(patient, vaccine, date);
+        return requestId < 0 ? requestId : globalId(requestId, shard);
+    }
+
+    @Override
+    public int expireWaitlist(Date before) throws SQLException {
+        int count = 0;
+        Date last = Date.valueOf(before.toLocalDate().minusDays(1));
+        for (int expired : onShards(overlapping(null, last), shard -> shards.get(shard).expireWaitlist(before))) {
+            count += expired;
+        }
+        return count;
+    }
+
+    @Override
+    public int setWaitlistPriority(String patient, int priority) throws SQLException {
+        int count = 0;
+        for (int waiting : onShards(all(), shard -> shards.get(shard).setWaitlistPriority(patient, priority))) {
+            count += waiting;
+        }
+        return count;
+    }
+
+    @Override
+    public List<WaitlistEntry> getWaitlist() throws SQLException {
+        List<WaitlistEntry> waitlist = new ArrayList<>();
+        List<List<WaitlistEntry>> results = onShards(all(), shard -> shards.get(shard).getWaitlist());
+        for (int shard = 0; shard < results.size(); shard++) {
+            for (WaitlistEntry entry : results.get(shard)) {
+                waitlist.add(withRequestId(entry, globalId(entry.getRequestId(), shard)));
+            }
+        }
+        waitlist.sort(Comparator.comparingInt(WaitlistEntry::getPriority).reversed()
+                .thenComparingLong(WaitlistEntry::getRequestId));
+        return waitlist;
+    }
+
+    @Override
+    public List<WaitlistEntry> bookWaitlisted(List<WaitlistEntry> matches, boolean takeDoses) throws SQLException {
+        Map<Integer, List<WaitlistEntry>> byShard = new LinkedHashMap<>();
+        List<WaitlistEntry> taken = new ArrayList<>();
+        for (WaitlistEntry match : matches) {
+            int shard = (int) (match.getRequestId() % shards.size());
+            // the primary takes its doses while booking; the others are taken up front
+            if (takeDoses && shard != PRIMARY) {
+                if (!primary().addDoses(match.getVaccine(), -1)) {
+                    continue;
+                }
+                taken.add(match);
+            }
+            byShard.computeIfAbsent(shard, s -> new ArrayList<>())
+                    .add(withRequestId(match, match.getRequestId() / shards.size()));
+        }
+        List<WaitlistEntry> booked = new ArrayList<>();
+        try {
+            List<Integer> order = new ArrayList<>(byShard.keySet());
+            List<List<WaitlistEntry>> results = onShards(order,
+                    shard -> shards.get(shard).bookWaitlisted(byShard.get(shard), takeDoses && shard == PRIMARY));
+            for (int i = 0; i < order.size(); i++) {
+                for (WaitlistEntry entry : results.get(i)) {
+                    booked.add(withRequestId(entry, globalId(entry.getRequestId(), order.get(i))));
+                }
+            }
+        } finally {
+            Set<Long> bookedIds = new HashSet<>();
+            for (WaitlistEntry entry : booked) {
+                bookedIds.add(entry.getRequestId());
+            }
+            for (WaitlistEntry match : taken) {
+                if (!bookedIds.contains(match.getRequestId())) {
+                    primary().addDoses(match.getVaccine(), 1);
+                }
+            }
+        }
+        return booked;
+    }
+
+    @Override
+    public List<WaitlistEntry> takeBookedWaitlist(String patient) throws SQLException {
+        List<WaitlistEntry> booked = new ArrayList<>();
+        List<List<WaitlistEntry>> results = onShards(all(), shard -> shards.get(shard).takeBookedWaitlist(patient));
+        for (int shard = 0; shard < results.size(); shard++) {
+            for (WaitlistEntry entry : results.get(shard)) {
+                booked.add(withRequestId(entry, globalId(entry.getRequestId(), shard)));
+            }
+        }
+        booked.sort(Comparator.comparingLong(WaitlistEntry::getRequestId));
+        return booked;
+    }
+
+    @Override
+    public void close() throws SQLException {
+        executor.shutdown();
+        SQLException failure = null;
+        for (SchedulerRepository shard : shards) {
+            try {
+                shard.close();
+            } catch (SQLException e) {
+                failure = e;
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    private long globalId(long requestId, int shard) {
+        return requestId * shards.size() + shard;
+    }
+
+    private static WaitlistEntry withRequestId(WaitlistEntry entry, long requestId) {
+        return new WaitlistEntry(requestId, entry.getPatient(), entry.getVaccine(), entry.getDate(),
+                entry.getPriority(), entry.getAppointmentId(), entry.getCaregiver(), entry.getSlot());
+    }
+
+    private List<Integer> all() {
+        return overlapping(null, null);
+    }
+
+    // the shards owning a date from from to to (both inclusive, null for no bound)
+    private List<Integer> overlapping(Date from, Date to) {
+        List<Integer> overlapping = new ArrayList<>();
+        for (int shard = 0; shard < shards.size(); shard++) {
+            if (router.overlaps(shard, from, to)) {
+                overlapping.add(shard);
+            }
+        }
+        return overlapping;
+    }
+
+    private interface ShardCall<T> {
+        T call(int shard) throws SQLException;
+    }
+
+    // Runs the call on each shard, in parallel if there are several, and returns the results in
+    // the order of the shards given. Work on the other threads is not counted in command metrics.
+    private <T> List<T> onShards(List<Integer> targets, ShardCall<T> call) throws SQLException {
+        List<T> results = new ArrayList<>(targets.size());
+        if (targets.size() == 1) {
+            results.add(call.call(targets.get(0)));
+            return results;
+        }
+        List<Future<T>> futures = new ArrayList<>(targets.size());
+        for (int shard : targets) {
+            futures.add(executor.submit(() -> call.call(shard)));
+        }
+        try {
+            for (Future<T> future : futures) {
+                results.add(future.get());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted while querying shards", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof SQLException) {
+                throw (SQLException) e.getCause();
+            }
+            throw new SQLException("Shard query failed", e.getCause());
+        } finally {
+            for (Future<T> future : futures) {
+                future.cancel(true);
+            }
+        }
+        return results;
+    }
+}
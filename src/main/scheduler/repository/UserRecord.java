@@ -0,0 +1,36 @@
+package scheduler.repository;
+
+import scheduler.util.PasswordHasher;
+
+/**
+ * A row of the Patients or Caregivers table.
+ */
+public class UserRecord {
+    private final String username;
+    private final byte[] salt;
+    private final byte[] hash;
+    private final PasswordHasher.Params hashParams;
+
+    public UserRecord(String username, byte[] salt, byte[] hash, PasswordHasher.Params hashParams) {
+        this.username = username;
+        this.salt = salt;
+        this.hash = hash;
+        this.hashParams = hashParams;
+    }
+
+    public String getUsername() {
+        return username;
+    }
+
+    public byte[] getSalt() {
+        return salt;
+    }
+
+    public byte[] getHash() {
+        return hash;
+    }
+
+    public PasswordHasher.Params getHashParams() {
+        return hashParams;
+    }
+}
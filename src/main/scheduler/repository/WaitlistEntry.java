@@ -0,0 +1,73 @@
+package scheduler.repository;
+
+import java.sql.Date;
+
+/**
+ * A row of the Waitlist table: a reservation that could not be booked when it was requested. Once
+ * the request is booked it carries the appointment until the patient has been told about it.
+ */
+public class WaitlistEntry {
+    private final long requestId;
+    private final String patient;
+    private final String vaccine;
+    private final Date date;
+    private final int priority;
+    private final String appointmentId;
+    private final String caregiver;
+    private final int slot;
+
+    public WaitlistEntry(long requestId, String patient, String vaccine, Date date, int priority,
+                         String appointmentId, String caregiver, int slot) {
+        this.requestId = requestId;
+        this.patient = patient;
+        this.vaccine = vaccine;
+        this.date = date;
+        this.priority = priority;
+        this.appointmentId = appointmentId;
+        this.caregiver = caregiver;
+        this.slot = slot;
+    }
+
+    public long getRequestId() {
+        return requestId;
+    }
+
+    public String getPatient() {
+        return patient;
+    }
+
+    public String getVaccine() {
+        return vaccine;
+    }
+
+    public Date getDate() {
+        return date;
+    }
+
+    // higher goes first; requests with the same priority go in request order
+    public int getPriority() {
+        return priority;
+    }
+
+    // null while the request is still waiting
+    public String getAppointmentId() {
+        return appointmentId;
+    }
+
+    public String getCaregiver() {
+        return caregiver;
+    }
+
+    // the slot of the booked appointment, or -1
+    public int getSlot() {
+        return slot;
+    }
+
+    public boolean isBooked() {
+        return appointmentId != null;
+    }
+
+    public WaitlistEntry booked(String appointmentId, String caregiver, int slot) {
+        return new WaitlistEntry(requestId, patient, vaccine, date, priority, appointmentId, caregiver, slot);
+    }
+}
@@ -0,0 +1,171 @@
+package scheduler.server;
+
+import scheduler.Scheduler;
+import scheduler.Session;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.lang.reflect.Method;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Serves the scheduler's command set over a line protocol on TCP.
+ *
+ * On connect the server sends "SESSION <token>". Every line the client sends is one command, as
+ * typed at the console; its output is followed by a line containing a single ".". A client that
+ * reconnects can send "resume <token>" to get its logged-in session back, which closes any other
+ * connection still holding it, and "quit" closes the connection while keeping the session until
+ * it idles out. If the session expired in the meantime, the next command's output is preceded by
+ * a new "SESSION <token>" line. Each connection runs on its own virtual thread when the runtime
+ * supports them, and on a platform thread otherwise.
+ */
+public class SchedulerServer {
+
+    private static final String END_OF_RESPONSE = ".";
+
+    private final SessionRegistry sessions;
+    private final ExecutorService executor;
+
+    public SchedulerServer(long idleTimeoutMillis) {
+        this.sessions = new SessionRegistry(idleTimeoutMillis);
+        this.executor = newConnectionExecutor();
+    }
+
+    /**
+     * Runs the server on the port until the process is stopped.
+     */
+    public static void run(int port) {
+        long idleTimeoutMillis = 60_000L * intEnv("SessionIdleMinutes", 30);
+        SchedulerServer server = new SchedulerServer(idleTimeoutMillis);
+        Runtime.getRuntime().addShutdownHook(new Thread(Scheduler::shutdown));
+        try {
+            server.serve(port);
+        } catch (IOException e) {
+            System.out.println("Server stopped: " + e.getMessage());
+            e.printStackTrace();
+        }
+    }
+
+    public void serve(int port) throws IOException {
+        try (ServerSocket serverSocket = new ServerSocket(port)) {
+            System.out.println("Listening on port " + serverSocket.getLocalPort());
+            while (true) {
+                Socket socket = serverSocket.accept();
+                executor.execute(() -> handle(socket));
+            }
+        } finally {
+            executor.shutdown();
+            sessions.close();
+        }
+    }
+
+    // Each connection writes to its own stream, so a slow client only holds up its own thread.
+    private void handle(Socket socket) {
+        String token = null;
+        try (socket;
+             BufferedReader in = new BufferedReader(
+                     new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+             PrintStream out = new PrintStream(
+                     new BufferedOutputStream(socket.getOutputStream()), false, StandardCharsets.UTF_8)) {
+            token = sessions.create(socket);
+            out.println("SESSION " + token);
+            endResponse(out);
+
+            String line;
+            while ((line = in.readLine()) != null) {
+                String[] tokens = line.split(" ");
+                if (tokens.length == 2 && tokens[0].equals("resume")) {
+                    if (tokens[1].equals(token)) {
+                        out.println("SESSION " + token);
+                    } else if (sessions.attach(tokens[1], socket) == null) {
+                        out.println("Unknown or expired session!");
+                    } else {
+                        sessions.remove(token);
+                        token = tokens[1];
+                        out.println("SESSION " + token);
+                    }
+                    endResponse(out);
+                    continue;
+                }
+                Session session = sessions.get(token);
+                if (session == null) {
+                    // expired while the client was idle; start over logged out
+                    token = sessions.create(socket);
+                    session = sessions.get(token);
+                    out.println("Session expired!");
+                    out.println("SESSION " + token);
+                }
+                boolean more;
+                session.lock();
+                try {
+                    if (!sessions.isOwner(token, socket)) {
+                        // another connection resumed the session; it closes this one
+                        break;
+                    }
+                    session.setOut(out);
+                    try {
+                        more = Scheduler.execute(session, line);
+                    } catch (RuntimeException e) {
+                        // a bad command must not cost the client its connection
+                        out.println("Error occurred: " + e);
+                        e.printStackTrace();
+                        more = true;
+                    }
+                    endResponse(out);
+                } finally {
+                    session.unlock();
+                }
+                if (!more) {
+                    break;
+                }
+            }
+        } catch (IOException e) {
+            // client went away; its session stays until it idles out
+        } finally {
+            if (token != null) {
+                sessions.detach(token, socket);
+            }
+        }
+    }
+
+    private static void endResponse(PrintStream out) throws IOException {
+        out.println(END_OF_RESPONSE);
+        out.flush();
+        if (out.checkError()) {
+            throw new IOException("Client connection closed");
+        }
+    }
+
+    // Virtual threads when running on a JDK that has them, a thread per connection otherwise.
+    private static ExecutorService newConnectionExecutor() {
+        try {
+            Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) factory.invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return Executors.newCachedThreadPool(r -> {
+                Thread t = new Thread(r, "scheduler-session");
+                t.setDaemon(true);
+                return t;
+            });
+        }
+    }
+
+    private static int intEnv(String name, int defaultValue) {
+        String value = System.getenv(name);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return Integer.parseInt(value.trim());
+        } catch (NumberFormatException e) {
+            return defaultValue;
+        }
+    }
+}
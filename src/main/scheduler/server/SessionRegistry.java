@@ -0,0 +1,133 @@
+package scheduler.server;
+
+import scheduler.Session;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.security.SecureRandom;
+import java.util.Base64;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Sessions of the server, keyed by an unguessable token. Sessions that have not been used for the
+ * idle timeout are dropped by a background sweep, which logs their user out.
+ *
+ * Each session is owned by at most one connection. A connection that resumes a session takes it
+ * over and the previous owner is closed, so two clients never drive one session at once.
+ */
+public class SessionRegistry {
+
+    private final SecureRandom random = new SecureRandom();
+    private final Map<String, Session> sessions = new ConcurrentHashMap<>();
+    private final Map<String, Closeable> owners = new ConcurrentHashMap<>();
+    private final long idleTimeoutMillis;
+    private final ScheduledExecutorService sweeper;
+
+    public SessionRegistry(long idleTimeoutMillis) {
+        this.idleTimeoutMillis = idleTimeoutMillis;
+        this.sweeper = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "session-sweeper");
+            t.setDaemon(true);
+            return t;
+        });
+        long period = Math.max(1000, idleTimeoutMillis / 4);
+        this.sweeper.scheduleWithFixedDelay(this::expireIdle, period, period, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Creates a session owned by the connection and returns its token.
+     */
+    public String create(Closeable owner) {
+        byte[] bytes = new byte[24];
+        random.nextBytes(bytes);
+        String token = Base64.getUrlEncoder().withoutPadding().encodeToString(bytes);
+        sessions.put(token, new Session());
+        owners.put(token, owner);
+        return token;
+    }
+
+    /**
+     * Hands the session for the token over to owner and closes the connection that owned it before.
+     * Returns the session, or null if the token is unknown or expired.
+     */
+    public Session attach(String token, Closeable owner) {
+        Session session = get(token);
+        if (session == null) {
+            return null;
+        }
+        Closeable previous = owners.put(token, owner);
+        if (previous != null && previous != owner) {
+            try {
+                previous.close();
+            } catch (IOException e) {
+                // already gone
+            }
+        }
+        return session;
+    }
+
+    /**
+     * Releases the session if owner still holds it; the session itself stays until it idles out.
+     */
+    public void detach(String token, Closeable owner) {
+        owners.remove(token, owner);
+    }
+
+    public boolean isOwner(String token, Closeable owner) {
+        return owners.get(token) == owner;
+    }
+
+    /**
+     * Returns the session for the token and marks it as used, or null if it is unknown or expired.
+     */
+    public Session get(String token) {
+        Session session = sessions.get(token);
+        if (session == null) {
+            return null;
+        }
+        if (isExpired(session, System.currentTimeMillis())) {
+            remove(token);
+            return null;
+        }
+        session.touch();
+        return session;
+    }
+
+    public void remove(String token) {
+        owners.remove(token);
+        Session session = sessions.remove(token);
+        if (session != null) {
+            session.logout();
+        }
+    }
+
+    public int size() {
+        return sessions.size();
+    }
+
+    public void close() {
+        sweeper.shutdownNow();
+    }
+
+    private boolean isExpired(Session session, long now) {
+        return now - session.getLastAccessMillis() > idleTimeoutMillis;
+    }
+
+    private void expireIdle() {
+        long now = System.currentTimeMillis();
+        Iterator<Map.Entry<String, Session>> it = sessions.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<String, Session> entry = it.next();
+            if (isExpired(entry.getValue(), now)) {
+                it.remove();
+                owners.remove(entry.getKey());
+                entry.getValue().logout();
+            }
+        }
+    }
+}
@@ -0,0 +1,111 @@
+package scheduler.service;
+
+import scheduler.repository.Appointment;
+import scheduler.repository.Repositories;
+import scheduler.repository.SchedulerRepository.Role;
+import scheduler.util.SlotBits;
+
+import java.sql.Date;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Cancels appointments, one at a time or in bulk.
+ *
+ * Every cancellation is one repository call, so one transaction: the reservations are deleted and
+ * their doses and slots handed back together. The bulk variants delete all affected reservations
+ * with set-based statements instead of cancelling them one by one, and queue the patients on the
+ * waitlist ahead of ordinary requests, so the next {@link WaitlistMatcher#match} books them again
+ * wherever there is capacity.
+ *
+ * A caregiver's day is cancelled because the caregiver cannot work it: the doses go back to stock
+ * but the slots do not. A vaccine lot is cancelled because its doses cannot be used: the slots go
+ * back to the caregivers but the doses do not.
+ */
+public class AppointmentCanceller {
+
+    // rebooked patients go ahead of requests at the default priority of 0
+    private static final int REBOOK_PRIORITY = 1;
+
+    private final AvailabilityIndex availabilityIndex;
+    private final DoseLedger doseLedger;
+    private final CaregiverAssigner assigner;
+    private final WaitlistMatcher waitlistMatcher;
+    private final ReservationDedupe dedupe;
+
+    public AppointmentCanceller() {
+        this(AvailabilityIndex.getInstance(), DoseLedger.getInstance(), CaregiverAssigner.getInstance(),
+                WaitlistMatcher.getInstance(), ReservationDedupe.getInstance());
+    }
+
+    public AppointmentCanceller(AvailabilityIndex availabilityIndex, DoseLedger doseLedger, CaregiverAssigner assigner,
+                                WaitlistMatcher waitlistMatcher, ReservationDedupe dedupe) {
+        this.availabilityIndex = availabilityIndex;
+        this.doseLedger = doseLedger;
+        this.assigner = assigner;
+        this.waitlistMatcher = waitlistMatcher;
+        this.dedupe = dedupe;
+    }
+
+    /**
+     * Cancels the user's appointment. Returns it, or null if the user has no such appointment.
+     */
+    public Appointment cancel(String appointmentId, Role role, String username) throws SQLException {
+        boolean fromLedger = doseLedger.isLoaded();
+        Appointment appointment = Repositories.get().cancel(appointmentId, role, username, !fromLedger);
+        if (appointment != null) {
+            released(List.of(appointment), fromLedger, true);
+        }
+        return appointment;
+    }
+
+    /**
+     * Cancels all of the caregiver's appointments on the date and withdraws the caregiver's
+     * availability that day. Returns the cancelled appointments.
+     */
+    public List<Appointment> cancelCaregiverDay(String caregiver, Date date) throws SQLException {
+        boolean fromLedger = doseLedger.isLoaded();
+        List<Appointment> cancelled = Repositories.get().cancelCaregiverDay(caregiver, date, !fromLedger,
+                REBOOK_PRIORITY);
+        availabilityIndex.remove(AvailabilityIndex.epochDay(date), caregiver);
+        released(cancelled, fromLedger, false);
+        waitlistMatcher.queued(cancelled.size());
+        return cancelled;
+    }
+
+    /**
+     * Cancels all appointments for the vaccine from from to to (both inclusive). Returns the
+     * cancelled appointments.
+     */
+    public List<Appointment> cancelVaccineLot(String vaccine, Date from, Date to) throws SQLException {
+        List<Appointment> cancelled = Repositories.get().cancelVaccineLot(vaccine, from, to, REBOOK_PRIORITY);
+        released(cancelled, false, true);
+        waitlistMatcher.queued(cancelled.size());
+        return cancelled;
+    }
+
+    // Brings the in-memory state up to date with the deleted appointments.
+    private void released(List<Appointment> cancelled, boolean returnDoses, boolean restoreSlots) {
+        Map<String, Integer> doses = new HashMap<>();
+        List<String> appointmentIds = new ArrayList<>(cancelled.size());
+        for (Appointment appointment : cancelled) {
+            appointmentIds.add(appointment.getAppointmentId());
+            int day = AvailabilityIndex.epochDay(appointment.getDate());
+            if (restoreSlots && appointment.getSlot() >= 0) {
+                availabilityIndex.add(day, appointment.getCaregiver(), SlotBits.single(appointment.getSlot()));
+            }
+            assigner.released(day, appointment.getCaregiver());
+            if (returnDoses) {
+                doses.merge(appointment.getVaccine(), 1, Integer::sum);
+            }
+        }
+        for (Map.Entry<String, Integer> entry : doses.entrySet()) {
+            doseLedger.release(entry.getKey(), entry.getValue());
+        }
+        // a retry with the key of a cancelled appointment books a new one
+        dedupe.forget(appointmentIds);
+    }
+}
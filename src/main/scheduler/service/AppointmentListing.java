@@ -0,0 +1,78 @@
+package scheduler.service;
+
+import scheduler.repository.Appointment;
+import scheduler.repository.Repositories;
+import scheduler.repository.SchedulerRepository;
+import scheduler.repository.SchedulerRepository.Role;
+import scheduler.util.SlotBits;
+
+import java.io.PrintStream;
+import java.sql.Date;
+import java.sql.SQLException;
+
+/**
+ * Answers show_appointments.
+ *
+ * Appointments are listed by date and then appointment id, optionally only those within a date
+ * range. They are read in keyset pages over (rtime, AppointmentID) and printed as they arrive, so
+ * a caregiver with years of history costs no more per page than a new one. Listings stop at a limit
+ * and return the cursor to continue from.
+ */
+public class AppointmentListing {
+
+    public static final int DEFAULT_LIMIT = 100;
+
+    private static final int PAGE_SIZE = 500;
+
+    /**
+     * Prints up to limit of the user's appointments from from to to (null for no bound), beginning
+     * after the cursor (null for the first one). Returns the cursor of the next page, or null if
+     * there are no more appointments.
+     */
+    public Appointment list(Role role, String username, Date from, Date to, Appointment after, int limit,
+                            PrintStream out) throws SQLException {
+        SchedulerRepository repository = Repositories.get();
+        // patients see the caregiver of each appointment and caregivers the patient
+        int[] printed = {0};
+        Appointment[] last = {after};
+        int remaining = limit;
+        while (remaining > 0) {
+            int page = Math.min(PAGE_SIZE, remaining);
+            int read = repository.scanAppointments(role, username, from, to, last[0], page, appointment -> {
+                out.println(appointment.getAppointmentId() + ", " + appointment.getVaccine() + ", "
+                        + appointment.getDate() + ", "
+                        + (appointment.getSlot() >= 0 ? SlotBits.formatTime(appointment.getSlot()) + ", " : "")
+                        + (role == Role.PATIENT ? appointment.getCaregiver() : appointment.getPatient()));
+                last[0] = appointment;
+                printed[0]++;
+            });
+            remaining -= read;
+            if (read < page) {
+                if (printed[0] == 0 && after == null) {
+                    out.println("No appointments scheduled!");
+                }
+                return null;
+            }
+        }
+        boolean more = repository.scanAppointments(role, username, from, to, last[0], 1, appointment -> { }) > 0;
+        return more ? last[0] : null;
+    }
+
+    public static String formatCursor(Appointment appointment) {
+        return appointment.getDate() + ":" + appointment.getAppointmentId();
+    }
+
+    /**
+     * Parses a cursor printed by {@link #formatCursor}.
+     *
+     * @throws IllegalArgumentException if it is not a valid cursor
+     */
+    public static Appointment parseCursor(String cursor) {
+        int separator = cursor.indexOf(':');
+        if (separator < 0 || separator == cursor.length() - 1) {
+            throw new IllegalArgumentException("Invalid cursor " + cursor);
+        }
+        return new Appointment(cursor.substring(separator + 1), null, null, null,
+                Date.valueOf(cursor.substring(0, separator)));
+    }
+}
@@ -0,0 +1,407 @@
+package scheduler.service;
+
+import scheduler.repository.Repositories;
+import scheduler.util.SlotBits;
+
+import java.sql.Date;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * In-process copy of the Availabilities table, keyed by epoch day.
+ *
+ * Caregiver usernames are interned to small integer ids. Each day maps to a BitSet of the ids with
+ * a free slot that day and, per id, the 96-bit set of free 15-minute slots, so checking or picking
+ * a caregiver and a slot for a date never touches the database. The index is loaded once at
+ * startup and kept current by write-through from every code path that adds or claims slots.
+ */
+public class AvailabilityIndex {
+
+    private static final AvailabilityIndex instance = new AvailabilityIndex();
+
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private final IntMap<Day> days = new IntMap<>();
+    private final Map<String, Integer> caregiverIds = new HashMap<>();
+    private final List<String> caregiverNames = new ArrayList<>();
+    // spreads concurrent picks for the same day across different caregivers
+    private final AtomicInteger pickCursor = new AtomicInteger();
+    private volatile boolean loaded = false;
+    private final List<Listener> listeners = new CopyOnWriteArrayList<>();
+
+    /**
+     * Told about slots as they are added, and when the whole index is replaced.
+     */
+    public interface Listener {
+        void added(int day, String caregiver);
+
+        void reloaded();
+    }
+
+    public static AvailabilityIndex getInstance() {
+        return instance;
+    }
+
+    public void addListener(Listener listener) {
+        listeners.add(listener);
+    }
+
+    public static int epochDay(Date d) {
+        return (int) d.toLocalDate().toEpochDay();
+    }
+
+    /**
+     * Replaces the contents of the index with the current Availabilities table.
+     */
+    public void load() throws SQLException {
+        IntMap<Day> loadedDays = new IntMap<>();
+        Map<String, Integer> loadedIds = new HashMap<>();
+        List<String> loadedNames = new ArrayList<>();
+        for (AvailabilityLoader.Slot slot : Repositories.get().getAllAvailabilities()) {
+            int day = epochDay(slot.getDate());
+            String username = slot.getCaregiver();
+            Integer id = loadedIds.get(username);
+            if (id == null) {
+                id = loadedNames.size();
+                loadedIds.put(username, id);
+                loadedNames.add(username);
+            }
+            Day caregivers = loadedDays.get(day);
+            if (caregivers == null) {
+                caregivers = new Day();
+                loadedDays.put(day, caregivers);
+            }
+            caregivers.add(id, slot.getSlots());
+        }
+        lock.writeLock().lock();
+        try {
+            days.clear();
+            days.putAll(loadedDays);
+            caregiverIds.clear();
+            caregiverIds.putAll(loadedIds);
+            caregiverNames.clear();
+            caregiverNames.addAll(loadedNames);
+            loaded = true;
+        } finally {
+            lock.writeLock().unlock();
+        }
+        for (Listener listener : listeners) {
+            listener.reloaded();
+        }
+    }
+
+    /**
+     * Whether the index has been loaded; until then callers should go to the database.
+     */
+    public boolean isLoaded() {
+        return loaded;
+    }
+
+    public void add(Date d, String caregiver, SlotBits slots) {
+        add(epochDay(d), caregiver, slots);
+    }
+
+    /**
+     * Adds free slots to the caregiver's day.
+     */
+    public void add(int day, String caregiver, SlotBits slots) {
+        if (slots.isEmpty()) {
+            return;
+        }
+        lock.writeLock().lock();
+        try {
+            Integer id = caregiverIds.get(caregiver);
+            if (id == null) {
+                id = caregiverNames.size();
+                caregiverIds.put(caregiver, id);
+                caregiverNames.add(caregiver);
+            }
+            Day caregivers = days.get(day);
+            if (caregivers == null) {
+                caregivers = new Day();
+                days.put(day, caregivers);
+            }
+            caregivers.add(id, slots);
+        } finally {
+            lock.writeLock().unlock();
+        }
+        for (Listener listener : listeners) {
+            listener.added(day, caregiver);
+        }
+    }
+
+    /**
+     * Takes one slot of the caregiver's day.
+     */
+    public void remove(int day, String caregiver, int slot) {
+        lock.writeLock().lock();
+        try {
+            Integer id = caregiverIds.get(caregiver);
+            Day caregivers = days.get(day);
+            if (id == null || caregivers == null) {
+                return;
+            }
+            caregivers.remove(id, SlotBits.single(slot));
+            if (caregivers.isEmpty()) {
+                days.remove(day);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Removes all of the caregiver's slots on the day.
+     */
+    public void remove(int day, String caregiver) {
+        lock.writeLock().lock();
+        try {
+            Integer id = caregiverIds.get(caregiver);
+            Day caregivers = days.get(day);
+            if (id == null || caregivers == null) {
+                return;
+            }
+            caregivers.remove(id, SlotBits.ALL);
+            if (caregivers.isEmpty()) {
+                days.remove(day);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public void removeDay(int day) {
+        lock.writeLock().lock();
+        try {
+            days.remove(day);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public boolean isAvailable(int day) {
+        lock.readLock().lock();
+        try {
+            Day caregivers = days.get(day);
+            return caregivers != null && !caregivers.isEmpty();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Whether the caregiver has any free slot on the day.
+     */
+    public boolean isAvailable(int day, String caregiver) {
+        return !getSlots(day, caregiver).isEmpty();
+    }
+
+    public boolean isAvailable(int day, String caregiver, int slot) {
+        return getSlots(day, caregiver).contains(slot);
+    }
+
+    /**
+     * Returns the caregiver's free slots on the day.
+     */
+    public SlotBits getSlots(int day, String caregiver) {
+        lock.readLock().lock();
+        try {
+            Integer id = caregiverIds.get(caregiver);
+            Day caregivers = days.get(day);
+            if (id == null || caregivers == null) {
+                return SlotBits.NONE;
+            }
+            SlotBits slots = caregivers.slots.get(id);
+            return slots == null ? SlotBits.NONE : slots;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Returns some caregiver available on the day, or null if there is none. Successive calls rotate
+     * through the day's caregivers so that concurrent reservations do not all race for the same row.
+     */
+    public String pickCaregiver(int day) {
+        lock.readLock().lock();
+        try {
+            Day available = days.get(day);
+            if (available == null || available.isEmpty()) {
+                return null;
+            }
+            BitSet caregivers = available.caregivers;
+            int start = Math.floorMod(pickCursor.getAndIncrement(), Math.max(1, caregivers.length()));
+            int id = caregivers.nextSetBit(start);
+            if (id < 0) {
+                id = caregivers.nextSetBit(0);
+            }
+            return caregiverNames.get(id);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Returns the caregivers with a free slot on the day, in the order they were first seen.
+     */
+    public List<String> getCaregivers(int day) {
+        lock.readLock().lock();
+        try {
+            List<String> result = new ArrayList<>();
+            Day caregivers = days.get(day);
+            if (caregivers != null) {
+                for (int id = caregivers.caregivers.nextSetBit(0); id >= 0; id = caregivers.caregivers.nextSetBit(id + 1)) {
+                    result.add(caregiverNames.get(id));
+                }
+            }
+            return result;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // the caregivers with free slots on one day, and their slots
+    private static class Day {
+        private final BitSet caregivers = new BitSet();
+        private final IntMap<SlotBits> slots = new IntMap<>();
+
+        private void add(int id, SlotBits added) {
+            SlotBits current = slots.get(id);
+            slots.put(id, current == null ? added : current.or(added));
+            caregivers.set(id);
+        }
+
+        private void remove(int id, SlotBits removed) {
+            SlotBits current = slots.get(id);
+            if (current == null) {
+                return;
+            }
+            SlotBits left = current.andNot(removed);
+            if (left.isEmpty()) {
+                slots.remove(id);
+                caregivers.clear(id);
+            } else {
+                slots.put(id, left);
+            }
+        }
+
+        private boolean isEmpty() {
+            return caregivers.isEmpty();
+        }
+    }
+
+    /**
+     * Open-addressing hash map from primitive int keys, so day lookups do not box.
+     */
+    static class IntMap<V> {
+        private static final int EMPTY = Integer.MIN_VALUE;
+
+        private int[] keys;
+        private Object[] values;
+        private int size;
+
+        IntMap() {
+            clear();
+        }
+
+        @SuppressWarnings("unchecked")
+        V get(int key) {
+            int mask = keys.length - 1;
+            for (int i = mix(key) & mask; keys[i] != EMPTY; i = (i + 1) & mask) {
+                if (keys[i] == key) {
+                    return (V) values[i];
+                }
+            }
+            return null;
+        }
+
+        void put(int key, V value) {
+            if ((size + 1) * 2 > keys.length) {
+                resize(keys.length * 2);
+            }
+            int mask = keys.length - 1;
+            int i = mix(key) & mask;
+            while (keys[i] != EMPTY && keys[i] != key) {
+                i = (i + 1) & mask;
+            }
+            if (keys[i] == EMPTY) {
+                keys[i] = key;
+                size++;
+            }
+            values[i] = value;
+        }
+
+        void remove(int key) {
+            int mask = keys.length - 1;
+            int i = mix(key) & mask;
+            while (keys[i] != key) {
+                if (keys[i] == EMPTY) {
+                    return;
+                }
+                i = (i + 1) & mask;
+            }
+            keys[i] = EMPTY;
+            values[i] = null;
+            size--;
+            // re-insert the rest of the probe run so later lookups do not stop at the new hole
+            for (int j = (i + 1) & mask; keys[j] != EMPTY; j = (j + 1) & mask) {
+                int k = keys[j];
+                Object v = values[j];
+                keys[j] = EMPTY;
+                values[j] = null;
+                size--;
+                @SuppressWarnings("unchecked")
+                V value = (V) v;
+                put(k, value);
+            }
+        }
+
+        @SuppressWarnings("unchecked")
+        void putAll(IntMap<V> other) {
+            for (int i = 0; i < other.keys.length; i++) {
+                if (other.keys[i] != EMPTY) {
+                    put(other.keys[i], (V) other.values[i]);
+                }
+            }
+        }
+
+        void clear() {
+            keys = new int[16];
+            Arrays.fill(keys, EMPTY);
+            values = new Object[16];
+            size = 0;
+        }
+
+        int size() {
+            return size;
+        }
+
+        @SuppressWarnings("unchecked")
+        private void resize(int capacity) {
+            int[] oldKeys = keys;
+            Object[] oldValues = values;
+            keys = new int[capacity];
+            Arrays.fill(keys, EMPTY);
+            values = new Object[capacity];
+            size = 0;
+            for (int i = 0; i < oldKeys.length; i++) {
+                if (oldKeys[i] != EMPTY) {
+                    put(oldKeys[i], (V) oldValues[i]);
+                }
+            }
+        }
+
+        private static int mix(int key) {
+            int h = key * 0x9E3779B9;
+            return h ^ (h >>> 16);
+        }
+    }
+}
@@ -0,0 +1,118 @@
+package scheduler.service;
+
+import scheduler.repository.Repositories;
+import scheduler.util.SlotBits;
+
+import java.sql.Date;
+import java.sql.SQLException;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * Inserts many availability rows at once.
+ *
+ * All rows are written in one transaction; on SQL Server they are sent as multi-row
+ * MERGE ... USING (VALUES ...) statements. Each row is checked on its own: the slots are added to
+ * the caregiver's existing row for the date, and rows that add no new slot or name an unknown
+ * caregiver are skipped instead of failing the whole load. Slots that are already booked stay
+ * booked. The rows actually changed are written through to the {@link AvailabilityIndex} once the
+ * transaction commits.
+ */
+public class AvailabilityLoader {
+
+    private final AvailabilityIndex availabilityIndex;
+
+    public AvailabilityLoader() {
+        this(AvailabilityIndex.getInstance());
+    }
+
+    public AvailabilityLoader(AvailabilityIndex availabilityIndex) {
+        this.availabilityIndex = availabilityIndex;
+    }
+
+    public Result load(List<Slot> slots) throws SQLException {
+        long start = System.nanoTime();
+        List<Slot> inserted = Repositories.get().addAvailabilities(slots);
+        for (Slot slot : inserted) {
+            availabilityIndex.add(slot.getDate(), slot.getCaregiver(), slot.getSlots());
+        }
+        return new Result(slots.size(), inserted.size(), System.nanoTime() - start);
+    }
+
+    /**
+     * A caregiver's free slots on a date. Equality only looks at the caregiver and date.
+     */
+    public static class Slot {
+        private final String caregiver;
+        private final Date date;
+        private final SlotBits slots;
+
+        public Slot(String caregiver, Date date) {
+            this(caregiver, date, SlotBits.WORKING_DAY);
+        }
+
+        public Slot(String caregiver, Date date, SlotBits slots) {
+            this.caregiver = caregiver;
+            this.date = date;
+            this.slots = slots;
+        }
+
+        public String getCaregiver() {
+            return caregiver;
+        }
+
+        public Date getDate() {
+            return date;
+        }
+
+        public SlotBits getSlots() {
+            return slots;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Slot)) {
+                return false;
+            }
+            Slot other = (Slot) o;
+            return caregiver.equals(other.caregiver) && date.equals(other.date);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(caregiver, date);
+        }
+    }
+
+    public static class Result {
+        private final int requested;
+        private final int inserted;
+        private final long elapsedNanos;
+
+        private Result(int requested, int inserted, long elapsedNanos) {
+            this.requested = requested;
+            this.inserted = inserted;
+            this.elapsedNanos = elapsedNanos;
+        }
+
+        public int getRequested() {
+            return requested;
+        }
+
+        public int getInserted() {
+            return inserted;
+        }
+
+        // rows that added no new slot or named an unknown caregiver
+        public int getSkipped() {
+            return requested - inserted;
+        }
+
+        public double getRowsPerSecond() {
+            return elapsedNanos == 0 ? 0 : requested / (elapsedNanos / 1e9);
+        }
+    }
+}
@@ -0,0 +1,260 @@
+package scheduler.service;
+
+import scheduler.repository.Appointment;
+import scheduler.repository.Repositories;
+import scheduler.repository.SchedulerRepository;
+import scheduler.repository.SchedulerRepository.Role;
+import scheduler.util.SlotBits;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.sql.Date;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.UUID;
+
+/**
+ * Books a whole mass-vaccination day from a file of "patient,vaccine" lines.
+ *
+ * Instead of running reserve once per line, the day's availability and the vaccine stock are read
+ * once and every patient is given a caregiver slot and a dose in memory, in file order, until the
+ * slots or a vaccine run out. Each patient gets the earliest slot still free with any caregiver, so
+ * the day fills up from the morning across all caregivers at once. The plan is then committed with
+ * batched statements in one transaction. If the availability or stock changed in the meantime,
+ * nothing is committed and the plan is made again from fresh data.
+ *
+ * The outcome for every line is written to "<file>.results" as "patient,vaccine,status" followed by
+ * the appointment id, caregiver and time for reserved lines.
+ */
+public class BulkAllocator {
+
+    public enum Status {
+        RESERVED,
+        NO_DOSES,
+        NO_CAREGIVER,
+        UNKNOWN_PATIENT,
+        DUPLICATE,
+        INVALID
+    }
+
+    private static final int MAX_ATTEMPTS = 3;
+
+    private final AvailabilityIndex availabilityIndex;
+    private final DoseLedger doseLedger;
+    private final CaregiverAssigner assigner;
+
+    public BulkAllocator() {
+        this(AvailabilityIndex.getInstance(), DoseLedger.getInstance(), CaregiverAssigner.getInstance());
+    }
+
+    public BulkAllocator(AvailabilityIndex availabilityIndex, DoseLedger doseLedger, CaregiverAssigner assigner) {
+        this.availabilityIndex = availabilityIndex;
+        this.doseLedger = doseLedger;
+        this.assigner = assigner;
+    }
+
+    public Result allocate(Date date, String file) throws IOException, SQLException {
+        long start = System.nanoTime();
+        List<Request> requests = read(Paths.get(file));
+        SchedulerRepository repository = Repositories.get();
+
+        Set<String> patients = new HashSet<>();
+        for (Request request : requests) {
+            if (request.status == null) {
+                patients.add(request.patient);
+            }
+        }
+        Set<String> existing = repository.existingUsers(Role.PATIENT, patients);
+        Set<String> seen = new HashSet<>();
+        List<Request> valid = new ArrayList<>();
+        for (Request request : requests) {
+            if (request.status != null) {
+                continue;
+            }
+            if (!existing.contains(request.patient)) {
+                request.status = Status.UNKNOWN_PATIENT;
+            } else if (!seen.add(request.patient)) {
+                request.status = Status.DUPLICATE;
+            } else {
+                valid.add(request);
+            }
+        }
+
+        boolean committed = false;
+        for (int attempt = 0; attempt < MAX_ATTEMPTS && !committed; attempt++) {
+            committed = tryCommit(repository, date, valid);
+        }
+        if (!committed) {
+            throw new SQLException("Availability or stock kept changing during the bulk reservation");
+        }
+
+        Result result = new Result(Paths.get(file + ".results"));
+        writeResults(result.resultsFile, requests);
+        for (Request request : requests) {
+            result.counts.merge(request.status, 1, Integer::sum);
+        }
+        result.elapsedNanos = System.nanoTime() - start;
+        return result;
+    }
+
+    // Plans the requests against fresh availability and stock and commits the plan. Returns false
+    // if the data changed before the commit.
+    private boolean tryCommit(SchedulerRepository repository, Date date, List<Request> requests) throws SQLException {
+        boolean fromLedger = doseLedger.isLoaded();
+        // caregivers by their earliest slot not planned yet, then by username
+        PriorityQueue<Free> caregivers = new PriorityQueue<>(
+                Comparator.comparingInt((Free f) -> f.slots.first()).thenComparingInt(f -> f.order));
+        int order = 0;
+        for (Map.Entry<String, SlotBits> entry : repository.getAvailability(date).entrySet()) {
+            caregivers.add(new Free(entry.getKey(), entry.getValue(), order++));
+        }
+        Map<String, Integer> stock = fromLedger ? new HashMap<>() : repository.getAllDoses();
+        Map<String, Integer> needed = new LinkedHashMap<>();
+        List<Appointment> appointments = new ArrayList<>();
+        for (Request request : requests) {
+            String vaccine = request.vaccine;
+            if (fromLedger && !stock.containsKey(vaccine)) {
+                stock.put(vaccine, Math.max(0, doseLedger.getAvailable(vaccine)));
+            }
+            request.appointment = null;
+            if (stock.getOrDefault(vaccine, 0) <= 0) {
+                request.status = Status.NO_DOSES;
+            } else if (caregivers.isEmpty()) {
+                request.status = Status.NO_CAREGIVER;
+            } else {
+                stock.merge(vaccine, -1, Integer::sum);
+                needed.merge(vaccine, 1, Integer::sum);
+                Free free = caregivers.poll();
+                int slot = free.slots.first();
+                request.appointment = new Appointment(UUID.randomUUID().toString(), vaccine, request.patient,
+                        free.caregiver, date, slot);
+                if (free.slots.count() > 1) {
+                    caregivers.add(new Free(free.caregiver, free.slots.without(slot), free.order));
+                }
+                request.status = Status.RESERVED;
+                appointments.add(request.appointment);
+            }
+        }
+
+        Map<String, Integer> taken = new HashMap<>();
+        boolean committed = false;
+        try {
+            if (fromLedger) {
+                for (Map.Entry<String, Integer> entry : needed.entrySet()) {
+                    if (!doseLedger.tryReserve(entry.getKey(), entry.getValue())) {
+                        return false;
+                    }
+                    taken.put(entry.getKey(), entry.getValue());
+                }
+            }
+            committed = repository.reserveAll(appointments, !fromLedger);
+        } finally {
+            if (!committed) {
+                for (Map.Entry<String, Integer> entry : taken.entrySet()) {
+                    doseLedger.release(entry.getKey(), entry.getValue());
+                }
+            }
+        }
+        if (committed) {
+            int day = AvailabilityIndex.epochDay(date);
+            for (Appointment appointment : appointments) {
+                availabilityIndex.remove(day, appointment.getCaregiver(), appointment.getSlot());
+                assigner.assigned(day, appointment.getCaregiver(), appointment.getPatient());
+            }
+        }
+        return committed;
+    }
+
+    private static List<Request> read(Path path) throws IOException {
+        List<Request> requests = new ArrayList<>();
+        try (BufferedReader reader = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.isBlank()) {
+                    continue;
+                }
+                String[] fields = line.split(",");
+                if (fields.length != 2 || fields[0].isBlank() || fields[1].isBlank()) {
+                    Request request = new Request(line.trim(), "");
+                    request.status = Status.INVALID;
+                    requests.add(request);
+                } else {
+                    requests.add(new Request(fields[0].trim(), fields[1].trim()));
+                }
+            }
+        }
+        return requests;
+    }
+
+    private static void writeResults(Path resultsFile, List<Request> requests) throws IOException {
+        try (BufferedWriter writer = Files.newBufferedWriter(resultsFile, StandardCharsets.UTF_8)) {
+            for (Request request : requests) {
+                writer.write(request.patient + "," + request.vaccine + "," + request.status.name().toLowerCase());
+                if (request.appointment != null) {
+                    writer.write("," + request.appointment.getAppointmentId() + "," + request.appointment.getCaregiver()
+                            + "," + SlotBits.formatTime(request.appointment.getSlot()));
+                }
+                writer.newLine();
+            }
+        }
+    }
+
+    private static class Free {
+        private final String caregiver;
+        private final SlotBits slots;
+        private final int order;
+
+        private Free(String caregiver, SlotBits slots, int order) {
+            this.caregiver = caregiver;
+            this.slots = slots;
+            this.order = order;
+        }
+    }
+
+    private static class Request {
+        private final String patient;
+        private final String vaccine;
+        private Status status;
+        private Appointment appointment;
+
+        private Request(String patient, String vaccine) {
+            this.patient = patient;
+            this.vaccine = vaccine;
+        }
+    }
+
+    public static class Result {
+        private final Path resultsFile;
+        private final Map<Status, Integer> counts = new HashMap<>();
+        private long elapsedNanos;
+
+        private Result(Path resultsFile) {
+            this.resultsFile = resultsFile;
+        }
+
+        public Path getResultsFile() {
+            return resultsFile;
+        }
+
+        public int getCount(Status status) {
+            return counts.getOrDefault(status, 0);
+        }
+
+        public double getReservationsPerSecond() {
+            return elapsedNanos == 0 ? 0 : getCount(Status.RESERVED) / (elapsedNanos / 1e9);
+        }
+    }
+}
@@ -0,0 +1,268 @@
+package scheduler.service;
+
+import scheduler.repository.Appointment;
+import scheduler.repository.Repositories;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+
+/**
+ * Chooses the caregiver for a reservation.
+ *
+ * Each date with availability has a priority queue of its caregivers, ordered by the configured
+ * {@link Strategy}, so a choice is a heap operation instead of a scan. Priorities are refreshed
+ * lazily: when the head of a queue turns out to be stale (the caregiver's priority changed or it
+ * has no free slot left), it is dropped or re-queued with its current priority and the next head is
+ * tried. A caregiver is taken out of the queue while a claim for it is in flight, so concurrent
+ * reservations for the same date go to different caregivers, and queued again once the claim is
+ * done if it still has free slots.
+ *
+ * Bookings are loaded from the Reservations table at startup and kept current by
+ * {@link #assigned} and {@link #released}; new slots arrive through the {@link AvailabilityIndex}.
+ */
+public class CaregiverAssigner implements AvailabilityIndex.Listener {
+
+    public enum Strategy {
+        // fewest appointments in the week around the date
+        LEAST_LOADED,
+        // the caregiver assigned longest ago since startup, or never
+        ROUND_ROBIN,
+        // the patient's previous caregiver if available, otherwise least loaded
+        STICKY;
+
+        static Strategy fromEnv() {
+            String value = System.getenv("AssignmentStrategy");
+            if (value == null) {
+                return LEAST_LOADED;
+            }
+            try {
+                return valueOf(value.trim().toUpperCase());
+            } catch (IllegalArgumentException e) {
+                System.out.println("Unknown AssignmentStrategy " + value + ", using least_loaded");
+                return LEAST_LOADED;
+            }
+        }
+    }
+
+    // load counts the appointments this many days before and after the date
+    private static final int LOAD_WINDOW_DAYS = 3;
+
+    private static final Comparator<Candidate> ORDER =
+            Comparator.comparingLong((Candidate c) -> c.priority).thenComparing(c -> c.caregiver);
+
+    private static final CaregiverAssigner instance =
+            new CaregiverAssigner(AvailabilityIndex.getInstance(), Strategy.fromEnv());
+
+    private final AvailabilityIndex availabilityIndex;
+    private final Strategy strategy;
+    private final Map<Integer, DayQueue> queues = new HashMap<>();
+    // caregiver -> epoch day -> appointments that day
+    private final Map<String, Map<Integer, Integer>> bookings = new HashMap<>();
+    // caregiver -> sequence number of its last assignment
+    private final Map<String, Long> lastAssigned = new HashMap<>();
+    // patient -> caregiver of the latest appointment
+    private final Map<String, String> lastCaregiver = new HashMap<>();
+    private long sequence = 0;
+
+    public static CaregiverAssigner getInstance() {
+        return instance;
+    }
+
+    public CaregiverAssigner(AvailabilityIndex availabilityIndex, Strategy strategy) {
+        this.availabilityIndex = availabilityIndex;
+        this.strategy = strategy;
+        availabilityIndex.addListener(this);
+    }
+
+    public Strategy getStrategy() {
+        return strategy;
+    }
+
+    /**
+     * Replaces the booking history with the current Reservations table.
+     */
+    public void load() throws SQLException {
+        Map<String, Map<Integer, Integer>> loadedBookings = new HashMap<>();
+        Map<String, Appointment> latest = new HashMap<>();
+        for (Appointment appointment : Repositories.get().getAllAppointments()) {
+            int day = AvailabilityIndex.epochDay(appointment.getDate());
+            loadedBookings.computeIfAbsent(appointment.getCaregiver(), c -> new HashMap<>())
+                    .merge(day, 1, Integer::sum);
+            latest.merge(appointment.getPatient(), appointment,
+                    (a, b) -> Appointment.ORDER.compare(a, b) >= 0 ? a : b);
+        }
+        synchronized (this) {
+            bookings.clear();
+            bookings.putAll(loadedBookings);
+            lastAssigned.clear();
+            lastCaregiver.clear();
+            for (Map.Entry<String, Appointment> entry : latest.entrySet()) {
+                lastCaregiver.put(entry.getKey(), entry.getValue().getCaregiver());
+            }
+            queues.clear();
+        }
+    }
+
+    /**
+     * Takes the best caregiver available on the day for the patient out of the day's queue, or
+     * returns null if there is none. The caller must report the outcome with {@link #assigned} or
+     * {@link #putBack}.
+     */
+    public synchronized String take(int day, String patient) {
+        return take(day, patient, -1);
+    }
+
+    /**
+     * Like {@link #take(int, String)}, but only caregivers with the slot free qualify, unless slot
+     * is -1. Caregivers passed over for lacking the slot stay queued.
+     */
+    public synchronized String take(int day, String patient, int slot) {
+        DayQueue queue = queue(day);
+        if (strategy == Strategy.STICKY) {
+            String previous = lastCaregiver.get(patient);
+            if (previous != null && !queue.taken.contains(previous) && isFree(day, previous, slot)) {
+                // its queue entry is dropped as stale once the slot is claimed
+                queue.taken.add(previous);
+                return previous;
+            }
+        }
+        List<Candidate> skipped = new ArrayList<>();
+        String chosen = null;
+        Candidate head;
+        while (chosen == null && (head = queue.heap.poll()) != null) {
+            if (queue.taken.contains(head.caregiver) || !availabilityIndex.isAvailable(day, head.caregiver)) {
+                continue;
+            }
+            long current = priority(day, head.caregiver);
+            if (current != head.priority) {
+                queue.heap.offer(new Candidate(head.caregiver, current));
+                continue;
+            }
+            if (!isFree(day, head.caregiver, slot)) {
+                skipped.add(head);
+                continue;
+            }
+            queue.taken.add(head.caregiver);
+            chosen = head.caregiver;
+        }
+        queue.heap.addAll(skipped);
+        if (chosen == null && queue.taken.isEmpty() && queue.heap.isEmpty()) {
+            queues.remove(day);
+        }
+        return chosen;
+    }
+
+    /**
+     * Returns a caregiver from {@link #take} whose claim did not go through to the day's queue, if
+     * the slot is still available.
+     */
+    public synchronized void putBack(int day, String caregiver) {
+        DayQueue queue = queues.get(day);
+        if (queue != null && queue.taken.remove(caregiver)) {
+            offer(day, caregiver);
+        }
+    }
+
+    /**
+     * Records an appointment booked with the caregiver.
+     */
+    public synchronized void assigned(int day, String caregiver, String patient) {
+        bookings.computeIfAbsent(caregiver, c -> new HashMap<>()).merge(day, 1, Integer::sum);
+        lastAssigned.put(caregiver, ++sequence);
+        lastCaregiver.put(patient, caregiver);
+        DayQueue queue = queues.get(day);
+        if (queue != null && queue.taken.remove(caregiver)) {
+            offer(day, caregiver);
+        }
+    }
+
+    /**
+     * Records that an appointment with the caregiver was cancelled. Its load goes down, so it is
+     * queued again with the lower priority on the days around the appointment.
+     */
+    public synchronized void released(int day, String caregiver) {
+        Map<Integer, Integer> days = bookings.get(caregiver);
+        if (days == null || !days.containsKey(day)) {
+            return;
+        }
+        if (days.merge(day, -1, Integer::sum) <= 0) {
+            days.remove(day);
+        }
+        for (int d = day - LOAD_WINDOW_DAYS; d <= day + LOAD_WINDOW_DAYS; d++) {
+            offer(d, caregiver);
+        }
+    }
+
+    @Override
+    public synchronized void added(int day, String caregiver) {
+        offer(day, caregiver);
+    }
+
+    @Override
+    public synchronized void reloaded() {
+        queues.clear();
+    }
+
+    private DayQueue queue(int day) {
+        DayQueue queue = queues.get(day);
+        if (queue == null) {
+            queue = new DayQueue();
+            for (String caregiver : availabilityIndex.getCaregivers(day)) {
+                queue.heap.offer(new Candidate(caregiver, priority(day, caregiver)));
+            }
+            queues.put(day, queue);
+        }
+        return queue;
+    }
+
+    // queues the caregiver for a day that already has a queue; stale duplicates are dropped by take
+    private void offer(int day, String caregiver) {
+        DayQueue queue = queues.get(day);
+        if (queue != null && availabilityIndex.isAvailable(day, caregiver)) {
+            queue.heap.offer(new Candidate(caregiver, priority(day, caregiver)));
+        }
+    }
+
+    private boolean isFree(int day, String caregiver, int slot) {
+        return slot < 0 ? availabilityIndex.isAvailable(day, caregiver)
+                : availabilityIndex.isAvailable(day, caregiver, slot);
+    }
+
+    private long priority(int day, String caregiver) {
+        if (strategy == Strategy.ROUND_ROBIN) {
+            return lastAssigned.getOrDefault(caregiver, 0L);
+        }
+        Map<Integer, Integer> days = bookings.get(caregiver);
+        if (days == null) {
+            return 0;
+        }
+        long load = 0;
+        for (int d = day - LOAD_WINDOW_DAYS; d <= day + LOAD_WINDOW_DAYS; d++) {
+            load += days.getOrDefault(d, 0);
+        }
+        return load;
+    }
+
+    private static class DayQueue {
+        private final PriorityQueue<Candidate> heap = new PriorityQueue<>(ORDER);
+        // caregivers handed out by take whose claim has not finished yet
+        private final Set<String> taken = new HashSet<>();
+    }
+
+    private static class Candidate {
+        private final String caregiver;
+        private final long priority;
+
+        private Candidate(String caregiver, long priority) {
+            this.caregiver = caregiver;
+            this.priority = priority;
+        }
+    }
+}
@@ -0,0 +1,229 @@
+package scheduler.service;
+
+import scheduler.repository.Repositories;
+
+import java.sql.SQLException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * In-memory ledger of available vaccine doses with write-behind to the Vaccines table.
+ *
+ * Each vaccine has one atomic cell packing the available count together with the delta that has
+ * not been written to the database yet, so reserving a dose is a single compare-and-set and never
+ * waits on a round trip. A background task periodically drains the deltas and applies them as a
+ * batch of relative updates ({@code Doses = Doses + ?}). If a flush fails, the deltas are put back
+ * and the available counts are reconciled against the table.
+ *
+ * The ledger assumes it is the only writer of Vaccines.Doses while it is loaded.
+ */
+public class DoseLedger {
+
+    private static final DoseLedger instance = new DoseLedger();
+
+    private final Map<String, Cell> cells = new ConcurrentHashMap<>();
+    private volatile boolean loaded = false;
+    private ScheduledExecutorService flusher = null;
+
+    public static DoseLedger getInstance() {
+        return instance;
+    }
+
+    /**
+     * Loads the current stock from the Vaccines table and starts flushing every interval.
+     */
+    public synchronized void start(long flushIntervalMillis) throws SQLException {
+        reconcile();
+        loaded = true;
+        if (flusher == null) {
+            flusher = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread t = new Thread(r, "dose-ledger-flusher");
+                t.setDaemon(true);
+                return t;
+            });
+            flusher.scheduleWithFixedDelay(this::flushQuietly, flushIntervalMillis, flushIntervalMillis,
+                    TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Stops the background flusher and writes out whatever is still pending.
+     */
+    public synchronized void stop() throws SQLException {
+        if (flusher != null) {
+            flusher.shutdown();
+            flusher = null;
+        }
+        flush();
+    }
+
+    public boolean isLoaded() {
+        return loaded;
+    }
+
+    public boolean contains(String vaccine) {
+        return cells.containsKey(vaccine);
+    }
+
+    /**
+     * Returns the doses currently available in memory, or -1 if the vaccine is unknown.
+     */
+    public int getAvailable(String vaccine) {
+        Cell cell = cells.get(vaccine);
+        return cell == null ? -1 : available(cell.value.get());
+    }
+
+    /**
+     * Registers a vaccine whose row (with the given doses) has just been written to the database.
+     */
+    public void register(String vaccine, int doses) {
+        if (!loaded) {
+            return;
+        }
+        cells.putIfAbsent(vaccine, new Cell(doses));
+    }
+
+    /**
+     * Takes num doses if that many are available. Returns false without changing anything otherwise.
+     */
+    public boolean tryReserve(String vaccine, int num) {
+        Cell cell = cells.get(vaccine);
+        if (cell == null) {
+            return false;
+        }
+        while (true) {
+            long current = cell.value.get();
+            int available = available(current);
+            if (available < num) {
+                return false;
+            }
+            if (cell.value.compareAndSet(current, pack(available - num, pending(current) - num))) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Adds num doses to the stock, for new shipments and for doses handed back by failed claims.
+     */
+    public void add(String vaccine, int num) {
+        Cell cell = cells.get(vaccine);
+        if (cell == null) {
+            throw new IllegalArgumentException("Unknown vaccine " + vaccine);
+        }
+        while (true) {
+            long current = cell.value.get();
+            if (cell.value.compareAndSet(current, pack(available(current) + num, pending(current) + num))) {
+                return;
+            }
+        }
+    }
+
+    public void release(String vaccine, int num) {
+        add(vaccine, num);
+    }
+
+    /**
+     * Writes all pending deltas to the Vaccines table in one batch. On failure the deltas are kept
+     * for the next flush and the in-memory stock is reconciled with the table.
+     */
+    public synchronized void flush() throws SQLException {
+        Map<String, Integer> deltas = new LinkedHashMap<>();
+        for (Map.Entry<String, Cell> entry : cells.entrySet()) {
+            int delta = entry.getValue().drain();
+            if (delta != 0) {
+                deltas.put(entry.getKey(), delta);
+            }
+        }
+        if (deltas.isEmpty()) {
+            return;
+        }
+        try {
+            Repositories.get().applyDoseDeltas(deltas);
+        } catch (SQLException e) {
+            for (Map.Entry<String, Integer> entry : deltas.entrySet()) {
+                cells.get(entry.getKey()).restore(entry.getValue());
+            }
+            try {
+                reconcile();
+            } catch (SQLException reconcileFailure) {
+                e.addSuppressed(reconcileFailure);
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Resets every available count to the table's value plus the deltas that have not reached it yet.
+     */
+    public synchronized void reconcile() throws SQLException {
+        for (Map.Entry<String, Integer> entry : Repositories.get().getAllDoses().entrySet()) {
+            int doses = entry.getValue();
+            Cell cell = cells.computeIfAbsent(entry.getKey(), n -> new Cell(doses));
+            cell.reconcile(doses);
+        }
+    }
+
+    private void flushQuietly() {
+        try {
+            flush();
+        } catch (SQLException e) {
+            System.out.println("Error occurred when flushing doses, will retry");
+            e.printStackTrace();
+        }
+    }
+
+    private static long pack(int available, int pending) {
+        return ((long) available << 32) | (pending & 0xFFFFFFFFL);
+    }
+
+    private static int available(long value) {
+        return (int) (value >> 32);
+    }
+
+    private static int pending(long value) {
+        return (int) value;
+    }
+
+    // available doses in the high half, unflushed delta in the low half, updated together
+    private static class Cell {
+        private final AtomicLong value;
+
+        private Cell(int available) {
+            this.value = new AtomicLong(pack(available, 0));
+        }
+
+        private int drain() {
+            while (true) {
+                long current = value.get();
+                if (value.compareAndSet(current, pack(available(current), 0))) {
+                    return pending(current);
+                }
+            }
+        }
+
+        private void restore(int delta) {
+            while (true) {
+                long current = value.get();
+                if (value.compareAndSet(current, pack(available(current), pending(current) + delta))) {
+                    return;
+                }
+            }
+        }
+
+        private void reconcile(int doses) {
+            while (true) {
+                long current = value.get();
+                int pending = pending(current);
+                if (value.compareAndSet(current, pack(doses + pending, pending))) {
+                    return;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,137 @@
+package scheduler.service;
+
+import scheduler.metrics.DedupeStats;
+import scheduler.service.ReservationEngine.Reservation;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Bounded cache of the reservations made with a request key, so a client that retries a timed-out
+ * reserve gets the original appointment back without a database round trip.
+ *
+ * Entries are kept in access order and the least recently used one is evicted once there are
+ * DedupeCacheSize (default 10000) of them; an entry older than DedupeTtlSeconds (default 600) is
+ * dropped when it is next looked up. The cache is only a shortcut: the key is stored with the
+ * reservation under a unique index, so a retry that misses the cache is still answered from the
+ * database. Cancelled appointments are forgotten so their keys can be used again.
+ *
+ * Hits are published over JMX as scheduler:type=Dedupe,name=reserve.
+ */
+public class ReservationDedupe {
+
+    private static final ReservationDedupe instance = new ReservationDedupe(intEnv("DedupeCacheSize", 10_000),
+            1000L * intEnv("DedupeTtlSeconds", 600));
+
+    private final int capacity;
+    private final long ttlNanos;
+    // patient + "\n" + request key -> reservation, least recently used first
+    private final LinkedHashMap<String, Cached> entries;
+    // appointment id -> its key in entries
+    private final Map<String, String> keysByAppointment = new HashMap<>();
+    private final DedupeStats stats;
+
+    public static ReservationDedupe getInstance() {
+        return instance;
+    }
+
+    public ReservationDedupe(int capacity, long ttlMillis) {
+        this.capacity = capacity;
+        this.ttlNanos = ttlMillis * 1_000_000L;
+        this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Cached> eldest) {
+                if (size() <= ReservationDedupe.this.capacity) {
+                    return false;
+                }
+                keysByAppointment.remove(eldest.getValue().reservation.getAppointmentId());
+                stats.evicted();
+                return true;
+            }
+        };
+        this.stats = DedupeStats.register("reserve", this::size);
+    }
+
+    /**
+     * Returns the reservation the patient made with the key, or null if it is not cached.
+     */
+    public synchronized Reservation get(String patient, String requestKey) {
+        String key = key(patient, requestKey);
+        Cached entry = entries.get(key);
+        if (entry != null && System.nanoTime() - entry.cachedAt > ttlNanos) {
+            remove(key);
+            stats.expired();
+            entry = null;
+        }
+        stats.lookup(entry != null);
+        return entry == null ? null : entry.reservation;
+    }
+
+    /**
+     * Caches a reservation made with the key. found tells whether it was a retry answered from the
+     * database rather than a new reservation.
+     */
+    public synchronized void put(String requestKey, Reservation reservation, boolean found) {
+        if (found) {
+            stats.storeHit();
+        }
+        if (capacity <= 0) {
+            return;
+        }
+        String key = key(reservation.getPatient(), requestKey);
+        remove(key);
+        entries.put(key, new Cached(reservation, System.nanoTime()));
+        keysByAppointment.put(reservation.getAppointmentId(), key);
+    }
+
+    /**
+     * Drops the cached reservations for the appointments, e.g. after they were cancelled.
+     */
+    public synchronized void forget(Collection<String> appointmentIds) {
+        for (String appointmentId : appointmentIds) {
+            String key = keysByAppointment.remove(appointmentId);
+            if (key != null) {
+                entries.remove(key);
+            }
+        }
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    private void remove(String key) {
+        Cached entry = entries.remove(key);
+        if (entry != null) {
+            keysByAppointment.remove(entry.reservation.getAppointmentId());
+        }
+    }
+
+    private static String key(String patient, String requestKey) {
+        return patient + "\n" + requestKey;
+    }
+
+    private static int intEnv(String name, int defaultValue) {
+        String value = System.getenv(name);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return Integer.parseInt(value.trim());
+        } catch (NumberFormatException e) {
+            return defaultValue;
+        }
+    }
+
+    private static final class Cached {
+        private final Reservation reservation;
+        private final long cachedAt;
+
+        private Cached(Reservation reservation, long cachedAt) {
+            this.reservation = reservation;
+            this.cachedAt = cachedAt;
+        }
+    }
+}
@@ -0,0 +1,275 @@
+package scheduler.service;
+
+import scheduler.repository.Appointment;
+import scheduler.repository.Repositories;
+import scheduler.repository.SchedulerRepository;
+import scheduler.util.SlotBits;
+
+import java.sql.Date;
+import java.sql.SQLException;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Books appointments as a single atomic transaction in one round trip.
+ *
+ * The repository's reserve (on SQL Server, one T-SQL batch) decrements the vaccine stock only if a
+ * dose is left, clears the chosen caregiver's bit for the 15-minute slot only if it is still set,
+ * and inserts the reservation. If any step finds nothing to take, the whole transaction is rolled
+ * back, so concurrent reservations can neither lose dose updates nor book the same caregiver slot
+ * twice.
+ *
+ * When the {@link DoseLedger} is loaded it owns the dose count: the dose is taken from the ledger
+ * before the batch runs and handed back if no slot could be claimed.
+ *
+ * A reservation may carry a request key chosen by the client. Retrying with the same key returns
+ * the original reservation, from the {@link ReservationDedupe} cache or else from the database,
+ * instead of booking a second appointment.
+ */
+public class ReservationEngine {
+
+    public enum Outcome {
+        RESERVED,
+        NO_DOSES,
+        NO_CAREGIVER,
+        // the request key was used already; reserve returns the original reservation instead
+        DUPLICATE
+    }
+
+    // how many caregivers to try before giving up on the date
+    private static final int MAX_PICK_ATTEMPTS = 3;
+
+    private final AvailabilityIndex availabilityIndex;
+    private final DoseLedger doseLedger;
+    private final CaregiverAssigner assigner;
+    private final ReservationDedupe dedupe;
+
+    public ReservationEngine() {
+        this(AvailabilityIndex.getInstance(), DoseLedger.getInstance(), CaregiverAssigner.getInstance(),
+                ReservationDedupe.getInstance());
+    }
+
+    public ReservationEngine(AvailabilityIndex availabilityIndex, DoseLedger doseLedger, CaregiverAssigner assigner) {
+        this(availabilityIndex, doseLedger, assigner, ReservationDedupe.getInstance());
+    }
+
+    public ReservationEngine(AvailabilityIndex availabilityIndex, DoseLedger doseLedger, CaregiverAssigner assigner,
+                             ReservationDedupe dedupe) {
+        this.availabilityIndex = availabilityIndex;
+        this.doseLedger = doseLedger;
+        this.assigner = assigner;
+        this.dedupe = dedupe;
+    }
+
+    /**
+     * Reserves one dose of the vaccine with any caregiver, in the earliest slot that caregiver has
+     * free on the date.
+     */
+    public Reservation reserve(String patient, Date date, String vaccine) throws SQLException {
+        return reserve(patient, date, -1, vaccine);
+    }
+
+    /**
+     * Reserves one dose of the vaccine in the given slot (see {@link SlotBits}) on the date, or in
+     * the chosen caregiver's earliest free slot if slot is -1.
+     *
+     * Once the availability index is loaded, the caregiver is chosen in memory by the
+     * {@link CaregiverAssigner} and a date with no availability is rejected without a database
+     * round trip. Otherwise the date's availability is read and its caregivers are tried in
+     * username order. Once the dose ledger is loaded, the dose is taken from it and the batch no
+     * longer touches Vaccines.
+     */
+    public Reservation reserve(String patient, Date date, int slot, String vaccine) throws SQLException {
+        return reserve(patient, date, slot, vaccine, null);
+    }
+
+    /**
+     * Like {@link #reserve(String, Date, int, String)}, but if the patient already made a
+     * reservation with the request key, returns that reservation, whatever date and vaccine it was
+     * for, without booking anything. A null key books as usual.
+     */
+    public Reservation reserve(String patient, Date date, int slot, String vaccine, String requestKey)
+            throws SQLException {
+        if (requestKey != null) {
+            Reservation cached = dedupe.get(patient, requestKey);
+            if (cached != null) {
+                return cached;
+            }
+        }
+        Reservation reservation = book(patient, date, slot, vaccine, requestKey);
+        if (requestKey == null) {
+            return reservation;
+        }
+        if (reservation.isReserved()) {
+            dedupe.put(requestKey, reservation, false);
+            return reservation;
+        }
+        // an earlier attempt may have booked the request and so used up the capacity this one
+        // looked for, or the batch found the key taken
+        Appointment original = Repositories.get().getReservationByKey(patient, requestKey);
+        if (original == null) {
+            // cancelled since the batch found the key
+            return reservation.getOutcome() == Outcome.DUPLICATE
+                    ? new Reservation(Outcome.NO_CAREGIVER, null, null, patient, vaccine, date, -1) : reservation;
+        }
+        Reservation repeated = new Reservation(Outcome.RESERVED, original.getAppointmentId(), original.getCaregiver(),
+                patient, original.getVaccine(), original.getDate(), original.getSlot());
+        dedupe.put(requestKey, repeated, true);
+        return repeated;
+    }
+
+    private Reservation book(String patient, Date date, int slot, String vaccine, String requestKey)
+            throws SQLException {
+        boolean fromLedger = doseLedger.isLoaded();
+        if (fromLedger && !doseLedger.tryReserve(vaccine, 1)) {
+            return new Reservation(Outcome.NO_DOSES, null, null, patient, vaccine, date, -1);
+        }
+        Reservation reservation = null;
+        try {
+            if (availabilityIndex.isLoaded()) {
+                reservation = claimFromIndex(patient, date, slot, vaccine, !fromLedger, requestKey);
+            } else {
+                reservation = claimFromDatabase(patient, date, slot, vaccine, !fromLedger, requestKey);
+            }
+            return reservation;
+        } finally {
+            if (fromLedger && (reservation == null || !reservation.isReserved())) {
+                doseLedger.release(vaccine, 1);
+            }
+        }
+    }
+
+    private Reservation claimFromIndex(String patient, Date date, int slot, String vaccine, boolean checkDoses,
+                                       String requestKey) throws SQLException {
+        int day = AvailabilityIndex.epochDay(date);
+        Reservation reservation = new Reservation(Outcome.NO_CAREGIVER, null, null, patient, vaccine, date, -1);
+        for (int attempt = 0; attempt < MAX_PICK_ATTEMPTS; attempt++) {
+            String caregiver = assigner.take(day, patient, slot);
+            if (caregiver == null) {
+                return reservation;
+            }
+            int chosen = slot >= 0 ? slot : availabilityIndex.getSlots(day, caregiver).first();
+            reservation = null;
+            try {
+                if (chosen >= 0) {
+                    reservation = claim(patient, date, chosen, vaccine, caregiver, checkDoses, requestKey);
+                } else {
+                    reservation = new Reservation(Outcome.NO_CAREGIVER, null, null, patient, vaccine, date, -1);
+                }
+            } finally {
+                if (reservation == null || !reservation.isReserved()) {
+                    if (reservation != null && reservation.getOutcome() == Outcome.NO_CAREGIVER && chosen >= 0) {
+                        // the slot was claimed by someone else since it was indexed
+                        availabilityIndex.remove(day, caregiver, chosen);
+                    }
+                    assigner.putBack(day, caregiver);
+                }
+            }
+            if (reservation.getOutcome() != Outcome.NO_CAREGIVER) {
+                return reservation;
+            }
+        }
+        return reservation;
+    }
+
+    private Reservation claimFromDatabase(String patient, Date date, int slot, String vaccine, boolean checkDoses,
+                                          String requestKey) throws SQLException {
+        Reservation reservation = new Reservation(Outcome.NO_CAREGIVER, null, null, patient, vaccine, date, -1);
+        int attempts = 0;
+        for (Map.Entry<String, SlotBits> entry : Repositories.get().getAvailability(date).entrySet()) {
+            int chosen = slot >= 0 ? (entry.getValue().contains(slot) ? slot : -1) : entry.getValue().first();
+            if (chosen < 0) {
+                continue;
+            }
+            reservation = claim(patient, date, chosen, vaccine, entry.getKey(), checkDoses, requestKey);
+            if (reservation.getOutcome() != Outcome.NO_CAREGIVER || ++attempts == MAX_PICK_ATTEMPTS) {
+                return reservation;
+            }
+        }
+        return reservation;
+    }
+
+    // Claims the caregiver's slot through the repository; takes the dose from Vaccines in the same transaction if checkDoses is set.
+    private Reservation claim(String patient, Date date, int slot, String vaccine, String caregiver, boolean checkDoses,
+                              String requestKey) throws SQLException {
+        String appointmentId = UUID.randomUUID().toString();
+        SchedulerRepository.Claim claim = Repositories.get().reserve(appointmentId, patient, date, slot, vaccine,
+                caregiver, checkDoses, requestKey);
+        Reservation reservation;
+        switch (claim.getStatus()) {
+            case CLAIMED:
+                reservation = new Reservation(Outcome.RESERVED, appointmentId, claim.getCaregiver(), patient,
+                        vaccine, date, slot);
+                break;
+            case NO_DOSES:
+                reservation = new Reservation(Outcome.NO_DOSES, null, null, patient, vaccine, date, -1);
+                break;
+            case DUPLICATE:
+                reservation = new Reservation(Outcome.DUPLICATE, null, null, patient, vaccine, date, -1);
+                break;
+            default:
+                reservation = new Reservation(Outcome.NO_CAREGIVER, null, null, patient, vaccine, date, -1);
+                break;
+        }
+        if (reservation.isReserved()) {
+            int day = AvailabilityIndex.epochDay(date);
+            availabilityIndex.remove(day, caregiver, slot);
+            assigner.assigned(day, caregiver, patient);
+        }
+        return reservation;
+    }
+
+    public static class Reservation {
+        private final Outcome outcome;
+        private final String appointmentId;
+        private final String caregiver;
+        private final String patient;
+        private final String vaccine;
+        private final Date date;
+        private final int slot;
+
+        Reservation(Outcome outcome, String appointmentId, String caregiver, String patient,
+                    String vaccine, Date date, int slot) {
+            this.outcome = outcome;
+            this.appointmentId = appointmentId;
+            this.caregiver = caregiver;
+            this.patient = patient;
+            this.vaccine = vaccine;
+            this.date = date;
+            this.slot = slot;
+        }
+
+        public Outcome getOutcome() {
+            return outcome;
+        }
+
+        public boolean isReserved() {
+            return outcome == Outcome.RESERVED;
+        }
+
+        public String getAppointmentId() {
+            return appointmentId;
+        }
+
+        public String getCaregiver() {
+            return caregiver;
+        }
+
+        public String getPatient() {
+            return patient;
+        }
+
+        public String getVaccine() {
+            return vaccine;
+        }
+
+        public Date getDate() {
+            return date;
+        }
+
+        // -1 unless reserved
+        public int getSlot() {
+            return slot;
+        }
+    }
+}
@@ -0,0 +1,144 @@
+package scheduler.service;
+
+import scheduler.repository.Repositories;
+import scheduler.repository.SchedulerRepository;
+
+import java.io.PrintStream;
+import java.sql.Date;
+import java.sql.SQLException;
+import java.util.Map;
+import java.util.function.Consumer;
+
+/**
+ * Answers search_caregiver_schedule for a range of dates.
+ *
+ * The vaccine stock and the available caregivers are printed as two separate result sets instead of
+ * their cross product. Each caregiver is followed by its free hours, e.g. alice(09:00-12:00).
+ * Caregivers are read in pages with a keyset cursor over (date, caregiver), and each page is
+ * printed before the next one is read, so memory use does not grow with the number of days or
+ * caregivers in the range. When a limit is given and more caregivers remain, the search returns the
+ * cursor to continue from.
+ */
+public class ScheduleSearch {
+
+    private static final int PAGE_SIZE = 500;
+    // caregiver lines are wrapped and written out at this width
+    private static final int LINE_WIDTH = 100;
+
+    private final DoseLedger doseLedger;
+
+    public ScheduleSearch() {
+        this(DoseLedger.getInstance());
+    }
+
+    public ScheduleSearch(DoseLedger doseLedger) {
+        this.doseLedger = doseLedger;
+    }
+
+    /**
+     * Prints the stock and up to limit caregivers available from start to end, beginning after the
+     * cursor (null for the start of the range). Returns the cursor of the next page, or null if
+     * every caregiver in the range has been printed.
+     */
+    public AvailabilityLoader.Slot search(Date start, Date end, AvailabilityLoader.Slot after, int limit,
+                                          PrintStream out) throws SQLException {
+        SchedulerRepository repository = Repositories.get();
+        printStock(repository, out);
+
+        Printer printer = new Printer(out);
+        AvailabilityLoader.Slot cursor = after;
+        int remaining = limit;
+        while (remaining > 0) {
+            int page = Math.min(PAGE_SIZE, remaining);
+            int read = repository.scanAvailabilities(start, end, cursor, page, printer);
+            remaining -= read;
+            cursor = printer.last;
+            if (read < page) {
+                printer.finish(after == null);
+                return null;
+            }
+        }
+        printer.finish(after == null);
+        boolean more = repository.scanAvailabilities(start, end, cursor, 1, slot -> { }) > 0;
+        return more ? cursor : null;
+    }
+
+    private void printStock(SchedulerRepository repository, PrintStream out) throws SQLException {
+        Map<String, Integer> doses = repository.getAllDoses();
+        if (doses.isEmpty()) {
+            out.println("No vaccines in stock.");
+            return;
+        }
+        out.printf("%-20s%-10s%n", "Vaccine", "Doses");
+        for (Map.Entry<String, Integer> entry : doses.entrySet()) {
+            // the ledger may hold changes that have not been flushed to the table yet
+            int available = doseLedger.getAvailable(entry.getKey());
+            out.printf("%-20s%-10d%n", entry.getKey(), available >= 0 ? available : entry.getValue());
+        }
+        out.println();
+    }
+
+    public static String formatCursor(AvailabilityLoader.Slot slot) {
+        return slot.getDate() + ":" + slot.getCaregiver();
+    }
+
+    /**
+     * Parses a cursor printed by {@link #formatCursor}.
+     *
+     * @throws IllegalArgumentException if it is not a valid cursor
+     */
+    public static AvailabilityLoader.Slot parseCursor(String cursor) {
+        int separator = cursor.indexOf(':');
+        if (separator < 0 || separator == cursor.length() - 1) {
+            throw new IllegalArgumentException("Invalid cursor " + cursor);
+        }
+        return new AvailabilityLoader.Slot(cursor.substring(separator + 1),
+                Date.valueOf(cursor.substring(0, separator)));
+    }
+
+    // Prints caregivers one date per line, wrapping long lines, as the rows stream in.
+    private static class Printer implements Consumer<AvailabilityLoader.Slot> {
+        private final PrintStream out;
+        private final StringBuilder line = new StringBuilder();
+        private AvailabilityLoader.Slot last = null;
+        private int printed = 0;
+
+        private Printer(PrintStream out) {
+            this.out = out;
+        }
+
+        @Override
+        public void accept(AvailabilityLoader.Slot slot) {
+            String entry = slot.getCaregiver() + "(" + slot.getSlots() + ")";
+            if (printed == 0) {
+                out.printf("%-12s%s%n", "Date", "Caregivers");
+            }
+            if (last == null || !last.getDate().equals(slot.getDate())) {
+                flush();
+                line.append(String.format("%-12s", slot.getDate()));
+            } else if (line.length() + entry.length() + 1 > LINE_WIDTH) {
+                flush();
+                line.append(String.format("%-12s", ""));
+            } else {
+                line.append(' ');
+            }
+            line.append(entry);
+            last = slot;
+            printed++;
+        }
+
+        private void flush() {
+            if (line.length() > 0) {
+                out.println(line);
+                line.setLength(0);
+            }
+        }
+
+        private void finish(boolean fromStart) {
+            flush();
+            if (printed == 0 && fromStart) {
+                out.println("No available caregivers for the given dates.");
+            }
+        }
+    }
+}
@@ -0,0 +1,239 @@
+package scheduler.service;
+
+import scheduler.repository.Repositories;
+import scheduler.repository.SchedulerRepository;
+import scheduler.repository.SchedulerRepository.Role;
+import scheduler.repository.UserRecord;
+import scheduler.util.PasswordHasher;
+import scheduler.util.Util;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Bulk-creates patient and caregiver accounts from a file of "patient|caregiver,username,password"
+ * lines.
+ *
+ * The file is processed in chunks. For each chunk, usernames are checked against the store with
+ * one lookup per role, passwords are hashed in parallel on a ForkJoin pool, and the accounts are
+ * inserted together in one transaction. After every commit the number of lines
+ * done is written to a "<file>.progress" checkpoint, so a rerun after a failure resumes with the
+ * first chunk that was not committed.
+ */
+public class UserImporter {
+
+    private static final int CHUNK_SIZE = 1000;
+
+    private final ForkJoinPool hashPool;
+
+    public UserImporter() {
+        this(ForkJoinPool.commonPool());
+    }
+
+    public UserImporter(ForkJoinPool hashPool) {
+        this.hashPool = hashPool;
+    }
+
+    public Result importFile(String file, PrintStream out) throws IOException, SQLException {
+        Path path = Paths.get(file);
+        Path checkpoint = Paths.get(file + ".progress");
+        long resumeAt = readCheckpoint(checkpoint);
+        if (resumeAt > 0) {
+            out.println("Resuming after line " + resumeAt);
+        }
+
+        Result result = new Result();
+        long start = System.nanoTime();
+        Set<String> seenPatients = new HashSet<>();
+        Set<String> seenCaregivers = new HashSet<>();
+        long lineNumber = 0;
+        try (BufferedReader reader = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
+            List<Account> chunk = new ArrayList<>(CHUNK_SIZE);
+            String line;
+            while ((line = reader.readLine()) != null) {
+                lineNumber++;
+                if (lineNumber <= resumeAt || line.isBlank()) {
+                    continue;
+                }
+                Account account = Account.parse(line);
+                if (account == null) {
+                    result.invalid++;
+                } else if (!Util.isStrongPassword(account.password)) {
+                    result.weak++;
+                } else if (!(account.patient ? seenPatients : seenCaregivers).add(account.username)) {
+                    result.taken++;
+                } else {
+                    chunk.add(account);
+                }
+                if (chunk.size() == CHUNK_SIZE) {
+                    importChunk(chunk, result);
+                    writeCheckpoint(checkpoint, lineNumber);
+                    chunk.clear();
+                    printProgress(out, lineNumber, result, start);
+                }
+            }
+            importChunk(chunk, result);
+        }
+        Files.deleteIfExists(checkpoint);
+        result.elapsedNanos = System.nanoTime() - start;
+        return result;
+    }
+
+    private void importChunk(List<Account> chunk, Result result) throws SQLException {
+        if (chunk.isEmpty()) {
+            return;
+        }
+        List<Account> patients = new ArrayList<>();
+        List<Account> caregivers = new ArrayList<>();
+        for (Account account : chunk) {
+            (account.patient ? patients : caregivers).add(account);
+        }
+        SchedulerRepository repository = Repositories.get();
+        patients = withoutExisting(repository, Role.PATIENT, patients);
+        caregivers = withoutExisting(repository, Role.CAREGIVER, caregivers);
+        result.taken += chunk.size() - patients.size() - caregivers.size();
+
+        hash(patients);
+        hash(caregivers);
+
+        repository.createUsers(records(patients), records(caregivers));
+        result.created += patients.size() + caregivers.size();
+    }
+
+    // Drops accounts whose username is already taken, with one lookup for the whole list.
+    private static List<Account> withoutExisting(SchedulerRepository repository, Role role, List<Account> accounts)
+            throws SQLException {
+        if (accounts.isEmpty()) {
+            return accounts;
+        }
+        List<String> usernames = new ArrayList<>(accounts.size());
+        for (Account account : accounts) {
+            usernames.add(account.username);
+        }
+        Set<String> existing = repository.existingUsers(role, usernames);
+        List<Account> fresh = new ArrayList<>(accounts.size());
+        for (Account account : accounts) {
+            if (!existing.contains(account.username)) {
+                fresh.add(account);
+            }
+        }
+        return fresh;
+    }
+
+    private void hash(List<Account> accounts) throws SQLException {
+        PasswordHasher.Params params = PasswordHasher.current();
+        try {
+            hashPool.submit(() -> accounts.parallelStream().forEach(account -> {
+                account.salt = Util.generateSalt();
+                account.hash = Util.generateHash(account.password, account.salt, params);
+            })).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted while hashing passwords", e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+
+    private static List<UserRecord> records(List<Account> accounts) {
+        PasswordHasher.Params params = PasswordHasher.current();
+        List<UserRecord> records = new ArrayList<>(accounts.size());
+        for (Account account : accounts) {
+            records.add(new UserRecord(account.username, account.salt, account.hash, params));
+        }
+        return records;
+    }
+
+    private static long readCheckpoint(Path checkpoint) throws IOException {
+        if (!Files.exists(checkpoint)) {
+            return 0;
+        }
+        try {
+            return Long.parseLong(Files.readString(checkpoint).trim());
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    // written to a temporary file and moved into place so a crash never leaves a torn checkpoint
+    private static void writeCheckpoint(Path checkpoint, long lineNumber) throws IOException {
+        Path temp = Paths.get(checkpoint + ".tmp");
+        Files.writeString(temp, Long.toString(lineNumber));
+        Files.move(temp, checkpoint, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static void printProgress(PrintStream out, long lineNumber, Result result, long start) {
+        double seconds = (System.nanoTime() - start) / 1e9;
+        out.printf("%d lines read, %d accounts created, %.0f accounts/sec%n",
+                lineNumber, result.created, seconds == 0 ? 0 : result.created / seconds);
+    }
+
+    private static class Account {
+        private final boolean patient;
+        private final String username;
+        private final String password;
+        private byte[] salt;
+        private byte[] hash;
+
+        private Account(boolean patient, String username, String password) {
+            this.patient = patient;
+            this.username = username;
+            this.password = password;
+        }
+
+        private static Account parse(String line) {
+            String[] fields = line.split(",");
+            if (fields.length != 3) {
+                return null;
+            }
+            String type = fields[0].trim();
+            String username = fields[1].trim();
+            if (username.isEmpty() || !(type.equals("patient") || type.equals("caregiver"))) {
+                return null;
+            }
+            return new Account(type.equals("patient"), username, fields[2].trim());
+        }
+    }
+
+    public static class Result {
+        private int created;
+        private int taken;
+        private int weak;
+        private int invalid;
+        private long elapsedNanos;
+
+        public int getCreated() {
+            return created;
+        }
+
+        // usernames that already existed or appeared earlier in the file
+        public int getTaken() {
+            return taken;
+        }
+
+        public int getWeak() {
+            return weak;
+        }
+
+        public int getInvalid() {
+            return invalid;
+        }
+
+        public double getAccountsPerSecond() {
+            return elapsedNanos == 0 ? 0 : created / (elapsedNanos / 1e9);
+        }
+    }
+}
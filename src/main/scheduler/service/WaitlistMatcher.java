@@ -0,0 +1,236 @@
+package scheduler.service;
+
+import scheduler.repository.Repositories;
+import scheduler.repository.SchedulerRepository;
+import scheduler.repository.WaitlistEntry;
+import scheduler.util.SlotBits;
+
+import java.sql.Date;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Books waitlisted reservations when capacity is added.
+ *
+ * A reservation that finds no dose or no caregiver is queued in the Waitlist table. After doses
+ * or availability are added, {@link #match} walks the queue in serving order (highest priority
+ * first, then request order), sets a dose and a caregiver's earliest free slot aside for every
+ * request it can fill, and
+ * books all of them with one repository call, in one transaction. A request that cannot be filled
+ * does not block the ones behind it, since they may want another vaccine or date.
+ *
+ * Booked requests stay in the table until the patient is told: at the next login, or after the
+ * next command of a patient who is logged in to this process. Requests for unknown vaccines or
+ * past dates are not queued, and waiting requests whose date has passed are dropped once a day.
+ */
+public class WaitlistMatcher {
+
+    public enum Enqueued {
+        ADDED,
+        // the patient already has the same request waiting
+        ALREADY_WAITING,
+        UNKNOWN_VACCINE,
+        DATE_PASSED
+    }
+
+    private static final WaitlistMatcher instance = new WaitlistMatcher(AvailabilityIndex.getInstance(),
+            DoseLedger.getInstance(), CaregiverAssigner.getInstance());
+
+    private final AvailabilityIndex availabilityIndex;
+    private final DoseLedger doseLedger;
+    private final CaregiverAssigner assigner;
+    // patients booked by this process who have not been told yet
+    private final Set<String> unnotified = ConcurrentHashMap.newKeySet();
+    // requests queued by this process; read before the waitlist so a concurrent enqueue is never missed
+    private final AtomicLong enqueued = new AtomicLong();
+    // the value of enqueued when the waitlist was last found empty, so match can skip the query
+    private volatile long emptyAt = -1;
+    // the day requests for earlier dates were last dropped
+    private long expiredOn = Long.MIN_VALUE;
+
+    public static WaitlistMatcher getInstance() {
+        return instance;
+    }
+
+    public WaitlistMatcher(AvailabilityIndex availabilityIndex, DoseLedger doseLedger, CaregiverAssigner assigner) {
+        this.availabilityIndex = availabilityIndex;
+        this.doseLedger = doseLedger;
+        this.assigner = assigner;
+    }
+
+    /**
+     * Queues the patient's reservation request unless it could never be served.
+     */
+    public Enqueued enqueue(String patient, String vaccine, Date date) throws SQLException {
+        if (date.toLocalDate().isBefore(LocalDate.now())) {
+            return Enqueued.DATE_PASSED;
+        }
+        // the ledger only knows the vaccines of this process, so ask the repository about the rest
+        if (!doseLedger.contains(vaccine) && Repositories.get().getDoses(vaccine) < 0) {
+            return Enqueued.UNKNOWN_VACCINE;
+        }
+        if (Repositories.get().addToWaitlist(patient, vaccine, date) < 0) {
+            return Enqueued.ALREADY_WAITING;
+        }
+        enqueued.incrementAndGet();
+        return Enqueued.ADDED;
+    }
+
+    /**
+     * Tells the matcher that requests were queued without {@link #enqueue}, e.g. by a cancellation.
+     */
+    public void queued(int requests) {
+        if (requests > 0) {
+            enqueued.addAndGet(requests);
+        }
+    }
+
+    /**
+     * Sets the priority of the patient's waiting requests and returns how many there are.
+     */
+    public int prioritize(String patient, int priority) throws SQLException {
+        return Repositories.get().setWaitlistPriority(patient, priority);
+    }
+
+    /**
+     * Books as many waiting requests as the current doses and availability allow and returns the
+     * ones that were booked.
+     */
+    public synchronized List<WaitlistEntry> match() throws SQLException {
+        long seen = enqueued.get();
+        if (emptyAt == seen) {
+            return List.of();
+        }
+        SchedulerRepository repository = Repositories.get();
+        LocalDate today = LocalDate.now();
+        if (expiredOn != today.toEpochDay()) {
+            repository.expireWaitlist(Date.valueOf(today));
+            expiredOn = today.toEpochDay();
+        }
+        List<WaitlistEntry> queue = repository.getWaitlist();
+        if (queue.isEmpty()) {
+            emptyAt = seen;
+            return List.of();
+        }
+        boolean fromLedger = doseLedger.isLoaded();
+        boolean indexed = availabilityIndex.isLoaded();
+        Map<String, Integer> stock = fromLedger ? null : repository.getAllDoses();
+        // without the index: free slots per date and caregiver not yet handed out in this match
+        Map<Integer, Map<String, SlotBits>> free = new HashMap<>();
+        // with the index: slots handed out in this match per day:caregiver, and the caregivers with
+        // none left, kept out of the assigner's queues until the matches are booked
+        Map<String, SlotBits> handedOut = new HashMap<>();
+        Map<Integer, Set<String>> held = new HashMap<>();
+        List<WaitlistEntry> matches = new ArrayList<>();
+        for (WaitlistEntry entry : queue) {
+            String vaccine = entry.getVaccine();
+            if (fromLedger ? !doseLedger.tryReserve(vaccine, 1) : stock.getOrDefault(vaccine, 0) <= 0) {
+                continue;
+            }
+            int day = AvailabilityIndex.epochDay(entry.getDate());
+            String caregiver = null;
+            int slot = -1;
+            if (indexed) {
+                while (slot < 0 && (caregiver = assigner.take(day, entry.getPatient())) != null) {
+                    // the index only loses the slots once they are booked
+                    String key = day + ":" + caregiver;
+                    SlotBits left = availabilityIndex.getSlots(day, caregiver)
+                            .andNot(handedOut.getOrDefault(key, SlotBits.NONE));
+                    slot = left.first();
+                    if (slot >= 0) {
+                        handedOut.put(key, handedOut.getOrDefault(key, SlotBits.NONE).with(slot));
+                    }
+                    if (left.count() > 1) {
+                        assigner.putBack(day, caregiver);
+                    } else {
+                        held.computeIfAbsent(day, d -> new HashSet<>()).add(caregiver);
+                    }
+                }
+            } else {
+                Map<String, SlotBits> caregivers = free.get(day);
+                if (caregivers == null) {
+                    caregivers = repository.getAvailability(entry.getDate());
+                    free.put(day, caregivers);
+                }
+                Iterator<Map.Entry<String, SlotBits>> available = caregivers.entrySet().iterator();
+                if (available.hasNext()) {
+                    Map.Entry<String, SlotBits> first = available.next();
+                    caregiver = first.getKey();
+                    slot = first.getValue().first();
+                    if (first.getValue().count() == 1) {
+                        available.remove();
+                    } else {
+                        first.setValue(first.getValue().without(slot));
+                    }
+                }
+            }
+            if (caregiver == null) {
+                if (fromLedger) {
+                    doseLedger.release(vaccine, 1);
+                }
+                continue;
+            }
+            if (!fromLedger) {
+                stock.merge(vaccine, -1, Integer::sum);
+            }
+            matches.add(entry.booked(UUID.randomUUID().toString(), caregiver, slot));
+        }
+        List<WaitlistEntry> booked = List.of();
+        try {
+            booked = repository.bookWaitlisted(matches, !fromLedger);
+        } finally {
+            Set<Long> bookedIds = new HashSet<>();
+            for (WaitlistEntry entry : booked) {
+                bookedIds.add(entry.getRequestId());
+                int day = AvailabilityIndex.epochDay(entry.getDate());
+                availabilityIndex.remove(day, entry.getCaregiver(), entry.getSlot());
+                if (indexed) {
+                    assigner.assigned(day, entry.getCaregiver(), entry.getPatient());
+                }
+                unnotified.add(entry.getPatient());
+            }
+            for (Map.Entry<Integer, Set<String>> day : held.entrySet()) {
+                for (String caregiver : day.getValue()) {
+                    assigner.putBack(day.getKey(), caregiver);
+                }
+            }
+            for (WaitlistEntry match : matches) {
+                if (!bookedIds.contains(match.getRequestId())) {
+                    if (fromLedger) {
+                        doseLedger.release(match.getVaccine(), 1);
+                    }
+                }
+            }
+            if (booked.size() == queue.size()) {
+                emptyAt = seen;
+            }
+        }
+        return booked;
+    }
+
+    /**
+     * Returns true if this process booked a request of the patient that the patient has not been
+     * told about yet.
+     */
+    public boolean hasNotifications(String patient) {
+        return unnotified.contains(patient);
+    }
+
+    /**
+     * Returns the patient's booked requests and removes them from the waitlist.
+     */
+    public List<WaitlistEntry> takeNotifications(String patient) throws SQLException {
+        unnotified.remove(patient);
+        return Repositories.get().takeBookedWaitlist(patient);
+    }
+}
@@ -0,0 +1,250 @@
+package scheduler.util;
+
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.PBEKeySpec;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.security.spec.InvalidKeySpecException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * PBKDF2 password hashing with versioned parameters.
+ *
+ * The algorithm and iteration count used for a hash are stored next to it (HashAlgorithm and
+ * HashIterations in Patients/Caregivers), so the cost can be raised without invalidating existing
+ * accounts: rows without parameters use {@link Params#LEGACY}, and {@link #needsUpgrade(Params)}
+ * tells the login path when to re-hash with {@link #current()}. Hashes are only upgraded to a
+ * different algorithm or to more iterations, never down, so instances or restarts that calibrate a
+ * little differently do not keep rewriting credentials.
+ *
+ * SecretKeyFactory instances are cached per thread and salts come from one shared SecureRandom.
+ * {@link #verifyBounded} runs verification on a fixed-size worker pool with a bounded queue, so a
+ * login storm queues up or is rejected instead of saturating every core with hashing.
+ */
+public final class PasswordHasher {
+
+    // the Hash columns are BINARY(16)
+    public static final int KEY_LENGTH_BITS = 128;
+    public static final int SALT_LENGTH_BYTES = 16;
+
+    private static final String CURRENT_ALGORITHM = "PBKDF2WithHmacSHA256";
+    private static final int MIN_ITERATIONS = 10_000;
+    private static final int CALIBRATION_ITERATIONS = 20_000;
+    // calibrated counts are rounded down to a multiple of this, so timing noise rarely changes them
+    private static final int ITERATION_STEP = 10_000;
+
+    private static final SecureRandom random = new SecureRandom();
+    private static final ThreadLocal<Map<String, SecretKeyFactory>> factories = ThreadLocal.withInitial(HashMap::new);
+
+    private static volatile Params current = null;
+    private static volatile ThreadPoolExecutor verifyPool = null;
+
+    private PasswordHasher() {
+    }
+
+    public static final class Params {
+        // what Util.generateHash has always produced: 10 rounds and a 16-bit key
+        public static final Params LEGACY = new Params("PBKDF2WithHmacSHA1", 10, 16);
+
+        private final String algorithm;
+        private final int iterations;
+        private final int keyLengthBits;
+
+        public Params(String algorithm, int iterations) {
+            this(algorithm, iterations, KEY_LENGTH_BITS);
+        }
+
+        private Params(String algorithm, int iterations, int keyLengthBits) {
+            this.algorithm = algorithm;
+            this.iterations = iterations;
+            this.keyLengthBits = keyLengthBits;
+        }
+
+        /**
+         * Parameters as read from the HashAlgorithm/HashIterations columns; nulls mean a legacy row.
+         */
+        public static Params fromColumns(String algorithm, int iterations) {
+            if (algorithm == null || iterations <= 0
+                    || (algorithm.equals(LEGACY.algorithm) && iterations == LEGACY.iterations)) {
+                return LEGACY;
+            }
+            return new Params(algorithm, iterations);
+        }
+
+        public String getAlgorithm() {
+            return algorithm;
+        }
+
+        public int getIterations() {
+            return iterations;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Params)) {
+                return false;
+            }
+            Params other = (Params) o;
+            return iterations == other.iterations && keyLengthBits == other.keyLengthBits
+                    && algorithm.equals(other.algorithm);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(algorithm, iterations, keyLengthBits);
+        }
+
+        @Override
+        public String toString() {
+            return algorithm + "/" + iterations;
+        }
+    }
+
+    /**
+     * Parameters for new hashes. The iteration count comes from the HashIterations environment
+     * variable, or is calibrated once so that one hash takes about HashTargetMillis (default 50ms).
+     */
+    public static Params current() {
+        Params p = current;
+        if (p == null) {
+            synchronized (PasswordHasher.class) {
+                p = current;
+                if (p == null) {
+                    int configured = intEnv("HashIterations", 0);
+                    int iterations = configured > 0 ? configured : calibrate(intEnv("HashTargetMillis", 50));
+                    p = new Params(CURRENT_ALGORITHM, iterations);
+                    current = p;
+                }
+            }
+        }
+        return p;
+    }
+
+    /**
+     * Measures this machine and returns the iteration count that makes one hash take about
+     * targetMillis, rounded down to a multiple of 10000 and never less than the minimum.
+     */
+    public static int calibrate(long targetMillis) {
+        byte[] salt = generateSalt();
+        Params probe = new Params(CURRENT_ALGORITHM, CALIBRATION_ITERATIONS);
+        // the first run pays for class loading and JIT warm-up
+        hash("calibration", salt, probe);
+        long start = System.nanoTime();
+        hash("calibration", salt, probe);
+        long elapsed = Math.max(1, System.nanoTime() - start);
+        long iterations = CALIBRATION_ITERATIONS * (targetMillis * 1_000_000L) / elapsed;
+        iterations = Math.min(Integer.MAX_VALUE, iterations) / ITERATION_STEP * ITERATION_STEP;
+        return (int) Math.max(MIN_ITERATIONS, iterations);
+    }
+
+    /**
+     * Returns true if a hash made with params is weaker than {@link #current()}: another algorithm
+     * or key length, or fewer iterations.
+     */
+    public static boolean needsUpgrade(Params params) {
+        Params target = current();
+        return !params.algorithm.equals(target.algorithm) || params.keyLengthBits != target.keyLengthBits
+                || params.iterations < target.iterations;
+    }
+
+    public static byte[] generateSalt() {
+        byte[] salt = new byte[SALT_LENGTH_BYTES];
+        random.nextBytes(salt);
+        return salt;
+    }
+
+    public static byte[] hash(String password, byte[] salt, Params params) {
+        PBEKeySpec spec = new PBEKeySpec(password.toCharArray(), salt, params.iterations, params.keyLengthBits);
+        try {
+            return factory(params.algorithm).generateSecret(spec).getEncoded();
+        } catch (InvalidKeySpecException ex) {
+            throw new IllegalStateException(ex);
+        } finally {
+            spec.clearPassword();
+        }
+    }
+
+    /**
+     * Checks a password against a stored hash in constant time. Trailing zero bytes are ignored on
+     * both sides, since the BINARY(16) column pads short values with zeros.
+     */
+    public static boolean verify(String password, byte[] salt, byte[] storedHash, Params params) {
+        byte[] calculated = hash(password, salt, params);
+        return MessageDigest.isEqual(Util.trim(storedHash), Util.trim(calculated));
+    }
+
+    /**
+     * Like {@link #verify}, but runs on the bounded verification pool.
+     *
+     * @throws RejectedExecutionException if the pool's queue is full
+     */
+    public static boolean verifyBounded(String password, byte[] salt, byte[] storedHash, Params params)
+            throws InterruptedException {
+        Future<Boolean> result = verifyPool().submit(() -> verify(password, salt, storedHash, params));
+        try {
+            return result.get();
+        } catch (ExecutionException e) {
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+
+    private static SecretKeyFactory factory(String algorithm) {
+        Map<String, SecretKeyFactory> cache = factories.get();
+        SecretKeyFactory factory = cache.get(algorithm);
+        if (factory == null) {
+            try {
+                factory = SecretKeyFactory.getInstance(algorithm);
+            } catch (NoSuchAlgorithmException ex) {
+                throw new IllegalStateException(ex);
+            }
+            cache.put(algorithm, factory);
+        }
+        return factory;
+    }
+
+    private static ThreadPoolExecutor verifyPool() {
+        ThreadPoolExecutor pool = verifyPool;
+        if (pool == null) {
+            synchronized (PasswordHasher.class) {
+                pool = verifyPool;
+                if (pool == null) {
+                    int threads = intEnv("HashThreads", Runtime.getRuntime().availableProcessors());
+                    AtomicInteger count = new AtomicInteger();
+                    pool = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+                            new ArrayBlockingQueue<>(intEnv("HashQueueSize", 256)), r -> {
+                                Thread t = new Thread(r, "password-verify-" + count.incrementAndGet());
+                                t.setDaemon(true);
+                                return t;
+                            });
+                    verifyPool = pool;
+                }
+            }
+        }
+        return pool;
+    }
+
+    private static int intEnv(String name, int defaultValue) {
+        String value = System.getenv(name);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return Integer.parseInt(value.trim());
+        } catch (NumberFormatException e) {
+            return defaultValue;
+        }
+    }
+}
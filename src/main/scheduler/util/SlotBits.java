@@ -0,0 +1,214 @@
+package scheduler.util;
+
+/**
+ * A set of the 96 fifteen-minute slots of a day, as one 96-bit value.
+ *
+ * Slot i starts i * 15 minutes after midnight. Slots 0-63 are the bits of the low word and slots
+ * 64-95 the low 32 bits of the high word, which is how they are stored in the SlotsLow (bigint) and
+ * SlotsHigh (int) columns of Availabilities. Lookups are word-level bit operations. Instances are
+ * immutable.
+ */
+public final class SlotBits {
+
+    public static final int SLOTS_PER_DAY = 96;
+    public static final int MINUTES_PER_SLOT = 15;
+
+    private static final long HIGH_MASK = 0xFFFFFFFFL;
+
+    public static final SlotBits NONE = new SlotBits(0, 0);
+    public static final SlotBits ALL = range(0, SLOTS_PER_DAY);
+    // what upload_availability offers when no hours are given: 09:00 to 17:00
+    public static final SlotBits WORKING_DAY = range(36, 68);
+
+    private final long low;
+    private final long high;
+
+    private SlotBits(long low, long high) {
+        this.low = low;
+        this.high = high & HIGH_MASK;
+    }
+
+    public static SlotBits of(long low, int high) {
+        return new SlotBits(low, high);
+    }
+
+    public static SlotBits single(int slot) {
+        check(slot);
+        return slot < 64 ? new SlotBits(1L << slot, 0) : new SlotBits(0, 1L << (slot - 64));
+    }
+
+    /**
+     * The slots from from (inclusive) to to (exclusive).
+     */
+    public static SlotBits range(int from, int to) {
+        if (from < 0 || to > SLOTS_PER_DAY || from > to) {
+            throw new IllegalArgumentException("Invalid slot range " + from + "-" + to);
+        }
+        return new SlotBits(mask(Math.min(from, 64), Math.min(to, 64)),
+                mask(Math.max(from, 64) - 64, Math.max(to, 64) - 64));
+    }
+
+    /**
+     * Parses comma-separated ranges such as "09:00-12:00,13:00-17:00".
+     *
+     * @throws IllegalArgumentException if a time is not on a 15-minute boundary or a range is empty
+     */
+    public static SlotBits parse(String ranges) {
+        SlotBits slots = NONE;
+        for (String part : ranges.split(",")) {
+            String[] ends = part.trim().split("-");
+            if (ends.length != 2) {
+                throw new IllegalArgumentException("Invalid time range " + part);
+            }
+            int from = parseTime(ends[0]);
+            int to = ends[1].trim().equals("24:00") ? SLOTS_PER_DAY : parseTime(ends[1]);
+            if (to <= from) {
+                throw new IllegalArgumentException("Invalid time range " + part);
+            }
+            slots = slots.or(range(from, to));
+        }
+        return slots;
+    }
+
+    /**
+     * Returns the slot starting at a time such as "09:15".
+     *
+     * @throws IllegalArgumentException if it is not a time on a 15-minute boundary
+     */
+    public static int parseTime(String time) {
+        String[] fields = time.trim().split(":");
+        if (fields.length != 2 || fields[0].isEmpty() || fields[1].length() != 2) {
+            throw new IllegalArgumentException("Invalid time " + time);
+        }
+        int hours = Integer.parseInt(fields[0]);
+        int minutes = Integer.parseInt(fields[1]);
+        if (hours < 0 || hours > 23 || minutes < 0 || minutes > 59 || minutes % MINUTES_PER_SLOT != 0) {
+            throw new IllegalArgumentException("Invalid time " + time);
+        }
+        return (hours * 60 + minutes) / MINUTES_PER_SLOT;
+    }
+
+    /**
+     * The start of the slot as HH:MM; SLOTS_PER_DAY gives 24:00, the end of the last slot.
+     */
+    public static String formatTime(int slot) {
+        int minutes = slot * MINUTES_PER_SLOT;
+        return String.format("%02d:%02d", minutes / 60, minutes % 60);
+    }
+
+    public long getLow() {
+        return low;
+    }
+
+    public int getHigh() {
+        return (int) high;
+    }
+
+    public boolean contains(int slot) {
+        check(slot);
+        return slot < 64 ? (low & (1L << slot)) != 0 : (high & (1L << (slot - 64))) != 0;
+    }
+
+    public boolean isEmpty() {
+        return low == 0 && high == 0;
+    }
+
+    public int count() {
+        return Long.bitCount(low) + Long.bitCount(high);
+    }
+
+    public int first() {
+        return next(0);
+    }
+
+    /**
+     * Returns the first slot at or after from, or -1 if there is none.
+     */
+    public int next(int from) {
+        if (from < 64) {
+            long word = low & (-1L << Math.max(from, 0));
+            if (word != 0) {
+                return Long.numberOfTrailingZeros(word);
+            }
+            from = 64;
+        }
+        if (from < SLOTS_PER_DAY) {
+            long word = high & (-1L << (from - 64));
+            if (word != 0) {
+                return 64 + Long.numberOfTrailingZeros(word);
+            }
+        }
+        return -1;
+    }
+
+    public SlotBits with(int slot) {
+        return or(single(slot));
+    }
+
+    public SlotBits without(int slot) {
+        return andNot(single(slot));
+    }
+
+    public SlotBits or(SlotBits other) {
+        return new SlotBits(low | other.low, high | other.high);
+    }
+
+    public SlotBits and(SlotBits other) {
+        return new SlotBits(low & other.low, high & other.high);
+    }
+
+    public SlotBits andNot(SlotBits other) {
+        return new SlotBits(low & ~other.low, high & ~other.high);
+    }
+
+    /**
+     * The slots as comma-separated ranges, e.g. "09:00-12:00,13:00-17:00".
+     */
+    @Override
+    public String toString() {
+        StringBuilder ranges = new StringBuilder();
+        int start = first();
+        while (start >= 0) {
+            int end = start;
+            while (end + 1 < SLOTS_PER_DAY && contains(end + 1)) {
+                end++;
+            }
+            ranges.append(ranges.length() == 0 ? "" : ",")
+                    .append(formatTime(start)).append('-').append(formatTime(end + 1));
+            start = end + 1 < SLOTS_PER_DAY ? next(end + 1) : -1;
+        }
+        return ranges.toString();
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof SlotBits)) {
+            return false;
+        }
+        SlotBits other = (SlotBits) o;
+        return low == other.low && high == other.high;
+    }
+
+    @Override
+    public int hashCode() {
+        return Long.hashCode(low) * 31 + Long.hashCode(high);
+    }
+
+    // bits from to to - 1 of one word, 0 <= from <= to <= 64
+    private static long mask(int from, int to) {
+        if (from >= to) {
+            return 0;
+        }
+        long upTo = to == 64 ? -1L : (1L << to) - 1;
+        return upTo & (-1L << from);
+    }
+
+    private static void check(int slot) {
+        if (slot < 0 || slot >= SLOTS_PER_DAY) {
+            throw new IllegalArgumentException("Invalid slot " + slot);
+        }
+    }
+}
@@ -1,41 +1,52 @@
 package scheduler.util;
 
-import javax.crypto.SecretKeyFactory;
-import javax.crypto.spec.PBEKeySpec;
-import java.security.NoSuchAlgorithmException;
-import java.security.SecureRandom;
-import java.security.spec.InvalidKeySpecException;
-import java.security.spec.KeySpec;
 import java.util.Arrays;
 
 public class Util {
 
-    // constants for handling password
-    private static final int HASH_STRENGTH = 10;
-    private static final int KEY_LENGTH = 16;
-
     public static byte[] generateSalt() {
-        // Generate a random cryptographic salt
-        SecureRandom random = new SecureRandom();
-        byte[] salt = new byte[16];
-        random.nextBytes(salt);
-        return salt;
+        // Generate a random cryptographic salt from the shared source
+        return PasswordHasher.generateSalt();
     }
 
+    /**
+     * Hashes with the legacy parameters every account used before hash parameters were stored.
+     * New hashes should use {@link #generateHash(String, byte[], PasswordHasher.Params)} with
+     * {@link PasswordHasher#current()}.
+     */
     public static byte[] generateHash(String password, byte[] salt) {
-        // Specify the hash parameters
-        KeySpec spec = new PBEKeySpec(password.toCharArray(), salt, HASH_STRENGTH, KEY_LENGTH);
-
-        // Generate the hash
-        SecretKeyFactory factory = null;
-        byte[] hash = null;
-        try {
-            factory = SecretKeyFactory.getInstance("PBKDF2WithHmacSHA1");
-            hash = factory.generateSecret(spec).getEncoded();
-        } catch (NoSuchAlgorithmException | InvalidKeySpecException ex) {
-            throw new IllegalStateException();
+        return PasswordHasher.hash(password, salt, PasswordHasher.Params.LEGACY);
+    }
+
+    public static byte[] generateHash(String password, byte[] salt, PasswordHasher.Params params) {
+        return PasswordHasher.hash(password, salt, params);
+    }
+
+    /**
+     * A strong password is at least 8 characters long and mixes upper and lower case letters,
+     * digits and at least one of !, @, #, ?
+     */
+    public static boolean isStrongPassword(String password) {
+        if (password.length() < 8) {
+            return false;
+        }
+        boolean hasUp = false;
+        boolean hasLow = false;
+        boolean hasSpec = false;
+        boolean hasDigit = false;
+        for (int i = 0; i < password.length(); i++) {
+            char c = password.charAt(i);
+            if (c >= 'a' && c <= 'z') {
+                hasLow = true;
+            } else if (c >= 'A' && c <= 'Z') {
+                hasUp = true;
+            } else if (c >= '0' && c <= '9') {
+                hasDigit = true;
+            } else if (c == '!' || c == '@' || c == '#' || c == '?') {
+                hasSpec = true;
+            }
         }
-        return hash;
+        return hasDigit && hasLow && hasSpec && hasUp;
     }
 
     public static byte[] trim(byte[] bytes)
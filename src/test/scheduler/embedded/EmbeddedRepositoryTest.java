@@ -0,0 +1,149 @@
+package scheduler.embedded;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import scheduler.repository.SchedulerRepository.Role;
+import scheduler.repository.UserRecord;
+import scheduler.util.PasswordHasher;
+import scheduler.util.SlotBits;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.sql.Date;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * A crash is simulated by copying the storage directory while the repository that wrote it is
+ * still open, and recovering from the copy.
+ */
+class EmbeddedRepositoryTest {
+
+    private static final Date JANUARY = Date.valueOf("2030-01-15");
+    private static final Date FEBRUARY = Date.valueOf("2030-02-15");
+
+    @TempDir
+    Path dir;
+
+    private final List<EmbeddedRepository> opened = new ArrayList<>();
+
+    @AfterEach
+    void close() throws SQLException {
+        for (EmbeddedRepository repository : opened) {
+            repository.close();
+        }
+    }
+
+    @Test
+    void recoversFromTheLog() throws IOException, SQLException {
+        EmbeddedRepository repository = open(dir.resolve("live"));
+        writeJanuary(repository);
+
+        EmbeddedRepository recovered = open(crash("live", "copy"));
+        assertJanuary(recovered);
+    }
+
+    @Test
+    void recoversFromASnapshotAndTheLogAfterIt() throws IOException, SQLException {
+        EmbeddedRepository repository = open(dir.resolve("live"));
+        writeJanuary(repository);
+        repository.snapshot();
+        repository.createVaccine("moderna", 5);
+        repository.addAvailability(FEBRUARY, "carol", SlotBits.parse("13:00-15:00"));
+        assertEquals(List.of("snapshot-1.dat", "wal-1.log"), files(dir.resolve("live")));
+
+        EmbeddedRepository recovered = open(crash("live", "copy"));
+        assertJanuary(recovered);
+        assertEquals(5, recovered.getDoses("moderna"));
+        assertEquals(SlotBits.parse("13:00-15:00"), recovered.getAvailability(FEBRUARY).get("carol"));
+    }
+
+    @Test
+    void ignoresATornRecordAtTheEndOfTheLog() throws IOException, SQLException {
+        EmbeddedRepository repository = open(dir.resolve("live"));
+        writeJanuary(repository);
+        Path copy = crash("live", "copy");
+        Path log = copy.resolve("wal-0.log");
+        long end = MappedLog.replay(log, payload -> {
+        });
+        // a record header whose payload never made it to disk
+        try (FileChannel channel = FileChannel.open(log, StandardOpenOption.WRITE)) {
+            channel.write(ByteBuffer.allocate(8).putInt(100).putInt(12345).flip(), end);
+        }
+
+        EmbeddedRepository recovered = open(copy);
+        assertJanuary(recovered);
+        recovered.addDoses("pfizer", 1);
+        recovered.close();
+        opened.remove(recovered);
+        assertEquals(11, open(copy).getDoses("pfizer"));
+    }
+
+    @Test
+    void keepsWaitlistRequestIdsAfterASnapshot() throws IOException, SQLException {
+        EmbeddedRepository repository = open(dir.resolve("live"));
+        writeJanuary(repository);
+        assertEquals(1, repository.addToWaitlist("pat", "pfizer", FEBRUARY));
+        assertEquals(2, repository.addToWaitlist("pat", "pfizer", JANUARY));
+        // drops request 2, the highest id
+        assertEquals(1, repository.expireWaitlist(FEBRUARY));
+        repository.snapshot();
+
+        EmbeddedRepository recovered = open(crash("live", "copy"));
+        assertEquals(1, recovered.getWaitlist().size());
+        assertEquals(3, recovered.addToWaitlist("pat", "pfizer", Date.valueOf("2030-03-15")));
+    }
+
+    private static void writeJanuary(EmbeddedRepository repository) throws SQLException {
+        repository.createUser(Role.PATIENT, user("pat"));
+        repository.createUser(Role.CAREGIVER, user("carol"));
+        repository.createVaccine("pfizer", 10);
+        repository.addAvailability(JANUARY, "carol", SlotBits.WORKING_DAY);
+    }
+
+    private static void assertJanuary(EmbeddedRepository repository) {
+        assertTrue(repository.userExists(Role.PATIENT, "pat"));
+        assertTrue(repository.userExists(Role.CAREGIVER, "carol"));
+        assertFalse(repository.userExists(Role.PATIENT, "carol"));
+        assertEquals(10, repository.getDoses("pfizer"));
+        assertEquals(SlotBits.WORKING_DAY, repository.getAvailability(JANUARY).get("carol"));
+    }
+
+    private static UserRecord user(String username) {
+        return new UserRecord(username, new byte[16], new byte[16], PasswordHasher.Params.LEGACY);
+    }
+
+    private EmbeddedRepository open(Path storage) throws IOException {
+        EmbeddedRepository repository = EmbeddedRepository.open(storage);
+        opened.add(repository);
+        return repository;
+    }
+
+    // copies the files as they are on disk, without closing the repository that writes them
+    private Path crash(String from, String to) throws IOException {
+        Path copy = dir.resolve(to);
+        Files.createDirectories(copy);
+        for (String name : files(dir.resolve(from))) {
+            Files.copy(dir.resolve(from).resolve(name), copy.resolve(name));
+        }
+        return copy;
+    }
+
+    private static List<String> files(Path storage) throws IOException {
+        try (Stream<Path> files = Files.list(storage)) {
+            return files.map(file -> file.getFileName().toString()).sorted().collect(Collectors.toList());
+        }
+    }
+}
@@ -0,0 +1,104 @@
+package scheduler.embedded;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class MappedLogTest {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void replaysEveryIntactRecord() throws IOException {
+        Path file = dir.resolve("wal-0.log");
+        byte[] records = records("one", "two", "three");
+        // the unused tail of a log is zero-filled
+        write(file, records, new byte[64]);
+
+        List<String> replayed = new ArrayList<>();
+        assertEquals(records.length, MappedLog.replay(file, payload -> replayed.add(text(payload))));
+        assertEquals(List.of("one", "two", "three"), replayed);
+    }
+
+    @Test
+    void stopsAtATornRecord() throws IOException {
+        Path file = dir.resolve("wal-0.log");
+        byte[] intact = records("one", "two");
+        byte[] torn = MappedLog.frame("three".getBytes(StandardCharsets.UTF_8));
+        write(file, intact, Arrays.copyOf(torn, torn.length - 2));
+
+        List<String> replayed = new ArrayList<>();
+        assertEquals(intact.length, MappedLog.replay(file, payload -> replayed.add(text(payload))));
+        assertEquals(List.of("one", "two"), replayed);
+    }
+
+    @Test
+    void stopsAtACorruptRecord() throws IOException {
+        Path file = dir.resolve("wal-0.log");
+        byte[] intact = records("one", "two");
+        byte[] corrupt = MappedLog.frame("three".getBytes(StandardCharsets.UTF_8));
+        corrupt[corrupt.length - 1] ^= 1;
+        write(file, intact, corrupt, records("four"));
+
+        List<String> replayed = new ArrayList<>();
+        assertEquals(intact.length, MappedLog.replay(file, payload -> replayed.add(text(payload))));
+        assertEquals(List.of("one", "two"), replayed);
+    }
+
+    @Test
+    void appendsOverATornTail() throws IOException {
+        Path file = dir.resolve("wal-0.log");
+        byte[] torn = MappedLog.frame("three".getBytes(StandardCharsets.UTF_8));
+        write(file, records("one", "two"), Arrays.copyOf(torn, 6));
+
+        long end = MappedLog.replay(file, payload -> {
+        });
+        try (MappedLog log = new MappedLog(file, end)) {
+            log.awaitDurable(log.append("four".getBytes(StandardCharsets.UTF_8)));
+        }
+        List<String> replayed = new ArrayList<>();
+        MappedLog.replay(file, payload -> replayed.add(text(payload)));
+        assertEquals(List.of("one", "two", "four"), replayed);
+    }
+
+    @Test
+    void replaysNothingFromAMissingFile() throws IOException {
+        assertEquals(0, MappedLog.replay(dir.resolve("wal-7.log"), payload -> {
+            throw new AssertionError("no records expected");
+        }));
+    }
+
+    private static byte[] records(String... payloads) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        for (String payload : payloads) {
+            bytes.writeBytes(MappedLog.frame(payload.getBytes(StandardCharsets.UTF_8)));
+        }
+        return bytes.toByteArray();
+    }
+
+    private static void write(Path file, byte[]... parts) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        for (byte[] part : parts) {
+            bytes.writeBytes(part);
+        }
+        Files.write(file, bytes.toByteArray());
+    }
+
+    private static String text(ByteBuffer payload) {
+        byte[] bytes = new byte[payload.remaining()];
+        payload.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,185 @@
+package scheduler.repository;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import scheduler.db.ShardRouter;
+import scheduler.embedded.EmbeddedRepository;
+import scheduler.repository.SchedulerRepository.Claim;
+import scheduler.repository.SchedulerRepository.Role;
+import scheduler.util.PasswordHasher;
+import scheduler.util.SlotBits;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.nio.file.Path;
+import java.sql.Date;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Three embedded stores stand in for the shard databases: shard 0 (the primary) owns dates before
+ * February 2030, shard 1 February and shard 2 everything from March on.
+ */
+class ShardedRepositoryTest {
+
+    private static final Date JANUARY = Date.valueOf("2030-01-15");
+    private static final Date FEBRUARY = Date.valueOf("2030-02-15");
+    private static final Date MARCH = Date.valueOf("2030-03-15");
+    private static final int NINE = SlotBits.parseTime("09:00");
+
+    @TempDir
+    Path dir;
+
+    private final List<SchedulerRepository> shards = new ArrayList<>();
+    // shard 2 fails its writes while this is set
+    private volatile boolean failShard2 = false;
+    private ShardedRepository repository;
+
+    @BeforeEach
+    void open() throws Exception {
+        for (int i = 0; i < 3; i++) {
+            shards.add(EmbeddedRepository.open(dir.resolve("shard" + i)));
+        }
+        ShardRouter router = new ShardRouter(List.of(LocalDate.parse("2030-02-01"), LocalDate.parse("2030-03-01")));
+        List<SchedulerRepository> standIns = new ArrayList<>(shards);
+        standIns.set(2, failing(shards.get(2)));
+        repository = new ShardedRepository(standIns, router);
+    }
+
+    @AfterEach
+    void close() throws SQLException {
+        repository.close();
+    }
+
+    @Test
+    void routesDatesToTheirShards() throws SQLException {
+        ShardRouter router = new ShardRouter(List.of(LocalDate.parse("2030-02-01"), LocalDate.parse("2030-03-01")));
+        assertEquals(0, router.shardOf(JANUARY));
+        assertEquals(1, router.shardOf(Date.valueOf("2030-02-01")));
+        assertEquals(1, router.shardOf(Date.valueOf("2030-02-28")));
+        assertEquals(2, router.shardOf(MARCH));
+
+        createCaregiver("carol");
+        for (SchedulerRepository shard : shards) {
+            assertTrue(shard.userExists(Role.CAREGIVER, "carol"));
+        }
+        repository.addAvailability(MARCH, "carol", SlotBits.WORKING_DAY);
+        assertTrue(shards.get(0).getAvailability(MARCH).isEmpty());
+        assertTrue(shards.get(1).getAvailability(MARCH).isEmpty());
+        assertEquals(SlotBits.WORKING_DAY, shards.get(2).getAvailability(MARCH).get("carol"));
+        assertEquals(SlotBits.WORKING_DAY, repository.getAvailability(MARCH).get("carol"));
+    }
+
+    @Test
+    void mergesAppointmentsFromAllShards() throws SQLException {
+        createCaregiver("carol");
+        createPatient("pat");
+        repository.createVaccine("pfizer", 10);
+        for (Date date : List.of(MARCH, JANUARY, FEBRUARY)) {
+            repository.addAvailability(date, "carol", SlotBits.WORKING_DAY);
+            Claim claim = repository.reserve("a-" + date, "pat", date, NINE, "pfizer", "carol", true, "key-" + date);
+            assertEquals(Claim.Status.CLAIMED, claim.getStatus());
+        }
+        assertEquals(7, repository.getDoses("pfizer"));
+
+        List<Appointment> page = new ArrayList<>();
+        assertEquals(2, repository.scanAppointments(Role.PATIENT, "pat", null, null, null, 2, page::add));
+        assertEquals(List.of(JANUARY, FEBRUARY), List.of(page.get(0).getDate(), page.get(1).getDate()));
+        List<Appointment> rest = new ArrayList<>();
+        repository.scanAppointments(Role.PATIENT, "pat", null, null, page.get(1), 10, rest::add);
+        assertEquals(1, rest.size());
+        assertEquals(MARCH, rest.get(0).getDate());
+
+        Appointment byKey = repository.getReservationByKey("pat", "key-" + FEBRUARY);
+        assertNotNull(byKey);
+        assertEquals("a-" + FEBRUARY, byKey.getAppointmentId());
+        assertEquals(3, repository.getAllAppointments().size());
+    }
+
+    @Test
+    void compensatesDosesTakenForOtherShards() throws SQLException {
+        createCaregiver("carol");
+        createPatient("pat");
+        repository.createVaccine("pfizer", 2);
+        for (int i = 1; i < shards.size(); i++) {
+            assertEquals(0, shards.get(i).getDoses("pfizer"));
+        }
+
+        // no availability in February: the dose taken on the primary is handed back
+        Claim claim = repository.reserve("a1", "pat", FEBRUARY, NINE, "pfizer", "carol", true, null);
+        assertEquals(Claim.Status.NO_SLOT, claim.getStatus());
+        assertEquals(2, repository.getDoses("pfizer"));
+
+        repository.addAvailability(FEBRUARY, "carol", SlotBits.WORKING_DAY);
+        claim = repository.reserve("a2", "pat", FEBRUARY, NINE, "pfizer", "carol", true, null);
+        assertEquals(Claim.Status.CLAIMED, claim.getStatus());
+        assertEquals(1, repository.getDoses("pfizer"));
+        assertEquals(0, shards.get(1).getDoses("pfizer"));
+
+        // the appointment is on shard 1, its dose goes back to the primary
+        assertNotNull(repository.cancel("a2", Role.PATIENT, "pat", true));
+        assertEquals(2, repository.getDoses("pfizer"));
+        assertNull(repository.cancel("a2", Role.PATIENT, "pat", true));
+        assertEquals(2, repository.getDoses("pfizer"));
+    }
+
+    @Test
+    void retriesReplicationThatFailedHalfway() throws SQLException {
+        failShard2 = true;
+        assertThrows(SQLException.class, () -> createPatient("pat"));
+        assertThrows(SQLException.class, () -> repository.addOrCreateDoses(Map.of("pfizer", 5)));
+        // the primary is written last, so the failed writes never happened as far as reads go
+        assertFalse(repository.userExists(Role.PATIENT, "pat"));
+        assertTrue(shards.get(1).userExists(Role.PATIENT, "pat"));
+        assertEquals(-1, repository.getDoses("pfizer"));
+
+        failShard2 = false;
+        createPatient("pat");
+        repository.addOrCreateDoses(Map.of("pfizer", 5));
+        for (SchedulerRepository shard : shards) {
+            assertTrue(shard.userExists(Role.PATIENT, "pat"));
+        }
+        assertEquals(5, repository.getDoses("pfizer"));
+        assertEquals(0, shards.get(2).getDoses("pfizer"));
+    }
+
+    private void createPatient(String username) throws SQLException {
+        repository.createUser(Role.PATIENT, user(username));
+    }
+
+    private void createCaregiver(String username) throws SQLException {
+        repository.createUser(Role.CAREGIVER, user(username));
+    }
+
+    private static UserRecord user(String username) {
+        return new UserRecord(username, new byte[16], new byte[16], PasswordHasher.Params.LEGACY);
+    }
+
+    // a stand-in whose writes of users and vaccines fail while failShard2 is set
+    private SchedulerRepository failing(SchedulerRepository shard) {
+        return (SchedulerRepository) Proxy.newProxyInstance(getClass().getClassLoader(),
+                new Class<?>[]{SchedulerRepository.class}, (proxy, method, args) -> {
+                    String name = method.getName();
+                    if (failShard2 && (name.startsWith("create") || name.equals("addOrCreateDoses"))) {
+                        throw new SQLException("Shard 2 is down");
+                    }
+                    try {
+                        return method.invoke(shard, args);
+                    } catch (InvocationTargetException e) {
+                        throw e.getCause();
+                    }
+                });
+    }
+}
@@ -0,0 +1,145 @@
+package scheduler.service;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import scheduler.embedded.EmbeddedRepository;
+import scheduler.repository.Repositories;
+import scheduler.repository.SchedulerRepository;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.nio.file.Path;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * An embedded store stands in for the Vaccines table, installed as the process-wide repository.
+ */
+class DoseLedgerTest {
+
+    // long enough that the background flusher never runs during a test
+    private static final long NO_FLUSH = 3_600_000;
+
+    @TempDir
+    Path dir;
+
+    private EmbeddedRepository repository;
+    // the stand-in's applyDoseDeltas fails while this is set
+    private volatile boolean failFlush = false;
+    private DoseLedger ledger;
+
+    @BeforeEach
+    void open() throws Exception {
+        repository = EmbeddedRepository.open(dir);
+        repository.createVaccine("pfizer", 10);
+        Repositories.set(failing(repository));
+        ledger = new DoseLedger();
+        ledger.start(NO_FLUSH);
+    }
+
+    @AfterEach
+    void close() throws SQLException {
+        ledger.stop();
+        Repositories.set(null);
+        repository.close();
+    }
+
+    @Test
+    void reservesOnlyWhatIsAvailable() throws SQLException {
+        assertTrue(ledger.contains("pfizer"));
+        assertEquals(-1, ledger.getAvailable("moderna"));
+        assertFalse(ledger.tryReserve("moderna", 1));
+        assertTrue(ledger.tryReserve("pfizer", 4));
+        assertFalse(ledger.tryReserve("pfizer", 7));
+        assertEquals(6, ledger.getAvailable("pfizer"));
+        assertThrows(IllegalArgumentException.class, () -> ledger.add("moderna", 1));
+
+        // nothing reaches the table before a flush
+        assertEquals(10, repository.getDoses("pfizer"));
+        ledger.flush();
+        assertEquals(6, repository.getDoses("pfizer"));
+    }
+
+    @Test
+    void writesTheNetDeltaOnFlush() throws SQLException {
+        ledger.tryReserve("pfizer", 3);
+        ledger.add("pfizer", 5);
+        ledger.release("pfizer", 1);
+        assertEquals(13, ledger.getAvailable("pfizer"));
+        ledger.flush();
+        assertEquals(13, repository.getDoses("pfizer"));
+        // a second flush has nothing left to write
+        ledger.flush();
+        assertEquals(13, repository.getDoses("pfizer"));
+    }
+
+    @Test
+    void keepsTheDeltaWhenAFlushFails() throws SQLException {
+        ledger.tryReserve("pfizer", 2);
+        failFlush = true;
+        assertThrows(SQLException.class, ledger::flush);
+        // reconciled with the table, with the unwritten delta still applied
+        assertEquals(8, ledger.getAvailable("pfizer"));
+        assertEquals(10, repository.getDoses("pfizer"));
+
+        failFlush = false;
+        ledger.flush();
+        assertEquals(8, repository.getDoses("pfizer"));
+        assertEquals(8, ledger.getAvailable("pfizer"));
+    }
+
+    @Test
+    void neverOversellsUnderContention() throws Exception {
+        AtomicInteger taken = new AtomicInteger();
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < 8; i++) {
+            Thread thread = new Thread(() -> {
+                for (int k = 0; k < 100; k++) {
+                    if (ledger.tryReserve("pfizer", 1)) {
+                        taken.incrementAndGet();
+                    }
+                }
+            });
+            threads.add(thread);
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(10, taken.get());
+        assertEquals(0, ledger.getAvailable("pfizer"));
+        ledger.flush();
+        assertEquals(0, repository.getDoses("pfizer"));
+    }
+
+    @Test
+    void registersVaccinesCreatedAfterLoading() {
+        ledger.register("moderna", 4);
+        ledger.register("moderna", 9);
+        assertEquals(4, ledger.getAvailable("moderna"));
+        assertTrue(ledger.tryReserve("moderna", 4));
+    }
+
+    private SchedulerRepository failing(SchedulerRepository target) {
+        return (SchedulerRepository) Proxy.newProxyInstance(getClass().getClassLoader(),
+                new Class<?>[]{SchedulerRepository.class}, (proxy, method, args) -> {
+                    if (failFlush && method.getName().equals("applyDoseDeltas")) {
+                        throw new SQLException("Vaccines is locked");
+                    }
+                    try {
+                        return method.invoke(target, args);
+                    } catch (InvocationTargetException e) {
+                        throw e.getCause();
+                    }
+                });
+    }
+}
@@ -0,0 +1,83 @@
+package scheduler.service;
+
+import org.junit.jupiter.api.Test;
+import scheduler.service.ReservationEngine.Outcome;
+import scheduler.service.ReservationEngine.Reservation;
+
+import java.sql.Date;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+class ReservationDedupeTest {
+
+    private static final long HOUR = 3_600_000;
+
+    @Test
+    void returnsTheReservationMadeWithTheKey() {
+        ReservationDedupe dedupe = new ReservationDedupe(10, HOUR);
+        Reservation reservation = reservation("a1", "pat");
+        dedupe.put("key", reservation, false);
+        assertSame(reservation, dedupe.get("pat", "key"));
+        assertNull(dedupe.get("pat", "other"));
+        // keys are per patient
+        assertNull(dedupe.get("sam", "key"));
+    }
+
+    @Test
+    void evictsTheLeastRecentlyUsed() {
+        ReservationDedupe dedupe = new ReservationDedupe(2, HOUR);
+        dedupe.put("k1", reservation("a1", "pat"), false);
+        dedupe.put("k2", reservation("a2", "pat"), false);
+        // touching k1 makes k2 the eldest
+        dedupe.get("pat", "k1");
+        dedupe.put("k3", reservation("a3", "pat"), false);
+        assertEquals(2, dedupe.size());
+        assertNull(dedupe.get("pat", "k2"));
+        assertEquals("a1", dedupe.get("pat", "k1").getAppointmentId());
+        assertEquals("a3", dedupe.get("pat", "k3").getAppointmentId());
+
+        // an evicted appointment is no longer indexed, so forgetting it leaves the others alone
+        dedupe.forget(List.of("a2"));
+        assertEquals(2, dedupe.size());
+    }
+
+    @Test
+    void dropsEntriesOlderThanTheTtl() throws InterruptedException {
+        ReservationDedupe dedupe = new ReservationDedupe(10, 1);
+        dedupe.put("key", reservation("a1", "pat"), false);
+        Thread.sleep(5);
+        assertNull(dedupe.get("pat", "key"));
+        assertEquals(0, dedupe.size());
+    }
+
+    @Test
+    void forgetsCancelledAppointments() {
+        ReservationDedupe dedupe = new ReservationDedupe(10, HOUR);
+        dedupe.put("k1", reservation("a1", "pat"), false);
+        dedupe.put("k2", reservation("a2", "pat"), true);
+        dedupe.forget(List.of("a1", "unknown"));
+        assertNull(dedupe.get("pat", "k1"));
+        assertEquals("a2", dedupe.get("pat", "k2").getAppointmentId());
+
+        // the key can be used again once its appointment is gone
+        dedupe.put("k1", reservation("a3", "pat"), false);
+        assertEquals("a3", dedupe.get("pat", "k1").getAppointmentId());
+        dedupe.forget(List.of("a1"));
+        assertEquals(2, dedupe.size());
+    }
+
+    @Test
+    void cachesNothingWithoutCapacity() {
+        ReservationDedupe dedupe = new ReservationDedupe(0, HOUR);
+        dedupe.put("key", reservation("a1", "pat"), false);
+        assertNull(dedupe.get("pat", "key"));
+    }
+
+    private static Reservation reservation(String appointmentId, String patient) {
+        return new Reservation(Outcome.RESERVED, appointmentId, "carol", patient, "pfizer",
+                Date.valueOf("2030-01-15"), 36);
+    }
+}
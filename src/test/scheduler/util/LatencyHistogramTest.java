@@ -0,0 +1,62 @@
+package scheduler.util;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class LatencyHistogramTest {
+
+    @Test
+    void reportsZeroWhenEmpty() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        assertEquals(0, histogram.getPercentileNanos(0.5));
+        assertEquals(0, histogram.getMeanNanos());
+        assertEquals(0, histogram.getCount());
+    }
+
+    @Test
+    void keepsSmallValuesExact() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (long value = 0; value < 32; value++) {
+            histogram.record(value);
+        }
+        assertEquals(15, histogram.getPercentileNanos(0.5));
+        assertEquals(31, histogram.getPercentileNanos(1));
+        assertEquals(0, histogram.getPercentileNanos(0));
+    }
+
+    @Test
+    void reportsPercentilesWithinTheBucketError() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (long millis = 1; millis <= 1000; millis++) {
+            histogram.record(millis * 1_000_000);
+        }
+        assertWithin(500_000_000, histogram.getPercentileNanos(0.5));
+        assertWithin(990_000_000, histogram.getPercentileNanos(0.99));
+        assertWithin(999_000_000, histogram.getPercentileNanos(0.999));
+        // the top bucket is capped at the largest value recorded
+        assertEquals(1_000_000_000, histogram.getPercentileNanos(1));
+        assertEquals(1_000_000_000, histogram.getMaxNanos());
+        assertEquals(500_500_000, histogram.getMeanNanos(), 1);
+    }
+
+    @Test
+    void clampsNegativeDurationsAndResets() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(-5);
+        histogram.record(Long.MAX_VALUE);
+        assertEquals(0, histogram.getPercentileNanos(0.5));
+        assertEquals(Long.MAX_VALUE, histogram.getPercentileNanos(1));
+        histogram.reset();
+        assertEquals(0, histogram.getCount());
+        assertEquals(0, histogram.getMaxNanos());
+        assertEquals(0, histogram.getPercentileNanos(1));
+    }
+
+    // a percentile is a bucket's upper bound: never below the value, and at most one sixteenth above
+    private static void assertWithin(long expected, long actual) {
+        assertTrue(actual >= expected && actual <= expected + expected / 16,
+                "expected about " + expected + " but was " + actual);
+    }
+}
@@ -0,0 +1,70 @@
+package scheduler.util;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class SlotBitsTest {
+
+    @Test
+    void rangesSpanBothWords() {
+        // 15:00 is slot 60, 17:00 slot 68: the range crosses from the low word into the high one
+        SlotBits slots = SlotBits.range(60, 68);
+        assertEquals(8, slots.count());
+        assertTrue(slots.contains(63));
+        assertTrue(slots.contains(64));
+        assertFalse(slots.contains(59));
+        assertFalse(slots.contains(68));
+        assertEquals(SlotBits.range(60, 64).or(SlotBits.range(64, 68)), slots);
+        assertEquals(SlotBits.SLOTS_PER_DAY, SlotBits.ALL.count());
+        assertTrue(SlotBits.range(10, 10).isEmpty());
+    }
+
+    @Test
+    void roundTripsThroughTheColumns() {
+        SlotBits slots = SlotBits.parse("00:00-00:15,15:45-16:15,23:45-24:00");
+        SlotBits stored = SlotBits.of(slots.getLow(), slots.getHigh());
+        assertEquals(slots, stored);
+        assertEquals(slots.hashCode(), stored.hashCode());
+        assertTrue(stored.contains(SlotBits.SLOTS_PER_DAY - 1));
+    }
+
+    @Test
+    void parsesAndFormatsRanges() {
+        SlotBits slots = SlotBits.parse("09:00-12:00, 13:00-17:00");
+        assertEquals("09:00-12:00,13:00-17:00", slots.toString());
+        assertEquals(28, slots.count());
+        assertEquals("00:00-24:00", SlotBits.ALL.toString());
+        assertEquals("", SlotBits.NONE.toString());
+        assertEquals("09:00-17:00", SlotBits.WORKING_DAY.toString());
+        assertEquals(SlotBits.parse("09:00-10:00"), SlotBits.parse("09:00-09:30,09:30-10:00"));
+    }
+
+    @Test
+    void rejectsInvalidTimes() {
+        assertThrows(IllegalArgumentException.class, () -> SlotBits.parseTime("09:10"));
+        assertThrows(IllegalArgumentException.class, () -> SlotBits.parseTime("24:00"));
+        assertThrows(IllegalArgumentException.class, () -> SlotBits.parseTime("9:0"));
+        assertThrows(IllegalArgumentException.class, () -> SlotBits.parse("12:00-09:00"));
+        assertThrows(IllegalArgumentException.class, () -> SlotBits.parse("09:00"));
+        assertThrows(IllegalArgumentException.class, () -> SlotBits.single(SlotBits.SLOTS_PER_DAY));
+        assertEquals(37, SlotBits.parseTime("9:15"));
+        assertEquals("24:00", SlotBits.formatTime(SlotBits.SLOTS_PER_DAY));
+    }
+
+    @Test
+    void findsTheNextFreeSlot() {
+        SlotBits slots = SlotBits.single(3).with(64).with(95);
+        assertEquals(3, slots.first());
+        assertEquals(3, slots.next(3));
+        assertEquals(64, slots.next(4));
+        assertEquals(95, slots.next(65));
+        assertEquals(-1, slots.next(96));
+        assertEquals(-1, slots.without(3).without(64).without(95).first());
+        assertEquals(SlotBits.single(64), slots.and(SlotBits.range(40, 80)));
+        assertEquals(SlotBits.single(3).with(95), slots.andNot(SlotBits.range(40, 80)));
+    }
+}